@@ -0,0 +1,144 @@
+package com.crm.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Porównanie wyniku JMH (-rf json) z zapisaną bazą; tabela markdown na stdout i do jmh-report.md obok wyniku.
+ *
+ * Argumenty: wynik.json baza.json [próg w %] [true - zapisz wynik jako nową bazę].
+ * Regresja to pogorszenie o więcej niż próg, przy którym przedziały score±error się nie nakładają -
+ * sam szum między przebiegami nie zatrzymuje builda. Brak bazy - wynik zostaje zapisany jako baza.
+ */
+public final class BaselineReport {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private BaselineReport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: BaselineReport <result.json> <baseline.json> [thresholdPercent] [update]");
+        }
+        Path resultPath = Path.of(args[0]);
+        Path baselinePath = Path.of(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        boolean update = args.length > 3 && Boolean.parseBoolean(args[3]);
+
+        if (!Files.exists(resultPath)) {
+            throw new IllegalStateException("Brak wyniku JMH: " + resultPath + " - uruchom najpierw exec:exec");
+        }
+        Map<String, Score> current = read(resultPath);
+
+        if (!Files.exists(baselinePath) || update) {
+            Files.createDirectories(baselinePath.toAbsolutePath().getParent());
+            Files.copy(resultPath, baselinePath, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Zapisano bazę " + baselinePath + " (" + current.size() + " benchmarków)");
+            return;
+        }
+        Map<String, Score> baseline = read(baselinePath);
+
+        StringBuilder report = new StringBuilder()
+                .append("| Benchmark | Mode | Baseline | Current | Change | Status |\n")
+                .append("|---|---|---:|---:|---:|---|\n");
+        List<String> regressions = new ArrayList<>();
+
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            String key = entry.getKey();
+            Score now = entry.getValue();
+            Score base = baseline.get(key);
+            if (base == null || !base.mode.equals(now.mode)) {
+                report.append(row(key, now.mode, "-", now.format(), "-", "new"));
+                continue;
+            }
+
+            // Zmiana ze znakiem "na lepsze": dla thrpt więcej = lepiej, dla avgt/sample/ss mniej = lepiej
+            double change = base.score == 0 ? 0 : (now.score - base.score) / base.score * 100;
+            double improvement = now.higherIsBetter() ? change : -change;
+            boolean overlap = Math.abs(now.score - base.score) <= now.error + base.error;
+
+            String status;
+            if (improvement < -threshold && !overlap) {
+                status = "REGRESSION";
+                regressions.add(key);
+            } else if (improvement > threshold && !overlap) {
+                status = "improved";
+            } else {
+                status = "ok";
+            }
+            report.append(row(key, now.mode, base.format(), now.format(),
+                    String.format(Locale.ROOT, "%+.1f%%", change), status));
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                report.append(row(key, baseline.get(key).mode, baseline.get(key).format(), "-", "-", "missing"));
+            }
+        }
+
+        Path reportPath = resultPath.toAbsolutePath().resolveSibling("jmh-report.md");
+        Files.writeString(reportPath, report, StandardCharsets.UTF_8);
+        System.out.println(report);
+        System.out.println("Raport: " + reportPath);
+
+        if (!regressions.isEmpty()) {
+            throw new IllegalStateException("Regresja wydajności (próg " + threshold + "%): " + String.join(", ", regressions));
+        }
+    }
+
+    /**
+     * Wyniki z pliku JMH po kluczu benchmark + parametry
+     */
+    private static Map<String, Score> read(Path path) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode run : MAPPER.readTree(path.toFile())) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+            JsonNode params = run.path("params");
+            if (params.isObject()) {
+                List<String> values = new ArrayList<>();
+                Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    values.add(field.getKey() + "=" + field.getValue().asText());
+                }
+                key.append(values);
+            }
+            JsonNode metric = run.path("primaryMetric");
+            double error = metric.path("scoreError").asDouble(0);
+            scores.put(key.toString(), new Score(
+                    run.path("mode").asText(),
+                    metric.path("score").asDouble(),
+                    Double.isNaN(error) ? 0 : error,
+                    metric.path("scoreUnit").asText()));
+        }
+        return scores;
+    }
+
+    private static String row(String key, String mode, String baseline, String current, String change, String status) {
+        String name = key.startsWith("com.crm.") ? key.substring("com.crm.".length()) : key;
+        return "| " + name + " | " + mode + " | " + baseline + " | " + current + " | " + change + " | " + status + " |\n";
+    }
+
+    private record Score(String mode, double score, double error, String unit) {
+
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+
+        String format() {
+            return String.format(Locale.ROOT, "%.3f ± %.3f %s", score, error, unit);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.crm.benchmark;
+
+import com.crm.model.Tag;
+import com.crm.service.ContactTagWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Masowe dodanie tagu do 100k kontaktów w jednej transakcji, razem ze zdarzeniami TAG_ADDED.
+ * legacy* - pętla z TagService sprzed ContactTagWriter: SELECT kontaktu, załadowanie jego tagów,
+ * INSERT do contact_tags i INSERT zdarzenia workflow na każdy kontakt,
+ * setBased* - ContactTagWriter.addTag (jedno zapytanie z CTE).
+ *
+ * Wymaga bazy po migracjach Flyway (np. lokalnej deweloperskiej):
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="BulkTagAssignment -f 1 -wi 1 -i 3
+ * -jvmArgs -Dbenchmark.jdbc.url=jdbc:postgresql://localhost:5432/crm_db -jvmArgs -Dbenchmark.jdbc.user=..."
+ * Kontakty benchmarku (bench-tag-N@example.invalid) i tag są tworzone raz i zostają w bazie;
+ * przed każdym pomiarem tag i jego zdarzenia są czyszczone.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class BulkTagAssignmentBenchmark {
+
+    private static final String TAG_NAME = "benchmark-bulk-tag";
+    private static final String EMAIL_PATTERN = "bench-tag-%@example.invalid";
+
+    @Param({"100000"})
+    private int contacts;
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private ContactTagWriter writer;
+    private Tag tag;
+    private Set<Long> contactIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String url = System.getProperty("benchmark.jdbc.url");
+        if (url == null) {
+            throw new IllegalStateException("Set -Dbenchmark.jdbc.url (and benchmark.jdbc.user/password) to a migrated CRM database");
+        }
+        DriverManagerDataSource target = new DriverManagerDataSource(url,
+                System.getProperty("benchmark.jdbc.user", "postgres"),
+                System.getProperty("benchmark.jdbc.password", "postgres"));
+        try {
+            dataSource = new SingleConnectionDataSource(target.getConnection(), true);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot connect to " + url, e);
+        }
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        writer = new ContactTagWriter(jdbcTemplate);
+
+        jdbcTemplate.update("INSERT INTO tags (name, color) VALUES (?, '#6b7280') ON CONFLICT (name) DO NOTHING", TAG_NAME);
+        tag = new Tag();
+        tag.setId(jdbcTemplate.queryForObject("SELECT id FROM tags WHERE name = ?", Long.class, TAG_NAME));
+        tag.setName(TAG_NAME);
+
+        jdbcTemplate.update(
+                "INSERT INTO contacts (email, name, company, phone, email_count, meeting_count, deal_count, score, created_at, updated_at) " +
+                "SELECT 'bench-tag-' || n || '@example.invalid', 'Bench Contact ' || n, 'Bench', '', 0, 0, 0, 0, " +
+                "CURRENT_TIMESTAMP, CURRENT_TIMESTAMP FROM generate_series(1, ?) AS n " +
+                "ON CONFLICT (email) DO NOTHING", contacts);
+        contactIds = Set.copyOf(jdbcTemplate.queryForList(
+                "SELECT id FROM contacts WHERE email LIKE ? ORDER BY id LIMIT ?", Long.class, EMAIL_PATTERN, contacts));
+    }
+
+    @Setup(Level.Invocation)
+    public void clearTag() {
+        jdbcTemplate.update("DELETE FROM contact_tags WHERE tag_id = ?", tag.getId());
+        jdbcTemplate.update("DELETE FROM workflow_events WHERE trigger_type = 'TAG_ADDED' " +
+                "AND trigger_data ->> 'tagId' = CAST(? AS text)", tag.getId());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clearTag();
+        dataSource.destroy();
+    }
+
+    @Benchmark
+    public void legacyPerContact(Blackhole bh) {
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Long contactId : contactIds) {
+                // findById + leniwe załadowanie contact.getTags()
+                bh.consume(jdbcTemplate.queryForMap("SELECT * FROM contacts WHERE id = ?", contactId));
+                List<Long> tagIds = jdbcTemplate.queryForList(
+                        "SELECT tag_id FROM contact_tags WHERE contact_id = ?", Long.class, contactId);
+                if (tagIds.contains(tag.getId())) {
+                    continue;
+                }
+                // saveAndFlush - wstawienie wiersza kolekcji tags
+                jdbcTemplate.update("INSERT INTO contact_tags (contact_id, tag_id) VALUES (?, ?)", contactId, tag.getId());
+                // handleTagAdded -> enqueueEvent
+                jdbcTemplate.update("INSERT INTO workflow_events (trigger_type, contact_id, trigger_data, status, attempts, " +
+                        "next_attempt_at, created_at) VALUES ('TAG_ADDED', ?, CAST(? AS jsonb), 'PENDING', 0, " +
+                        "CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)",
+                        contactId, "{\"contactId\":" + contactId + ",\"tagId\":" + tag.getId() + ",\"tagName\":\"" + TAG_NAME + "\"}");
+            }
+        });
+    }
+
+    @Benchmark
+    public void setBasedWriter(Blackhole bh) {
+        bh.consume(transactionTemplate.execute(status -> writer.addTag(tag, contactIds)));
+    }
+}
@@ -0,0 +1,66 @@
+package com.crm.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Korpusy benchmarków z src/jmh/resources/corpus - pliki tekstowe w repozytorium, żeby każdy przebieg
+ * (lokalnie i na maszynie referencyjnej) mierzył te same dane.
+ *
+ * Format: wpisy rozdzielone linią "=====", linie zaczynające się od "#" to komentarze.
+ */
+public final class Corpus {
+
+    public static final String SEPARATOR = "=====";
+
+    private Corpus() {
+    }
+
+    /**
+     * Wpisy korpusu (bez komentarzy, obcięte z pustych linii na brzegach)
+     */
+    public static String[] entries(String resource) {
+        List<String> result = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : read(resource).split("\\r?\\n")) {
+            if (line.startsWith("#")) {
+                continue;
+            }
+            if (line.equals(SEPARATOR)) {
+                result.add(current.toString().trim());
+                current.setLength(0);
+            } else {
+                current.append(line).append('\n');
+            }
+        }
+        if (!current.toString().isBlank()) {
+            result.add(current.toString().trim());
+        }
+        return result.toArray(String[]::new);
+    }
+
+    /**
+     * Niepuste linie korpusu bez komentarzy - jeden wpis na linię
+     */
+    public static String[] lines(String resource) {
+        return Arrays.stream(read(resource).split("\\r?\\n"))
+                .filter(line -> !line.isBlank() && !line.startsWith("#"))
+                .toArray(String[]::new);
+    }
+
+    private static String read(String resource) {
+        try (InputStream in = Corpus.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing benchmark corpus " + resource);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.crm.benchmark;
+
+import com.crm.security.AuthenticatedPrincipalCache;
+import com.crm.security.JwtTokenProvider;
+import com.crm.security.UserPrincipal;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Koszt uwierzytelnienia jednego żądania w JwtAuthenticationFilter.
+ * legacy* - validateToken + getUsername (dwa parsowania z weryfikacją HMAC) + loadUserByUsername,
+ * cached* - AuthenticatedPrincipalCache przy trafieniu w cache.
+ *
+ * UserDetailsService jest tu w pamięci - w aplikacji ścieżka legacy dokłada do wyniku
+ * zapytanie do bazy (findByUsername) na każde żądanie, ścieżka cached nie.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtAuthenticationBenchmark {
+
+    private JwtTokenProvider tokenProvider;
+    private UserDetailsService userDetailsService;
+    private AuthenticatedPrincipalCache principalCache;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        tokenProvider = new JwtTokenProvider();
+        byte[] secret = new byte[64];
+        for (int i = 0; i < secret.length; i++) {
+            secret[i] = (byte) (i * 31 + 7);
+        }
+        ReflectionTestUtils.setField(tokenProvider, "jwtSecret", Base64.getEncoder().encodeToString(secret));
+        ReflectionTestUtils.setField(tokenProvider, "jwtExpirationDate", TimeUnit.DAYS.toMillis(30));
+
+        userDetailsService = username -> new UserPrincipal(1L, username, "$2a$10$hash", "ADMIN", true);
+        principalCache = new AuthenticatedPrincipalCache(tokenProvider, userDetailsService, 60);
+        token = tokenProvider.generateToken(new UsernamePasswordAuthenticationToken("admin", null));
+
+        // Pierwsze żądanie ładuje principal - mierzymy kolejne
+        principalCache.resolve(token);
+    }
+
+    @Benchmark
+    public void legacyValidateAndLoad(Blackhole bh) {
+        if (tokenProvider.validateToken(token)) {
+            String username = tokenProvider.getUsername(token);
+            UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+            bh.consume(userDetails.getAuthorities());
+        }
+    }
+
+    @Benchmark
+    public void cachedPrincipal(Blackhole bh) {
+        UserDetails userDetails = principalCache.resolve(token);
+        bh.consume(userDetails.getAuthorities());
+    }
+}
@@ -0,0 +1,504 @@
+package com.crm.benchmark;
+
+import com.crm.service.SignatureExtractor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Wyciąganie pól ze stopki (imię, telefon, stanowisko, firma) na korpusie maili z corpus/signatures.txt.
+ * legacy* - metody ContactAutoCreationService sprzed SignatureExtractor (kompilacja wzorców i regexy
+ * wykluczeń przy każdym wywołaniu, cztery osobne przejścia po całej treści razem z cytatem),
+ * compiled* - SignatureExtractor.extract.
+ *
+ * Jedna operacja = jeden mail z korpusu, wynik w mailach na sekundę.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureExtractionBenchmark {
+
+    private static final String CORPUS = "/corpus/signatures.txt";
+
+    private String[] emails;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        emails = Corpus.entries(CORPUS);
+    }
+
+    @Benchmark
+    public void legacyExtract(Blackhole bh) {
+        String text = nextEmail();
+        bh.consume(LegacySignatureParser.extractPhoneFromSignature(text));
+        bh.consume(LegacySignatureParser.extractPositionFromSignature(text));
+        bh.consume(LegacySignatureParser.extractNameFromContent(text));
+        bh.consume(LegacySignatureParser.extractBetterCompany(null, text));
+    }
+
+    @Benchmark
+    public void compiledExtract(Blackhole bh) {
+        bh.consume(SignatureExtractor.extract(nextEmail()));
+    }
+
+    private String nextEmail() {
+        String text = emails[cursor];
+        cursor = (cursor + 1) % emails.length;
+        return text;
+    }
+
+    /**
+     * Kopia metod z ContactAutoCreationService sprzed wprowadzenia SignatureExtractor - punkt odniesienia
+     */
+    static final class LegacySignatureParser {
+
+        /**
+         * Capitalize każdego słowa
+         */
+        static String capitalizeWords(String str) {
+            if (str == null || str.isEmpty()) return str;
+
+            String[] words = str.split("\\s+");
+            StringBuilder result = new StringBuilder();
+
+            for (String word : words) {
+                if (word.length() > 0) {
+                    result.append(Character.toUpperCase(word.charAt(0)))
+                          .append(word.substring(1).toLowerCase())
+                          .append(" ");
+                }
+            }
+
+            return result.toString().trim();
+        }
+
+        /**
+         * Wyciąga numer telefonu ze stopki
+         * Szuka formatów: +48 123 456 789, (123) 456-7890, 123-456-789, 601 089 273, itp.
+         */
+        static String extractPhoneFromSignature(String text) {
+            if (text == null) return null;
+
+            // Różne wzorce telefonów - polskie numery 9 cyfr (np. 601 089 273)
+            String[] patterns = {
+                "\\+?48[\\s.-]?\\d{1}[\\s.-]?\\d{3}[\\s.-]?\\d{3}[\\s.-]?\\d{3}",  // +48 601 089 273 lub +48-601-089-273
+                "\\d{3}[\\s.-]?\\d{3}[\\s.-]?\\d{3}",  // 601 089 273 lub 601-089-273 (polskie 9 cyfr)
+                "\\+?\\d{1,3}[\\s.-]?\\(?\\d{2,3}\\)?[\\s.-]?\\d{3}[\\s.-]?\\d{3,4}",  // +48 123 456 789 (ogólny)
+                "\\(\\d{3}\\)[\\s.-]?\\d{3}[\\s.-]?\\d{4}",  // (123) 456-7890
+                "\\d{3}[\\s.-]\\d{3}[\\s.-]\\d{3,4}",  // 123-456-789
+                "tel\\.?:?\\s*\\+?[\\d\\s\\(\\)\\-\\.]{9,}"  // Tel: +48 123 456 789
+            };
+
+            Pattern combinedPattern = Pattern.compile(
+                String.join("|", patterns),
+                Pattern.CASE_INSENSITIVE
+            );
+
+            Matcher matcher = combinedPattern.matcher(text);
+            while (matcher.find()) {
+                String phone = matcher.group().trim();
+                // Filtruj - numer telefonu powinien mieć co najmniej 9 cyfr
+                String digitsOnly = phone.replaceAll("[^0-9]", "");
+                if (digitsOnly.length() >= 9 && digitsOnly.length() <= 15) {
+                    return phone;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Wyciąga stanowisko ze stopki
+         * Szuka typowych słów: Manager, Director, CEO, Developer, itp.
+         */
+        static String extractPositionFromSignature(String text) {
+            if (text == null) return null;
+
+            text = text.toLowerCase();
+
+            // Typowe stanowiska
+            String[] positions = {
+                "ceo", "cto", "cfo", "director", "manager", "specialist",
+                "coordinator", "developer", "engineer", "analyst", "consultant",
+                "dyrektor", "kierownik", "specjalista", "koordynator",
+                "programista", "inżynier", "analityk", "konsultant",
+                "prezes", "wiceprezes", "founder", "co-founder"
+            };
+
+            for (String position : positions) {
+                if (text.contains(position)) {
+                    // Znajdź kontekst wokół stanowiska (np. "Senior Developer")
+                    int index = text.indexOf(position);
+                    int start = Math.max(0, index - 20);
+                    int end = Math.min(text.length(), index + position.length() + 20);
+
+                    String context = text.substring(start, end);
+
+                    // Wyczyść i zwróć
+                    String[] words = context.split("[\\n\\r,|]");
+                    for (String word : words) {
+                        if (word.contains(position)) {
+                            return capitalizeWords(word.trim());
+                        }
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Wyciąga nazwę z treści emaila (np. "Wiktor Grzesiak" w treści)
+         * Szuka w stopce emailowej, często przed stanowiskiem lub telefonem
+         */
+        static String extractNameFromContent(String text) {
+            if (text == null || text.isEmpty()) return null;
+
+            // Lista typowych słów które nie są imionami
+            String[] excludeWords = {
+                "firma", "data", "od", "do", "temat", "subject", "date", "pozdrawiam", "regards",
+                "dajano", "logistyka", "dyrektor", "sprzedaży", "telefon", "phone", "tel", "email",
+                "adres", "address", "www", "http", "https", "com", "pl", "eu", "org",
+                "crm", "jestem", "jest", "mam", "będę", "chcę", "chciałbym", "proszę", "dzień",
+                "dobry", "witam", "witaj", "hej", "cześć", "dziękuję", "dziękuje", "dzięki",
+                "mail", "message", "wiadomość", "wiadomości", "treść", "content"
+            };
+
+            // Lista słów które mogą być na początku nazwy i powinny być usunięte
+            String[] prefixWords = {
+                "chętnie", "tak", "nie", "oczywiście", "z", "od", "do", "w", "na", "po", "przed",
+                "wielkie", "dziekuję", "dziękuję", "pozdrawiam", "regards", "best", "sincerely",
+                "serdecznie", "bardzo", "zawsze", "nigdy", "teraz", "wtedy", "dziś", "jutro",
+                "zawsze", "często", "rzadko", "wielkie", "małe", "duże"
+            };
+
+            // Szukaj wzorców typu "Imię Nazwisko" - 2-3 słowa zaczynające się od wielkiej litery
+            // Często występuje przed stanowiskiem (np. "Dyrektor") lub telefonem
+            Pattern namePattern = Pattern.compile(
+                "\\b([A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó]+(?:\\s+[A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó]+){1,2})\\b",
+                Pattern.MULTILINE
+            );
+
+            // Szukaj w ostatnich 500 znakach (stopka emailowa)
+            String end = text.length() > 500 ? text.substring(text.length() - 500) : text;
+
+            Matcher matcher = namePattern.matcher(end);
+            while (matcher.find()) {
+                String name = matcher.group(1).trim();
+
+                // Sprawdź czy to nie jest wykluczone słowo - dokładne dopasowanie lub jako słowo
+                boolean isExcluded = false;
+                String nameLower = name.toLowerCase().trim();
+                for (String exclude : excludeWords) {
+                    // Sprawdź dokładne dopasowanie lub czy jest to słowo graniczne
+                    if (nameLower.equals(exclude) ||
+                        nameLower.matches(".*\\b" + Pattern.quote(exclude) + "\\b.*")) {
+                        isExcluded = true;
+                        break;
+                    }
+                }
+
+                if (!isExcluded) {
+                    // Usuń niechciane prefiksy z nazwy
+                    String cleanName = name;
+                    nameLower = cleanName.toLowerCase();
+
+                    // Usuń prefiksy (może być kilka) - sprawdź ze spacją i bez spacji
+                    boolean changed = true;
+                    while (changed) {
+                        changed = false;
+                        for (String prefix : prefixWords) {
+                            String prefixLower = prefix.toLowerCase();
+                            // Sprawdź prefiks ze spacją
+                            if (nameLower.startsWith(prefixLower + " ")) {
+                                cleanName = cleanName.substring(prefix.length()).trim();
+                                nameLower = cleanName.toLowerCase();
+                                changed = true;
+                            }
+                            // Sprawdź prefiks bez spacji (np. "chętnieWiktor")
+                            else if (nameLower.startsWith(prefixLower) && cleanName.length() > prefix.length()) {
+                                char nextChar = cleanName.charAt(prefix.length());
+                                if (Character.isUpperCase(nextChar)) {
+                                    cleanName = cleanName.substring(prefix.length()).trim();
+                                    nameLower = cleanName.toLowerCase();
+                                    changed = true;
+                                }
+                            }
+                        }
+                    }
+
+                    // Jeśli po usunięciu prefiksu nazwa jest pusta lub za krótka, pomiń
+                    if (cleanName.length() < 3) {
+                        continue;
+                    }
+
+                    // Sprawdź czy nazwa nie jest sama w sobie słowem wykluczonym
+                    boolean isNameExcluded = false;
+                    for (String exclude : excludeWords) {
+                        if (cleanName.equalsIgnoreCase(exclude)) {
+                            isNameExcluded = true;
+                            break;
+                        }
+                    }
+                    if (isNameExcluded) {
+                        continue;
+                    }
+
+                    // Sprawdź czy nazwa składa się z co najmniej dwóch słów (imię i nazwisko)
+                    String[] nameParts = cleanName.split("\\s+");
+                    if (nameParts.length < 2) {
+                        // Jeśli jedno słowo, sprawdź czy to typowe imię
+                        String[] commonNames = {
+                            "jan", "anna", "piotr", "maria", "tomasz", "katarzyna", "krzysztof", "magdalena",
+                            "andrzej", "agnieszka", "paweł", "barbara", "marcin", "ewa", "michał", "joanna",
+                            "wiktor", "albert", "michał", "adam", "jakub", "kamil", "łukasz", "mateusz"
+                        };
+                        boolean isCommonName = false;
+                        for (String commonName : commonNames) {
+                            if (cleanName.equalsIgnoreCase(commonName)) {
+                                isCommonName = true;
+                                break;
+                            }
+                        }
+                        if (!isCommonName) {
+                            continue; // Pomiń jeśli nie jest to typowe imię
+                        }
+                    }
+
+                    // Sprawdź czy nazwa nie zawiera stanowiska - usuń je jeśli jest
+                    String[] positionWords = {
+                        "Dyrektor", "Kierownik", "Manager", "Director", "CEO", "CTO", "CFO", "COO",
+                        "Sprzedaży", "Bezpieczeństwa", "Działu", "Zakresu", "Zarządzania"
+                    };
+                    // Ponownie użyj nameParts (może być zmienione przez cleanName)
+                    nameParts = cleanName.split("\\s+");
+                    if (nameParts.length > 2) {
+                        // Jeśli nazwa ma więcej niż 2 słowa, sprawdź czy ostatnie to stanowisko
+                        String lastWord = nameParts[nameParts.length - 1];
+                        for (String posWord : positionWords) {
+                            if (lastWord.equalsIgnoreCase(posWord) || lastWord.toLowerCase().contains(posWord.toLowerCase())) {
+                                // Usuń ostatnie słowo (stanowisko)
+                                cleanName = String.join(" ", java.util.Arrays.copyOf(nameParts, nameParts.length - 1));
+                                break;
+                            }
+                        }
+                    }
+
+                    // Sprawdź kontekst - czy po nazwie jest stanowisko lub telefon (typowa stopka)
+                    int nameIndex = end.indexOf(name);
+                    if (nameIndex >= 0) {
+                        String afterName = end.substring(nameIndex + name.length()).trim();
+
+                        // Sprawdź czy po nazwie jest stanowisko (np. "Dyrektor") lub telefon (np. "601")
+                        if (afterName.matches("(?s).*?(?:[\\n\\r]+|^|\\s+)(?:Dyrektor|Kierownik|Manager|Director|CEO|CTO|\\+?48\\s*\\d{3}[\\s.-]?\\d{3}|\\d{3}[\\s.-]?\\d{3}[\\s.-]?\\d{3}).*")) {
+                            return cleanName;
+                        }
+                        // Jeśli nazwa jest na końcu tekstu lub przed "Pozdrawiam", to też jest prawdopodobna stopka
+                        if (afterName.isEmpty() || afterName.toLowerCase().matches("(?s).*?(?:pozdrawiam|regards|best|sincerely).*")) {
+                            return cleanName;
+                        }
+                    }
+                }
+            }
+
+            // Alternatywnie, szukaj w całym tekście ale tylko w kontekście stopki
+            // Szukaj wzorca: nazwa + nowa linia + stanowisko/telefon
+            Pattern nameWithContextPattern = Pattern.compile(
+                "([A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó]+(?:\\s+[A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó]+){1,2})\\s*[\\n\\r]+\\s*(?:Dyrektor|Kierownik|Manager|Director|CEO|CTO|\\d{3}[\\s.-]?\\d{3})",
+                Pattern.MULTILINE | Pattern.CASE_INSENSITIVE
+            );
+
+            matcher = nameWithContextPattern.matcher(text);
+            while (matcher.find()) {
+                String name = matcher.group(1).trim();
+                // Sprawdź czy to nie jest wykluczone słowo - dokładne dopasowanie lub jako słowo
+                boolean isExcluded = false;
+                String nameLower = name.toLowerCase().trim();
+                for (String exclude : excludeWords) {
+                    // Sprawdź dokładne dopasowanie lub czy jest to słowo graniczne
+                    if (nameLower.equals(exclude) ||
+                        nameLower.matches(".*\\b" + Pattern.quote(exclude) + "\\b.*")) {
+                        isExcluded = true;
+                        break;
+                    }
+                }
+                if (!isExcluded) {
+                    // Usuń niechciane prefiksy z nazwy
+                    String cleanName = name;
+                    nameLower = cleanName.toLowerCase();
+
+                    // Usuń prefiksy (może być kilka) - sprawdź ze spacją i bez spacji
+                    boolean changed = true;
+                    while (changed) {
+                        changed = false;
+                        for (String prefix : prefixWords) {
+                            String prefixLower = prefix.toLowerCase();
+                            // Sprawdź prefiks ze spacją
+                            if (nameLower.startsWith(prefixLower + " ")) {
+                                cleanName = cleanName.substring(prefix.length()).trim();
+                                nameLower = cleanName.toLowerCase();
+                                changed = true;
+                            }
+                            // Sprawdź prefiks bez spacji (np. "chętnieWiktor")
+                            else if (nameLower.startsWith(prefixLower) && cleanName.length() > prefix.length()) {
+                                char nextChar = cleanName.charAt(prefix.length());
+                                if (Character.isUpperCase(nextChar)) {
+                                    cleanName = cleanName.substring(prefix.length()).trim();
+                                    nameLower = cleanName.toLowerCase();
+                                    changed = true;
+                                }
+                            }
+                        }
+                    }
+
+                    // Jeśli po usunięciu prefiksu nazwa jest pusta lub za krótka, pomiń
+                    if (cleanName.length() < 3) {
+                        continue;
+                    }
+
+                    // Sprawdź czy nazwa nie jest sama w sobie słowem wykluczonym
+                    boolean isNameExcluded = false;
+                    for (String exclude : excludeWords) {
+                        if (cleanName.equalsIgnoreCase(exclude)) {
+                            isNameExcluded = true;
+                            break;
+                        }
+                    }
+                    if (isNameExcluded) {
+                        continue;
+                    }
+
+                    // Sprawdź czy nazwa nie zawiera stanowiska - usuń je jeśli jest
+                    String[] positionWords = {
+                        "Dyrektor", "Kierownik", "Manager", "Director", "CEO", "CTO", "CFO", "COO",
+                        "Sprzedaży", "Bezpieczeństwa", "Działu", "Zakresu", "Zarządzania"
+                    };
+                    // Zdefiniuj nameParts dla tej pętli
+                    String[] nameParts = cleanName.split("\\s+");
+                    if (nameParts.length > 2) {
+                        // Jeśli nazwa ma więcej niż 2 słowa, sprawdź czy ostatnie to stanowisko
+                        String lastWord = nameParts[nameParts.length - 1];
+                        for (String posWord : positionWords) {
+                            if (lastWord.equalsIgnoreCase(posWord) || lastWord.toLowerCase().contains(posWord.toLowerCase())) {
+                                // Usuń ostatnie słowo (stanowisko)
+                                cleanName = String.join(" ", java.util.Arrays.copyOf(nameParts, nameParts.length - 1));
+                                break;
+                            }
+                        }
+                    }
+
+                    // Sprawdź czy nazwa składa się z co najmniej dwóch słów (imię i nazwisko)
+                    nameParts = cleanName.split("\\s+");
+                    if (nameParts.length < 2) {
+                        // Jeśli jedno słowo, sprawdź czy to typowe imię
+                        String[] commonNames = {
+                            "jan", "anna", "piotr", "maria", "tomasz", "katarzyna", "krzysztof", "magdalena",
+                            "andrzej", "agnieszka", "paweł", "barbara", "marcin", "ewa", "michał", "joanna",
+                            "wiktor", "albert", "adam", "jakub", "kamil", "łukasz", "mateusz"
+                        };
+                        boolean isCommonName = false;
+                        for (String commonName : commonNames) {
+                            if (cleanName.equalsIgnoreCase(commonName)) {
+                                isCommonName = true;
+                                break;
+                            }
+                        }
+                        if (!isCommonName) {
+                            continue; // Pomiń jeśli nie jest to typowe imię
+                        }
+                    }
+
+                    return cleanName;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Spróbuj wyciągnąć lepszą nazwę firmy z treści emaila
+         * Szuka wzorców: "Firma: dajano-logistyka", "Company: ...", oraz pełnych nazw firm
+         */
+        static String extractBetterCompany(String currentCompany, String text) {
+            if (text == null || text.isEmpty()) return currentCompany;
+
+            // Lista słów które nie są nazwami firm
+            String[] excludeCompanyWords = {
+                "jestem", "jest", "mam", "będę", "chcę", "chciałbym", "proszę", "dzień",
+                "dobry", "witam", "witaj", "hej", "cześć", "dziękuję", "dziękuje", "dzięki",
+                "mail", "message", "wiadomość", "wiadomości", "treść", "content", "pozdrawiam",
+                "regards", "best", "sincerely", "z", "od", "do", "w", "na", "po", "przed",
+                "serdecznie", "bardzo", "zawsze", "tak", "nie", "oczywiście", "wiktor", "grzesiak",
+                "albert", "milewski", "dyrektor", "kierownik", "sprzedaży", "bezpieczeństwa"
+            };
+
+            // Szukaj wzorca "Firma: nazwa" lub "Company: nazwa" - może zawierać kropki i myślniki
+            Pattern companyLabelPattern = Pattern.compile(
+                "(?:Firma|Company|Firma\\s*:|Company\\s*:)\\s*([A-Za-z0-9\\-_.]+(?:\\.[A-Za-z0-9\\-_.]+)*)",
+                Pattern.CASE_INSENSITIVE | Pattern.MULTILINE
+            );
+
+            Matcher matcher = companyLabelPattern.matcher(text);
+            if (matcher.find()) {
+                String company = matcher.group(1).trim();
+                if (!company.isEmpty() && !company.equalsIgnoreCase("unknown")) {
+                    // Sprawdź czy to nie jest słowo wykluczone
+                    boolean isExcluded = false;
+                    for (String exclude : excludeCompanyWords) {
+                        if (company.equalsIgnoreCase(exclude)) {
+                            isExcluded = true;
+                            break;
+                        }
+                    }
+                    if (!isExcluded) {
+                        // Jeśli firma wygląda jak domena bez końcówki (np. "dajano-logistyka"),
+                        // ale nie ma rozszerzenia, spróbuj dodać z kontekstu emaila
+                        if (!company.contains(".") && company.matches(".*-.*")) {
+                            // Może to być domena - zostaw jak jest, można później dodać .pl
+                            // Ale na razie zwróć jak jest
+                        }
+                        return company;
+                    }
+                }
+            }
+
+            // Szukaj pełnych nazw firm z typowymi końcówkami - TYLKO jeśli mają końcówki firmowe
+            // Wzorzec szuka tylko firm z końcówkami typu "Sp. z o.o.", "Ltd.", itp.
+            Pattern companyPattern = Pattern.compile(
+                "([A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó0-9]+(?:\\s+[A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó0-9]+)*(?:\\s*-\\s*[a-zżźćńąśęłó0-9]+)?\\s+(?:Sp\\.\\s*z\\s*o\\.o\\.|Ltd\\.|Inc\\.|GmbH|S\\.A\\.|sp\\.\\s*z\\s*o\\.\\s*o\\.))",
+                Pattern.MULTILINE
+            );
+
+            matcher = companyPattern.matcher(text);
+            if (matcher.find()) {
+                String company = matcher.group(1).trim();
+                if (company.length() > 3 && !company.toLowerCase().contains("unknown")) {
+                    // Sprawdź czy to nie jest słowo wykluczone
+                    boolean isExcluded = false;
+                    String companyLower = company.toLowerCase();
+                    for (String exclude : excludeCompanyWords) {
+                        if (companyLower.equals(exclude) || companyLower.contains(" " + exclude + " ")) {
+                            isExcluded = true;
+                            break;
+                        }
+                    }
+                    if (!isExcluded) {
+                        return company;
+                    }
+                }
+            }
+
+            // NIE szukaj firm bez końcówek - to może być imię i nazwisko
+            // Lepiej użyć tylko wzorca "Firma: ..." i domeny email
+
+            return currentCompany;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.crm.benchmark;
+
+import com.crm.model.Contact;
+import com.crm.service.TemplateRenderer;
+import com.crm.service.TemplateRenderer.CompiledTemplate;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renderowanie 100k spersonalizowanych emaili (szablon newslettera + motyw).
+ * legacy* - poprzednia implementacja (regex kompilowany przy każdym wywołaniu + String.replace per zmienna),
+ * compiled* - TemplateRenderer z segmentami sparsowanymi raz.
+ *
+ * Wynik w ops/s = wyrenderowane emaile na sekundę.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(TemplateRenderingBenchmark.EMAILS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateRenderingBenchmark {
+
+    static final int EMAILS = 100_000;
+
+    private static final String CONTENT = "<h1>Cześć {{firstName}}!</h1>\n"
+            + "<p>Dziękujemy, że {{company}} jest z nami. Jako {{position}} na pewno docenisz nowości:</p>\n"
+            + "<ul><li>Nowy moduł raportów</li><li>Integracja z kalendarzem</li><li>Szybsze wyszukiwanie</li></ul>\n"
+            + "<p>Masz pytania? Odpisz na ten email lub zadzwoń - mamy Twój numer {{phone}}.</p>\n"
+            + "<p>Pozdrawiamy,<br/>Zespół CRM</p>\n"
+            + "<p style=\"font-size:11px\">Wiadomość wysłana do {{email}} ({{name}}).</p>\n";
+
+    private static final String THEME = "<!DOCTYPE html><html><head><style>{{CSS_STYLES}}</style></head>"
+            + "<body><div class=\"header\">{{LOGO}}<span>{{TAGLINE}}</span></div>{{HERO_IMAGE}}"
+            + "<div class=\"content\">{{CONTENT}}</div>{{CTA}}<div class=\"footer\">{{FOOTER}}</div></body></html>";
+
+    private static final String CSS = "body{font-family:Arial,sans-serif;background:#f4f4f4;margin:0}"
+            + ".header{background:#1f2937;color:#fff;padding:24px}.content{background:#fff;padding:32px}"
+            + ".footer{color:#6b7280;font-size:12px;padding:16px;text-align:center}";
+
+    private List<Map<String, String>> variables;
+    private TemplateRenderer renderer;
+    private CompiledTemplate compiledContent;
+    private CompiledTemplate compiledTheme;
+
+    @Setup
+    public void setUp() {
+        renderer = new TemplateRenderer();
+        compiledContent = renderer.compile(CONTENT);
+        compiledTheme = renderer.compile(THEME.replace("{{CSS_STYLES}}", CSS));
+
+        String[] firstNames = {"Anna", "Piotr", "Katarzyna", "Tomasz", "Magdalena", "Michał", "Agnieszka", "Paweł"};
+        String[] lastNames = {"Kowalska", "Nowak", "Wiśniewska", "Wójcik", "Kamińska", "Lewandowski", "Zielińska"};
+        String[] positions = {"CEO", "Head of Sales", "Marketing Manager", "CTO", "Account Executive"};
+        Random random = new Random(42);
+
+        variables = new ArrayList<>(EMAILS);
+        for (int i = 0; i < EMAILS; i++) {
+            Contact contact = new Contact();
+            contact.setName(firstNames[random.nextInt(firstNames.length)] + " "
+                    + lastNames[random.nextInt(lastNames.length)]);
+            contact.setEmail("user" + i + "@firma" + (i % 997) + ".pl");
+            contact.setCompany("Firma " + (i % 997));
+            contact.setPosition(positions[random.nextInt(positions.length)]);
+            contact.setPhone("+48 600 " + String.format("%03d %03d", i % 1000, (i / 1000) % 1000));
+
+            Map<String, String> vars = renderer.contactVariables(contact);
+            vars.put("LOGO", "<strong>Your Company</strong>");
+            vars.put("FOOTER", "© 2026 Your Company. All rights reserved.");
+            vars.put("TAGLINE", "");
+            vars.put("HERO_IMAGE", "");
+            vars.put("CTA", "");
+            variables.add(vars);
+        }
+    }
+
+    @Benchmark
+    public void legacyRegexReplace(Blackhole bh) {
+        for (Map<String, String> vars : variables) {
+            String content = legacyProcessTemplate(CONTENT, vars);
+            String html = THEME.replace("{{CSS_STYLES}}", CSS).replace("{{CONTENT}}", content);
+            bh.consume(legacyProcessTemplate(html, vars));
+        }
+    }
+
+    @Benchmark
+    public void compiledRenderer(Blackhole bh) {
+        for (Map<String, String> vars : variables) {
+            String content = compiledContent.render(vars, false);
+            Map<String, String> themeVars = new HashMap<>(vars);
+            themeVars.put("CONTENT", content);
+            bh.consume(compiledTheme.render(themeVars, false));
+        }
+    }
+
+    /**
+     * Kopia EmailTemplateService.processTemplate sprzed zmiany - punkt odniesienia
+     */
+    private static String legacyProcessTemplate(String template, Map<String, String> variables) {
+        String result = template;
+        Pattern pattern = Pattern.compile("\\{\\{([^}]+)\\}\\}");
+        Matcher matcher = pattern.matcher(template);
+        while (matcher.find()) {
+            String variable = matcher.group(1);
+            String value = variables.getOrDefault(variable, "");
+            result = result.replace("{{" + variable + "}}", value);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,104 @@
+package com.crm.benchmark;
+
+import com.crm.model.WorkflowRule;
+import com.crm.model.WorkflowRule.ActionType;
+import com.crm.model.WorkflowRule.TriggerType;
+import com.crm.repository.WorkflowExecutionKeyRepository;
+import com.crm.repository.WorkflowRuleRepository;
+import com.crm.service.WorkflowRuleEngine;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dopasowanie reguł workflow do zdarzenia przy 10k aktywnych reguł (100 użytkowników, część globalnych).
+ * legacy* - lista reguł triggera/użytkownika i sprawdzanie filtrów przez mapę triggerConfig dla każdej reguły,
+ * indexed* - WorkflowRuleEngine.findMatchingRules.
+ *
+ * Ścieżka legacy jest tu w pamięci - w aplikacji dokłada zapytanie findActiveRulesForTrigger
+ * na każde zdarzenie. Wynik w zdarzeniach na sekundę.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkflowRuleEngineBenchmark {
+
+    private static final int RULES = 10_000;
+    private static final int USERS = 100;
+    private static final int TAGS = 200;
+
+    private List<WorkflowRule> rules;
+    private WorkflowRuleEngine engine;
+    private Map<String, Object> tagEvent;
+    private int eventCounter;
+
+    @Setup
+    public void setUp() {
+        TriggerType[] triggers = TriggerType.values();
+        rules = new ArrayList<>(RULES);
+        for (int i = 0; i < RULES; i++) {
+            WorkflowRule rule = new WorkflowRule();
+            rule.setId((long) i + 1);
+            rule.setName("Rule " + i);
+            rule.setTriggerType(i % 2 == 0 ? TriggerType.TAG_ADDED : triggers[i % triggers.length]);
+            rule.setActionType(ActionType.values()[i % ActionType.values().length]);
+            rule.setPriority(i % 10 * 10);
+            // Co dwudziesta reguła jest globalna
+            rule.setUserId(i % 20 == 0 ? null : (long) (i % USERS) + 1);
+            rule.setTriggerConfig(i % 3 == 0 ? Map.of() : Map.of("tagId", (i % TAGS) + 1));
+            rules.add(rule);
+        }
+
+        WorkflowRuleRepository ruleRepository = Mockito.mock(WorkflowRuleRepository.class);
+        Mockito.when(ruleRepository.findByActiveTrue()).thenReturn(rules);
+        engine = new WorkflowRuleEngine(ruleRepository, Mockito.mock(WorkflowExecutionKeyRepository.class), null, 1000);
+        engine.reloadAll();
+
+        tagEvent = Map.of("tagId", 7L, "tagName", "VIP");
+    }
+
+    private Long nextUser() {
+        return (long) (eventCounter++ % USERS) + 1;
+    }
+
+    @Benchmark
+    public void legacyScanAndMatch(Blackhole bh) {
+        Long userId = nextUser();
+        // Odpowiednik findActiveRulesForTrigger(...) ORDER BY priority
+        List<WorkflowRule> candidates = new ArrayList<>();
+        for (WorkflowRule rule : rules) {
+            if (rule.getTriggerType() == TriggerType.TAG_ADDED
+                    && (rule.getUserId() == null || Objects.equals(rule.getUserId(), userId))) {
+                candidates.add(rule);
+            }
+        }
+        candidates.sort(Comparator.comparing(WorkflowRule::getPriority));
+
+        int matched = 0;
+        for (WorkflowRule rule : candidates) {
+            Map<String, Object> config = rule.getTriggerConfig();
+            if (config != null && config.containsKey("tagId") && tagEvent.containsKey("tagId")
+                    && config.get("tagId") instanceof Number configTagId
+                    && configTagId.longValue() != ((Number) tagEvent.get("tagId")).longValue()) {
+                continue;
+            }
+            matched++;
+        }
+        bh.consume(matched);
+    }
+
+    @Benchmark
+    public void indexedMatch(Blackhole bh) {
+        bh.consume(engine.findMatchingRules(TriggerType.TAG_ADDED, nextUser(), tagEvent).size());
+    }
+}
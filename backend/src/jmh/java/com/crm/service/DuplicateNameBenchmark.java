@@ -0,0 +1,44 @@
+package com.crm.service;
+
+import com.crm.benchmark.Corpus;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DuplicateDetectionService.areNamesSimilar na nazwach z corpus/contact-names.txt.
+ *
+ * Jedna operacja = porównanie każdej pary nazw z korpusu (n*(n-1)/2), jak w pętli findAllDuplicates
+ * dla kontaktów z tą samą firmą; wynik w przebiegach na sekundę.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DuplicateNameBenchmark {
+
+    private static final String CORPUS = "/corpus/contact-names.txt";
+
+    private String[] names;
+
+    @Setup
+    public void setUp() {
+        names = Corpus.lines(CORPUS);
+    }
+
+    @Benchmark
+    public void allPairs(Blackhole bh) {
+        int similar = 0;
+        for (int i = 0; i < names.length; i++) {
+            for (int j = i + 1; j < names.length; j++) {
+                if (DuplicateDetectionService.areNamesSimilar(names[i], names[j])) {
+                    similar++;
+                }
+            }
+        }
+        bh.consume(similar);
+    }
+}
@@ -0,0 +1,66 @@
+package com.crm.service;
+
+import com.crm.benchmark.Corpus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Klasyfikacja odpowiedzi bez LLM na korpusie corpus/replies.txt.
+ * explicitIntentCheck - frazy wysokiej pewności, sprawdzane dla każdego pobranego maila przed wywołaniem AI,
+ * fallbackClassification - słowa kluczowe, gdy AI jest wyłączone lub zwróci błąd.
+ *
+ * Jedna operacja = jeden mail z korpusu, wynik w mailach na sekundę.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailClassificationBenchmark {
+
+    private static final String CORPUS = "/corpus/replies.txt";
+    private static final String SUBJECT_PREFIX = "Subject: ";
+
+    private AIClassificationService service;
+    private String[] subjects;
+    private String[] contents;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        // Brama AI nie jest używana przez metody regułowe
+        service = new AIClassificationService(null, new SimpleMeterRegistry());
+
+        String[] replies = Corpus.entries(CORPUS);
+        subjects = new String[replies.length];
+        contents = new String[replies.length];
+        for (int i = 0; i < replies.length; i++) {
+            int newline = replies[i].indexOf('\n');
+            String firstLine = newline < 0 ? replies[i] : replies[i].substring(0, newline);
+            subjects[i] = firstLine.startsWith(SUBJECT_PREFIX) ? firstLine.substring(SUBJECT_PREFIX.length()) : "";
+            contents[i] = newline < 0 ? "" : replies[i].substring(newline + 1);
+        }
+    }
+
+    @Benchmark
+    public void explicitIntentCheck(Blackhole bh) {
+        int i = next();
+        bh.consume(service.explicitIntentCheck(subjects[i], contents[i]));
+    }
+
+    @Benchmark
+    public void fallbackClassification(Blackhole bh) {
+        int i = next();
+        bh.consume(service.fallbackClassification(subjects[i], contents[i]));
+    }
+
+    private int next() {
+        int i = cursor;
+        cursor = (cursor + 1) % subjects.length;
+        return i;
+    }
+}
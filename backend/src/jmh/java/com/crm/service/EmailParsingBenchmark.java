@@ -0,0 +1,78 @@
+package com.crm.service;
+
+import com.crm.benchmark.Corpus;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Przetwarzanie pobranego maila przed zapisem: treść z MIME i dane nadawcy z pola "From".
+ * textFromMessage - EmailFetchService.getTextFromMessage na korpusie corpus/messages.eml; wiadomość jest
+ * parsowana w każdej operacji, bo MimeMessage trzyma raz zdekodowane części (jak przy IMAP - każdy mail raz),
+ * fetchCompany - EmailFetchService.extractCompany,
+ * contactFields - ekstraktory ContactAutoCreationService (adres, imię, firma z domeny) na corpus/senders.txt.
+ *
+ * Jedna operacja = jedna wiadomość / jeden nadawca z korpusu.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailParsingBenchmark {
+
+    private static final String MESSAGES = "/corpus/messages.eml";
+    private static final String SENDERS = "/corpus/senders.txt";
+
+    private Session session;
+    private byte[][] messages;
+    private String[] senders;
+    private int messageCursor;
+    private int senderCursor;
+
+    @Setup
+    public void setUp() {
+        session = Session.getInstance(new Properties());
+        String[] raw = Corpus.entries(MESSAGES);
+        messages = new byte[raw.length][];
+        for (int i = 0; i < raw.length; i++) {
+            messages[i] = raw[i].replace("\n", "\r\n").getBytes(StandardCharsets.UTF_8);
+        }
+        senders = Corpus.lines(SENDERS);
+    }
+
+    @Benchmark
+    public void textFromMessage(Blackhole bh) throws Exception {
+        byte[] raw = messages[messageCursor];
+        messageCursor = (messageCursor + 1) % messages.length;
+        MimeMessage message = new MimeMessage(session, new ByteArrayInputStream(raw));
+        bh.consume(EmailFetchService.getTextFromMessage(message));
+    }
+
+    @Benchmark
+    public void fetchCompany(Blackhole bh) {
+        bh.consume(EmailFetchService.extractCompany(nextSender()));
+    }
+
+    @Benchmark
+    public void contactFields(Blackhole bh) {
+        String sender = nextSender();
+        String address = ContactAutoCreationService.extractEmailAddress(sender);
+        bh.consume(address);
+        bh.consume(ContactAutoCreationService.extractName(sender));
+        bh.consume(ContactAutoCreationService.extractCompanyFromEmail(address));
+    }
+
+    private String nextSender() {
+        String sender = senders[senderCursor];
+        senderCursor = (senderCursor + 1) % senders.length;
+        return sender;
+    }
+}
@@ -0,0 +1,140 @@
+package com.crm.service;
+
+import com.crm.model.CampaignRecipient;
+import com.crm.model.Contact;
+import com.crm.model.Deal;
+import com.crm.model.Email;
+import com.crm.model.Tag;
+import com.crm.repository.CampaignRecipientRepository;
+import com.crm.repository.DealRepository;
+import com.crm.repository.EmailRepository;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LeadScoringService.calculateScore na 1000 kontaktach z danymi w pamięci (ziarno 42):
+ * 0-30 maili z różnym statusem i wiekiem (wygaszanie 90/180 dni), 0-3 deale, 0-12 wysyłek kampanii
+ * z otwarciami/kliknięciami i tagi VIP/klient.
+ *
+ * Repozytoria to stuby Mockito odpowiadające z map - mierzy się samo liczenie punktów,
+ * bez zapytań, które w nocnym przeliczeniu dominują czas. Jedna operacja = jeden kontakt.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LeadScoringBenchmark {
+
+    private static final int CONTACTS = 1000;
+    private static final String[] EMAIL_STATUSES = {"positive", "neutral", "negative", "undelivered", "maybeLater", null};
+    private static final String[] DEAL_STATUSES = {"open", "won", "lost"};
+
+    private LeadScoringService service;
+    private List<Contact> contacts;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        LocalDateTime now = LocalDateTime.now();
+        Tag vip = tag(1L, "VIP");
+        Tag customer = tag(2L, "Klient");
+        Tag other = tag(3L, "Newsletter");
+
+        Map<String, List<Email>> emails = new HashMap<>();
+        Map<Long, List<Deal>> deals = new HashMap<>();
+        Map<Long, List<CampaignRecipient>> recipients = new HashMap<>();
+        contacts = new ArrayList<>(CONTACTS);
+
+        for (int i = 0; i < CONTACTS; i++) {
+            Contact contact = new Contact();
+            contact.setId((long) i + 1);
+            contact.setEmail("lead" + i + "@firma" + (i % 97) + ".pl");
+            contact.setEmailCount(random.nextInt(12));
+            contact.setMeetingCount(random.nextInt(5));
+            contact.setUpdatedAt(now.minusDays(random.nextInt(60)));
+            if (random.nextInt(10) == 0) {
+                contact.getTags().add(vip);
+            }
+            if (random.nextInt(4) == 0) {
+                contact.getTags().add(customer);
+            }
+            if (random.nextBoolean()) {
+                contact.getTags().add(other);
+            }
+            contacts.add(contact);
+
+            List<Email> contactEmails = new ArrayList<>();
+            for (int e = random.nextInt(31); e > 0; e--) {
+                Email email = new Email();
+                email.setSender(contact.getEmail());
+                email.setStatus(EMAIL_STATUSES[random.nextInt(EMAIL_STATUSES.length)]);
+                email.setReceivedAt(now.minusDays(random.nextInt(365)));
+                contactEmails.add(email);
+            }
+            emails.put(contact.getEmail(), contactEmails);
+
+            List<Deal> contactDeals = new ArrayList<>();
+            for (int d = random.nextInt(4); d > 0; d--) {
+                Deal deal = new Deal();
+                deal.setStatus(DEAL_STATUSES[random.nextInt(DEAL_STATUSES.length)]);
+                deal.setCreatedAt(now.minusDays(random.nextInt(365)));
+                contactDeals.add(deal);
+            }
+            deals.put(contact.getId(), contactDeals);
+
+            List<CampaignRecipient> contactRecipients = new ArrayList<>();
+            for (int r = random.nextInt(13); r > 0; r--) {
+                CampaignRecipient recipient = new CampaignRecipient();
+                LocalDateTime sentAt = now.minusDays(random.nextInt(180));
+                recipient.setSentAt(sentAt);
+                if (random.nextInt(3) == 0) {
+                    recipient.setOpenedAt(sentAt.plusHours(2));
+                    if (random.nextInt(3) == 0) {
+                        recipient.setClickedAt(sentAt.plusHours(3));
+                    }
+                }
+                contactRecipients.add(recipient);
+            }
+            recipients.put(contact.getId(), contactRecipients);
+        }
+
+        EmailRepository emailRepository = Mockito.mock(EmailRepository.class, Mockito.withSettings().stubOnly());
+        Mockito.when(emailRepository.findBySenderContainingIgnoreCaseOrderByReceivedAtDesc(Mockito.anyString()))
+                .thenAnswer(inv -> emails.getOrDefault(inv.<String>getArgument(0), List.of()));
+        DealRepository dealRepository = Mockito.mock(DealRepository.class, Mockito.withSettings().stubOnly());
+        Mockito.when(dealRepository.findByContactId(Mockito.anyLong()))
+                .thenAnswer(inv -> deals.getOrDefault(inv.<Long>getArgument(0), List.of()));
+        CampaignRecipientRepository recipientRepository =
+                Mockito.mock(CampaignRecipientRepository.class, Mockito.withSettings().stubOnly());
+        Mockito.when(recipientRepository.findByContactId(Mockito.anyLong()))
+                .thenAnswer(inv -> recipients.getOrDefault(inv.<Long>getArgument(0), List.of()));
+
+        service = new LeadScoringService(null, emailRepository, dealRepository, recipientRepository, null);
+    }
+
+    @Benchmark
+    public void calculateScore(Blackhole bh) {
+        Contact contact = contacts.get(cursor);
+        cursor = (cursor + 1) % CONTACTS;
+        bh.consume(service.calculateScore(contact));
+    }
+
+    private static Tag tag(Long id, String name) {
+        Tag tag = new Tag();
+        tag.setId(id);
+        tag.setName(name);
+        return tag;
+    }
+}
@@ -0,0 +1,71 @@
+package com.crm.service;
+
+import com.crm.benchmark.Corpus;
+import com.crm.model.Contact;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EmailTemplateService.processTemplate na szablonach z corpus/templates.txt i 1000 kontaktach
+ * (zmienne z TemplateRenderer.contactVariables, losowane z ziarnem 42).
+ *
+ * Jedna operacja = jeden szablon wyrenderowany dla jednego kontaktu; szablony kompilują się
+ * raz do cache TemplateRenderer, jak w wysyłce kampanii.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateProcessingBenchmark {
+
+    private static final String CORPUS = "/corpus/templates.txt";
+    private static final int CONTACTS = 1000;
+
+    private EmailTemplateService service;
+    private String[] templates;
+    private List<Map<String, String>> variables;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        TemplateRenderer renderer = new TemplateRenderer();
+        // Repozytoria i kontekst użytkownika nie są używane przez processTemplate
+        service = new EmailTemplateService(null, null, null, renderer);
+        templates = Corpus.entries(CORPUS);
+
+        String[] firstNames = {"Anna", "Piotr", "Katarzyna", "Tomasz", "Magdalena", "Michał", "Agnieszka", "Paweł"};
+        String[] lastNames = {"Kowalska", "Nowak", "Wiśniewska", "Wójcik", "Kamińska", "Lewandowski", "Zielińska"};
+        String[] positions = {"CEO", "Head of Sales", "Marketing Manager", "CTO", "Account Executive"};
+        Random random = new Random(42);
+
+        variables = new ArrayList<>(CONTACTS);
+        for (int i = 0; i < CONTACTS; i++) {
+            Contact contact = new Contact();
+            contact.setName(firstNames[random.nextInt(firstNames.length)] + " "
+                    + lastNames[random.nextInt(lastNames.length)]);
+            contact.setEmail("user" + i + "@firma" + (i % 97) + ".pl");
+            contact.setCompany("Firma " + (i % 97));
+            contact.setPosition(positions[random.nextInt(positions.length)]);
+            // Co piąty kontakt bez telefonu - pusta wartość zmiennej
+            contact.setPhone(i % 5 == 0 ? null : "+48 600 " + String.format("%03d %03d", i % 1000, random.nextInt(1000)));
+            variables.add(renderer.contactVariables(contact));
+        }
+    }
+
+    @Benchmark
+    public void processTemplate(Blackhole bh) {
+        int i = cursor++;
+        if (cursor == templates.length * CONTACTS) {
+            cursor = 0;
+        }
+        bh.consume(service.processTemplate(templates[i % templates.length], variables.get(i % CONTACTS)));
+    }
+}
@@ -0,0 +1,45 @@
+package com.crm.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limity i cache bramy LLM (AIGateway)
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.gateway")
+@Data
+public class AIGatewayConfig {
+
+    /**
+     * Łączny limit równoległych zapytań do API
+     */
+    private int maxConcurrency = 8;
+
+    /**
+     * Limit per funkcja, gdy brak wpisu w featureConcurrency (ai.gateway.feature-concurrency.reply=2)
+     */
+    private int defaultFeatureConcurrency = 4;
+    private Map<String, Integer> featureConcurrency = new HashMap<>();
+
+    /**
+     * Zapytania czekające na miejsce w limicie - ponad tę liczbę albo po queueTimeout są odrzucane
+     */
+    private int maxQueued = 100;
+    private Duration queueTimeout = Duration.ofSeconds(30);
+
+    private int maxConnections = 16;
+    private int maxRetries = 2;
+
+    private Duration cacheTtl = Duration.ofMinutes(30);
+    private long cacheMaxSize = 2000;
+
+    public int featureLimit(String feature) {
+        return featureConcurrency.getOrDefault(feature, defaultFeatureConcurrency);
+    }
+}
@@ -0,0 +1,51 @@
+package com.crm.config;
+
+import com.crm.storage.BlobStore;
+import com.crm.storage.LocalBlobStore;
+import com.crm.storage.S3BlobStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+
+import java.net.URI;
+import java.nio.file.Paths;
+
+/**
+ * Wybór magazynu treści (załączniki, duże treści maili): app.blob.store=local (domyślnie) lub s3.
+ * Dla MinIO: app.blob.s3.endpoint=http://minio:9000 - włącza adresowanie path-style.
+ */
+@Configuration
+public class BlobStoreConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "app.blob.store", havingValue = "local", matchIfMissing = true)
+    public BlobStore localBlobStore(@Value("${app.upload.dir:uploads}") String uploadDir) {
+        // Ten sam układ co pliki załączników zapisywane wcześniej po SHA-256
+        return new LocalBlobStore(Paths.get(uploadDir, "sha256"));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.blob.store", havingValue = "s3")
+    public BlobStore s3BlobStore(@Value("${app.blob.s3.bucket}") String bucket,
+                                 @Value("${app.blob.s3.prefix:}") String prefix,
+                                 @Value("${app.blob.s3.region:us-east-1}") String region,
+                                 @Value("${app.blob.s3.endpoint:}") String endpoint,
+                                 @Value("${app.blob.s3.access-key:}") String accessKey,
+                                 @Value("${app.blob.s3.secret-key:}") String secretKey) {
+        S3ClientBuilder builder = S3Client.builder().region(Region.of(region));
+        if (!endpoint.isBlank()) {
+            builder.endpointOverride(URI.create(endpoint)).forcePathStyle(true);
+        }
+        builder.credentialsProvider(accessKey.isBlank()
+                ? DefaultCredentialsProvider.create()
+                : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)));
+        return new S3BlobStore(builder.build(), bucket, prefix);
+    }
+}
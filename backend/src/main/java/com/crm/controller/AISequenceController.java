@@ -2,11 +2,17 @@ package com.crm.controller;
 
 import com.crm.dto.deals.AISequenceRequest;
 import com.crm.dto.deals.AISequenceResponse;
+import com.crm.service.AIGateway;
 import com.crm.service.AISequenceService;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.Map;
 
@@ -17,6 +23,7 @@ import java.util.Map;
 public class AISequenceController {
 
     private final AISequenceService aiSequenceService;
+    private final AIGateway aiGateway;
 
     @PostMapping("/generate-sequence")
     public ResponseEntity<AISequenceResponse> generateSequence(@RequestBody AISequenceRequest request) {
@@ -34,78 +41,119 @@ public class AISequenceController {
      * Ulepsza treść emaila - dodaje personalizację, poprawia styl
      */
     @PostMapping("/improve-email")
-    public ResponseEntity<Map<String, String>> improveEmail(@RequestBody Map<String, String> request) {
-        try {
-            String content = request.get("content");
-            String goal = request.getOrDefault("goal", "general");
-            String tone = request.getOrDefault("tone", "professional");
-            
-            log.info("Improving email content, goal: {}, tone: {}", goal, tone);
-            String improved = aiSequenceService.improveEmailContent(content, goal, tone);
-            
-            return ResponseEntity.ok(Map.of("content", improved));
-        } catch (Exception e) {
-            log.error("Error improving email", e);
-            return ResponseEntity.internalServerError().build();
-        }
+    public Mono<ResponseEntity<Map<String, String>>> improveEmail(@RequestBody Map<String, String> request) {
+        String content = request.get("content");
+        String goal = request.getOrDefault("goal", "general");
+        String tone = request.getOrDefault("tone", "professional");
+
+        log.info("Improving email content, goal: {}, tone: {}", goal, tone);
+        return aiSequenceService.improveEmailContent(content, goal, tone)
+                .map(improved -> ResponseEntity.ok(Map.of("content", improved)))
+                .onErrorResume(e -> internalError("Error improving email", e));
+    }
+
+    /**
+     * Ulepszona treść strumieniowana (SSE): zdarzenia "token" i na końcu "done"
+     */
+    @PostMapping(value = "/improve-email/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Map<String, Object>>> streamImproveEmail(@RequestBody Map<String, String> request,
+                                                                        HttpServletResponse response) {
+        noProxyBuffering(response);
+        return AIGateway.toEvents(aiSequenceService.streamImprovedEmailContent(
+                request.get("content"),
+                request.getOrDefault("goal", "general"),
+                request.getOrDefault("tone", "professional")));
     }
     
     /**
      * Generuje temat emaila na podstawie treści
      */
     @PostMapping("/generate-subject")
-    public ResponseEntity<Map<String, String>> generateSubject(@RequestBody Map<String, String> request) {
-        try {
-            String content = request.get("content");
-            String style = request.getOrDefault("style", "professional");
-            
-            log.info("Generating email subject, style: {}", style);
-            String subject = aiSequenceService.generateEmailSubject(content, style);
-            
-            return ResponseEntity.ok(Map.of("subject", subject));
-        } catch (Exception e) {
-            log.error("Error generating subject", e);
-            return ResponseEntity.internalServerError().build();
-        }
+    public Mono<ResponseEntity<Map<String, String>>> generateSubject(@RequestBody Map<String, String> request) {
+        String content = request.get("content");
+        String style = request.getOrDefault("style", "professional");
+
+        log.info("Generating email subject, style: {}", style);
+        return aiSequenceService.generateEmailSubject(content, style)
+                .map(subject -> ResponseEntity.ok(Map.of("subject", subject)))
+                .onErrorResume(e -> internalError("Error generating subject", e));
     }
     
     /**
      * Personalizuje treść na podstawie danych kontaktu
      */
     @PostMapping("/personalize")
-    public ResponseEntity<Map<String, String>> personalizeContent(@RequestBody Map<String, Object> request) {
-        try {
-            String content = (String) request.get("content");
-            String contactName = (String) request.getOrDefault("contactName", "");
-            String company = (String) request.getOrDefault("company", "");
-            String position = (String) request.getOrDefault("position", "");
-            
-            log.info("Personalizing content for: {}, {}", contactName, company);
-            String personalized = aiSequenceService.personalizeContent(content, contactName, company, position);
-            
-            return ResponseEntity.ok(Map.of("content", personalized));
-        } catch (Exception e) {
-            log.error("Error personalizing content", e);
-            return ResponseEntity.internalServerError().build();
-        }
+    public Mono<ResponseEntity<Map<String, String>>> personalizeContent(@RequestBody Map<String, Object> request) {
+        String content = (String) request.get("content");
+        String contactName = (String) request.getOrDefault("contactName", "");
+        String company = (String) request.getOrDefault("company", "");
+        String position = (String) request.getOrDefault("position", "");
+
+        log.info("Personalizing content for: {}, {}", contactName, company);
+        return aiSequenceService.personalizeContent(content, contactName, company, position)
+                .map(personalized -> ResponseEntity.ok(Map.of("content", personalized)))
+                .onErrorResume(e -> internalError("Error personalizing content", e));
+    }
+
+    /**
+     * Spersonalizowana treść strumieniowana (SSE): zdarzenia "token" i na końcu "done"
+     */
+    @PostMapping(value = "/personalize/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Map<String, Object>>> streamPersonalizeContent(@RequestBody Map<String, Object> request,
+                                                                              HttpServletResponse response) {
+        noProxyBuffering(response);
+        return AIGateway.toEvents(aiSequenceService.streamPersonalizedContent(
+                (String) request.get("content"),
+                (String) request.getOrDefault("contactName", ""),
+                (String) request.getOrDefault("company", ""),
+                (String) request.getOrDefault("position", "")));
     }
     
     /**
      * Generuje warianty A/B dla treści emaila
      */
     @PostMapping("/generate-variants")
-    public ResponseEntity<Map<String, Object>> generateVariants(@RequestBody Map<String, String> request) {
-        try {
-            String content = request.get("content");
-            int count = Integer.parseInt(request.getOrDefault("count", "2"));
-            
-            log.info("Generating {} variants for email", count);
-            var variants = aiSequenceService.generateVariants(content, count);
-            
-            return ResponseEntity.ok(Map.of("variants", variants));
-        } catch (Exception e) {
-            log.error("Error generating variants", e);
-            return ResponseEntity.internalServerError().build();
-        }
+    public Mono<ResponseEntity<Map<String, Object>>> generateVariants(@RequestBody Map<String, String> request) {
+        String content = request.get("content");
+        int count = Integer.parseInt(request.getOrDefault("count", "2"));
+
+        log.info("Generating {} variants for email", count);
+        return aiSequenceService.generateVariants(content, count)
+                .map(variants -> ResponseEntity.ok(Map.<String, Object>of("variants", variants)))
+                .onErrorResume(e -> internalError("Error generating variants", e));
+    }
+
+    /**
+     * Warianty A/B strumieniowane (SSE) w miarę ukończenia: zdarzenia "variant" {index, text} i "done"
+     */
+    @PostMapping(value = "/generate-variants/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Map<String, Object>>> streamVariants(@RequestBody Map<String, String> request,
+                                                                    HttpServletResponse response) {
+        noProxyBuffering(response);
+        int count = Integer.parseInt(request.getOrDefault("count", "2"));
+        return aiSequenceService.streamVariants(request.get("content"), count)
+                .map(variant -> ServerSentEvent.<Map<String, Object>>builder(
+                        Map.of("index", variant.index(), "text", variant.text())).event("variant").build())
+                .concatWith(Mono.fromSupplier(() -> ServerSentEvent.<Map<String, Object>>builder(Map.of()).event("done").build()));
+    }
+
+    /**
+     * Metryki bramy LLM: czasy, tokeny i cache per funkcja AI oraz zajętość limitów
+     */
+    @GetMapping("/metrics")
+    public ResponseEntity<Map<String, Object>> getMetrics() {
+        return ResponseEntity.ok(aiGateway.getStats());
+    }
+
+    private static <T> Mono<ResponseEntity<T>> internalError(String message, Throwable e) {
+        log.error(message, e);
+        return Mono.just(ResponseEntity.internalServerError().build());
+    }
+
+    /**
+     * nginx nie buforuje odpowiedzi strumieniowej
+     */
+    private static void noProxyBuffering(HttpServletResponse response) {
+        response.setHeader("X-Accel-Buffering", "no");
     }
-}
\ No newline at end of file
+}
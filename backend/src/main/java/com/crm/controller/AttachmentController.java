@@ -5,8 +5,8 @@ import com.crm.security.UserPrincipal;
 import com.crm.service.AttachmentService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -76,32 +76,33 @@ public class AttachmentController {
     }
 
     /**
-     * Download attachment by ID
+     * Download attachment by ID.
+     * Plik jest strumieniowany z dysku; Spring obsługuje nagłówek Range (206) oraz
+     * If-None-Match względem ETag (304), więc przeglądarka może wznawiać i nie pobiera ponownie.
      */
     @GetMapping("/{id}")
     public ResponseEntity<Resource> downloadAttachment(@PathVariable Long id) {
+        Attachment attachment;
+        Resource resource;
         try {
-            Attachment attachment = attachmentService.getById(id);
-            byte[] fileBytes = attachmentService.getFileBytes(attachment);
-            
-            ByteArrayResource resource = new ByteArrayResource(fileBytes);
-            
-            String encodedFilename = URLEncoder.encode(attachment.getOriginalName(), StandardCharsets.UTF_8)
-                    .replaceAll("\\+", "%20");
-            
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(attachment.getContentType()))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, 
-                            "attachment; filename*=UTF-8''" + encodedFilename)
-                    .contentLength(attachment.getSize())
-                    .body(resource);
-        } catch (IOException e) {
-            log.error("Download failed for attachment {}", id, e);
-            return ResponseEntity.internalServerError().build();
+            attachment = attachmentService.getById(id);
+            resource = attachmentService.getResource(attachment);
         } catch (RuntimeException e) {
             log.warn("Attachment not found: {}", id);
             return ResponseEntity.notFound().build();
         }
+
+        String encodedFilename = URLEncoder.encode(attachment.getOriginalName(), StandardCharsets.UTF_8)
+                .replaceAll("\\+", "%20");
+
+        // Content-Length liczony z pliku (dla zakresu - z regionu)
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(attachment.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename*=UTF-8''" + encodedFilename)
+                .eTag(attachmentService.getETag(attachment))
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .body(resource);
     }
 
     /**
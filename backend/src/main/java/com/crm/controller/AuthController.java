@@ -4,6 +4,7 @@ import com.crm.dto.auth.JwtAuthResponse;
 import com.crm.dto.auth.LoginRequest;
 import com.crm.model.AdminUser;
 import com.crm.repository.AdminUserRepository;
+import com.crm.security.AuthenticatedPrincipalCache;
 import com.crm.security.JwtTokenProvider;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -28,6 +29,7 @@ public class AuthController {
     private final AdminUserRepository adminUserRepository;
     private final PasswordEncoder passwordEncoder;
     private final JwtTokenProvider jwtTokenProvider;
+    private final AuthenticatedPrincipalCache principalCache;
 
     @PostMapping("/login")
     public ResponseEntity<JwtAuthResponse> login(@RequestBody LoginRequest loginRequest) {
@@ -84,6 +86,7 @@ public class AuthController {
 
         user.setPasswordHash(passwordEncoder.encode(newPassword));
         adminUserRepository.save(user);
+        principalCache.invalidateUser(user.getId());
 
         return ResponseEntity.ok(Map.of("message", "Password changed successfully"));
     }
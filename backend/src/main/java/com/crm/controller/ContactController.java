@@ -4,7 +4,7 @@ import com.crm.dto.ContactDto;
 import com.crm.mapper.ContactMapper;
 import com.crm.model.Contact;
 import com.crm.model.Email;
-import com.crm.service.ContactAutoCreationService;
+import com.crm.service.ContactReconciliationService;
 import com.crm.service.ContactService;
 import com.crm.service.DuplicateDetectionService;
 import com.crm.service.LeadScoringService;
@@ -39,7 +39,7 @@ import java.util.stream.Collectors;
 public class ContactController {
 
     private final ContactService contactService;
-    private final ContactAutoCreationService contactAutoCreationService;
+    private final ContactReconciliationService contactReconciliationService;
     private final LeadScoringService leadScoringService;
     private final DuplicateDetectionService duplicateDetectionService;
     private final ContactMapper contactMapper;
@@ -83,9 +83,8 @@ public class ContactController {
             ? contacts.subList(start, end)
             : List.of();
 
-        List<ContactDto> contactDtos = pagedContacts.stream()
-                .map(contactMapper::toDto)
-                .collect(Collectors.toList());
+        // Sekwencje i tagi dla całej strony pobierane zbiorczo
+        List<ContactDto> contactDtos = contactMapper.toDtoList(pagedContacts);
 
         return ResponseEntity.ok(contactDtos);
     }
@@ -203,16 +202,21 @@ public class ContactController {
     
     @PostMapping("/sync-from-emails")
     public ResponseEntity<Map<String, Object>> syncContactsFromEmails() {
-        contactAutoCreationService.syncContactsFromAllEmails();
-
-        Map<String, Object> response = new HashMap<>();
+        Map<String, Object> response = new HashMap<>(contactReconciliationService.start());
         response.put("success", true);
         response.put("message", "Synchronizacja kontaktów rozpoczęta w tle");
-        response.put("status", "running");
 
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Postęp synchronizacji kontaktów z maili
+     */
+    @GetMapping("/sync-from-emails/status")
+    public ResponseEntity<Map<String, Object>> getSyncFromEmailsStatus() {
+        return ResponseEntity.ok(contactReconciliationService.getProgress());
+    }
+
     /**
      * Update lead score for a single contact
      */
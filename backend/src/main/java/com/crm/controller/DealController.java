@@ -1,5 +1,6 @@
 package com.crm.controller;
 
+import com.crm.dto.deals.DealBoardDto;
 import com.crm.model.Deal;
 import com.crm.model.Pipeline;
 import com.crm.service.DealService;
@@ -32,6 +33,22 @@ public class DealController {
         return ResponseEntity.ok(dealService.getDealsByPipeline(id));
     }
 
+    /**
+     * Tablica Kanban - karty ograniczone do `limit` na etap, liczniki i sumy dla całych etapów
+     */
+    @GetMapping("/pipeline/{id}/board")
+    public ResponseEntity<DealBoardDto> getBoard(@PathVariable Long id,
+                                                 @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(dealService.getPipelineBoard(id, limit));
+    }
+
+    @GetMapping("/stages/{stageId}/deals")
+    public ResponseEntity<List<DealBoardDto.DealCard>> getStageCards(@PathVariable Long stageId,
+                                                                     @RequestParam(defaultValue = "0") int offset,
+                                                                     @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(dealService.getStageCards(stageId, offset, limit));
+    }
+
     @PostMapping
     public ResponseEntity<Deal> createDeal(@RequestBody Deal deal) {
         return ResponseEntity.ok(dealService.createDeal(deal));
@@ -9,9 +9,12 @@ import com.crm.model.Email;
 import com.crm.service.AttachmentService;
 import com.crm.service.EmailService;
 import com.crm.service.EmailSendingService;
+import com.crm.exception.ResourceNotFoundException;
+import com.crm.service.AIGateway;
 import com.crm.service.AIReplyService;
 import com.crm.service.AIClassificationService;
 import jakarta.mail.MessagingException;
+import jakarta.servlet.http.HttpServletResponse;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
@@ -24,8 +27,12 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
 
@@ -108,7 +115,7 @@ public class EmailController {
     
     @GetMapping("/{id}")
     public ResponseEntity<Email> getEmailById(@PathVariable Long id) {
-        return emailService.getEmailById(id)
+        return emailService.getEmailWithContent(id)
                 .map(ResponseEntity::ok)
                 .orElse(ResponseEntity.notFound().build());
     }
@@ -210,42 +217,73 @@ public class EmailController {
      * Generuje AI sugestię odpowiedzi na email
      */
     @PostMapping("/{id}/suggest-reply")
-    public ResponseEntity<Map<String, String>> suggestReply(@PathVariable Long id) {
+    public Mono<ResponseEntity<Map<String, String>>> suggestReply(@PathVariable Long id) {
+        ReplyContext context;
         try {
-            Email originalEmail = emailService.getEmailById(id)
-                    .orElseThrow(() -> new RuntimeException("Email not found"));
-
-            // 1. Znajdź kontakt i historię
-            String senderEmailAddress = extractEmail(originalEmail.getSender());
-            Contact contact = null;
-            List<Email> history = null;
-            
-            if (senderEmailAddress != null) {
-                contact = contactRepository.findByEmail(senderEmailAddress).orElse(null);
-                if (contact != null) {
-                    history = contactService.getEmailsByContact(contact);
-                }
-            }
+            context = replyContext(id);
+        } catch (Exception e) {
+            log.error("Error generating reply suggestion for email {}", id, e);
+            return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to generate reply suggestion")));
+        }
 
-            // 2. Generuj odpowiedź z kontekstem
-            String suggestion = aiReplyService.generateReplySuggestion(
-                    originalEmail.getSubject(),
-                    originalEmail.getContent(),
-                    originalEmail.getSender(),
-                    contact,
-                    history
-            );
+        Email originalEmail = context.email();
+        return aiReplyService.generateReplySuggestion(
+                        originalEmail.getSubject(),
+                        originalEmail.getContent(),
+                        originalEmail.getSender(),
+                        context.contact(),
+                        context.history())
+                .map(suggestion -> {
+                    Map<String, String> response = new HashMap<>();
+                    response.put("suggestion", suggestion);
+                    response.put("subject", "Re: " + originalEmail.getSubject());
+                    return ResponseEntity.ok(response);
+                });
+    }
 
-            Map<String, String> response = new HashMap<>();
-            response.put("suggestion", suggestion);
-            response.put("subject", "Re: " + originalEmail.getSubject());
+    /**
+     * Sugestia odpowiedzi strumieniowana (SSE): "subject", potem "token" z kolejnymi fragmentami i "done"
+     */
+    @PostMapping(value = "/{id}/suggest-reply/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Map<String, Object>>> streamReplySuggestion(@PathVariable Long id,
+                                                                           HttpServletResponse response) {
+        ReplyContext context = replyContext(id);
+        Email originalEmail = context.email();
+        // nginx nie buforuje odpowiedzi strumieniowej
+        response.setHeader("X-Accel-Buffering", "no");
+
+        ServerSentEvent<Map<String, Object>> subject = ServerSentEvent.<Map<String, Object>>builder(
+                Map.of("text", "Re: " + originalEmail.getSubject())).event("subject").build();
+        return Flux.concat(Flux.just(subject), AIGateway.toEvents(aiReplyService.streamReplySuggestion(
+                originalEmail.getSubject(),
+                originalEmail.getContent(),
+                originalEmail.getSender(),
+                context.contact(),
+                context.history())));
+    }
 
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            log.error("Error generating reply suggestion for email {}", id, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of("error", "Failed to generate reply suggestion"));
+    /**
+     * Email z treścią, kontakt nadawcy i historia korespondencji - kontekst dla AI
+     */
+    private ReplyContext replyContext(Long id) {
+        Email originalEmail = emailService.getEmailWithContent(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Email not found"));
+
+        String senderEmailAddress = extractEmail(originalEmail.getSender());
+        Contact contact = null;
+        List<Email> history = null;
+
+        if (senderEmailAddress != null) {
+            contact = contactRepository.findByEmail(senderEmailAddress).orElse(null);
+            if (contact != null) {
+                history = contactService.getEmailsByContact(contact);
+            }
         }
+        return new ReplyContext(originalEmail, contact, history);
+    }
+
+    private record ReplyContext(Email email, Contact contact, List<Email> history) {
     }
 
     /**
@@ -1,10 +1,12 @@
 package com.crm.controller;
 
+import com.crm.exception.ResourceNotFoundException;
 import com.crm.model.Contact;
 import com.crm.model.EmailTemplate;
 import com.crm.model.EmailTemplateTheme;
 import com.crm.repository.ContactRepository;
 import com.crm.service.EmailTemplateService;
+import com.crm.service.NewsletterService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
@@ -26,6 +28,7 @@ public class EmailTemplateController {
 
     private final EmailTemplateService templateService;
     private final ContactRepository contactRepository;
+    private final NewsletterService newsletterService;
 
     // ============ Template Management ============
 
@@ -253,13 +256,27 @@ public class EmailTemplateController {
                         .body(Map.of("error", "Wybierz przynajmniej jeden tag", "success", false));
             }
 
-            Map<String, Object> result = templateService.sendNewsletterToTags(templateId, tagIds, subject, accountId);
+            // Wysyłka idzie w tle - zwracamy id zadania, postęp pod /newsletter-jobs/{jobId}
+            Map<String, Object> result = newsletterService.startTagNewsletter(templateId, tagIds, subject, accountId);
             
-            return ResponseEntity.ok(result);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(result);
         } catch (Exception e) {
             log.error("Error sending newsletter", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", e.getMessage(), "success", false));
         }
     }
+
+    @GetMapping("/newsletter-jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getNewsletterJob(@PathVariable Long jobId) {
+        try {
+            return ResponseEntity.ok(newsletterService.getNewsletterJobProgress(jobId));
+        } catch (ResourceNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            log.error("Error fetching newsletter job {}", jobId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
 }
\ No newline at end of file
@@ -2,15 +2,19 @@ package com.crm.controller;
 
 import com.crm.model.Notification;
 import com.crm.repository.NotificationRepository;
+import com.crm.service.NotificationService;
 import com.crm.service.UserContextService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import jakarta.servlet.http.HttpServletResponse;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +29,7 @@ import java.util.Map;
 public class NotificationController {
 
     private final NotificationRepository notificationRepository;
+    private final NotificationService notificationService;
     private final UserContextService userContextService;
 
     /**
@@ -40,23 +45,41 @@ public class NotificationController {
     }
 
     /**
-     * Pobierz nieprzeczytane powiadomienia
+     * Strumień SSE: zdarzenia "notification" (nowe powiadomienie) i "unread-count" (licznik)
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(HttpServletResponse response) {
+        Long userId = userContextService.getCurrentUserId();
+        // nginx nie buforuje odpowiedzi strumieniowej
+        response.setHeader("X-Accel-Buffering", "no");
+        return notificationService.subscribe(userId);
+    }
+
+    /**
+     * Pobierz nieprzeczytane powiadomienia (maks. 100 na stronę).
+     * Kolejna strona: before = id ostatniego elementu, zwracane też w nagłówku X-Next-Cursor.
      */
     @GetMapping("/unread")
-    public ResponseEntity<List<Notification>> getUnreadNotifications() {
+    public ResponseEntity<List<Notification>> getUnreadNotifications(
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) Long before) {
         Long userId = userContextService.getCurrentUserId();
-        List<Notification> notifications = notificationRepository
-                .findByUserIdAndIsReadFalseOrderByCreatedAtDesc(userId);
-        return ResponseEntity.ok(notifications);
+        List<Notification> notifications = notificationService.getUnread(userId, before, limit);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (!notifications.isEmpty() && notifications.size() >= Math.min(limit, NotificationService.MAX_PAGE_SIZE)) {
+            response.header("X-Next-Cursor", String.valueOf(notifications.get(notifications.size() - 1).getId()));
+        }
+        return response.body(notifications);
     }
 
     /**
-     * Pobierz liczbę nieprzeczytanych powiadomień
+     * Pobierz liczbę nieprzeczytanych powiadomień (licznik w pamięci, bez zapytania do bazy)
      */
     @GetMapping("/count")
     public ResponseEntity<Map<String, Long>> getUnreadCount() {
         Long userId = userContextService.getCurrentUserId();
-        long count = notificationRepository.countByUserIdAndIsReadFalse(userId);
+        long count = notificationService.getUnreadCount(userId);
         Map<String, Long> result = new HashMap<>();
         result.put("unreadCount", count);
         return ResponseEntity.ok(result);
@@ -76,9 +99,7 @@ public class NotificationController {
             return ResponseEntity.status(403).build();
         }
         
-        notification.markAsRead();
-        notificationRepository.save(notification);
-        return ResponseEntity.ok(notification);
+        return ResponseEntity.ok(notificationService.markAsRead(notification));
     }
 
     /**
@@ -88,7 +109,7 @@ public class NotificationController {
     @Transactional
     public ResponseEntity<Map<String, Integer>> markAllAsRead() {
         Long userId = userContextService.getCurrentUserId();
-        int count = notificationRepository.markAllAsReadForUser(userId);
+        int count = notificationService.markAllAsRead(userId);
         
         Map<String, Integer> result = new HashMap<>();
         result.put("markedAsRead", count);
@@ -109,7 +130,7 @@ public class NotificationController {
             return ResponseEntity.status(403).build();
         }
         
-        notificationRepository.deleteById(id);
+        notificationService.delete(notification);
         return ResponseEntity.ok().build();
     }
 }
@@ -10,6 +10,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @RestController
@@ -68,15 +69,15 @@ public class TagController {
     }
 
     @PostMapping("/contacts/add")
-    public ResponseEntity<Void> addTagToContacts(@RequestBody BulkTagRequest request) {
-        tagService.addTagToContacts(request.getContactIds(), request.getTagId());
-        return ResponseEntity.ok().build();
+    public ResponseEntity<Map<String, Integer>> addTagToContacts(@RequestBody BulkTagRequest request) {
+        int changed = tagService.addTagToContacts(request.getContactIds(), request.getTagId());
+        return ResponseEntity.ok(Map.of("changed", changed));
     }
 
     @PostMapping("/contacts/remove")
-    public ResponseEntity<Void> removeTagFromContacts(@RequestBody BulkTagRequest request) {
-        tagService.removeTagFromContacts(request.getContactIds(), request.getTagId());
-        return ResponseEntity.ok().build();
+    public ResponseEntity<Map<String, Integer>> removeTagFromContacts(@RequestBody BulkTagRequest request) {
+        int changed = tagService.removeTagFromContacts(request.getContactIds(), request.getTagId());
+        return ResponseEntity.ok(Map.of("changed", changed));
     }
 
     @GetMapping("/{tagId}/contacts")
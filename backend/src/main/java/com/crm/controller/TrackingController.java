@@ -5,6 +5,7 @@ import com.crm.model.Email;
 import com.crm.repository.ContactRepository;
 import com.crm.repository.EmailRepository;
 import com.crm.service.WorkflowAutomationService;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ClassPathResource;
@@ -35,6 +36,7 @@ public class TrackingController {
     private final EmailRepository emailRepository;
     private final ContactRepository contactRepository;
     private final WorkflowAutomationService workflowAutomationService;
+    private final MeterRegistry meterRegistry;
     
     // 1x1 transparent PNG pixel
     private static final byte[] PIXEL_BYTES = {
@@ -51,7 +53,9 @@ public class TrackingController {
 
     @GetMapping("/pixel.png")
     public ResponseEntity<byte[]> trackEmail(@RequestParam(required = false) String id) {
+        String result = "no_id";
         if (id != null && !id.isEmpty()) {
+            result = "unknown";
             try {
                 // Find email by tracking ID
                 Optional<Email> emailOpt = emailRepository.findByTrackingId(id);
@@ -60,6 +64,7 @@ public class TrackingController {
                     
                     // Update stats
                     boolean firstOpen = !Boolean.TRUE.equals(email.getIsOpened());
+                    result = firstOpen ? "first" : "repeat";
                     if (firstOpen) {
                         email.setIsOpened(true);
                         email.setOpenedAt(LocalDateTime.now());
@@ -76,8 +81,10 @@ public class TrackingController {
                 }
             } catch (Exception e) {
                 log.error("Error tracking email open: {}", id, e);
+                result = "error";
             }
         }
+        countEvent("open", result);
 
         return ResponseEntity.ok()
                 .contentType(MediaType.IMAGE_PNG)
@@ -127,12 +134,15 @@ public class TrackingController {
             @RequestParam(required = false) String url) {
         
         String targetUrl = decodeTargetUrl(url);
+        String result = "no_id";
         
         if (id != null && !id.isEmpty()) {
+            result = "unknown";
             try {
                 Optional<Email> emailOpt = emailRepository.findByTrackingId(id);
                 if (emailOpt.isPresent()) {
                     Email email = emailOpt.get();
+                    result = "tracked";
                     
                     log.info("Link clicked in email: {} (Subject: {}), URL: {}", 
                              id, email.getSubject(), targetUrl);
@@ -142,8 +152,10 @@ public class TrackingController {
                 }
             } catch (Exception e) {
                 log.error("Error tracking email click: {}", id, e);
+                result = "error";
             }
         }
+        countEvent("click", result);
         
         // Redirect to target URL or fallback
         if (targetUrl != null && !targetUrl.isEmpty()) {
@@ -156,6 +168,13 @@ public class TrackingController {
         }
     }
     
+    /**
+     * Licznik zdarzeń śledzenia - czas odpowiedzi mierzy http.server.requests
+     */
+    private void countEvent(String type, String result) {
+        meterRegistry.counter("crm.tracking.events", "type", type, "result", result).increment();
+    }
+
     /**
      * Dekoduje URL z Base64 lub URLEncoding
      */
@@ -3,6 +3,8 @@ package com.crm.controller;
 import com.crm.dto.auth.UserDto;
 import com.crm.model.AdminUser;
 import com.crm.repository.AdminUserRepository;
+import com.crm.security.AuthenticatedPrincipalCache;
+import com.crm.service.UserContactService;
 import com.crm.service.UserContextService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
@@ -22,6 +24,8 @@ public class UserController {
     private final AdminUserRepository adminUserRepository;
     private final UserContextService userContextService;
     private final PasswordEncoder passwordEncoder;
+    private final AuthenticatedPrincipalCache principalCache;
+    private final UserContactService userContactService;
 
     @GetMapping("/me")
     public ResponseEntity<UserDto> getCurrentUser() {
@@ -129,6 +133,8 @@ public class UserController {
         }
 
         AdminUser updatedUser = adminUserRepository.save(user);
+        // Rola/hasło/aktywność mogły się zmienić - wymuś ponowne załadowanie przy kolejnym żądaniu
+        principalCache.invalidateUser(id);
 
         return ResponseEntity.ok(toDto(updatedUser));
     }
@@ -145,6 +151,8 @@ public class UserController {
         }
 
         adminUserRepository.deleteById(id);
+        principalCache.invalidateUser(id);
+        userContactService.evictUser(id);
         return ResponseEntity.noContent().build();
     }
 
@@ -3,11 +3,13 @@ package com.crm.controller;
 import com.crm.model.Contact;
 import com.crm.service.ContactService;
 import com.crm.service.WoodpeckerApiService;
+import com.crm.service.WoodpeckerSyncService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -21,22 +23,20 @@ import java.util.Map;
 public class WoodpeckerController {
     
     private final WoodpeckerApiService woodpeckerApiService;
+    private final WoodpeckerSyncService woodpeckerSyncService;
     private final ContactService contactService;
     
     /**
      * Pobierz informacje o koncie Woodpecker
      */
     @GetMapping("/me")
-    public ResponseEntity<Map<String, Object>> getMe() {
-        try {
-            Map<String, Object> userInfo = woodpeckerApiService.getMe();
-            return ResponseEntity.ok(userInfo);
-        } catch (Exception e) {
-            log.error("Error fetching Woodpecker user info", e);
-            Map<String, Object> error = new HashMap<>();
-            error.put("error", e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
-        }
+    public Mono<ResponseEntity<Map<String, Object>>> getMe() {
+        return woodpeckerApiService.getMe()
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> {
+                    log.error("Error fetching Woodpecker user info", e);
+                    return Mono.just(errorResponse(e));
+                });
     }
     
     /**
@@ -69,16 +69,13 @@ public class WoodpeckerController {
      * Pobierz szczegóły kampanii
      */
     @GetMapping("/campaigns/{id}")
-    public ResponseEntity<Map<String, Object>> getCampaign(@PathVariable Long id) {
-        try {
-            Map<String, Object> campaign = woodpeckerApiService.getCampaign(id);
-            return ResponseEntity.ok(campaign);
-        } catch (Exception e) {
-            log.error("Error fetching campaign {}", id, e);
-            Map<String, Object> error = new HashMap<>();
-            error.put("error", e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
-        }
+    public Mono<ResponseEntity<Map<String, Object>>> getCampaign(@PathVariable Long id) {
+        return woodpeckerApiService.getCampaign(id)
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> {
+                    log.error("Error fetching campaign {}", id, e);
+                    return Mono.just(errorResponse(e));
+                });
     }
     
     /**
@@ -101,7 +98,7 @@ public class WoodpeckerController {
      * Importuj kontakty z CRM do Woodpecker jako prospectów
      */
     @PostMapping("/campaigns/{campaignId}/import-contacts")
-    public ResponseEntity<Map<String, Object>> importContactsToCampaign(
+    public Mono<ResponseEntity<Map<String, Object>>> importContactsToCampaign(
             @PathVariable Long campaignId,
             @RequestParam(required = false) String contactIds) {
         
@@ -163,19 +160,21 @@ public class WoodpeckerController {
             }
             
             // Dodaj prospectów do kampanii
-            Map<String, Object> result = woodpeckerApiService.addProspectsToCampaign(campaignId, prospects);
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("imported", prospects.size());
-            response.put("woodpeckerResponse", result);
-            
-            return ResponseEntity.ok(response);
+            return woodpeckerApiService.addProspectsToCampaign(campaignId, prospects)
+                    .map(result -> {
+                        Map<String, Object> response = new HashMap<>();
+                        response.put("success", true);
+                        response.put("imported", prospects.size());
+                        response.put("woodpeckerResponse", result);
+                        return ResponseEntity.ok(response);
+                    })
+                    .onErrorResume(e -> {
+                        log.error("Error importing contacts to campaign {}", campaignId, e);
+                        return Mono.just(errorResponse(e));
+                    });
         } catch (Exception e) {
             log.error("Error importing contacts to campaign {}", campaignId, e);
-            Map<String, Object> error = new HashMap<>();
-            error.put("error", e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+            return Mono.just(errorResponse(e));
         }
     }
     
@@ -183,16 +182,13 @@ public class WoodpeckerController {
      * Utwórz nową kampanię w Woodpecker
      */
     @PostMapping("/campaigns")
-    public ResponseEntity<Map<String, Object>> createCampaign(@RequestBody Map<String, Object> campaignData) {
-        try {
-            Map<String, Object> campaign = woodpeckerApiService.createCampaign(campaignData);
-            return ResponseEntity.ok(campaign);
-        } catch (Exception e) {
-            log.error("Error creating campaign", e);
-            Map<String, Object> error = new HashMap<>();
-            error.put("error", e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
-        }
+    public Mono<ResponseEntity<Map<String, Object>>> createCampaign(@RequestBody Map<String, Object> campaignData) {
+        return woodpeckerApiService.createCampaign(campaignData)
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> {
+                    log.error("Error creating campaign", e);
+                    return Mono.just(errorResponse(e));
+                });
     }
     
     /**
@@ -226,5 +222,26 @@ public class WoodpeckerController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
         }
     }
+    
+    /**
+     * Uruchom synchronizację lokalnej kopii z Woodpecker
+     */
+    @PostMapping("/sync")
+    public ResponseEntity<Map<String, Object>> startSync() {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(woodpeckerSyncService.startSync());
+    }
+    
+    /**
+     * Stan ostatniej synchronizacji
+     */
+    @GetMapping("/sync/status")
+    public ResponseEntity<Map<String, Object>> getSyncStatus() {
+        return ResponseEntity.ok(woodpeckerSyncService.getStatus());
+    }
+    
+    private static ResponseEntity<Map<String, Object>> errorResponse(Throwable e) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", e.getMessage());
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+    }
 }
-
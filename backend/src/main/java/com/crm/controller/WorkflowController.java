@@ -1,10 +1,13 @@
 package com.crm.controller;
 
+import com.crm.model.WorkflowEvent;
 import com.crm.model.WorkflowExecution;
 import com.crm.model.WorkflowRule;
+import com.crm.repository.WorkflowEventRepository;
 import com.crm.repository.WorkflowExecutionRepository;
 import com.crm.service.UserContextService;
 import com.crm.service.WorkflowAutomationService;
+import com.crm.service.WorkflowEventDispatcher;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
@@ -28,6 +31,8 @@ public class WorkflowController {
     private final WorkflowAutomationService workflowService;
     private final WorkflowExecutionRepository executionRepository;
     private final UserContextService userContextService;
+    private final WorkflowEventDispatcher eventDispatcher;
+    private final WorkflowEventRepository eventRepository;
 
     // ==================== RULES ====================
 
@@ -135,6 +140,39 @@ public class WorkflowController {
         return ResponseEntity.ok(stats);
     }
 
+    // ==================== EVENT QUEUE ====================
+
+    /**
+     * Stan kolejki zdarzeń workflow (głębokość, opóźnienie, akcje/s)
+     */
+    @GetMapping("/queue/stats")
+    public ResponseEntity<Map<String, Object>> getQueueStats() {
+        return ResponseEntity.ok(eventDispatcher.getQueueStats());
+    }
+
+    /**
+     * Zdarzenia, które wyczerpały próby (dead-letter)
+     */
+    @GetMapping("/queue/dead")
+    public ResponseEntity<Page<WorkflowEvent>> getDeadEvents(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        Pageable pageable = PageRequest.of(page, size);
+        return ResponseEntity.ok(eventRepository.findByStatusOrderByIdDesc(WorkflowEvent.EventStatus.DEAD, pageable));
+    }
+
+    /**
+     * Ponów zdarzenie z dead-letter
+     */
+    @PostMapping("/queue/dead/{id}/retry")
+    public ResponseEntity<Void> retryDeadEvent(@PathVariable Long id) {
+        log.info("Retrying dead workflow event: {}", id);
+        if (!eventDispatcher.retryDeadEvent(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().build();
+    }
+
     // ==================== TRIGGER TYPES & ACTION TYPES ====================
 
     /**
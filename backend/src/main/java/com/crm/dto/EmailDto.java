@@ -18,6 +18,7 @@ public class EmailDto {
     private String subject;
     private String preview;
     private String content;
+    private Boolean hasExternalContent; // treść w BlobStore - pobierz szczegóły, żeby ją wyświetlić
     private String status;
     private String company;
     private String messageId;
@@ -0,0 +1,48 @@
+package com.crm.dto.deals;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tablica Kanban pipeline'u - kolumny etapów z licznikami i sumami liczonymi w SQL
+ * oraz ograniczoną liczbą kart na kolumnę
+ */
+@Data
+public class DealBoardDto {
+    private Long pipelineId;
+    private Integer perStageLimit;
+    private List<StageColumn> columns = new ArrayList<>();
+
+    @Data
+    public static class StageColumn {
+        private Long stageId;
+        private String name;
+        private String color;
+        private Integer position;
+        private Double probability;
+        private Long dealCount; // wszystkie deale w etapie, nie tylko zwrócone karty
+        private Double totalValue;
+        private Boolean hasMore; // czy etap ma więcej deali niż zwrócono
+        private List<DealCard> deals = new ArrayList<>();
+    }
+
+    @Data
+    public static class DealCard {
+        private Long id;
+        private String title;
+        private Double value;
+        private String currency;
+        private String status;
+        private Integer priority;
+        private LocalDateTime expectedCloseDate;
+        private LocalDateTime updatedAt;
+        private Long stageId;
+        private Long contactId;
+        private String contactName;
+        private String contactCompany;
+        private Long userId;
+    }
+}
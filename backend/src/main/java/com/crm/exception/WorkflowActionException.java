@@ -0,0 +1,10 @@
+package com.crm.exception;
+
+/**
+ * Akcja reguły workflow nie powiodła się (np. wysyłka emaila) - zdarzenie zostanie ponowione
+ */
+public class WorkflowActionException extends RuntimeException {
+    public WorkflowActionException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
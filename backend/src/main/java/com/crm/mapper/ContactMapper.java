@@ -2,28 +2,68 @@ package com.crm.mapper;
 
 import com.crm.dto.ContactDto;
 import com.crm.model.Contact;
+import com.crm.model.Tag;
+import com.crm.repository.ContactRepository;
 import com.crm.repository.SequenceExecutionRepository;
 import org.mapstruct.*;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.*;
+
 @Mapper(componentModel = "spring")
 public abstract class ContactMapper {
 
     @Autowired
     protected SequenceExecutionRepository sequenceExecutionRepository;
 
-    public abstract ContactDto toDto(Contact contact);
+    @Autowired
+    protected ContactRepository contactRepository;
 
-    @AfterMapping
-    protected void setInActiveSequence(@MappingTarget ContactDto dto, Contact contact) {
-        if (contact.getId() != null) {
-            boolean inActive = sequenceExecutionRepository.existsByContactIdAndStatus(contact.getId(), "active");
-            dto.setInActiveSequence(inActive);
-        } else {
-            dto.setInActiveSequence(false);
+    public ContactDto toDto(Contact contact) {
+        if (contact == null) {
+            return null;
         }
+        return toDtoList(List.of(contact)).get(0);
     }
 
+    /**
+     * Mapuje listę kontaktów - przynależność do aktywnych sekwencji i tagi są pobierane
+     * jednym zapytaniem IN dla całej listy zamiast osobnych zapytań per kontakt
+     */
+    public List<ContactDto> toDtoList(List<Contact> contacts) {
+        List<Long> ids = contacts.stream()
+                .map(Contact::getId)
+                .filter(Objects::nonNull)
+                .toList();
+
+        Set<Long> inActiveSequence = new HashSet<>();
+        Map<Long, Set<Tag>> tagsByContact = new HashMap<>();
+        if (!ids.isEmpty()) {
+            inActiveSequence.addAll(sequenceExecutionRepository.findContactIdsWithStatus(ids, "active"));
+            for (Object[] row : contactRepository.findTagsByContactIds(ids)) {
+                tagsByContact.computeIfAbsent((Long) row[0], id -> new HashSet<>()).add((Tag) row[1]);
+            }
+        }
+
+        List<ContactDto> dtos = new ArrayList<>(contacts.size());
+        for (Contact contact : contacts) {
+            ContactDto dto = toDtoWithoutAssociations(contact);
+            if (contact.getId() != null) {
+                dto.setTags(tagsByContact.getOrDefault(contact.getId(), new HashSet<>()));
+                dto.setInActiveSequence(inActiveSequence.contains(contact.getId()));
+            } else {
+                dto.setTags(contact.getTags() != null ? new HashSet<>(contact.getTags()) : null);
+                dto.setInActiveSequence(false);
+            }
+            dtos.add(dto);
+        }
+        return dtos;
+    }
+
+    @Mapping(target = "tags", ignore = true)
+    @Mapping(target = "inActiveSequence", ignore = true)
+    protected abstract ContactDto toDtoWithoutAssociations(Contact contact);
+
     @Mapping(target = "emailCount", defaultValue = "0")
     @Mapping(target = "meetingCount", defaultValue = "0")
     @Mapping(target = "dealCount", defaultValue = "0")
@@ -17,7 +17,8 @@ public class EmailMapper {
         dto.setRecipient(email.getRecipient());
         dto.setSubject(email.getSubject());
         dto.setPreview(email.getPreview());
-        dto.setContent(email.getContent());
+        dto.setContent(email.getContent()); // NULL dla dużych treści - pełna w GET /api/emails/{id}
+        dto.setHasExternalContent(email.getContentHash() != null);
         dto.setStatus(email.getStatus());
         dto.setCompany(email.getCompany());
         dto.setMessageId(email.getMessageId());
@@ -36,6 +36,9 @@ public class Attachment {
     @Column(nullable = false)
     private String path; // Relative path on server
 
+    @Column(length = 64)
+    private String sha256; // Hex SHA-256 of content - identical uploads share one file on disk
+
     @Column(name = "user_id")
     private Long userId; // Owner of the attachment
 
@@ -237,4 +237,14 @@ public class Campaign {
     public boolean canResume() {
         return "paused".equals(status);
     }
+    
+    /**
+     * Temat wysyłki - temat wpisany w kampanii ma pierwszeństwo przed tematem szablonu
+     */
+    public String resolveSubject() {
+        if (template != null && (subject == null || subject.isBlank())) {
+            return template.getSubject();
+        }
+        return subject;
+    }
 }
@@ -30,11 +30,24 @@ public class CampaignRecipient {
     private Contact contact;
     
     /**
-     * Status wysyłki: pending, sent, opened, clicked, bounced, unsubscribed
+     * Status wysyłki: pending, queued, sent, opened, clicked, bounced, unsubscribed
+     * (queued = przekazany do puli wysyłkowej, jeszcze niepotwierdzony)
      */
     @Column(nullable = false, length = 30)
     private String status = "pending";
     
+    /**
+     * Slot wysyłki wyliczony z throttlingu kampanii
+     */
+    @Column(name = "scheduled_for")
+    private LocalDateTime scheduledFor;
+    
+    /**
+     * Moment przekazania do wysyłki (status queued) - dzierżawa odbiorcy
+     */
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+
     @Column(name = "sent_at")
     private LocalDateTime sentAt;
     
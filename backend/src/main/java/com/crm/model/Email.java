@@ -16,8 +16,10 @@ import java.time.LocalDateTime;
     @Index(name = "idx_emails_received_at", columnList = "received_at"),
     @Index(name = "idx_emails_account_id", columnList = "account_id"),
     @Index(name = "idx_emails_tracking_id", columnList = "tracking_id"),
-    @Index(name = "idx_emails_deleted_at", columnList = "deleted_at")
+    @Index(name = "idx_emails_deleted_at", columnList = "deleted_at"),
+    @Index(name = "idx_emails_sender_email_received_at", columnList = "sender_email, received_at")
 })
+@EntityListeners(EmailContentListener.class)
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -30,6 +32,9 @@ public class Email implements SoftDeletable {
     @Column(nullable = false)
     private String sender;
 
+    @Column(name = "sender_email")
+    private String senderEmail; // Znormalizowany adres nadawcy (lowercase) - do wykrywania odpowiedzi
+
     @Column
     private String recipient; // Odbiorca (dla wysłanych emaili)
 
@@ -58,6 +63,9 @@ public class Email implements SoftDeletable {
     
     @Column(columnDefinition = "TEXT")
     private String content; // Pełna treść emaila dla wyciągania danych kontaktowych
+
+    @Column(name = "content_hash", length = 64)
+    private String contentHash; // Klucz treści w BlobStore, gdy jest duża (content wtedy NULL) - czytaj przez EmailContentService
     
     @Column(nullable = false)
     private String status; // positive, neutral, negative, undelivered, maybeLater
@@ -93,5 +101,24 @@ public class Email implements SoftDeletable {
         if (receivedAt == null) {
             receivedAt = LocalDateTime.now();
         }
+        senderEmail = normalizeAddress(sender);
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        senderEmail = normalizeAddress(sender);
+    }
+
+    /**
+     * Wyciąga sam adres z nagłówka "Imię <adres>" i zamienia na lowercase
+     */
+    public static String normalizeAddress(String address) {
+        if (address == null) {
+            return null;
+        }
+        int start = address.indexOf('<');
+        int end = address.indexOf('>', start + 1);
+        String plain = start >= 0 && end > start ? address.substring(start + 1, end) : address;
+        return plain.trim().toLowerCase();
     }
 }
@@ -0,0 +1,26 @@
+package com.crm.model;
+
+import com.crm.service.EmailContentService;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import org.springframework.context.annotation.Lazy;
+
+/**
+ * Przy zapisie maila przenosi dużą treść do BlobStore (wszystkie ścieżki zapisu: pobieranie IMAP,
+ * wysyłka, edycja). Instancję tworzy Spring przez kontener beanów Hibernate.
+ */
+public class EmailContentListener {
+
+    private final EmailContentService emailContentService;
+
+    // @Lazy - listener powstaje razem z EntityManagerFactory, przed serwisami
+    public EmailContentListener(@Lazy EmailContentService emailContentService) {
+        this.emailContentService = emailContentService;
+    }
+
+    @PrePersist
+    @PreUpdate
+    public void externalizeLargeContent(Email email) {
+        emailContentService.externalize(email);
+    }
+}
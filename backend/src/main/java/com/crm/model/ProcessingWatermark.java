@@ -0,0 +1,57 @@
+package com.crm.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Znacznik postępu zadania przetwarzającego dane przyrostowo.
+ * Przechowuje ostatnie przetworzone ID, dzięki czemu kolejne uruchomienie
+ * bierze pod uwagę tylko nowe wiersze.
+ */
+@Entity
+@Table(name = "processing_watermarks")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProcessingWatermark {
+
+    public static final String REPLY_DETECTION = "reply_detection";
+    private static final String NO_REPLY_RULE_PREFIX = "no_reply_rule_";
+
+    @Id
+    @Column(length = 100)
+    private String name;
+
+    @Column(name = "last_id", nullable = false)
+    private Long lastId = 0L;
+
+    /**
+     * Granica czasowa dla zadań przyrostowych po dacie (np. sent_at w regułach NO_REPLY)
+     */
+    @Column(name = "last_timestamp")
+    private LocalDateTime lastTimestamp;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    public ProcessingWatermark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Nazwa watermarku reguły NO_REPLY
+     */
+    public static String noReplyRule(Long ruleId) {
+        return NO_REPLY_RULE_PREFIX + ruleId;
+    }
+
+    @PrePersist
+    @PreUpdate
+    protected void onSave() {
+        updatedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,89 @@
+package com.crm.model;
+
+import com.crm.model.WorkflowRule.TriggerType;
+import io.hypersistence.utils.hibernate.type.json.JsonType;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Type;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Zdarzenie workflow w kolejce (outbox).
+ * Zapisywane w transakcji, która wywołała trigger - reguły wykonuje WorkflowEventDispatcher.
+ * Przechowuje tylko identyfikatory encji, które są ładowane ponownie przy przetwarzaniu.
+ */
+@Entity
+@Table(name = "workflow_events")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WorkflowEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "trigger_type", nullable = false, length = 50)
+    @Enumerated(EnumType.STRING)
+    private TriggerType triggerType;
+
+    /**
+     * Kontakt wyznacza kolejność - zdarzenia jednego kontaktu są przetwarzane po kolei
+     */
+    @Column(name = "contact_id")
+    private Long contactId;
+
+    @Column(name = "email_id")
+    private Long emailId;
+
+    @Column(name = "deal_id")
+    private Long dealId;
+
+    @Type(JsonType.class)
+    @Column(name = "trigger_data", columnDefinition = "jsonb")
+    private Map<String, Object> triggerData;
+
+    @Column(nullable = false, length = 20)
+    @Enumerated(EnumType.STRING)
+    private EventStatus status = EventStatus.PENDING;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    /**
+     * Moment pobrania do przetwarzania (PROCESSING) - dzierżawa zdarzenia
+     */
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        if (nextAttemptAt == null) {
+            nextAttemptAt = createdAt;
+        }
+    }
+
+    public enum EventStatus {
+        PENDING,
+        PROCESSING,
+        DONE,
+        DEAD        // Wyczerpane próby - do ręcznej analizy / ponowienia
+    }
+}
@@ -2,6 +2,8 @@ package com.crm.repository;
 
 import com.crm.model.Attachment;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -12,5 +14,13 @@ public interface AttachmentRepository extends JpaRepository<Attachment, Long> {
     List<Attachment> findByUserId(Long userId);
     
     List<Attachment> findByIdIn(List<Long> ids);
+
+    long countBySha256(String sha256);
+
+    /**
+     * Blokada transakcyjna na treść - upload i usuwanie tego samego sha256 nie przeplatają się
+     */
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(hashtext(:sha256))) l", nativeQuery = true)
+    int lockContent(@Param("sha256") String sha256);
 }
 
@@ -3,12 +3,17 @@ package com.crm.repository;
 import com.crm.model.CampaignRecipient;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -41,22 +46,128 @@ public interface CampaignRecipientRepository extends JpaRepository<CampaignRecip
     List<CampaignRecipient> findPendingRecipients(@Param("campaignId") Long campaignId, Pageable pageable);
     
     /**
-     * Policz wysłane w ciągu ostatniej godziny
+     * Policz wysłane od podanego momentu (także te już otwarte/kliknięte)
      */
     @Query("SELECT COUNT(cr) FROM CampaignRecipient cr WHERE cr.campaign.id = :campaignId " +
-           "AND cr.status = 'sent' AND cr.sentAt >= :sinceTime")
+           "AND cr.sentAt >= :sinceTime")
     long countSentSince(@Param("campaignId") Long campaignId, 
                         @Param("sinceTime") java.time.LocalDateTime sinceTime);
     
     /**
-     * Usuń wszystkich odbiorców kampanii
+     * Usuń wszystkich odbiorców kampanii (jeden DELETE zamiast ładowania encji)
      */
     @Modifying
-    void deleteByCampaignId(Long campaignId);
+    @Query("DELETE FROM CampaignRecipient cr WHERE cr.campaign.id = :campaignId")
+    int deleteByCampaignId(@Param("campaignId") Long campaignId);
+
+    /**
+     * Tworzy odbiorców z kontaktów tagu jednym INSERT ... SELECT.
+     * Wypisani (unsubscribes) i kontakty bez emaila są odfiltrowani anti-joinem,
+     * tracking_id generuje baza.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO campaign_recipients (campaign_id, contact_id, status, tracking_id, created_at) " +
+            "SELECT :campaignId, c.id, 'pending', REPLACE(CAST(gen_random_uuid() AS text), '-', ''), CURRENT_TIMESTAMP " +
+            "FROM contacts c JOIN contact_tags ct ON ct.contact_id = c.id " +
+            "WHERE ct.tag_id = :tagId AND c.email IS NOT NULL AND c.email <> '' " +
+            "AND NOT EXISTS (SELECT 1 FROM unsubscribes u WHERE u.email = c.email) " +
+            "ON CONFLICT (campaign_id, contact_id) DO NOTHING",
+            nativeQuery = true)
+    int insertRecipientsFromTag(@Param("campaignId") Long campaignId, @Param("tagId") Long tagId);
+
+    /**
+     * Jak insertRecipientsFromTag, ale dla wszystkich kontaktów dostępnych dla użytkownika (user_contacts)
+     */
+    @Modifying
+    @Query(value = "INSERT INTO campaign_recipients (campaign_id, contact_id, status, tracking_id, created_at) " +
+            "SELECT :campaignId, c.id, 'pending', REPLACE(CAST(gen_random_uuid() AS text), '-', ''), CURRENT_TIMESTAMP " +
+            "FROM contacts c JOIN user_contacts uc ON uc.contact_id = c.id " +
+            "WHERE uc.user_id = :userId AND c.email IS NOT NULL AND c.email <> '' " +
+            "AND NOT EXISTS (SELECT 1 FROM unsubscribes u WHERE u.email = c.email) " +
+            "ON CONFLICT (campaign_id, contact_id) DO NOTHING",
+            nativeQuery = true)
+    int insertRecipientsFromUserContacts(@Param("campaignId") Long campaignId, @Param("userId") Long userId);
 
     /**
      * Znajdź odbiorców dla kontaktu (dla analizy engagement)
      */
     List<CampaignRecipient> findByContactId(Long contactId);
+
+    // ==================== SENDING ENGINE ====================
+
+    /**
+     * Odbiorcy, których slot wysyłki minął - blokowani z SKIP LOCKED, więc równoległe
+     * instancje nie pobiorą tych samych wierszy
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT cr FROM CampaignRecipient cr JOIN FETCH cr.contact WHERE cr.campaign.id = :campaignId " +
+           "AND cr.status = 'pending' AND cr.scheduledFor <= :now ORDER BY cr.scheduledFor ASC")
+    List<CampaignRecipient> lockDueRecipients(@Param("campaignId") Long campaignId,
+                                              @Param("now") LocalDateTime now,
+                                              Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE CampaignRecipient cr SET cr.status = 'queued', cr.claimedAt = :claimedAt " +
+           "WHERE cr.id IN :ids AND cr.status = 'pending'")
+    int markQueued(@Param("ids") List<Long> ids, @Param("claimedAt") LocalDateTime claimedAt);
+
+    @Modifying
+    @Query("UPDATE CampaignRecipient cr SET cr.status = 'sent', cr.sentAt = :sentAt " +
+           "WHERE cr.id IN :ids AND cr.status = 'queued'")
+    int markSentBatch(@Param("ids") List<Long> ids, @Param("sentAt") LocalDateTime sentAt);
+
+    /**
+     * Zwraca do kolejki odbiorców, których pula nie przyjęła lub których kampania została wstrzymana
+     */
+    @Modifying
+    @Query("UPDATE CampaignRecipient cr SET cr.status = 'pending' WHERE cr.id IN :ids AND cr.status = 'queued'")
+    int requeue(@Param("ids") List<Long> ids);
+
+    @Modifying
+    @Query("UPDATE CampaignRecipient cr SET cr.status = 'bounced', cr.bouncedAt = :bouncedAt, " +
+           "cr.bounceReason = :reason WHERE cr.id = :id AND cr.status = 'queued'")
+    int markBounced(@Param("id") Long id, @Param("reason") String reason, @Param("bouncedAt") LocalDateTime bouncedAt);
+
+    /**
+     * Odbiorcy przekazani do puli, których dzierżawa wygasła (instancja padła przed zapisem wyniku),
+     * wracają do kolejki. Odbiorców wysyłanych właśnie przez inne instancje nie rusza.
+     */
+    @Modifying
+    @Query("UPDATE CampaignRecipient cr SET cr.status = 'pending', cr.claimedAt = NULL " +
+           "WHERE cr.status = 'queued' AND (cr.claimedAt IS NULL OR cr.claimedAt < :expiredBefore)")
+    int requeueExpired(@Param("expiredBefore") LocalDateTime expiredBefore);
+
+    /**
+     * Czyści sloty oczekujących odbiorców (np. po wznowieniu) - zostaną zaplanowane od nowa
+     */
+    @Modifying
+    @Query("UPDATE CampaignRecipient cr SET cr.scheduledFor = NULL WHERE cr.campaign.id = :campaignId AND cr.status = 'pending'")
+    int clearSchedule(@Param("campaignId") Long campaignId);
+
+    /**
+     * Przydziela sloty wysyłki wszystkim niezaplanowanym odbiorcom jednym UPDATE:
+     * kolejny odbiorca = poprzedni + intervalMs, po perDay odbiorcach przeskok o dobę
+     */
+    @Modifying
+    @Query(value = "UPDATE campaign_recipients cr SET scheduled_for = CAST(:base AS timestamp) " +
+            "  + ((s.rn - 1) / :perDay) * INTERVAL '1 day' " +
+            "  + ((s.rn - 1) % :perDay) * :intervalMs * INTERVAL '1 millisecond' " +
+            "FROM (SELECT id, row_number() OVER (ORDER BY id) AS rn FROM campaign_recipients " +
+            "      WHERE campaign_id = :campaignId AND status = 'pending' AND scheduled_for IS NULL) s " +
+            "WHERE cr.id = s.id",
+            nativeQuery = true)
+    int assignSchedule(@Param("campaignId") Long campaignId,
+                       @Param("base") LocalDateTime base,
+                       @Param("perDay") long perDay,
+                       @Param("intervalMs") long intervalMs);
+
+    @Query("SELECT COUNT(cr) FROM CampaignRecipient cr WHERE cr.campaign.id = :campaignId " +
+           "AND cr.status = 'pending' AND cr.scheduledFor IS NULL")
+    long countUnscheduled(@Param("campaignId") Long campaignId);
+
+    @Query("SELECT MAX(cr.scheduledFor) FROM CampaignRecipient cr WHERE cr.campaign.id = :campaignId " +
+           "AND cr.status = 'pending'")
+    LocalDateTime findLastScheduledFor(@Param("campaignId") Long campaignId);
 }
 
@@ -2,6 +2,7 @@ package com.crm.repository;
 
 import com.crm.model.Campaign;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -24,4 +25,14 @@ public interface CampaignRepository extends JpaRepository<Campaign, Long> {
     @Query("SELECT c FROM Campaign c WHERE c.status = 'scheduled' " +
            "AND c.scheduledAt IS NOT NULL AND c.scheduledAt <= :now")
     List<Campaign> findScheduledCampaignsReady(@Param("now") LocalDateTime now);
+
+    // Campaigns being sent, with everything needed to render and dispatch emails
+    @Query("SELECT c FROM Campaign c LEFT JOIN FETCH c.template LEFT JOIN FETCH c.emailAccount " +
+           "WHERE c.status = 'sending'")
+    List<Campaign> findSendingWithRelations();
+
+    @Modifying
+    @Query("UPDATE Campaign c SET c.sentCount = c.sentCount + :sent, c.bouncedCount = c.bouncedCount + :bounced " +
+           "WHERE c.id = :id")
+    int incrementSendCounters(@Param("id") Long id, @Param("sent") int sent, @Param("bounced") int bounced);
 }
@@ -7,6 +7,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -102,4 +103,8 @@ public interface ContactRepository extends JpaRepository<Contact, Long> {
             "ORDER BY c.name",
             nativeQuery = true)
     List<Object[]> findSimpleContactsByUserId(@Param("userId") Long userId);
+
+    // Tagi dla listy kontaktów jednym zapytaniem: [contactId, Tag]
+    @Query("SELECT c.id, t FROM Contact c JOIN c.tags t WHERE c.id IN :contactIds")
+    List<Object[]> findTagsByContactIds(@Param("contactIds") Collection<Long> contactIds);
 }
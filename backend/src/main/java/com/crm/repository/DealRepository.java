@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -43,4 +44,65 @@ public interface DealRepository extends JpaRepository<Deal, Long> {
     List<Deal> findByUserIdAndContactId(Long userId, Long contactId);
     Long countByUserId(Long userId);
     Long countByUserIdAndStatus(Long userId, String status);
+
+    // ==================== KANBAN ====================
+
+    /**
+     * Karta deala na tablicy - płaska projekcja, bez ładowania encji Deal/Contact
+     */
+    interface DealCardView {
+        Long getId();
+        String getTitle();
+        Double getValue();
+        String getCurrency();
+        String getStatus();
+        Integer getPriority();
+        LocalDateTime getExpectedCloseDate();
+        LocalDateTime getUpdatedAt();
+        Long getStageId();
+        Long getContactId();
+        String getContactName();
+        String getContactCompany();
+        Long getUserId();
+    }
+
+    /**
+     * Liczba deali i suma wartości per etap: [stageId, count, sum]
+     */
+    @Query("SELECT d.stage.id, COUNT(d), COALESCE(SUM(d.value), 0) FROM Deal d " +
+           "WHERE d.pipeline.id = :pipelineId AND d.deletedAt IS NULL GROUP BY d.stage.id")
+    List<Object[]> summarizeByStage(@Param("pipelineId") Long pipelineId);
+
+    /**
+     * Najnowsze deale każdego etapu pipeline'u - maksymalnie perStage na etap, jednym zapytaniem
+     */
+    @Query(value = "SELECT " +
+            "d.id AS id, d.title AS title, d.value AS value, d.currency AS currency, d.status AS status, " +
+            "d.priority AS priority, d.expected_close_date AS \"expectedCloseDate\", d.updated_at AS \"updatedAt\", " +
+            "d.stage_id AS \"stageId\", d.contact_id AS \"contactId\", c.name AS \"contactName\", c.company AS \"contactCompany\", " +
+            "d.user_id AS \"userId\" " +
+            "FROM (SELECT x.*, ROW_NUMBER() OVER (PARTITION BY x.stage_id ORDER BY x.updated_at DESC NULLS LAST, x.id DESC) AS rn " +
+            "      FROM deals x WHERE x.pipeline_id = :pipelineId AND x.deleted_at IS NULL) d " +
+            "LEFT JOIN contacts c ON c.id = d.contact_id " +
+            "WHERE d.rn <= :perStage " +
+            "ORDER BY d.stage_id, d.rn",
+            nativeQuery = true)
+    List<DealCardView> findBoardCards(@Param("pipelineId") Long pipelineId, @Param("perStage") int perStage);
+
+    /**
+     * Kolejna strona kart jednego etapu (doładowanie kolumny)
+     */
+    @Query(value = "SELECT " +
+            "d.id AS id, d.title AS title, d.value AS value, d.currency AS currency, d.status AS status, " +
+            "d.priority AS priority, d.expected_close_date AS \"expectedCloseDate\", d.updated_at AS \"updatedAt\", " +
+            "d.stage_id AS \"stageId\", d.contact_id AS \"contactId\", c.name AS \"contactName\", c.company AS \"contactCompany\", " +
+            "d.user_id AS \"userId\" " +
+            "FROM deals d LEFT JOIN contacts c ON c.id = d.contact_id " +
+            "WHERE d.stage_id = :stageId AND d.deleted_at IS NULL " +
+            "ORDER BY d.updated_at DESC NULLS LAST, d.id DESC " +
+            "LIMIT :limit OFFSET :offset",
+            nativeQuery = true)
+    List<DealCardView> findStageCards(@Param("stageId") Long stageId,
+                                      @Param("offset") int offset,
+                                      @Param("limit") int limit);
 }
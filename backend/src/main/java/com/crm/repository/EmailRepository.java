@@ -92,4 +92,24 @@ public interface EmailRepository extends JpaRepository<Email, Long> {
      * Znajdź emaile od nadawcy po określonej dacie (dla sprawdzania odpowiedzi)
      */
     List<Email> findBySenderContainingIgnoreCaseAndReceivedAtAfter(String sender, java.time.LocalDateTime afterDate);
+
+    /**
+     * Czy nadawca (znormalizowany adres) przysłał emaila po danej dacie - używa indeksu (sender_email, received_at)
+     */
+    boolean existsBySenderEmailAndReceivedAtAfter(String senderEmail, java.time.LocalDateTime afterDate);
+
+    @Query("SELECT COALESCE(MAX(e.id), 0) FROM Email e")
+    Long findMaxId();
+
+    /**
+     * Maile z dużą treścią wciąż zapisaną w wierszu - do przeniesienia do BlobStore
+     */
+    @Query(value = "SELECT e.id FROM emails e WHERE e.content_hash IS NULL AND octet_length(e.content) > :thresholdBytes " +
+            "ORDER BY e.id LIMIT :limit", nativeQuery = true)
+    List<Long> findIdsWithInlineContentLargerThan(@Param("thresholdBytes") int thresholdBytes, @Param("limit") int limit);
+
+    /**
+     * Czy treść w BlobStore jest treścią maila - klucze są wspólne z załącznikami
+     */
+    boolean existsByContentHash(String contentHash);
 }
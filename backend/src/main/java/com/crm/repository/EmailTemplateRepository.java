@@ -4,9 +4,11 @@ import com.crm.model.EmailTemplate;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -39,4 +41,10 @@ public interface EmailTemplateRepository extends JpaRepository<EmailTemplate, Lo
     
     // Find by theme
     List<EmailTemplate> findByThemeId(Long themeId);
+    
+    // Batched usage counter update (bez zmiany updatedAt - to nie jest edycja szablonu)
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailTemplate t SET t.usageCount = t.usageCount + :delta WHERE t.id = :id")
+    int incrementUsageCount(@Param("id") Long id, @Param("delta") int delta);
 }
\ No newline at end of file
@@ -25,15 +25,26 @@ public interface NotificationRepository extends JpaRepository<Notification, Long
     Page<Notification> findByUserIdOrderByCreatedAtDesc(Long userId, Pageable pageable);
 
     /**
-     * Znajdź nieprzeczytane powiadomienia użytkownika
+     * Pierwsza strona nieprzeczytanych powiadomień (najnowsze pierwsze)
      */
-    List<Notification> findByUserIdAndIsReadFalseOrderByCreatedAtDesc(Long userId);
+    List<Notification> findByUserIdAndIsReadFalseOrderByIdDesc(Long userId, Pageable pageable);
+
+    /**
+     * Kolejna strona nieprzeczytanych - kursor to id ostatniego elementu poprzedniej strony
+     */
+    List<Notification> findByUserIdAndIsReadFalseAndIdLessThanOrderByIdDesc(Long userId, Long beforeId, Pageable pageable);
 
     /**
      * Policz nieprzeczytane powiadomienia
      */
     long countByUserIdAndIsReadFalse(Long userId);
 
+    /**
+     * Liczba nieprzeczytanych per użytkownik - [userId, count], do budowy liczników w pamięci
+     */
+    @Query("SELECT n.userId, COUNT(n) FROM Notification n WHERE n.isRead = false GROUP BY n.userId")
+    List<Object[]> countUnreadByUser();
+
     /**
      * Oznacz wszystkie jako przeczytane
      */
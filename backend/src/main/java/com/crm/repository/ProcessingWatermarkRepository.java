@@ -0,0 +1,9 @@
+package com.crm.repository;
+
+import com.crm.model.ProcessingWatermark;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ProcessingWatermarkRepository extends JpaRepository<ProcessingWatermark, String> {
+}
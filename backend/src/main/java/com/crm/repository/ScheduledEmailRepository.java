@@ -2,7 +2,9 @@ package com.crm.repository;
 
 import com.crm.model.ScheduledEmail;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import java.time.LocalDateTime;
 import java.util.List;
@@ -32,19 +34,98 @@ public interface ScheduledEmailRepository extends JpaRepository<ScheduledEmail,
     void deleteByStepId(Long stepId);
 
     /**
-     * Znajdź wysłane emaile bez odpowiedzi dla konkretnej sekwencji
+     * Anuluje wszystkie oczekujące emaile dla podanych egzekucji jednym zapytaniem
      */
-    @Query("SELECT s FROM ScheduledEmail s WHERE s.execution.sequence.id = :sequenceId " +
-           "AND s.status = 'sent' AND s.sentAt < :cutoffDate " +
-           "AND NOT EXISTS (SELECT 1 FROM Email e WHERE e.sender LIKE CONCAT('%', s.recipientEmail, '%') " +
-           "AND e.receivedAt > s.sentAt)")
-    List<ScheduledEmail> findSentEmailsWithoutReply(Long sequenceId, LocalDateTime cutoffDate);
+    @Modifying
+    @Query("UPDATE ScheduledEmail s SET s.status = 'cancelled', s.errorMessage = :reason " +
+           "WHERE s.execution.id IN :executionIds AND s.status = 'pending'")
+    int cancelPendingForExecutions(@Param("executionIds") List<Long> executionIds, @Param("reason") String reason);
 
     /**
-     * Znajdź wszystkie wysłane emaile bez odpowiedzi (wszystkie sekwencje)
+     * Kandydat NO_REPLY - kontakt i sekwencja z emailem, który przekroczył próg dni
      */
-    @Query("SELECT s FROM ScheduledEmail s WHERE s.status = 'sent' AND s.sentAt < :cutoffDate " +
-           "AND NOT EXISTS (SELECT 1 FROM Email e WHERE e.sender LIKE CONCAT('%', s.recipientEmail, '%') " +
-           "AND e.receivedAt > s.sentAt)")
-    List<ScheduledEmail> findAllSentEmailsWithoutReply(LocalDateTime cutoffDate);
+    interface NoReplyCandidate {
+        Long getScheduledEmailId();
+        Long getContactId();
+        Long getSequenceId();
+        LocalDateTime getSentAt();
+    }
+
+    /**
+     * Emaile wysłane w oknie (since, cutoff] bez odpowiedzi kontaktu i bez wcześniejszego wykonania reguły.
+     * Jeden kandydat na (kontakt, sekwencja) - najwcześniej wysłany email. Odpowiedź i wcześniejsze
+     * wykonanie są sprawdzane anti-joinami (indeksy sender_email/received_at i UNIQUE kluczy wykonań).
+     * Klucz "c{contactId}" to format zapisywany dla NO_REPLY przed watermarkami.
+     */
+    @Query(value = "SELECT DISTINCT ON (se.contact_id, se.sequence_id) " +
+                   "s.id AS \"scheduledEmailId\", se.contact_id AS \"contactId\", " +
+                   "se.sequence_id AS \"sequenceId\", s.sent_at AS \"sentAt\" " +
+                   "FROM scheduled_emails s " +
+                   "JOIN sequence_executions se ON se.id = s.execution_id " +
+                   "JOIN contacts c ON c.id = se.contact_id " +
+                   "WHERE s.status = 'sent' AND s.sent_at <= :cutoff " +
+                   "AND (CAST(:since AS timestamp) IS NULL OR s.sent_at > CAST(:since AS timestamp)) " +
+                   "AND (CAST(:sequenceId AS bigint) IS NULL OR se.sequence_id = CAST(:sequenceId AS bigint)) " +
+                   "AND NOT EXISTS (SELECT 1 FROM workflow_execution_keys k WHERE k.rule_id = :ruleId " +
+                   "    AND k.execution_key IN ('contact_' || se.contact_id || '_sequence_' || se.sequence_id, " +
+                   "                            'c' || se.contact_id)) " +
+                   "AND NOT EXISTS (SELECT 1 FROM emails e WHERE e.sender_email = LOWER(TRIM(c.email)) " +
+                   "    AND e.received_at > se.started_at) " +
+                   "ORDER BY se.contact_id, se.sequence_id, s.sent_at", nativeQuery = true)
+    List<NoReplyCandidate> findNoReplyCandidates(@Param("ruleId") Long ruleId,
+                                                 @Param("sequenceId") Long sequenceId,
+                                                 @Param("since") LocalDateTime since,
+                                                 @Param("cutoff") LocalDateTime cutoff);
+
+    /**
+     * Nieudani kandydaci NO_REPLY reguły poniżej limitu prób (tabela workflow_no_reply_retries)
+     */
+    @Query(value = "SELECT s.id AS \"scheduledEmailId\", se.contact_id AS \"contactId\", " +
+                   "se.sequence_id AS \"sequenceId\", s.sent_at AS \"sentAt\" " +
+                   "FROM workflow_no_reply_retries r " +
+                   "JOIN scheduled_emails s ON s.id = r.scheduled_email_id " +
+                   "JOIN sequence_executions se ON se.id = s.execution_id " +
+                   "WHERE r.rule_id = :ruleId AND r.attempts < :maxAttempts " +
+                   "AND (CAST(:sequenceId AS bigint) IS NULL OR se.sequence_id = CAST(:sequenceId AS bigint)) " +
+                   "ORDER BY r.scheduled_email_id", nativeQuery = true)
+    List<NoReplyCandidate> findNoReplyRetries(@Param("ruleId") Long ruleId,
+                                              @Param("sequenceId") Long sequenceId,
+                                              @Param("maxAttempts") int maxAttempts);
+
+    /**
+     * Zapisuje nieudaną próbę kandydata NO_REPLY - pierwsza tworzy wiersz, kolejne zwiększają licznik
+     */
+    @Modifying
+    @Query(value = "INSERT INTO workflow_no_reply_retries (rule_id, scheduled_email_id, attempts, last_error, created_at, updated_at) " +
+                   "VALUES (:ruleId, :scheduledEmailId, 1, :error, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP) " +
+                   "ON CONFLICT (rule_id, scheduled_email_id) DO UPDATE SET " +
+                   "attempts = workflow_no_reply_retries.attempts + 1, last_error = EXCLUDED.last_error, " +
+                   "updated_at = CURRENT_TIMESTAMP", nativeQuery = true)
+    int recordNoReplyFailure(@Param("ruleId") Long ruleId,
+                             @Param("scheduledEmailId") Long scheduledEmailId,
+                             @Param("error") String error);
+
+    /**
+     * Usuwa ponowienie kandydata po udanym przebiegu
+     */
+    @Modifying
+    @Query(value = "DELETE FROM workflow_no_reply_retries WHERE rule_id = :ruleId " +
+                   "AND scheduled_email_id = :scheduledEmailId", nativeQuery = true)
+    int deleteNoReplyRetry(@Param("ruleId") Long ruleId, @Param("scheduledEmailId") Long scheduledEmailId);
+
+    /**
+     * Usuwa ponowienia nieaktualne - kontakt odpowiedział albo reguła została już wykonana
+     * (te same anti-joiny co w findNoReplyCandidates)
+     */
+    @Modifying
+    @Query(value = "DELETE FROM workflow_no_reply_retries r " +
+                   "USING scheduled_emails s, sequence_executions se, contacts c " +
+                   "WHERE r.rule_id = :ruleId AND s.id = r.scheduled_email_id " +
+                   "AND se.id = s.execution_id AND c.id = se.contact_id " +
+                   "AND (EXISTS (SELECT 1 FROM workflow_execution_keys k WHERE k.rule_id = r.rule_id " +
+                   "    AND k.execution_key IN ('contact_' || se.contact_id || '_sequence_' || se.sequence_id, " +
+                   "                            'c' || se.contact_id)) " +
+                   "  OR EXISTS (SELECT 1 FROM emails e WHERE e.sender_email = LOWER(TRIM(c.email)) " +
+                   "    AND e.received_at > se.started_at))", nativeQuery = true)
+    int deleteResolvedNoReplyRetries(@Param("ruleId") Long ruleId);
 }
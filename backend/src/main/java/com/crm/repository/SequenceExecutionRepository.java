@@ -2,7 +2,12 @@ package com.crm.repository;
 
 import com.crm.model.SequenceExecution;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -22,4 +27,29 @@ public interface SequenceExecutionRepository extends JpaRepository<SequenceExecu
     void deleteBySequenceId(Long sequenceId);
 
     boolean existsByContactIdAndStatus(Long contactId, String status);
+
+    /**
+     * Które z podanych kontaktów mają egzekucję w danym statusie - jedno zapytanie dla całej listy
+     */
+    @Query("SELECT DISTINCT se.contact.id FROM SequenceExecution se WHERE se.contact.id IN :contactIds AND se.status = :status")
+    List<Long> findContactIdsWithStatus(@Param("contactIds") Collection<Long> contactIds, @Param("status") String status);
+
+    /**
+     * Aktywne egzekucje, których odbiorca odpisał w podanym zakresie ID emaili.
+     * Zapytanie startuje od nowych emaili (zakres po kluczu głównym), więc koszt
+     * zależy od liczby nowych wiadomości, a nie od liczby aktywnych egzekucji.
+     */
+    @Query(value = "SELECT DISTINCT se.id FROM emails e " +
+            "JOIN sequence_executions se ON LOWER(se.recipient_email) = e.sender_email AND se.status = 'active' " +
+            "WHERE e.id > :afterId AND e.id <= :upToId AND e.received_at > se.started_at",
+            nativeQuery = true)
+    List<Long> findActiveExecutionIdsRepliedBetween(@Param("afterId") Long afterId, @Param("upToId") Long upToId);
+
+    @Modifying
+    @Query("UPDATE SequenceExecution se SET se.status = 'replied', se.completedAt = :completedAt " +
+           "WHERE se.id IN :ids AND se.status = 'active'")
+    int markReplied(@Param("ids") List<Long> ids, @Param("completedAt") LocalDateTime completedAt);
+
+    @Query("SELECT se.dealId FROM SequenceExecution se WHERE se.id IN :ids AND se.dealId IS NOT NULL")
+    List<Long> findDealIdsByIdIn(@Param("ids") List<Long> ids);
 }
@@ -3,10 +3,12 @@ package com.crm.repository;
 import com.crm.model.UserContact;
 import com.crm.model.UserContactId;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,6 +18,9 @@ public interface UserContactRepository extends JpaRepository<UserContact, UserCo
     @Query("SELECT uc FROM UserContact uc WHERE uc.user.id = :userId")
     List<UserContact> findByUserId(@Param("userId") Long userId);
 
+    @Query("SELECT uc.contact.id FROM UserContact uc WHERE uc.user.id = :userId")
+    List<Long> findContactIdsByUserId(@Param("userId") Long userId);
+
     @Query("SELECT uc FROM UserContact uc WHERE uc.contact.id = :contactId")
     List<UserContact> findByContactId(@Param("contactId") Long contactId);
 
@@ -26,4 +31,18 @@ public interface UserContactRepository extends JpaRepository<UserContact, UserCo
     List<UserContact> findByUserIdAndSource(@Param("userId") Long userId, @Param("source") String source);
 
     void deleteByUserIdAndContactId(Long userId, Long contactId);
+
+    /**
+     * Przypisuje kontakt wielu użytkownikom jednym INSERT ... ON CONFLICT DO NOTHING.
+     * Nieistniejący użytkownicy / kontakt są pomijani przez JOIN, już przypisani - przez ON CONFLICT.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO user_contacts (user_id, contact_id, source, added_at) " +
+            "SELECT u.id, c.id, :source, CURRENT_TIMESTAMP " +
+            "FROM admin_users u JOIN contacts c ON c.id = :contactId " +
+            "WHERE u.id IN (:userIds) " +
+            "ON CONFLICT (user_id, contact_id) DO NOTHING",
+            nativeQuery = true)
+    int linkContactToUsers(@Param("contactId") Long contactId, @Param("userIds") Collection<Long> userIds,
+                           @Param("source") String source);
 }
\ No newline at end of file
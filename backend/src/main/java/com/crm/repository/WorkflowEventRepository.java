@@ -0,0 +1,119 @@
+package com.crm.repository;
+
+import com.crm.model.WorkflowEvent;
+import com.crm.model.WorkflowEvent.EventStatus;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface WorkflowEventRepository extends JpaRepository<WorkflowEvent, Long> {
+
+    /**
+     * Blokada transakcyjna - w danej chwili zdarzenia pobiera tylko jedna instancja aplikacji
+     */
+    @Query(value = "SELECT pg_try_advisory_xact_lock(:key)", nativeQuery = true)
+    boolean tryClaimLock(@Param("key") long key);
+
+    /**
+     * Zdarzenia gotowe do przetworzenia, w kolejności zapisu.
+     * Pomija zdarzenia kontaktu, który ma wcześniejsze zdarzenie w trakcie przetwarzania
+     * lub czekające na ponowienie - zachowuje kolejność per kontakt.
+     */
+    @Query(value = "SELECT e.* FROM workflow_events e " +
+                   "WHERE e.status = 'PENDING' AND e.next_attempt_at <= :now " +
+                   "AND (e.contact_id IS NULL OR NOT EXISTS (" +
+                   "    SELECT 1 FROM workflow_events p WHERE p.contact_id = e.contact_id AND p.id < e.id " +
+                   "    AND (p.status = 'PROCESSING' OR (p.status = 'PENDING' AND p.next_attempt_at > :now)))) " +
+                   "ORDER BY e.id LIMIT :limit", nativeQuery = true)
+    List<WorkflowEvent> findClaimable(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    @Modifying
+    @Query("UPDATE WorkflowEvent e SET e.status = com.crm.model.WorkflowEvent.EventStatus.PROCESSING, " +
+           "e.attempts = e.attempts + 1, e.claimedAt = :claimedAt WHERE e.id IN :ids")
+    int markProcessing(@Param("ids") Collection<Long> ids, @Param("claimedAt") LocalDateTime claimedAt);
+
+    @Modifying
+    @Query("UPDATE WorkflowEvent e SET e.status = com.crm.model.WorkflowEvent.EventStatus.DONE, " +
+           "e.processedAt = :processedAt, e.lastError = null WHERE e.id IN :ids")
+    int markDone(@Param("ids") Collection<Long> ids, @Param("processedAt") LocalDateTime processedAt);
+
+    /**
+     * Zwraca zdarzenia do kolejki bez zużycia próby (np. wcześniejsze zdarzenie kontaktu się nie powiodło)
+     */
+    @Modifying
+    @Query("UPDATE WorkflowEvent e SET e.status = com.crm.model.WorkflowEvent.EventStatus.PENDING, " +
+           "e.attempts = e.attempts - 1 WHERE e.id IN :ids")
+    int release(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("UPDATE WorkflowEvent e SET e.status = com.crm.model.WorkflowEvent.EventStatus.PENDING, " +
+           "e.nextAttemptAt = :nextAttemptAt, e.lastError = :error WHERE e.id = :id")
+    int scheduleRetry(@Param("id") Long id, @Param("nextAttemptAt") LocalDateTime nextAttemptAt,
+                      @Param("error") String error);
+
+    @Modifying
+    @Query("UPDATE WorkflowEvent e SET e.status = com.crm.model.WorkflowEvent.EventStatus.DEAD, " +
+           "e.processedAt = :processedAt, e.lastError = :error WHERE e.id = :id")
+    int markDead(@Param("id") Long id, @Param("processedAt") LocalDateTime processedAt, @Param("error") String error);
+
+    /**
+     * Zdarzenia z wygasłą dzierżawą (instancja padła w trakcie) wracają do kolejki - próba zostaje zużyta,
+     * więc zdarzenie, które za każdym razem kładzie instancję, w końcu trafi do DEAD.
+     * Zdarzeń przetwarzanych właśnie przez inne instancje nie rusza.
+     */
+    @Modifying
+    @Query("UPDATE WorkflowEvent e SET e.status = com.crm.model.WorkflowEvent.EventStatus.PENDING, " +
+           "e.nextAttemptAt = :now, e.lastError = 'Processing lease expired' " +
+           "WHERE e.status = com.crm.model.WorkflowEvent.EventStatus.PROCESSING " +
+           "AND (e.claimedAt IS NULL OR e.claimedAt < :expiredBefore) AND e.attempts < :maxAttempts")
+    int requeueExpired(@Param("expiredBefore") LocalDateTime expiredBefore, @Param("maxAttempts") int maxAttempts,
+                       @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE WorkflowEvent e SET e.status = com.crm.model.WorkflowEvent.EventStatus.DEAD, " +
+           "e.processedAt = :now, e.lastError = 'Processing lease expired' " +
+           "WHERE e.status = com.crm.model.WorkflowEvent.EventStatus.PROCESSING " +
+           "AND (e.claimedAt IS NULL OR e.claimedAt < :expiredBefore) AND e.attempts >= :maxAttempts")
+    int markExpiredDead(@Param("expiredBefore") LocalDateTime expiredBefore, @Param("maxAttempts") int maxAttempts,
+                        @Param("now") LocalDateTime now);
+
+    /**
+     * Ręczne ponowienie zdarzenia z dead-letter
+     */
+    @Modifying
+    @Query("UPDATE WorkflowEvent e SET e.status = com.crm.model.WorkflowEvent.EventStatus.PENDING, " +
+           "e.attempts = 0, e.nextAttemptAt = :now, e.processedAt = null " +
+           "WHERE e.id = :id AND e.status = com.crm.model.WorkflowEvent.EventStatus.DEAD")
+    int retryDead(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    long countByStatus(EventStatus status);
+
+    Page<WorkflowEvent> findByStatusOrderByIdDesc(EventStatus status, Pageable pageable);
+
+    @Query("SELECT MIN(e.createdAt) FROM WorkflowEvent e WHERE e.status IN " +
+           "(com.crm.model.WorkflowEvent.EventStatus.PENDING, com.crm.model.WorkflowEvent.EventStatus.PROCESSING)")
+    LocalDateTime findOldestOpenCreatedAt();
+
+    @Modifying
+    @Query("DELETE FROM WorkflowEvent e WHERE e.status = com.crm.model.WorkflowEvent.EventStatus.DONE " +
+           "AND e.processedAt < :before")
+    int deleteDoneBefore(@Param("before") LocalDateTime before);
+
+    /**
+     * Oznacza regułę jako wykonaną dla zdarzenia (w transakcji reguły) - 0 oznacza, że wcześniejsza próba
+     * zdarzenia już ją zatwierdziła
+     */
+    @Modifying
+    @Query(value = "INSERT INTO workflow_event_rule_runs (event_id, rule_id) VALUES (:eventId, :ruleId) " +
+                   "ON CONFLICT (event_id, rule_id) DO NOTHING", nativeQuery = true)
+    int markRuleRun(@Param("eventId") Long eventId, @Param("ruleId") Long ruleId);
+}
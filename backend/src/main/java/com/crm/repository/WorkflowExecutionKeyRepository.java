@@ -1,13 +1,16 @@
 package com.crm.repository;
 
 import com.crm.model.WorkflowExecutionKey;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.stream.Stream;
 
 @Repository
 public interface WorkflowExecutionKeyRepository extends JpaRepository<WorkflowExecutionKey, Long> {
@@ -17,6 +20,24 @@ public interface WorkflowExecutionKeyRepository extends JpaRepository<WorkflowEx
      */
     boolean existsByRuleIdAndExecutionKey(Long ruleId, String executionKey);
 
+    /**
+     * Rezerwuje klucz wykonania - 0 oznacza, że reguła była już wykonana dla tego klucza.
+     * Unikalny indeks (rule_id, execution_key) rozstrzyga wyścig między instancjami.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO workflow_execution_keys (rule_id, execution_key, created_at) " +
+                   "VALUES (:ruleId, :executionKey, CURRENT_TIMESTAMP) " +
+                   "ON CONFLICT (rule_id, execution_key) DO NOTHING", nativeQuery = true)
+    int claim(@Param("ruleId") Long ruleId, @Param("executionKey") String executionKey);
+
+    /**
+     * Strumień [id, ruleId, executionKey] kluczy o ID większym niż podane - budowa i dosynchronizowanie
+     * filtra Blooma (wymaga transakcji)
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "5000"))
+    @Query("SELECT k.id, k.ruleId, k.executionKey FROM WorkflowExecutionKey k WHERE k.id > :afterId")
+    Stream<Object[]> streamKeysAfter(@Param("afterId") Long afterId);
+
     /**
      * Usuń stare klucze (czyszczenie)
      */
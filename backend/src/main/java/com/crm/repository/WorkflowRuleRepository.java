@@ -19,6 +19,11 @@ public interface WorkflowRuleRepository extends JpaRepository<WorkflowRule, Long
      */
     List<WorkflowRule> findByTriggerTypeAndActiveTrueOrderByPriorityAsc(TriggerType triggerType);
 
+    /**
+     * Wszystkie aktywne reguły - źródło indeksu WorkflowRuleEngine
+     */
+    List<WorkflowRule> findByActiveTrue();
+
     /**
      * Znajdź wszystkie reguły użytkownika
      */
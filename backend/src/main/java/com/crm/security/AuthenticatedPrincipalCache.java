@@ -0,0 +1,118 @@
+package com.crm.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache zweryfikowanych tokenów JWT.
+ * Kluczem jest SHA-256 tokenu, wartością principal załadowany z bazy - przy trafieniu
+ * filtr nie weryfikuje podpisu ponownie i nie odpytuje bazy. Wpisy żyją krótko
+ * i są usuwane przy zmianie roli, hasła lub statusu użytkownika.
+ */
+@Component
+@Slf4j
+public class AuthenticatedPrincipalCache implements MeterBinder {
+
+    private final JwtTokenProvider jwtTokenProvider;
+    private final UserDetailsService userDetailsService;
+    private final Cache<String, CachedPrincipal> principals;
+
+    /**
+     * Zwiększany przy każdej invalidacji - ładowanie rozpoczęte przed invalidacją nie trafi do cache
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    public AuthenticatedPrincipalCache(JwtTokenProvider jwtTokenProvider,
+                                       UserDetailsService userDetailsService,
+                                       @Value("${app.jwt-principal-cache-ttl-seconds:60}") long ttlSeconds) {
+        this.jwtTokenProvider = jwtTokenProvider;
+        this.userDetailsService = userDetailsService;
+        this.principals = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Trafienia cache uwierzytelnionych tokenów w Micrometer
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, principals, "authPrincipals");
+    }
+
+    /**
+     * Zwraca użytkownika dla tokenu albo null, jeśli token jest nieprawidłowy lub wygasł
+     */
+    public UserDetails resolve(String token) {
+        String key = hash(token);
+        CachedPrincipal cached = principals.getIfPresent(key);
+        if (cached != null) {
+            if (cached.isExpired()) {
+                principals.invalidate(key);
+                return null;
+            }
+            return cached.principal();
+        }
+
+        long loadGeneration = generation.get();
+        Claims claims = jwtTokenProvider.parseClaims(token);
+        if (claims == null) {
+            return null;
+        }
+
+        UserDetails principal = userDetailsService.loadUserByUsername(claims.getSubject());
+        if (loadGeneration == generation.get()) {
+            principals.put(key, new CachedPrincipal(principal, claims.getExpiration()));
+        }
+        return principal;
+    }
+
+    /**
+     * Usuwa wpisy użytkownika - wywoływane po zmianie roli, hasła, aktywności lub usunięciu konta
+     */
+    public void invalidateUser(Long userId) {
+        generation.incrementAndGet();
+        principals.asMap().values().removeIf(cached ->
+                cached.principal() instanceof UserPrincipal principal && principal.getId().equals(userId));
+        log.debug("Invalidated cached authentication for user {}", userId);
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        principals.invalidateAll();
+    }
+
+    private static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record CachedPrincipal(UserDetails principal, Date expiresAt) {
+        boolean isExpired() {
+            return expiresAt != null && expiresAt.before(new Date());
+        }
+    }
+}
@@ -1,28 +1,24 @@
 package com.crm.service;
 
-import io.netty.channel.ChannelOption;
-import io.netty.handler.timeout.ReadTimeoutHandler;
-import io.netty.handler.timeout.WriteTimeoutHandler;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.publisher.Mono;
-import reactor.netty.http.client.HttpClient;
 
 import java.text.Normalizer;
-import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class AIClassificationService {
 
-    private final WebClient webClient;
+    private final AIGateway aiGateway;
+    private final MeterRegistry meterRegistry;
 
     private static final List<String> UNDELIVERED_PHRASES = List.of(
         "undeliverable",
@@ -448,30 +444,6 @@ public class AIClassificationService {
     @Value("${ai.classification.enabled:true}")
     private boolean classificationEnabled;
     
-    @Value("${ai.api.url:https://api.groq.com/openai/v1/chat/completions}")
-    private String apiUrl;
-    
-    @Value("${ai.model:llama-3.3-70b-versatile}")
-    private String aiModel;
-
-    public AIClassificationService(@Value("${ai.api.url:https://api.groq.com/openai/v1/chat/completions}") String aiApiUrl) {
-        // Usuń "/chat/completions" z URL jeśli jest na końcu
-        String baseUrl = aiApiUrl.replace("/chat/completions", "");
-        
-        // Timeout 30 sekund dla Groq (jest bardzo szybki)
-        HttpClient httpClient = HttpClient.create()
-                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
-                .responseTimeout(Duration.ofSeconds(30))
-                .doOnConnected(conn -> conn
-                        .addHandlerLast(new ReadTimeoutHandler(30, TimeUnit.SECONDS))
-                        .addHandlerLast(new WriteTimeoutHandler(10, TimeUnit.SECONDS)));
-        
-        this.webClient = WebClient.builder()
-                .baseUrl(baseUrl)
-                .clientConnector(new ReactorClientHttpConnector(httpClient))
-                .build();
-    }
-
     /**
      * Rekasyfikuje istniejące emaile z nową logiką autoReply
      */
@@ -490,42 +462,53 @@ public class AIClassificationService {
      * 3. Ustawić w application.properties: ai.api.key=TWOJ_KLUCZ
      */
     public String classifyEmail(String subject, String content) {
+        Timer.Sample sample = Timer.start(meterRegistry);
         if (!classificationEnabled) {
             log.info("AI classification is disabled");
-            return "neutral";
+            return recorded(sample, "disabled", "neutral");
         }
 
         String explicitIntent = explicitIntentCheck(subject, content);
         if (explicitIntent != null) {
             log.info("Rule-based classification detected explicit intent: {}", explicitIntent);
-            return explicitIntent;
+            return recorded(sample, "rules", explicitIntent);
         }
 
         if (apiKey == null || apiKey.isEmpty() || apiKey.equals("TWOJ_KLUCZ_API")) {
             log.warn("AI API key not configured, using fallback classification");
-            return fallbackClassification(subject, content);
+            meterRegistry.counter("crm.ai.classification.fallback", "reason", "no_api_key").increment();
+            return recorded(sample, "fallback", fallbackClassification(subject, content));
         }
 
         try {
             String prompt = buildPrompt(subject, content);
-            String response = callGroqAPI(prompt);
+            String response = callAIAPI("classification", prompt);
             String classification = extractClassification(response);
 
             String override = explicitIntentCheck(subject, content);
             if (override != null && !override.equals(classification)) {
                 log.info("Overriding AI classification {} with explicit intent {}", classification, override);
-                return override;
+                return recorded(sample, "ai", override);
             }
             
             log.info("AI classified email as: {}", classification);
-            return classification;
+            return recorded(sample, "ai", classification);
             
         } catch (Exception e) {
             log.error("Error in AI classification, using fallback: {}", e.getMessage());
-            return fallbackClassification(subject, content);
+            meterRegistry.counter("crm.ai.classification.fallback", "reason", "error").increment();
+            return recorded(sample, "fallback", fallbackClassification(subject, content));
         }
     }
 
+    /**
+     * Czas klasyfikacji wg źródła wyniku (ai / rules / fallback / disabled)
+     */
+    private String recorded(Timer.Sample sample, String source, String classification) {
+        sample.stop(meterRegistry.timer("crm.ai.classification", "source", source));
+        return classification;
+    }
+
     private String buildPrompt(String subject, String content) {
         String emailText = (subject + " " + content).substring(0, Math.min(1000, (subject + " " + content).length()));
 
@@ -588,52 +571,21 @@ public class AIClassificationService {
                "Odpowiedz TYLKO jednym słowem (bez dodatkowych znaków): positive, negative, neutral, undelivered, maybeLater lub autoReply";
     }
 
-    private String callAIAPI(String prompt) {
+    /**
+     * Wywołanie przez AIGateway - identyczne treści (np. powtórna klasyfikacja) obsługuje cache bramy
+     */
+    private String callAIAPI(String feature, String prompt) {
         try {
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", aiModel); // Z.AI GLM-4.6
-            
-            Map<String, String> message = new HashMap<>();
-            message.put("role", "user");
-            message.put("content", prompt);
-            requestBody.put("messages", List.of(message));
-            
-            requestBody.put("temperature", 0.3);
-            requestBody.put("max_tokens", 50);
-
-            log.info("Calling AI API with model: {}", aiModel);
-            
-            Mono<Map> responseMono = webClient.post()
-                    .uri("/chat/completions")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .header("Content-Type", "application/json")
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(Map.class);
-
-            Map response = responseMono.block();
-            
-            if (response != null && response.containsKey("choices")) {
-                List<Map> choices = (List<Map>) response.get("choices");
-                if (!choices.isEmpty()) {
-                    Map choice = choices.get(0);
-                    Map message1 = (Map) choice.get("message");
-                    return (String) message1.get("content");
-                }
+            String content = aiGateway.complete(feature, new AIGateway.Prompt(null, prompt, 0.3, 50)).block();
+            if (content == null) {
+                throw new RuntimeException("Invalid API response");
             }
-            
-            throw new RuntimeException("Invalid API response");
-            
+            return content;
         } catch (Exception e) {
             log.error("AI API call failed: {}", e.getMessage());
             throw e;
         }
     }
-    
-    // Zachowaj kompatybilność wsteczną
-    private String callGroqAPI(String prompt) {
-        return callAIAPI(prompt);
-    }
 
     private String extractClassification(String response) {
         if (response == null) {
@@ -684,7 +636,7 @@ public class AIClassificationService {
     /**
      * Fallback - prosta klasyfikacja słów kluczowych gdy AI nie działa
      */
-    private String fallbackClassification(String subject, String content) {
+    String fallbackClassification(String subject, String content) {
         String text = normalizeText(subject + " " + content);
         String explicitIntent = explicitIntentCheck(subject, content);
         if (explicitIntent != null) {
@@ -741,7 +693,7 @@ public class AIClassificationService {
         }
     }
 
-    private String explicitIntentCheck(String subject, String content) {
+    String explicitIntentCheck(String subject, String content) {
         String normalized = normalizeText(subject + " " + content);
 
         // PRIORITY 1: Check for undelivered emails first
@@ -802,7 +754,7 @@ public class AIClassificationService {
 
         try {
             String prompt = buildEnrichmentPrompt(emailBody);
-            String response = callGroqAPI(prompt);
+            String response = callAIAPI("enrichment", prompt);
             return parseJsonToMap(response);
         } catch (Exception e) {
             log.error("Error extracting contact details: {}", e.getMessage());
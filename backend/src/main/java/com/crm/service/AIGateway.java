@@ -0,0 +1,505 @@
+package com.crm.service;
+
+import com.crm.config.AIGatewayConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Wspólna brama do API czatu w formacie OpenAI (Z.AI, Groq) dla wszystkich funkcji AI.
+ *
+ * - jedna pula połączeń i polityka ponowień (429, 5xx, błędy połączenia),
+ * - limit równoległych zapytań: łączny i per funkcja, z kolejką oczekujących - ponad nią zapytanie jest odrzucane,
+ * - cache odpowiedzi po modelu i skrócie znormalizowanego promptu (TTL); identyczne zapytania w toku
+ *   są łączone w jedno wywołanie API. Funkcje twórcze (Prompt.cacheable = false) zawsze pytają API -
+ *   ponowne kliknięcie ma dać nową propozycję, a nie tę samą z cache,
+ * - metryki per funkcja w AIMetrics (czasy, tokeny, trafienia cache, odrzucenia).
+ *
+ * complete() zwraca całą odpowiedź, stream() - fragmenty treści w miarę generowania (stream=true, SSE).
+ */
+@Component
+@Slf4j
+public class AIGateway implements MeterBinder {
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE = new ParameterizedTypeReference<>() {
+    };
+
+    private static final String STREAM_END = "[DONE]";
+
+    private final WebClient webClient;
+    private final ConnectionProvider connectionProvider;
+    private final ObjectMapper objectMapper;
+    private final AIMetrics metrics;
+    private final AIGatewayConfig config;
+    private final String apiKey;
+    private final String model;
+
+    private final Budget globalBudget;
+    private final Map<String, Budget> featureBudgets = new ConcurrentHashMap<>();
+    private final AsyncCache<String, String> responses;
+
+    public AIGateway(@Value("${ai.api.url:https://api.groq.com/openai/v1/chat/completions}") String apiUrl,
+                     @Value("${ai.api.key:}") String apiKey,
+                     @Value("${ai.model:llama-3.3-70b-versatile}") String model,
+                     AIGatewayConfig config, ObjectMapper objectMapper, AIMetrics metrics) {
+        this.apiKey = apiKey;
+        this.model = model;
+        this.config = config;
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+        this.globalBudget = new Budget(config.getMaxConcurrency(), config.getMaxQueued());
+        this.responses = Caffeine.newBuilder()
+                .maximumSize(config.getCacheMaxSize())
+                .expireAfterWrite(config.getCacheTtl())
+                .recordStats()
+                .buildAsync();
+
+        this.connectionProvider = ConnectionProvider.builder("ai-gateway")
+                .maxConnections(config.getMaxConnections())
+                .pendingAcquireTimeout(Duration.ofSeconds(30))
+                .maxIdleTime(Duration.ofSeconds(30))
+                .build();
+
+        // responseTimeout liczony między kolejnymi odczytami - długie strumienie nie są przerywane
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
+                .responseTimeout(Duration.ofSeconds(120));
+
+        this.webClient = WebClient.builder()
+                .baseUrl(apiUrl.replace("/chat/completions", ""))
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        connectionProvider.dispose();
+    }
+
+    /**
+     * Cache odpowiedzi i zajętość łącznego limitu w Micrometer
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, responses.synchronous(), "aiResponses");
+        Gauge.builder("crm.ai.gateway.active", globalBudget, Budget::active).register(registry);
+        Gauge.builder("crm.ai.gateway.queued", globalBudget, Budget::queued).register(registry);
+    }
+
+    public boolean isConfigured() {
+        return apiKey != null && !apiKey.isBlank();
+    }
+
+    /**
+     * Cała odpowiedź modelu - z cache albo z API; pusta odpowiedź (brak choices) - pusty Mono.
+     * Anulowanie subskrypcji nie przerywa wywołania, na które mogą czekać inni.
+     */
+    public Mono<String> complete(String feature, Prompt prompt) {
+        if (!prompt.cacheable()) {
+            return withPermits(feature, call(feature, prompt));
+        }
+        return Mono.defer(() -> {
+            AtomicBoolean loaded = new AtomicBoolean();
+            CompletableFuture<String> response = responses.get(cacheKey(prompt), (key, executor) -> {
+                loaded.set(true);
+                metrics.recordCacheMiss(feature);
+                return withPermits(feature, call(feature, prompt)).toFuture();
+            });
+            if (!loaded.get()) {
+                metrics.recordCacheHit(feature, !response.isDone());
+            }
+            return Mono.fromFuture(response, true);
+        });
+    }
+
+    /**
+     * Fragmenty odpowiedzi w kolejności generowania; anulowanie subskrypcji zamyka połączenie z API.
+     * Odpowiedź z cache przychodzi jednym fragmentem, pełna odpowiedź ze strumienia trafia do cache.
+     */
+    public Flux<String> stream(String feature, Prompt prompt) {
+        if (!prompt.cacheable()) {
+            return Flux.usingWhen(acquire(feature), permits -> streamCall(feature, prompt),
+                    Permits::close, (permits, e) -> permits.close(), Permits::close);
+        }
+        return Flux.defer(() -> {
+            String key = cacheKey(prompt);
+            CompletableFuture<String> cached = responses.getIfPresent(key);
+            if (cached != null && cached.isDone() && !cached.isCompletedExceptionally() && cached.getNow(null) != null) {
+                metrics.recordCacheHit(feature, false);
+                return Flux.just(cached.getNow(null));
+            }
+            metrics.recordCacheMiss(feature);
+
+            StringBuilder answer = new StringBuilder();
+            return Flux.usingWhen(acquire(feature), permits -> streamCall(feature, prompt),
+                            Permits::close, (permits, e) -> permits.close(), Permits::close)
+                    .doOnNext(answer::append)
+                    .doOnComplete(() -> {
+                        if (!answer.isEmpty()) {
+                            responses.put(key, CompletableFuture.completedFuture(answer.toString()));
+                        }
+                    });
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> budgets = new TreeMap<>();
+        featureBudgets.forEach((feature, budget) -> budgets.put(feature, budget.toMap()));
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("features", metrics.getStats());
+        stats.put("globalBudget", globalBudget.toMap());
+        stats.put("featureBudgets", budgets);
+        stats.put("cachedResponses", responses.synchronous().estimatedSize());
+        return stats;
+    }
+
+    /**
+     * Strumień fragmentów jako zdarzenia SSE dla przeglądarki:
+     * "token" {text}, na końcu "done", a przy błędzie "error" {message}
+     */
+    public static Flux<ServerSentEvent<Map<String, Object>>> toEvents(Flux<String> tokens) {
+        return tokens
+                .map(token -> ServerSentEvent.<Map<String, Object>>builder(Map.of("text", token)).event("token").build())
+                .concatWith(Mono.fromSupplier(() -> ServerSentEvent.<Map<String, Object>>builder(Map.of()).event("done").build()))
+                .onErrorResume(e -> {
+                    log.error("AI stream failed: {}", e.getMessage());
+                    String message = e instanceof RejectedException
+                            ? e.getMessage()
+                            : "Nie udało się wygenerować odpowiedzi AI. Spróbuj ponownie.";
+                    return Mono.just(ServerSentEvent.<Map<String, Object>>builder(
+                            Map.of("message", message)).event("error").build());
+                });
+    }
+
+    // ==================== API ====================
+
+    private Mono<String> call(String feature, Prompt prompt) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return webClient.post()
+                    .uri("/chat/completions")
+                    .headers(headers -> headers.setBearerAuth(apiKey))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(requestBody(prompt, false))
+                    .retrieve()
+                    .bodyToMono(JsonNode.class)
+                    .retryWhen(retryPolicy(() -> true))
+                    .doOnNext(response -> recordUsage(feature, response.path("usage")))
+                    .flatMap(response -> Mono.justOrEmpty(text(response.path("choices").path(0).path("message"))))
+                    .doOnSuccess(content -> metrics.recordCompletion(feature, System.nanoTime() - start))
+                    .doOnError(e -> metrics.recordError(feature));
+        });
+    }
+
+    private Flux<String> streamCall(String feature, Prompt prompt) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            return webClient.post()
+                    .uri("/chat/completions")
+                    .headers(headers -> headers.setBearerAuth(apiKey))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .bodyValue(requestBody(prompt, true))
+                    .retrieve()
+                    .bodyToFlux(SSE_TYPE)
+                    .map(ServerSentEvent::data)
+                    .filter(Objects::nonNull)
+                    .takeWhile(data -> !STREAM_END.equals(data.trim()))
+                    .mapNotNull(data -> chunkContent(feature, data))
+                    .doOnNext(token -> {
+                        if (first.compareAndSet(true, false)) {
+                            metrics.recordFirstToken(feature, System.nanoTime() - start);
+                        }
+                    })
+                    // Po pierwszym fragmencie ponowienie zdublowałoby treść u klienta
+                    .retryWhen(retryPolicy(first::get))
+                    .doOnComplete(() -> metrics.recordCompletion(feature, System.nanoTime() - start))
+                    .doOnError(e -> metrics.recordError(feature))
+                    .doOnCancel(() -> metrics.recordCancel(feature));
+        });
+    }
+
+    private Retry retryPolicy(BooleanSupplier allowed) {
+        return Retry.backoff(config.getMaxRetries(), Duration.ofSeconds(1))
+                .maxBackoff(Duration.ofSeconds(10))
+                .filter(e -> allowed.getAsBoolean() && isRetryable(e))
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        if (error instanceof WebClientResponseException e) {
+            return e.getStatusCode().value() == 429 || e.getStatusCode().is5xxServerError();
+        }
+        return error instanceof WebClientRequestException
+                || error instanceof TimeoutException || error.getCause() instanceof TimeoutException;
+    }
+
+    private Map<String, Object> requestBody(Prompt prompt, boolean stream) {
+        List<Map<String, String>> messages = new ArrayList<>(2);
+        if (prompt.system() != null) {
+            messages.add(Map.of("role", "system", "content", prompt.system()));
+        }
+        messages.add(Map.of("role", "user", "content", prompt.user()));
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", model);
+        body.put("messages", messages);
+        body.put("temperature", prompt.temperature());
+        body.put("max_tokens", prompt.maxTokens());
+        if (stream) {
+            body.put("stream", true);
+        }
+        return body;
+    }
+
+    /**
+     * Treść fragmentu strumienia; ostatni fragment może nieść zużycie tokenów (usage albo x_groq.usage)
+     */
+    private String chunkContent(String feature, String data) {
+        try {
+            JsonNode chunk = objectMapper.readTree(data);
+            JsonNode usage = chunk.has("usage") ? chunk.path("usage") : chunk.path("x_groq").path("usage");
+            recordUsage(feature, usage);
+            String content = text(chunk.path("choices").path(0).path("delta"));
+            return content == null || content.isEmpty() ? null : content;
+        } catch (IOException e) {
+            log.warn("Skipping malformed AI stream chunk: {}", data);
+            return null;
+        }
+    }
+
+    private void recordUsage(String feature, JsonNode usage) {
+        if (usage.isObject()) {
+            metrics.recordTokens(feature, usage.path("prompt_tokens").asLong(), usage.path("completion_tokens").asLong());
+        }
+    }
+
+    private static String text(JsonNode message) {
+        JsonNode content = message.path("content");
+        return content.isTextual() ? content.asText() : null;
+    }
+
+    // ==================== CACHE ====================
+
+    /**
+     * Model + SHA-256 promptu po normalizacji białych znaków (wcięcia i podwójne spacje nie tworzą nowych wpisów)
+     */
+    String cacheKey(Prompt prompt) {
+        String normalized = normalize(prompt.system()) + '\u0000' + normalize(prompt.user()) + '\u0000'
+                + prompt.temperature() + '\u0000' + prompt.maxTokens();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return model + ':' + HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.strip().replaceAll("\\s+", " ");
+    }
+
+    // ==================== BUDGETS ====================
+
+    private <T> Mono<T> withPermits(String feature, Mono<T> call) {
+        return Mono.usingWhen(acquire(feature), permits -> call,
+                Permits::close, (permits, e) -> permits.close(), Permits::close);
+    }
+
+    /**
+     * Najpierw limit funkcji, potem łączny - funkcja z pełną kolejką nie zajmuje miejsc innym
+     */
+    private Mono<Permits> acquire(String feature) {
+        Budget budget = featureBudgets.computeIfAbsent(feature,
+                f -> new Budget(config.featureLimit(f), config.getMaxQueued()));
+        return budget.acquire(config.getQueueTimeout())
+                .flatMap(featurePermit -> globalBudget.acquire(config.getQueueTimeout())
+                        .map(globalPermit -> new Permits(featurePermit, globalPermit))
+                        .doOnError(e -> featurePermit.release())
+                        .doOnCancel(featurePermit::release))
+                .doOnError(RejectedException.class, e -> {
+                    metrics.recordRejected(feature);
+                    log.warn("AI request for {} rejected: {}", feature, e.getMessage());
+                });
+    }
+
+    /**
+     * Limit równoległych zapytań z kolejką oczekujących (FIFO)
+     */
+    static final class Budget {
+
+        private final int limit;
+        private final int maxQueued;
+        private final Deque<Waiter> waiting = new ArrayDeque<>();
+        private int active;
+
+        Budget(int limit, int maxQueued) {
+            this.limit = Math.max(1, limit);
+            this.maxQueued = Math.max(0, maxQueued);
+        }
+
+        Mono<Permit> acquire(Duration timeout) {
+            return Mono.<Permit>create(sink -> {
+                Waiter waiter = new Waiter(sink);
+                sink.onCancel(() -> cancel(waiter));
+                Permit granted = null;
+                boolean rejected = false;
+                synchronized (this) {
+                    if (waiter.cancelled) {
+                        return;
+                    }
+                    if (active < limit) {
+                        active++;
+                        granted = new Permit(this);
+                        waiter.permit = granted;
+                    } else if (waiting.size() < maxQueued) {
+                        waiting.addLast(waiter);
+                    } else {
+                        rejected = true;
+                    }
+                }
+                if (granted != null) {
+                    sink.success(granted);
+                } else if (rejected) {
+                    sink.error(new RejectedException("Zbyt wiele zapytań AI naraz. Spróbuj ponownie za chwilę."));
+                }
+            }).timeout(timeout, Mono.error(() -> new RejectedException("Limit zapytań AI - przekroczony czas oczekiwania.")));
+        }
+
+        private void release() {
+            Waiter next;
+            synchronized (this) {
+                next = waiting.pollFirst();
+                if (next == null) {
+                    active--;
+                    return;
+                }
+                next.permit = new Permit(this);
+            }
+            next.sink.success(next.permit);
+        }
+
+        /**
+         * Oczekujący wycofał się: usuwamy go z kolejki, a przydzielone już miejsce oddajemy
+         */
+        private void cancel(Waiter waiter) {
+            Permit granted;
+            synchronized (this) {
+                if (waiting.remove(waiter)) {
+                    return;
+                }
+                waiter.cancelled = true;
+                granted = waiter.permit;
+            }
+            if (granted != null) {
+                granted.release();
+            }
+        }
+
+        synchronized int active() {
+            return active;
+        }
+
+        synchronized int queued() {
+            return waiting.size();
+        }
+
+        synchronized Map<String, Object> toMap() {
+            return Map.of("limit", limit, "active", active, "queued", waiting.size());
+        }
+    }
+
+    private static final class Waiter {
+        private final MonoSink<Permit> sink;
+        private Permit permit;
+        private boolean cancelled;
+
+        Waiter(MonoSink<Permit> sink) {
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * Miejsce w limicie; zwolnienie jest idempotentne (anulowanie i zakończenie mogą przyjść oba)
+     */
+    static final class Permit {
+        private final Budget budget;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(Budget budget) {
+            this.budget = budget;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                budget.release();
+            }
+        }
+    }
+
+    private record Permits(Permit feature, Permit global) {
+        Mono<Void> close() {
+            return Mono.fromRunnable(() -> {
+                global.release();
+                feature.release();
+            });
+        }
+    }
+
+    /**
+     * Zapytanie do modelu: instrukcja systemowa (opcjonalna), treść użytkownika i parametry generowania.
+     * cacheable = false - odpowiedź nie jest brana z cache ani do niego zapisywana
+     */
+    public record Prompt(String system, String user, double temperature, int maxTokens, boolean cacheable) {
+
+        public Prompt(String system, String user, double temperature, int maxTokens) {
+            this(system, user, temperature, maxTokens, true);
+        }
+    }
+
+    /**
+     * Zapytanie odrzucone przez limit równoległości (pełna kolejka albo zbyt długie oczekiwanie)
+     */
+    public static class RejectedException extends RuntimeException {
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.crm.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Liczniki wywołań LLM per funkcja (reply, improve, classification...):
+ * czas do pierwszego tokenu (tylko strumienie) i czas całej odpowiedzi z histogramem,
+ * zużycie tokenów, trafienia cache bramy i zapytania odrzucone przez limity.
+ * Te same pomiary trafiają do Micrometer (crm.ai.*) - getStats() to migawka dla panelu.
+ */
+@Component
+public class AIMetrics {
+
+    /**
+     * Górne granice przedziałów histogramu czasu odpowiedzi (ms); ostatni przedział - powyżej
+     */
+    static final long[] LATENCY_BUCKETS_MS = {250, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+
+    private final Map<String, FeatureStats> features = new ConcurrentHashMap<>();
+    private final MeterRegistry registry;
+
+    public AIMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void recordFirstToken(String feature, long nanos) {
+        stats(feature).firstToken.record(nanos);
+        registry.timer("crm.ai.first_token", "feature", feature).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordCompletion(String feature, long nanos) {
+        FeatureStats stats = stats(feature);
+        stats.requests.increment();
+        stats.completion.record(nanos);
+        registry.timer("crm.ai.requests", "feature", feature).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordError(String feature) {
+        FeatureStats stats = stats(feature);
+        stats.requests.increment();
+        stats.errors.increment();
+        registry.counter("crm.ai.requests.aborted", "feature", feature, "outcome", "error").increment();
+    }
+
+    /**
+     * Klient zamknął strumień przed końcem odpowiedzi
+     */
+    public void recordCancel(String feature) {
+        FeatureStats stats = stats(feature);
+        stats.requests.increment();
+        stats.cancelled.increment();
+        registry.counter("crm.ai.requests.aborted", "feature", feature, "outcome", "cancelled").increment();
+    }
+
+    /**
+     * Odpowiedź z cache; coalesced - dołączenie do identycznego zapytania, które jeszcze trwa
+     */
+    public void recordCacheHit(String feature, boolean coalesced) {
+        FeatureStats stats = stats(feature);
+        stats.cacheHits.increment();
+        if (coalesced) {
+            stats.coalesced.increment();
+        }
+        registry.counter("crm.ai.cache", "feature", feature, "result", coalesced ? "coalesced" : "hit").increment();
+    }
+
+    public void recordCacheMiss(String feature) {
+        stats(feature).cacheMisses.increment();
+        registry.counter("crm.ai.cache", "feature", feature, "result", "miss").increment();
+    }
+
+    public void recordRejected(String feature) {
+        stats(feature).rejected.increment();
+        registry.counter("crm.ai.rejected", "feature", feature).increment();
+    }
+
+    public void recordTokens(String feature, long promptTokens, long completionTokens) {
+        FeatureStats stats = stats(feature);
+        stats.promptTokens.add(promptTokens);
+        stats.completionTokens.add(completionTokens);
+        registry.counter("crm.ai.tokens", "feature", feature, "type", "prompt").increment(promptTokens);
+        registry.counter("crm.ai.tokens", "feature", feature, "type", "completion").increment(completionTokens);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new TreeMap<>();
+        features.forEach((feature, stats) -> result.put(feature, stats.toMap()));
+        return result;
+    }
+
+    private FeatureStats stats(String feature) {
+        return features.computeIfAbsent(feature, f -> new FeatureStats());
+    }
+
+    private static class FeatureStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder cancelled = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LongAdder cacheMisses = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final Timing firstToken = new Timing();
+        private final Timing completion = new Timing();
+
+        Map<String, Object> toMap() {
+            long hits = cacheHits.sum();
+            long lookups = hits + cacheMisses.sum();
+
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("requests", requests.sum());
+            map.put("errors", errors.sum());
+            map.put("cancelled", cancelled.sum());
+            map.put("rejected", rejected.sum());
+            map.put("cacheHits", hits);
+            map.put("coalesced", coalesced.sum());
+            map.put("cacheHitRatio", lookups == 0 ? 0.0 : Math.round(1000.0 * hits / lookups) / 1000.0);
+            map.put("promptTokens", promptTokens.sum());
+            map.put("completionTokens", completionTokens.sum());
+            map.put("avgTimeToFirstTokenMs", firstToken.avgMillis());
+            map.put("maxTimeToFirstTokenMs", firstToken.maxMillis());
+            map.put("avgCompletionMs", completion.avgMillis());
+            map.put("p95CompletionMs", completion.percentileMillis(0.95));
+            map.put("maxCompletionMs", completion.maxMillis());
+            map.put("completionHistogramMs", completion.histogram());
+            return map;
+        }
+    }
+
+    private static class Timing {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS_MS.length + 1];
+
+        Timing() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS_MS.length && millis > LATENCY_BUCKETS_MS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+        }
+
+        long avgMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / n);
+        }
+
+        long maxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        /**
+         * Górna granica przedziału, w którym wypada percentyl; w ostatnim przedziale - maksimum
+         */
+        long percentileMillis(double percentile) {
+            long n = 0;
+            long[] counts = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                n += counts[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * n);
+            long seen = 0;
+            for (int i = 0; i < LATENCY_BUCKETS_MS.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return LATENCY_BUCKETS_MS[i];
+                }
+            }
+            return maxMillis();
+        }
+
+        Map<String, Long> histogram() {
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            for (int i = 0; i < LATENCY_BUCKETS_MS.length; i++) {
+                histogram.put("le" + LATENCY_BUCKETS_MS[i], buckets[i].sum());
+            }
+            histogram.put("inf", buckets[LATENCY_BUCKETS_MS.length].sum());
+            return histogram;
+        }
+    }
+}
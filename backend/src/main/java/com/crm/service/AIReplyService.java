@@ -3,120 +3,74 @@ package com.crm.service;
 import com.crm.model.Contact;
 import com.crm.model.Email;
 import com.crm.model.Tag;
-import io.netty.channel.ChannelOption;
-import io.netty.handler.timeout.ReadTimeoutHandler;
-import io.netty.handler.timeout.WriteTimeoutHandler;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.netty.http.client.HttpClient;
 
-import java.time.Duration;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+/**
+ * Sugestie odpowiedzi na email (Smart Compose) - cała odpowiedź albo strumień fragmentów
+ */
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class AIReplyService {
 
+    static final String FEATURE = "reply";
+
+    private static final String SYSTEM_PROMPT = "Jesteś doświadczonym asystentem sprzedaży B2B. " +
+            "Twoim celem jest pisanie skutecznych, uprzejmych i konkretnych maili po polsku.";
+
     @Value("${ai.classification.enabled:true}")
     private boolean aiEnabled;
 
-    @Value("${ai.api.key}")
-    private String aiApiKey;
-    
-    @Value("${ai.model:llama-3.3-70b-versatile}")
-    private String aiModel;
-
-    private final WebClient webClient;
-
-    public AIReplyService(@Value("${ai.api.url:https://api.groq.com/openai/v1/chat/completions}") String aiApiUrl) {
-        // Usuń "/chat/completions" z URL jeśli jest na końcu
-        String baseUrl = aiApiUrl.replace("/chat/completions", "");
-        
-        // Timeout 30 sekund dla Groq (jest bardzo szybki)
-        HttpClient httpClient = HttpClient.create()
-                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
-                .responseTimeout(Duration.ofSeconds(30))
-                .doOnConnected(conn -> conn
-                        .addHandlerLast(new ReadTimeoutHandler(30, TimeUnit.SECONDS))
-                        .addHandlerLast(new WriteTimeoutHandler(10, TimeUnit.SECONDS)));
-        
-        this.webClient = WebClient.builder()
-                .baseUrl(baseUrl)
-                .clientConnector(new ReactorClientHttpConnector(httpClient))
-                .build();
-    }
+    private final AIGateway aiGateway;
 
     /**
      * Generuje sugestię odpowiedzi z pełnym kontekstem (Smart Compose)
      */
-    public String generateReplySuggestion(String originalSubject, String originalBody, String senderEmail, Contact contact, List<Email> history) {
+    public Mono<String> generateReplySuggestion(String originalSubject, String originalBody, String senderEmail, Contact contact, List<Email> history) {
         if (!aiEnabled) {
             log.info("AI is disabled, returning default reply");
-            return generateDefaultReply(senderEmail);
+            return Mono.just(generateDefaultReply(senderEmail));
         }
 
-        try {
-            log.info("Generating AI Smart Compose for email from: {}", senderEmail);
-
-            String prompt = buildSmartComposePrompt(originalSubject, originalBody, senderEmail, contact, history);
-            return callGroqAPI(prompt);
-
-        } catch (Exception e) {
-            log.error("Error generating AI reply suggestion", e);
-            return generateDefaultReply(senderEmail);
-        }
+        log.info("Generating AI Smart Compose for email from: {}", senderEmail);
+        return aiGateway.complete(FEATURE, prompt(originalSubject, originalBody, senderEmail, contact, history))
+                .defaultIfEmpty(generateDefaultReply(senderEmail))
+                .onErrorResume(e -> {
+                    log.error("Error generating AI reply suggestion", e);
+                    return Mono.just(generateDefaultReply(senderEmail));
+                });
     }
 
     /**
      * Wersja uproszczona (dla wstecznej kompatybilności)
      */
-    public String generateReplySuggestion(String originalSubject, String originalBody, String senderEmail) {
+    public Mono<String> generateReplySuggestion(String originalSubject, String originalBody, String senderEmail) {
         return generateReplySuggestion(originalSubject, originalBody, senderEmail, null, null);
     }
 
-    private String callAIAPI(String prompt) {
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", aiModel); // Z.AI GLM-4.6
-        requestBody.put("messages", List.of(
-                Map.of("role", "system", "content", "Jesteś doświadczonym asystentem sprzedaży B2B. Twoim celem jest pisanie skutecznych, uprzejmych i konkretnych maili po polsku."),
-                Map.of("role", "user", "content", prompt)
-        ));
-        requestBody.put("temperature", 0.7);
-        requestBody.put("max_tokens", 800);
-
-        log.info("Calling AI API ({}) for reply suggestion", aiModel);
-        
-        return webClient.post()
-                .uri("/chat/completions")
-                .header("Authorization", "Bearer " + aiApiKey)
-                .header("Content-Type", "application/json")
-                .bodyValue(requestBody)
-                .retrieve()
-                .bodyToMono(Map.class)
-                .map(response -> {
-                    if (response != null && response.containsKey("choices")) {
-                        List<Map> choices = (List<Map>) response.get("choices");
-                        if (!choices.isEmpty()) {
-                            Map message = (Map) choices.get(0).get("message");
-                            return (String) message.get("content");
-                        }
-                    }
-                    return generateDefaultReply("Klient");
-                })
-                .block();
+    /**
+     * Sugestia odpowiedzi strumieniowana fragmentami w miarę generowania przez model
+     */
+    public Flux<String> streamReplySuggestion(String originalSubject, String originalBody, String senderEmail, Contact contact, List<Email> history) {
+        if (!aiEnabled) {
+            return Flux.just(generateDefaultReply(senderEmail));
+        }
+
+        log.info("Streaming AI Smart Compose for email from: {}", senderEmail);
+        return aiGateway.stream(FEATURE, prompt(originalSubject, originalBody, senderEmail, contact, history));
     }
-    
-    // Zachowaj kompatybilność wsteczną
-    private String callGroqAPI(String prompt) {
-        return callAIAPI(prompt);
+
+    private AIGateway.Prompt prompt(String subject, String body, String senderEmail, Contact contact, List<Email> history) {
+        return new AIGateway.Prompt(SYSTEM_PROMPT,
+                buildSmartComposePrompt(subject, body, senderEmail, contact, history), 0.7, 800, false);
     }
 
     private String buildSmartComposePrompt(String subject, String body, String senderEmail, Contact contact, List<Email> history) {
@@ -147,7 +101,9 @@ public class AIReplyService {
             for (int i = limit - 1; i >= 0; i--) {
                 Email e = history.get(i);
                 sb.append("--- Email od: ").append(e.getSender()).append(" ---\n");
-                sb.append(e.getContent() != null ? e.getContent().substring(0, Math.min(e.getContent().length(), 300)) : "").append("\n\n");
+                // Duże treści są w BlobStore (content NULL) - na 300 znaków kontekstu wystarczy podgląd
+                String text = e.getContent() != null ? e.getContent() : e.getPreview();
+                sb.append(text != null ? text.substring(0, Math.min(text.length(), 300)) : "").append("\n\n");
             }
         }
 
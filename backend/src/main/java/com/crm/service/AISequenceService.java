@@ -10,51 +10,52 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
-
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class AISequenceService {
 
-    private final DealRepository dealRepository;
-    private final EmailRepository emailRepository;
-    private final RestTemplate restTemplate;
-    
-    public AISequenceService(DealRepository dealRepository, EmailRepository emailRepository) {
-        this.dealRepository = dealRepository;
-        this.emailRepository = emailRepository;
-        // Timeout 120 sekund dla długich zapytań AI
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(30000); // 30 sekund
-        factory.setReadTimeout(120000);   // 120 sekund
-        this.restTemplate = new RestTemplate(factory);
-    }
-
-    @Value("${ai.api.url:https://api.groq.com/openai/v1/chat/completions}")
-    private String llmApiUrl;
+    private static final String COPYWRITER_SYSTEM_PROMPT = "Jesteś doświadczonym copywriterem i handlowcem B2B. " +
+            "Piszesz skuteczne cold emaile, które brzmią naturalnie i przynoszą rezultaty. Zawsze odpowiadasz po polsku. " +
+            "Twoje odpowiedzi są konkretne i bez zbędnych komentarzy.";
 
-    @Value("${ai.api.key:}")
-    private String llmApiKey;
+    /**
+     * Podejścia dla kolejnych wariantów A/B - każdy wariant generowany osobnym, równoległym zapytaniem
+     */
+    private static final List<String> VARIANT_APPROACHES = List.of(
+            "krótszy i bardziej bezpośredni, z jednym mocnym zdaniem otwierającym",
+            "zaczynający się od pytania, które dotyka problemu odbiorcy",
+            "oparty na konkretnej korzyści lub liczbie (oszczędność czasu, pieniędzy)",
+            "w bardziej osobistym, swobodnym tonie",
+            "z krótkim przykładem firmy, której już pomogliśmy");
 
-    @Value("${ai.model:llama-3.3-70b-versatile}")
-    private String llmModel;
+    private final DealRepository dealRepository;
+    private final EmailRepository emailRepository;
+    private final EmailContentService emailContentService;
+    private final WebsiteContentService websiteContentService;
+    private final AIGateway aiGateway;
 
     public AISequenceResponse generateSequence(AISequenceRequest request) {
         log.info("Generating AI sequence for website: {}, goal: {}", request.getWebsiteUrl(), request.getGoal());
 
+        // Strona pobiera się (albo przychodzi z cache) równolegle z odczytem danych dealu
+        boolean hasWebsite = request.getWebsiteUrl() != null && !request.getWebsiteUrl().isEmpty();
+        CompletableFuture<String> websiteFuture = hasWebsite
+                ? websiteContentService.fetchAsync(request.getWebsiteUrl())
+                : null;
+
         Deal deal = null;
         String lastEmailContent = "";
 
@@ -73,18 +74,19 @@ public class AISequenceService {
 
             if (!recentEmails.isEmpty()) {
                 Email lastEmail = recentEmails.get(0);
+                String body = Objects.requireNonNullElse(emailContentService.getContent(lastEmail), "");
                 lastEmailContent = "Ostatni email od klienta:\n" +
                                   "Temat: " + lastEmail.getSubject() + "\n" +
-                                  "Treść: " + (lastEmail.getContent().length() > 1000 ?
-                                      lastEmail.getContent().substring(0, 1000) + "..." :
-                                      lastEmail.getContent());
+                                  "Treść: " + (body.length() > 1000 ?
+                                      body.substring(0, 1000) + "..." :
+                                      body);
             }
         }
 
         // 3. Pobierz treść ze strony WWW
         String websiteContent = "";
-        if (request.getWebsiteUrl() != null && !request.getWebsiteUrl().isEmpty()) {
-            websiteContent = scrapeWebsite(request.getWebsiteUrl());
+        if (websiteFuture != null) {
+            websiteContent = websiteContentService.await(websiteFuture, request.getWebsiteUrl());
         }
 
         // 4. Zbuduj prompt dla AI
@@ -195,84 +197,14 @@ public class AISequenceService {
         return prompt.toString();
     }
 
-    private String scrapeWebsite(String url) {
-        try {
-            if (!url.startsWith("http://") && !url.startsWith("https://")) {
-                url = "https://" + url;
-            }
-
-            log.info("Scraping website: {}", url);
-            Document doc = Jsoup.connect(url)
-                .userAgent("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36")
-                .timeout(10000)
-                .get();
-
-            // Usuń niechciane elementy
-            doc.select("script, style, nav, footer, header, aside").remove();
-
-            // Pobierz tekst z głównych tagów
-            String text = doc.select("title, h1, h2, h3, p, li, td").text();
-
-            // Ogranicz długość
-            if (text.length() > 2000) {
-                text = text.substring(0, 2000);
-            }
-
-            log.info("Successfully scraped {} characters from website", text.length());
-            return text;
-
-        } catch (IOException e) {
-            log.warn("Failed to scrape website: {}", url, e);
-            return "Nie udało się pobrać treści ze strony: " + url;
-        }
-    }
-
     private AISequenceResponse callLLM(String prompt) {
         try {
-            // Nagłówki z kluczem API
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            if (!llmApiKey.isEmpty()) {
-                headers.setBearerAuth(llmApiKey);
-            }
-
-            // Body request
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", llmModel);
-
-            List<Map<String, String>> messages = new ArrayList<>();
-            messages.add(Map.of(
-                "role", "system",
-                "content", "Jesteś ekspertem od sprzedaży i marketingu. Zawsze odpowiadaj w formacie JSON."
-            ));
-            messages.add(Map.of(
-                "role", "user",
-                "content", prompt
-            ));
-            requestBody.put("messages", messages);
-            requestBody.put("temperature", 0.7);
-            requestBody.put("max_tokens", 2000);
-
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-
-            log.info("Calling LLM API: {}", llmApiUrl);
-            ResponseEntity<Map> response = restTemplate.postForEntity(llmApiUrl, entity, Map.class);
-
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                Map<String, Object> responseBody = response.getBody();
-                List<Map<String, Object>> choices = (List<Map<String, Object>>) responseBody.get("choices");
-
-                if (choices != null && !choices.isEmpty()) {
-                    Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
-                    String content = (String) message.get("content");
-
-                    // Parsuj JSON odpowiedzi
-                    return parseLLMResponse(content);
-                }
-            }
+            String content = aiGateway.complete("sequence", new AIGateway.Prompt(
+                    "Jesteś ekspertem od sprzedaży i marketingu. Zawsze odpowiadaj w formacie JSON.", prompt, 0.7, 2000, false))
+                    .block();
 
             // Jeśli nie udało się połączyć z API, zwróć domyślną odpowiedź
-            return getDefaultSequence();
+            return content != null ? parseLLMResponse(content) : getDefaultSequence();
 
         } catch (Exception e) {
             log.error("Error calling LLM API", e);
@@ -417,8 +349,19 @@ public class AISequenceService {
     /**
      * Ulepsza treść emaila - dodaje personalizację, poprawia styl
      */
-    public String improveEmailContent(String content, String goal, String tone) {
-        String prompt = "Jesteś copywriterem specjalizującym się w cold emailach B2B. " +
+    public Mono<String> improveEmailContent(String content, String goal, String tone) {
+        return completeSimple("improve", improvePrompt(content, goal, tone));
+    }
+
+    /**
+     * Ulepszona treść emaila strumieniowana fragmentami
+     */
+    public Flux<String> streamImprovedEmailContent(String content, String goal, String tone) {
+        return streamSimple("improve", improvePrompt(content, goal, tone));
+    }
+
+    private static String improvePrompt(String content, String goal, String tone) {
+        return "Jesteś copywriterem specjalizującym się w cold emailach B2B. " +
             "Przepisz poniższy email tak, żeby był skuteczniejszy.\n\n" +
             
             "=== ORYGINALNA TREŚĆ ===\n" + content + "\n\n" +
@@ -442,15 +385,24 @@ public class AISequenceService {
             "- Ogólników bez konkretów\n\n" +
             
             "Zwróć TYLKO ulepszoną treść emaila po polsku. Bez komentarzy, cudzysłowów ani wyjaśnień.";
-        
-        return callLLMSimple(prompt);
     }
     
     /**
      * Generuje temat emaila na podstawie treści
      */
-    public String generateEmailSubject(String content, String style) {
-        String prompt = "Jesteś ekspertem od email marketingu. Napisz temat emaila, który sprawi że odbiorca go otworzy.\n\n" +
+    public Mono<String> generateEmailSubject(String content, String style) {
+        return completeSimple("subject", subjectPrompt(content)).map(result -> {
+            // Usuń ewentualne cudzysłowy i znaki interpunkcyjne na końcu
+            result = result.replace("\"", "").replace("\u201E", "").replace("\u201D", "").trim();
+            if (result.endsWith(".") || result.endsWith("!")) {
+                result = result.substring(0, result.length() - 1);
+            }
+            return result;
+        });
+    }
+
+    private static String subjectPrompt(String content) {
+        return "Jesteś ekspertem od email marketingu. Napisz temat emaila, który sprawi że odbiorca go otworzy.\n\n" +
             
             "=== TREŚĆ EMAILA ===\n" + content + "\n\n" +
             
@@ -476,21 +428,24 @@ public class AISequenceService {
             "- \"Propozycja od firmy XYZ\" (nikt tego nie otworzy)\n\n" +
             
             "Zwróć TYLKO temat emaila po polsku. Bez cudzysłowów, kropki na końcu ani wyjaśnień.";
-        
-        String result = callLLMSimple(prompt);
-        // Usuń ewentualne cudzysłowy i znaki interpunkcyjne na końcu
-        result = result.replace("\"", "").replace("\u201E", "").replace("\u201D", "").trim();
-        if (result.endsWith(".") || result.endsWith("!")) {
-            result = result.substring(0, result.length() - 1);
-        }
-        return result;
     }
     
     /**
      * Personalizuje treść na podstawie danych kontaktu
      */
-    public String personalizeContent(String content, String contactName, String company, String position) {
-        String prompt = "Jesteś handlowcem B2B, który wysyła spersonalizowane emaile. " +
+    public Mono<String> personalizeContent(String content, String contactName, String company, String position) {
+        return completeSimple("personalize", personalizePrompt(content));
+    }
+
+    /**
+     * Spersonalizowana treść strumieniowana fragmentami
+     */
+    public Flux<String> streamPersonalizedContent(String content, String contactName, String company, String position) {
+        return streamSimple("personalize", personalizePrompt(content));
+    }
+
+    private static String personalizePrompt(String content) {
+        return "Jesteś handlowcem B2B, który wysyła spersonalizowane emaile. " +
             "Dodaj personalizację do tego emaila, ale NIE przesadzaj.\n\n" +
             
             "=== TREŚĆ DO PERSONALIZACJI ===\n" + content + "\n\n" +
@@ -518,132 +473,110 @@ public class AISequenceService {
             "- Wielokrotnego powtarzania zmiennych\n\n" +
             
             "Zwróć TYLKO spersonalizowaną treść emaila po polsku. Bez komentarzy ani wyjaśnień.";
-        
-        return callLLMSimple(prompt);
     }
     
     /**
-     * Generuje warianty A/B dla treści emaila
+     * Generuje warianty A/B dla treści emaila (w kolejności podejść)
+     */
+    public Mono<List<String>> generateVariants(String content, int count) {
+        return streamVariants(content, count)
+                .sort(Comparator.comparingInt(Variant::index))
+                .map(Variant::text)
+                .collectList()
+                // Zwróć oryginał jako fallback
+                .map(variants -> variants.isEmpty() ? List.of(content) : variants);
+    }
+
+    /**
+     * Warianty A/B w kolejności ukończenia - każdy wariant osobnym zapytaniem, wszystkie równolegle.
+     * Nieudany wariant jest pomijany.
      */
-    public List<String> generateVariants(String content, int count) {
-        String prompt = "Wygeneruj " + count + " różnych wariantów poniższego emaila sprzedażowego.\n\n" +
+    public Flux<Variant> streamVariants(String content, int count) {
+        int variants = Math.max(1, Math.min(count, VARIANT_APPROACHES.size()));
+        if (!aiGateway.isConfigured()) {
+            log.error("LLM API key is not configured!");
+            return Flux.empty();
+        }
+        return Flux.range(0, variants)
+                .flatMap(i -> aiGateway.complete("variants", copywriterPrompt(variantPrompt(content, VARIANT_APPROACHES.get(i))))
+                        .map(text -> new Variant(i + 1, text.trim()))
+                        .onErrorResume(e -> {
+                            log.warn("Variant {} generation failed: {}", i + 1, e.getMessage());
+                            return Mono.empty();
+                        }), variants);
+    }
+
+    private static String variantPrompt(String content, String approach) {
+        return "Napisz wariant poniższego emaila sprzedażowego do testu A/B.\n\n" +
             "ORYGINALNA TREŚĆ:\n" + content + "\n\n" +
+            "PODEJŚCIE TEGO WARIANTU: " + approach + "\n\n" +
             "INSTRUKCJE:\n" +
-            "1. Każdy wariant powinien mieć inny styl/podejście\n" +
-            "2. Zachowaj główny przekaz\n" +
-            "3. Warianty powinny być podobnej długości do oryginału\n" +
-            "4. Pisz po polsku\n\n" +
-            "Zwróć warianty w formacie JSON:\n" +
-            "[\"wariant 1\", \"wariant 2\", ...]\n\n" +
-            "Zwróć TYLKO JSON, bez żadnych dodatkowych komentarzy.";
-        
-        String result = callLLMSimple(prompt);
-        
-        try {
-            // Wyczyść odpowiedź z markdown
-            if (result.contains("```json")) {
-                int start = result.indexOf("```json") + 7;
-                int end = result.indexOf("```", start);
-                if (end > start) {
-                    result = result.substring(start, end);
-                }
-            } else if (result.contains("```")) {
-                int start = result.indexOf("```") + 3;
-                int end = result.indexOf("```", start);
-                if (end > start) {
-                    result = result.substring(start, end);
-                }
-            }
-            
-            ObjectMapper mapper = new ObjectMapper();
-            return mapper.readValue(result.trim(), List.class);
-        } catch (Exception e) {
-            log.error("Error parsing variants: {}", result, e);
-            return List.of(content); // Zwróć oryginał jako fallback
-        }
+            "1. Zachowaj główny przekaz\n" +
+            "2. Wariant powinien mieć podobną długość do oryginału\n" +
+            "3. Pisz po polsku\n\n" +
+            "Zwróć TYLKO treść wariantu, bez komentarzy, cudzysłowów ani wyjaśnień.";
     }
     
     /**
-     * Prosty call do LLM bez parsowania JSON
+     * Prosty call do LLM bez parsowania JSON - błąd zwracany jako komunikat dla użytkownika
      */
-    private String callLLMSimple(String prompt) {
-        try {
-            // Walidacja konfiguracji
-            if (llmApiKey == null || llmApiKey.isEmpty()) {
-                log.error("LLM API key is not configured!");
-                return "Błąd konfiguracji: Brak klucza API. Sprawdź ustawienia AI_API_KEY.";
-            }
-            
-            if (llmApiUrl == null || llmApiUrl.isEmpty()) {
-                log.error("LLM API URL is not configured!");
-                return "Błąd konfiguracji: Brak URL API.";
-            }
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(llmApiKey);
-
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", llmModel);
-
-            List<Map<String, String>> messages = new ArrayList<>();
-            messages.add(Map.of(
-                "role", "system",
-                "content", "Jesteś doświadczonym copywriterem i handlowcem B2B. Piszesz skuteczne cold emaile, " +
-                    "które brzmią naturalnie i przynoszą rezultaty. Zawsze odpowiadasz po polsku. " +
-                    "Twoje odpowiedzi są konkretne i bez zbędnych komentarzy."
-            ));
-            messages.add(Map.of(
-                "role", "user",
-                "content", prompt
-            ));
-            requestBody.put("messages", messages);
-            requestBody.put("temperature", 0.75);
-            requestBody.put("max_tokens", 1500);
-
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-
-            log.info("Calling LLM API: {} with model: {}", llmApiUrl, llmModel);
-            log.debug("Request body: {}", requestBody);
-            
-            ResponseEntity<Map> response = restTemplate.postForEntity(llmApiUrl, entity, Map.class);
+    private Mono<String> completeSimple(String feature, String prompt) {
+        // Walidacja konfiguracji
+        if (!aiGateway.isConfigured()) {
+            log.error("LLM API key is not configured!");
+            return Mono.just("Błąd konfiguracji: Brak klucza API. Sprawdź ustawienia AI_API_KEY.");
+        }
 
-            log.info("LLM API response status: {}", response.getStatusCode());
-            
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                Map<String, Object> responseBody = response.getBody();
-                log.debug("LLM API response body: {}", responseBody);
-                
-                List<Map<String, Object>> choices = (List<Map<String, Object>>) responseBody.get("choices");
-
-                if (choices != null && !choices.isEmpty()) {
-                    Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
-                    String content = (String) message.get("content");
-                    log.info("LLM generated {} characters of content", content != null ? content.length() : 0);
-                    return content != null ? content.trim() : "Pusta odpowiedź od AI";
-                } else {
-                    log.warn("No choices in LLM response: {}", responseBody);
+        log.info("Calling LLM API for {}", feature);
+        return aiGateway.complete(feature, copywriterPrompt(prompt))
+                .map(content -> {
+                    log.info("LLM generated {} characters of content", content.length());
+                    return content.trim();
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    log.warn("No content in LLM response for {}", feature);
                     return "AI nie wygenerowało odpowiedzi. Spróbuj ponownie.";
-                }
-            } else {
-                log.error("LLM API returned non-OK status: {} body: {}", response.getStatusCode(), response.getBody());
-                return "Błąd API (status " + response.getStatusCode() + "). Spróbuj ponownie.";
-            }
+                }))
+                .onErrorResume(e -> Mono.just(errorMessage(e)));
+    }
+
+    private Flux<String> streamSimple(String feature, String prompt) {
+        if (!aiGateway.isConfigured()) {
+            return Flux.error(new IllegalStateException("LLM API key is not configured"));
+        }
+        log.info("Streaming LLM API response for {}", feature);
+        return aiGateway.stream(feature, copywriterPrompt(prompt));
+    }
+
+    private static AIGateway.Prompt copywriterPrompt(String prompt) {
+        // Propozycje copywritera - każde wywołanie ma dać nową wersję, bez cache odpowiedzi
+        return new AIGateway.Prompt(COPYWRITER_SYSTEM_PROMPT, prompt, 0.75, 1500, false);
+    }
 
-        } catch (org.springframework.web.client.HttpClientErrorException e) {
-            log.error("LLM API HTTP error: {} - {}", e.getStatusCode(), e.getResponseBodyAsString());
-            if (e.getStatusCode().value() == 401) {
+    private static String errorMessage(Throwable e) {
+        if (e instanceof AIGateway.RejectedException) {
+            return e.getMessage();
+        }
+        if (e instanceof WebClientResponseException http) {
+            log.error("LLM API HTTP error: {} - {}", http.getStatusCode(), http.getResponseBodyAsString());
+            if (http.getStatusCode().value() == 401) {
                 return "Błąd autoryzacji API. Sprawdź klucz API.";
-            } else if (e.getStatusCode().value() == 429) {
+            } else if (http.getStatusCode().value() == 429) {
                 return "Limit zapytań API przekroczony. Spróbuj za chwilę.";
             }
-            return "Błąd HTTP: " + e.getStatusCode();
-        } catch (org.springframework.web.client.ResourceAccessException e) {
+            return "Błąd HTTP: " + http.getStatusCode();
+        }
+        if (e instanceof WebClientRequestException) {
             log.error("LLM API connection error", e);
             return "Nie można połączyć się z API. Sprawdź połączenie.";
-        } catch (Exception e) {
-            log.error("Unexpected error calling LLM API", e);
-            return "Nieoczekiwany błąd: " + e.getMessage();
         }
+        log.error("Unexpected error calling LLM API", e);
+        return "Nieoczekiwany błąd: " + e.getMessage();
+    }
+
+    /**
+     * Wariant A/B; index - numer podejścia (od 1)
+     */
+    public record Variant(int index, String text) {
     }
 }
\ No newline at end of file
@@ -2,27 +2,60 @@ package com.crm.service;
 
 import com.crm.model.Attachment;
 import com.crm.repository.AttachmentRepository;
-import lombok.RequiredArgsConstructor;
+import com.crm.repository.EmailRepository;
+import com.crm.storage.BlobStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.UUID;
 
+/**
+ * Załączniki: treść w {@link BlobStore} pod kluczem SHA-256 (dysk lub S3).
+ * Identyczne pliki są zapisywane raz - kolejne rekordy wskazują ten sam klucz, a treść jest
+ * usuwana dopiero z ostatnim rekordem. Rekordy bez sha256 (sprzed deduplikacji) czytają plik z path.
+ * Upload i usuwanie tej samej treści serializuje blokada pg_advisory_xact_lock po sha256. Klucze są wspólne
+ * z dużymi treściami maili (EmailContentService), więc treść wskazywana przez emails.content_hash zostaje.
+ *
+ * Małe pliki wysyłane w sekwencjach (ten sam załącznik w tysiącach maili) są trzymane w cache
+ * bajtów ograniczonym rozmiarem, żeby nie czytać dysku przy każdej wiadomości.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
-public class AttachmentService {
+public class AttachmentService implements MeterBinder {
 
     private final AttachmentRepository attachmentRepository;
+    private final EmailRepository emailRepository;
+    private final BlobStore blobStore;
+    private final TransactionTemplate newTransaction;
+    private final Cache<String, byte[]> hotBytes;
 
     @Value("${app.upload.dir:uploads}")
     private String uploadDir;
@@ -30,8 +63,39 @@ public class AttachmentService {
     @Value("${app.upload.max-size:26214400}") // 25MB default
     private long maxFileSize;
 
+    @Value("${app.attachments.cache.max-file-bytes:1048576}")
+    private long cacheMaxFileBytes;
+
+    public AttachmentService(AttachmentRepository attachmentRepository,
+                             EmailRepository emailRepository,
+                             BlobStore blobStore,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${app.attachments.cache.max-bytes:33554432}") long cacheMaxBytes) {
+        this.attachmentRepository = attachmentRepository;
+        this.emailRepository = emailRepository;
+        this.blobStore = blobStore;
+        // Sprzątanie treści po commicie usunięcia - tam trwająca transakcja jest już zamknięta
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.hotBytes = Caffeine.newBuilder()
+                .maximumWeight(cacheMaxBytes)
+                .weigher((String path, byte[] bytes) -> bytes.length)
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Trafienia cache bajtów załączników w Micrometer
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, hotBytes, "attachmentBytes");
+    }
+
     /**
-     * Upload a file and save attachment metadata
+     * Upload a file and save attachment metadata.
+     * Treść jest kopiowana strumieniowo do pliku tymczasowego z liczeniem SHA-256 w locie.
      */
     @Transactional
     public Attachment uploadFile(MultipartFile file, Long userId) throws IOException {
@@ -45,35 +109,44 @@ public class AttachmentService {
             throw new IllegalArgumentException("Plik jest pusty");
         }
 
-        // Create upload directory if it doesn't exist
         Path uploadPath = Paths.get(uploadDir);
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
-        }
+        Files.createDirectories(uploadPath);
 
-        // Generate unique filename
         String originalFilename = file.getOriginalFilename();
         String extension = "";
         if (originalFilename != null && originalFilename.contains(".")) {
             extension = originalFilename.substring(originalFilename.lastIndexOf("."));
         }
-        String uniqueFilename = UUID.randomUUID().toString() + extension;
 
-        // Save file to disk
-        Path filePath = uploadPath.resolve(uniqueFilename);
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+        MessageDigest digest = BlobStore.newDigest();
+        Path tempFile = Files.createTempFile(uploadPath, "upload-", ".part");
+        String hash;
+        long size;
+        try {
+            try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+                size = Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            hash = HexFormat.of().formatHex(digest.digest());
+            // Do commitu rekordu nikt nie usunie tej treści - zapis poniżej zostaje przy rekordzie
+            attachmentRepository.lockContent(hash);
+            // Istniejąca treść - no-op, rekord wskaże ten sam klucz
+            blobStore.put(hash, tempFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
 
         // Create attachment record
         Attachment attachment = new Attachment();
-        attachment.setFilename(uniqueFilename);
+        attachment.setFilename(hash);
         attachment.setOriginalName(originalFilename != null ? originalFilename : "file" + extension);
         attachment.setContentType(file.getContentType() != null ? file.getContentType() : "application/octet-stream");
-        attachment.setSize(file.getSize());
-        attachment.setPath(filePath.toString());
+        attachment.setSize(size);
+        attachment.setPath(blobStore.locationOf(hash));
+        attachment.setSha256(hash);
         attachment.setUserId(userId);
 
         Attachment saved = attachmentRepository.save(attachment);
-        log.info("Uploaded attachment: {} ({})", saved.getOriginalName(), saved.getId());
+        log.info("Uploaded attachment: {} ({}), sha256 {}", saved.getOriginalName(), saved.getId(), hash);
 
         return saved;
     }
@@ -100,36 +173,145 @@ public class AttachmentService {
         return attachmentRepository.findByUserId(userId);
     }
 
+    /**
+     * Treść załącznika jako zasób do strumieniowania (pobieranie, zakresy Range) - bez ładowania do pamięci
+     */
+    public Resource getResource(Attachment attachment) {
+        Resource resource = attachment.getSha256() != null
+                ? blobStore.asResource(attachment.getSha256())
+                : new FileSystemResource(getFilePath(attachment));
+        if (!resource.exists()) {
+            throw new RuntimeException("Plik nie istnieje na dysku: " + attachment.getOriginalName());
+        }
+        return resource;
+    }
+
+    /**
+     * ETag załącznika - skrót treści, a dla plików sprzed deduplikacji id i rozmiar
+     */
+    public String getETag(Attachment attachment) {
+        if (attachment.getSha256() != null) {
+            return "\"" + attachment.getSha256() + "\"";
+        }
+        return "\"" + attachment.getId() + "-" + attachment.getSize() + "\"";
+    }
+
+    /**
+     * Treść załącznika do wysyłki maila: małe pliki z cache bajtów, duże strumieniowo z magazynu.
+     * Zwraca null, gdy treści nie ma.
+     */
+    public InputStreamSource getMailSource(Attachment attachment) {
+        if (attachment.getSize() != null && attachment.getSize() <= cacheMaxFileBytes) {
+            try {
+                return new ByteArrayResource(hotBytes.get(cacheKey(attachment), key -> readBytes(attachment)));
+            } catch (UncheckedIOException e) {
+                log.warn("Could not read attachment {}: {}", attachment.getPath(), e.getMessage());
+                return null;
+            }
+        }
+        try {
+            return getResource(attachment);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String cacheKey(Attachment attachment) {
+        return attachment.getSha256() != null ? attachment.getSha256() : attachment.getPath();
+    }
+
+    private byte[] readBytes(Attachment attachment) {
+        try {
+            return attachment.getSha256() != null
+                    ? blobStore.read(attachment.getSha256())
+                    : Files.readAllBytes(getFilePath(attachment));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Get file bytes for an attachment
      */
     public byte[] getFileBytes(Attachment attachment) throws IOException {
-        Path filePath = Paths.get(attachment.getPath());
-        if (!Files.exists(filePath)) {
-            throw new RuntimeException("Plik nie istnieje na dysku: " + attachment.getOriginalName());
+        byte[] cached = hotBytes.getIfPresent(cacheKey(attachment));
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return readBytes(attachment);
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException("Plik nie istnieje na dysku: " + attachment.getOriginalName(), e);
         }
-        return Files.readAllBytes(filePath);
     }
 
     /**
-     * Delete attachment and its file
+     * Delete attachment and its content (gdy żaden inny rekord nie wskazuje tej samej treści)
      */
     @Transactional
     public void delete(Long id) {
         Attachment attachment = getById(id);
-        
-        // Delete file from disk
-        try {
-            Path filePath = Paths.get(attachment.getPath());
-            Files.deleteIfExists(filePath);
-            log.info("Deleted file from disk: {}", filePath);
-        } catch (IOException e) {
-            log.warn("Could not delete file from disk: {}", attachment.getPath(), e);
-        }
+        String path = attachment.getPath();
+        String hash = attachment.getSha256();
 
         // Delete database record
         attachmentRepository.deleteById(id);
+        attachmentRepository.flush();
         log.info("Deleted attachment record: {}", id);
+
+        if (hash != null && attachmentRepository.countBySha256(hash) > 0) {
+            log.debug("Content {} still referenced by other attachments, keeping it", hash);
+            return;
+        }
+
+        Runnable deleteFile = () -> {
+            hotBytes.invalidate(cacheKey(attachment));
+            if (hash != null) {
+                deleteContentIfUnreferenced(hash);
+                return;
+            }
+            try {
+                Files.deleteIfExists(Paths.get(path));
+                log.info("Deleted file: {}", path);
+            } catch (IOException e) {
+                log.warn("Could not delete file: {}", path, e);
+            }
+        };
+        // Plik znika dopiero po commicie - rollback nie zostawi rekordu bez pliku
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deleteFile.run();
+                }
+            });
+        } else {
+            deleteFile.run();
+        }
+    }
+
+    /**
+     * Usuwa treść spod blokady sha256, jeśli nie wskazuje jej żaden załącznik ani mail. Upload tej samej treści
+     * zatwierdzony w międzyczasie jest widoczny w ponownym liczeniu, a późniejszy zapisze plik od nowa.
+     */
+    private void deleteContentIfUnreferenced(String hash) {
+        newTransaction.executeWithoutResult(status -> {
+            attachmentRepository.lockContent(hash);
+            if (attachmentRepository.countBySha256(hash) > 0) {
+                log.debug("Content {} re-uploaded before cleanup, keeping it", hash);
+                return;
+            }
+            if (emailRepository.existsByContentHash(hash)) {
+                log.debug("Content {} is also an email body, keeping it", hash);
+                return;
+            }
+            try {
+                blobStore.delete(hash);
+                log.info("Deleted content: {}", blobStore.locationOf(hash));
+            } catch (IOException e) {
+                log.warn("Could not delete content: {}", blobStore.locationOf(hash), e);
+            }
+        });
     }
 
     /**
@@ -139,4 +321,3 @@ public class AttachmentService {
         return Paths.get(attachment.getPath());
     }
 }
-
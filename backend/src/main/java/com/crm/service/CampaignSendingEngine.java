@@ -0,0 +1,439 @@
+package com.crm.service;
+
+import com.crm.model.Campaign;
+import com.crm.model.CampaignRecipient;
+import com.crm.model.Contact;
+import com.crm.model.EmailAccount;
+import com.crm.repository.CampaignRecipientRepository;
+import com.crm.repository.CampaignRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Silnik wysyłki kampanii.
+ *
+ * Każdy odbiorca dostaje slot wysyłki (scheduled_for) wyliczony z throttlingu kampanii.
+ * Co tick odbiorcy z minionym slotem są blokowani (SKIP LOCKED), oznaczani jako 'queued'
+ * (z dzierżawą claimed_at) i przekazywani do ograniczonej puli wątków danego konta email.
+ * Wysłany odbiorca jest oznaczany od razu po wysyłce, liczniki kampanii i błędy są zapisywane
+ * zbiorczo w kolejnym ticku. Odbiorcy 'queued' z wygasłą dzierżawą (instancja padła) wracają do kolejki.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CampaignSendingEngine {
+
+    private static final int MAX_CLAIM_PER_TICK = 200;
+    private static final int UPDATE_CHUNK = 1000;
+    private static final int RATE_WINDOW_MINUTES = 5;
+
+    private final CampaignRepository campaignRepository;
+    private final CampaignRecipientRepository recipientRepository;
+    private final EmailTemplateService emailTemplateService;
+    private final EmailSendingService emailSendingService;
+    private final TemplateRenderer templateRenderer;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${campaign.sending.threads-per-account:2}")
+    private int threadsPerAccount;
+
+    @Value("${campaign.sending.queue-per-account:50}")
+    private int queuePerAccount;
+
+    /**
+     * Po tylu minutach odbiorca 'queued' bez wyniku uznawany jest za porzucony
+     */
+    @Value("${campaign.sending.lease-minutes:15}")
+    private int leaseMinutes;
+
+    @Value("${app.base-url:http://localhost:8080}")
+    private String baseUrl;
+
+    private final Map<Long, ThreadPoolExecutor> accountPools = new ConcurrentHashMap<>();
+    private final Queue<SendResult> results = new ConcurrentLinkedQueue<>();
+    private final Map<Long, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private volatile Set<Long> activeCampaignIds = Set.of();
+
+    // ==================== LIFECYCLE ====================
+
+    /**
+     * Odbiorcy przekazani do puli, którzy nie dostali wyniku w czasie dzierżawy (instancja padła),
+     * wracają do kolejki. Przy starcie i cyklicznie - dzierżawy innych instancji wygasają w trakcie pracy.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void recoverInterruptedSends() {
+        LocalDateTime expiredBefore = LocalDateTime.now().minusMinutes(leaseMinutes);
+        Integer requeued = transactionTemplate.execute(status -> recipientRepository.requeueExpired(expiredBefore));
+        if (requeued != null && requeued > 0) {
+            log.info("Requeued {} campaign recipients with expired send lease", requeued);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        accountPools.values().forEach(ThreadPoolExecutor::shutdown);
+        for (ThreadPoolExecutor pool : accountPools.values()) {
+            try {
+                pool.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushResults();
+    }
+
+    // ==================== DISPATCH ====================
+
+    /**
+     * Tick silnika - zapisuje wyniki poprzednich wysyłek i rozdziela kolejnych odbiorców
+     */
+    @Scheduled(fixedDelayString = "${campaign.sending.tick-ms:5000}")
+    public void dispatchDueRecipients() {
+        flushResults();
+
+        List<Campaign> campaigns = campaignRepository.findSendingWithRelations();
+        Set<Long> active = new HashSet<>();
+        campaigns.forEach(c -> active.add(c.getId()));
+        activeCampaignIds = active;
+
+        for (Campaign campaign : campaigns) {
+            try {
+                dispatch(campaign);
+            } catch (Exception e) {
+                log.error("Error dispatching campaign {}: {}", campaign.getId(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private void dispatch(Campaign campaign) {
+        Long campaignId = campaign.getId();
+        EmailAccount account = campaign.getEmailAccount();
+        if (account == null) {
+            log.warn("Campaign {} has no email account configured - pausing", campaignId);
+            transactionTemplate.executeWithoutResult(status -> campaignRepository.findById(campaignId).ifPresent(c -> {
+                c.setStatus("paused");
+                c.setPausedAt(LocalDateTime.now());
+            }));
+            return;
+        }
+
+        scheduleUnassigned(campaign);
+
+        ThreadPoolExecutor pool = poolFor(account);
+        int capacity = pool.getQueue().remainingCapacity();
+        if (capacity <= 0) {
+            return;
+        }
+
+        // Zabezpieczenie godzinowe - sloty już rozkładają wysyłkę, ale po pauzie/restarcie mogą się skumulować
+        int throttle = campaign.getThrottlePerHour() != null ? campaign.getThrottlePerHour() : 100;
+        long sentLastHour = recipientRepository.countSentSince(campaignId, LocalDateTime.now().minusHours(1));
+        long hourlyBudget = throttle - sentLastHour - inFlightCount(campaignId);
+        int budget = (int) Math.min(Math.min(capacity, hourlyBudget), MAX_CLAIM_PER_TICK);
+        if (budget <= 0) {
+            return;
+        }
+
+        List<CampaignRecipient> claimed = transactionTemplate.execute(status -> {
+            List<CampaignRecipient> due = recipientRepository.lockDueRecipients(
+                    campaignId, LocalDateTime.now(), PageRequest.of(0, budget));
+            if (!due.isEmpty()) {
+                recipientRepository.markQueued(due.stream().map(CampaignRecipient::getId).toList(), LocalDateTime.now());
+            }
+            return due;
+        });
+
+        if (claimed == null || claimed.isEmpty()) {
+            completeIfDone(campaignId);
+            return;
+        }
+
+        for (CampaignRecipient recipient : claimed) {
+            inFlight.computeIfAbsent(campaignId, id -> new AtomicInteger()).incrementAndGet();
+            try {
+                pool.execute(() -> send(campaign, recipient));
+            } catch (RejectedExecutionException e) {
+                results.add(SendResult.retry(campaignId, recipient.getId()));
+            }
+        }
+        log.debug("Campaign {}: dispatched {} recipients to account {}", campaignId, claimed.size(), account.getId());
+    }
+
+    /**
+     * Przydziela sloty odbiorcom bez slotu - kolejne od ostatniego zajętego slotu kampanii
+     */
+    private void scheduleUnassigned(Campaign campaign) {
+        Long campaignId = campaign.getId();
+        if (recipientRepository.countUnscheduled(campaignId) == 0) {
+            return;
+        }
+
+        long intervalMs = sendIntervalMs(campaign);
+        long perDay = Math.max(1, Duration.ofDays(1).toMillis() / intervalMs);
+        if (campaign.getDailyLimit() != null && campaign.getDailyLimit() > 0) {
+            perDay = Math.min(perDay, campaign.getDailyLimit());
+        }
+
+        LocalDateTime base = LocalDateTime.now();
+        LocalDateTime last = recipientRepository.findLastScheduledFor(campaignId);
+        if (last != null && last.plus(Duration.ofMillis(intervalMs)).isAfter(base)) {
+            base = last.plus(Duration.ofMillis(intervalMs));
+        }
+
+        LocalDateTime from = base;
+        long slotsPerDay = perDay;
+        Integer scheduled = transactionTemplate.execute(status ->
+                recipientRepository.assignSchedule(campaignId, from, slotsPerDay, intervalMs));
+        log.info("Campaign {}: scheduled {} recipients from {} every {} ms ({} per day)",
+                campaignId, scheduled, from, intervalMs, slotsPerDay);
+    }
+
+    private void completeIfDone(Long campaignId) {
+        if (inFlightCount(campaignId) > 0
+                || recipientRepository.countByCampaignIdAndStatus(campaignId, "pending") > 0
+                || recipientRepository.countByCampaignIdAndStatus(campaignId, "queued") > 0) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> campaignRepository.findById(campaignId).ifPresent(c -> {
+            if ("sending".equals(c.getStatus())) {
+                c.setStatus("completed");
+                c.setCompletedAt(LocalDateTime.now());
+                log.info("Campaign {} completed", campaignId);
+            }
+        }));
+    }
+
+    private ThreadPoolExecutor poolFor(EmailAccount account) {
+        return accountPools.computeIfAbsent(account.getId(), accountId -> {
+            AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    threadsPerAccount, threadsPerAccount, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queuePerAccount),
+                    r -> {
+                        Thread t = new Thread(r, "CampaignSend-" + accountId + "-" + counter.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        });
+    }
+
+    // ==================== WORKER ====================
+
+    private void send(Campaign campaign, CampaignRecipient recipient) {
+        if (!activeCampaignIds.contains(campaign.getId())) {
+            // Kampania wstrzymana w międzyczasie - odbiorca wraca do kolejki
+            results.add(SendResult.retry(campaign.getId(), recipient.getId()));
+            return;
+        }
+
+        Contact contact = recipient.getContact();
+        try {
+            Map<String, String> variables = templateRenderer.contactVariables(contact);
+            String subject = templateRenderer.compile(campaign.resolveSubject()).render(variables, true);
+            String body;
+            if (campaign.getTemplate() != null) {
+                body = emailTemplateService.renderTemplate(campaign.getTemplate(), contact, null);
+            } else {
+                body = templateRenderer.compile(campaign.getContent()).render(variables, true);
+            }
+
+            body = body + unsubscribeFooter(campaign, recipient.getTrackingId())
+                    + "<img src='" + getTrackingPixelUrl(recipient.getTrackingId())
+                    + "' width='1' height='1' style='display:none' />";
+
+            emailSendingService.sendEmailFromAccount(campaign.getEmailAccount(), contact.getEmail(), subject, body);
+            results.add(SendResult.sent(campaign.getId(), recipient.getId(), markSent(recipient.getId())));
+            log.debug("Sent campaign email to {} (campaign: {})", contact.getEmail(), campaign.getId());
+        } catch (Exception e) {
+            log.error("Error sending campaign email to {}: {}", contact.getEmail(), e.getMessage());
+            results.add(SendResult.failed(campaign.getId(), recipient.getId(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Oznacza odbiorcę jako wysłanego zaraz po wysyłce - awaria instancji przed kolejnym tickiem
+     * nie może skończyć się ponowną wysyłką po wygaśnięciu dzierżawy. Przy błędzie bazy
+     * status zostanie zapisany zbiorczo w flushResults.
+     */
+    private boolean markSent(Long recipientId) {
+        try {
+            Integer updated = transactionTemplate.execute(status ->
+                    recipientRepository.markSentBatch(List.of(recipientId), LocalDateTime.now()));
+            return updated != null && updated > 0;
+        } catch (Exception e) {
+            log.warn("Could not mark campaign recipient {} as sent, deferring to batch: {}", recipientId, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Zapisuje wyniki wysyłek zbiorczo - statusy niezapisanych przez worker i jeden UPDATE liczników na kampanię
+     */
+    private synchronized void flushResults() {
+        if (results.isEmpty()) {
+            return;
+        }
+
+        List<SendResult> batch = new ArrayList<>();
+        SendResult result;
+        while ((result = results.poll()) != null) {
+            batch.add(result);
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> persist(batch));
+        } catch (Exception e) {
+            log.error("Failed to persist {} campaign send results, will retry: {}", batch.size(), e.getMessage());
+            results.addAll(batch);
+            return;
+        }
+
+        for (SendResult r : batch) {
+            AtomicInteger counter = inFlight.get(r.campaignId());
+            if (counter != null) {
+                counter.decrementAndGet();
+            }
+        }
+    }
+
+    private void persist(List<SendResult> batch) {
+        LocalDateTime now = LocalDateTime.now();
+        Map<Long, List<Long>> sentByCampaign = new HashMap<>();
+        Map<Long, Integer> markedByCampaign = new HashMap<>();
+        Map<Long, Integer> bouncedByCampaign = new HashMap<>();
+        List<Long> retry = new ArrayList<>();
+
+        for (SendResult r : batch) {
+            switch (r.outcome()) {
+                case SENT -> {
+                    if (r.marked()) {
+                        markedByCampaign.merge(r.campaignId(), 1, Integer::sum);
+                    } else {
+                        sentByCampaign.computeIfAbsent(r.campaignId(), id -> new ArrayList<>()).add(r.recipientId());
+                    }
+                }
+                case FAILED -> bouncedByCampaign.merge(r.campaignId(),
+                        recipientRepository.markBounced(r.recipientId(), r.error(), now), Integer::sum);
+                case RETRY -> retry.add(r.recipientId());
+            }
+        }
+
+        Set<Long> campaignIds = new HashSet<>(sentByCampaign.keySet());
+        campaignIds.addAll(markedByCampaign.keySet());
+        campaignIds.addAll(bouncedByCampaign.keySet());
+        for (Long campaignId : campaignIds) {
+            int sent = markedByCampaign.getOrDefault(campaignId, 0);
+            List<Long> ids = sentByCampaign.getOrDefault(campaignId, List.of());
+            for (int i = 0; i < ids.size(); i += UPDATE_CHUNK) {
+                sent += recipientRepository.markSentBatch(ids.subList(i, Math.min(i + UPDATE_CHUNK, ids.size())), now);
+            }
+            campaignRepository.incrementSendCounters(campaignId, sent, bouncedByCampaign.getOrDefault(campaignId, 0));
+        }
+
+        for (int i = 0; i < retry.size(); i += UPDATE_CHUNK) {
+            recipientRepository.requeue(retry.subList(i, Math.min(i + UPDATE_CHUNK, retry.size())));
+        }
+    }
+
+    // ==================== PROGRESS ====================
+
+    /**
+     * Wysyłki na minutę - średnia z ostatnich minut, liczona z bazy (obejmuje wszystkie instancje)
+     */
+    public double getSendsPerMinute(Long campaignId) {
+        long sent = recipientRepository.countSentSince(campaignId, LocalDateTime.now().minusMinutes(RATE_WINDOW_MINUTES));
+        return (double) sent / RATE_WINDOW_MINUTES;
+    }
+
+    public int inFlightCount(Long campaignId) {
+        AtomicInteger counter = inFlight.get(campaignId);
+        return counter != null ? Math.max(0, counter.get()) : 0;
+    }
+
+    /**
+     * Szacowany czas zakończenia: późniejszy z ostatniego slotu i tempa z ostatnich minut
+     */
+    public LocalDateTime estimateCompletion(Campaign campaign, long remaining, double sendsPerMinute) {
+        if (remaining <= 0) {
+            return null;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime eta = recipientRepository.findLastScheduledFor(campaign.getId());
+        if (sendsPerMinute > 0) {
+            LocalDateTime byRate = now.plusSeconds((long) (remaining * 60 / sendsPerMinute));
+            if (eta == null || byRate.isAfter(eta)) {
+                eta = byRate;
+            }
+        }
+        if (eta == null) {
+            eta = now.plus(Duration.ofMillis(remaining * sendIntervalMs(campaign)));
+        }
+        return eta.isBefore(now) ? now : eta;
+    }
+
+    // ==================== HELPERS ====================
+
+    /**
+     * Odstęp między emailami kampanii - większy z delaySeconds i wynikającego z limitu godzinowego
+     */
+    private long sendIntervalMs(Campaign campaign) {
+        int throttle = campaign.getThrottlePerHour() != null && campaign.getThrottlePerHour() > 0
+                ? campaign.getThrottlePerHour() : 100;
+        int delaySeconds = campaign.getDelaySeconds() != null ? campaign.getDelaySeconds() : 5;
+        return Math.max(1, Math.max(delaySeconds * 1000L, Duration.ofHours(1).toMillis() / throttle));
+    }
+
+    private String unsubscribeFooter(Campaign campaign, String trackingId) {
+        String unsubscribeLink = generateUnsubscribeLink(trackingId);
+        String footer = campaign.getUnsubscribeFooter();
+        if (footer == null || footer.isEmpty()) {
+            return "<p style='font-size:12px;color:#888;margin-top:30px;border-top:1px solid #eee;padding-top:15px;'>" +
+                    "Aby wypisać się z tej listy, <a href='" + unsubscribeLink + "'>kliknij tutaj</a>.</p>";
+        }
+        return footer.replace("{{unsubscribe_link}}", unsubscribeLink);
+    }
+
+    private String generateUnsubscribeLink(String trackingId) {
+        return baseUrl + "/api/newsletter/unsubscribe?token=" + trackingId;
+    }
+
+    private String getTrackingPixelUrl(String trackingId) {
+        return baseUrl + "/api/newsletter/track/open?id=" + trackingId;
+    }
+
+    private enum Outcome { SENT, FAILED, RETRY }
+
+    /**
+     * marked - status 'sent' zapisany już przez worker, zostaje tylko licznik kampanii
+     */
+    private record SendResult(Long campaignId, Long recipientId, Outcome outcome, String error, boolean marked) {
+        static SendResult sent(Long campaignId, Long recipientId, boolean marked) {
+            return new SendResult(campaignId, recipientId, Outcome.SENT, null, marked);
+        }
+
+        static SendResult failed(Long campaignId, Long recipientId, String error) {
+            return new SendResult(campaignId, recipientId, Outcome.FAILED, error, false);
+        }
+
+        static SendResult retry(Long campaignId, Long recipientId) {
+            return new SendResult(campaignId, recipientId, Outcome.RETRY, null, false);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.crm.service;
+
+import com.crm.service.ContactUpsertWriter.ContactUpsert;
+import com.crm.service.SignatureExtractor.SignatureFields;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Synchronizacja kontaktów ze wszystkich maili (POST /api/contacts/sync-from-emails).
+ *
+ * Maile są czytane partiami po id (keyset), grupowane po znormalizowanym adresie nadawcy i dzielone
+ * na partycje po hashu adresu - każda partycja jest przetwarzana równolegle i ma swoich nadawców na
+ * wyłączność. Dla nadawcy liczona jest delta partii (liczba maili, dane ze stopki) i zapisywana jednym
+ * INSERT ... ON CONFLICT na partycję i partię - ON CONFLICT uzupełnia tylko puste pola, więc w pamięci
+ * nie zostaje nic między partiami. Pierwszy zapis nadawcy w przebiegu (contacts.reconcile_run) ustawia
+ * licznik maili, kolejne go zwiększają - ponowna synchronizacja nie podwaja email_count.
+ */
+@Service
+@Slf4j
+public class ContactReconciliationService {
+
+    private static final String EMAIL_CHUNK =
+            "SELECT id, sender, company, preview, content, content_hash FROM emails WHERE id > ? ORDER BY id LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ContactUpsertWriter contactUpsertWriter;
+    private final EmailContentService emailContentService;
+    private final ThreadPoolExecutor pool;
+    private final int partitions;
+
+    @Value("${contacts.reconcile.chunk-size:1000}")
+    private int chunkSize;
+
+    private final AtomicReference<Progress> current = new AtomicReference<>();
+
+    public ContactReconciliationService(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                        ContactUpsertWriter contactUpsertWriter,
+                                        EmailContentService emailContentService,
+                                        @Value("${contacts.reconcile.partitions:4}") int partitions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.contactUpsertWriter = contactUpsertWriter;
+        this.emailContentService = emailContentService;
+        this.partitions = Math.max(1, partitions);
+
+        AtomicInteger counter = new AtomicInteger();
+        // +1 wątek na koordynatora (czytanie partii z bazy)
+        this.pool = new ThreadPoolExecutor(
+                this.partitions + 1, this.partitions + 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(this.partitions * 2),
+                r -> {
+                    Thread t = new Thread(r, "ContactReconcile-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Uruchamia synchronizację w tle; gdy już trwa - zwraca postęp trwającej
+     */
+    public Map<String, Object> start() {
+        Progress progress = new Progress();
+        Progress running = current.get();
+        if (running != null && running.isRunning()) {
+            return running.toMap();
+        }
+        if (!current.compareAndSet(running, progress)) {
+            return current.get().toMap();
+        }
+        pool.execute(() -> run(progress));
+        return progress.toMap();
+    }
+
+    /**
+     * Postęp ostatniej (lub trwającej) synchronizacji
+     */
+    public Map<String, Object> getProgress() {
+        Progress progress = current.get();
+        return progress != null ? progress.toMap() : Map.of("status", "idle");
+    }
+
+    private void run(Progress progress) {
+        log.info("Starting contact reconciliation from all emails ({} partitions, chunk {})", partitions, chunkSize);
+        try {
+            Long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM emails", Long.class);
+            progress.totalEmails = total != null ? total : 0;
+
+            long lastId = 0;
+            while (true) {
+                List<EmailRow> rows = jdbcTemplate.query(EMAIL_CHUNK, (rs, rowNum) -> new EmailRow(
+                        rs.getLong("id"), rs.getString("sender"), rs.getString("company"),
+                        rs.getString("preview"), rs.getString("content"), rs.getString("content_hash")),
+                        lastId, chunkSize);
+                if (rows.isEmpty()) {
+                    break;
+                }
+                lastId = rows.get(rows.size() - 1).id();
+                processChunk(rows, progress);
+                progress.processedEmails.addAndGet(rows.size());
+                log.debug("Contact reconciliation: {}/{} emails", progress.processedEmails.get(), progress.totalEmails);
+            }
+
+            progress.status = "completed";
+            log.info("Contact reconciliation completed in {}s. Emails: {}, created: {}, updated: {}, skipped: {}, errors: {}",
+                    progress.elapsed().toSeconds(), progress.processedEmails.get(), progress.created.get(),
+                    progress.updated.get(), progress.skipped.get(), progress.errors.get());
+        } catch (Exception e) {
+            progress.status = "failed";
+            progress.error = e.getMessage();
+            log.error("Contact reconciliation failed after {} emails: {}", progress.processedEmails.get(), e.getMessage(), e);
+        } finally {
+            progress.finishedAt = LocalDateTime.now();
+        }
+    }
+
+    /**
+     * Dzieli partię na partycje nadawców i przetwarza je równolegle - czeka na wszystkie przed kolejną partią
+     */
+    private void processChunk(List<EmailRow> rows, Progress progress) throws InterruptedException {
+        List<Map<String, List<EmailRow>>> byPartition = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            byPartition.add(new LinkedHashMap<>());
+        }
+        for (EmailRow row : rows) {
+            String address = ContactAutoCreationService.extractEmailAddress(row.sender());
+            if (address == null || address.isEmpty()) {
+                progress.skipped.incrementAndGet();
+                continue;
+            }
+            byPartition.get(Math.floorMod(address.hashCode(), partitions))
+                    .computeIfAbsent(address, a -> new ArrayList<>()).add(row);
+        }
+
+        List<Future<?>> tasks = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            Map<String, List<EmailRow>> groups = byPartition.get(i);
+            if (!groups.isEmpty()) {
+                tasks.add(pool.submit(() -> applyPartition(groups, progress)));
+            }
+        }
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                // Błąd partycji jest już policzony w applyPartition - pozostałe partycje idą dalej
+                log.debug("Partition task failed: {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            }
+        }
+    }
+
+    private void applyPartition(Map<String, List<EmailRow>> groups, Progress progress) {
+        List<ContactUpsert> upserts = new ArrayList<>(groups.size());
+
+        for (Map.Entry<String, List<EmailRow>> group : groups.entrySet()) {
+            String address = group.getKey();
+            List<EmailRow> emails = group.getValue();
+            SenderState merged = SenderState.EMPTY;
+
+            // Stopkę parsujemy tylko do skompletowania pól - zwykle wystarcza pierwszy mail nadawcy w partii
+            for (EmailRow email : emails) {
+                if (merged.complete()) {
+                    break;
+                }
+                String text = ContactAutoCreationService.textForSignature(
+                        emailContentService.getContent(email.content(), email.contentHash()), email.preview());
+                merged = merged.merge(SignatureExtractor.extract(text));
+            }
+
+            EmailRow first = emails.get(0);
+            upserts.add(ContactAutoCreationService.toUpsert(address, first.sender(), first.company(),
+                    merged.fields(), emails.size()));
+        }
+
+        int emailCount = groups.values().stream().mapToInt(List::size).sum();
+        try {
+            Integer created = transactionTemplate.execute(status ->
+                    contactUpsertWriter.upsertReconciled(upserts, progress.runId));
+            int createdCount = created != null ? created : 0;
+            progress.created.addAndGet(createdCount);
+            progress.updated.addAndGet(groups.size() - createdCount);
+        } catch (Exception e) {
+            progress.errors.addAndGet(emailCount);
+            log.error("Failed to upsert {} contacts ({} emails): {}", groups.size(), emailCount, e.getMessage());
+            throw e;
+        }
+    }
+
+    private record EmailRow(long id, String sender, String company, String preview, String content,
+                            String contentHash) {
+    }
+
+    /**
+     * Dane ze stopki zebrane dla nadawcy w bieżącej partii - pierwsze znalezione wartości wygrywają
+     */
+    private record SenderState(SignatureFields fields) {
+        static final SenderState EMPTY = new SenderState(SignatureFields.EMPTY);
+
+        boolean complete() {
+            return fields.name() != null && fields.phone() != null
+                    && fields.position() != null && fields.company() != null;
+        }
+
+        SenderState merge(SignatureFields next) {
+            return new SenderState(new SignatureFields(
+                    fields.name() != null ? fields.name() : next.name(),
+                    fields.phone() != null ? fields.phone() : next.phone(),
+                    fields.position() != null ? fields.position() : next.position(),
+                    fields.company() != null ? fields.company() : next.company()));
+        }
+    }
+
+    private static class Progress {
+        /** Id przebiegu w contacts.reconcile_run - moment startu, kolejne przebiegi mają większe */
+        private final long runId = System.currentTimeMillis();
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        private volatile LocalDateTime finishedAt;
+        private volatile String status = "running";
+        private volatile String error;
+        private volatile long totalEmails;
+        private final AtomicLong processedEmails = new AtomicLong();
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong updated = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        boolean isRunning() {
+            return "running".equals(status);
+        }
+
+        Duration elapsed() {
+            return Duration.between(startedAt, finishedAt != null ? finishedAt : LocalDateTime.now());
+        }
+
+        Map<String, Object> toMap() {
+            long processed = processedEmails.get();
+            long elapsedMs = Math.max(1, elapsed().toMillis());
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("status", status);
+            map.put("totalEmails", totalEmails);
+            map.put("processedEmails", processed);
+            map.put("percent", totalEmails > 0 ? Math.min(100, processed * 100 / totalEmails) : 0);
+            map.put("contactsCreated", created.get());
+            map.put("contactsUpdated", updated.get());
+            map.put("skipped", skipped.get());
+            map.put("errors", errors.get());
+            map.put("emailsPerSecond", processed * 1000 / elapsedMs);
+            map.put("startedAt", startedAt.toString());
+            if (finishedAt != null) {
+                map.put("finishedAt", finishedAt.toString());
+            }
+            if (error != null) {
+                map.put("error", error);
+            }
+            return map;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.crm.service;
+
+import com.crm.model.Tag;
+import com.crm.model.WorkflowRule.TriggerType;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Masowe przypisanie / zdjęcie tagu jednym zapytaniem na całą listę kontaktów.
+ *
+ * Zmiana w contact_tags i zdarzenia workflow (outbox, jak {@link WorkflowAutomationService#handleTagAdded})
+ * idą w jednym poleceniu z CTE - zdarzenie dostaje tylko kontakt, którego dotyczyła faktyczna zmiana
+ * (RETURNING z INSERT ... ON CONFLICT DO NOTHING / DELETE). Nieistniejące id są pomijane.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ContactTagWriter {
+
+    private static final String ENQUEUE_EVENTS =
+            "INSERT INTO workflow_events (trigger_type, contact_id, trigger_data, status, attempts, next_attempt_at, created_at) " +
+            "SELECT ?, contact_id, jsonb_build_object('contactId', contact_id, 'tagId', CAST(? AS bigint), " +
+            "'tagName', CAST(? AS text)%s), 'PENDING', 0, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP FROM changed";
+
+    private static final String ADD_TAG =
+            "WITH changed AS (" +
+            "INSERT INTO contact_tags (contact_id, tag_id) " +
+            "SELECT c.id, CAST(? AS bigint) FROM contacts c WHERE c.id = ANY (?) " +
+            "ON CONFLICT (contact_id, tag_id) DO NOTHING RETURNING contact_id), " +
+            "events AS (" + String.format(ENQUEUE_EVENTS, ", 'addedAt', CAST(? AS text)") + ") " +
+            "SELECT contact_id FROM changed";
+
+    private static final String REMOVE_TAG =
+            "WITH changed AS (" +
+            "DELETE FROM contact_tags WHERE tag_id = CAST(? AS bigint) AND contact_id = ANY (?) RETURNING contact_id), " +
+            "events AS (" + String.format(ENQUEUE_EVENTS, "") + ") " +
+            "SELECT contact_id FROM changed";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Dodaje tag kontaktom, które go jeszcze nie mają. Zwraca id kontaktów, którym tag faktycznie dodano.
+     */
+    public List<Long> addTag(Tag tag, Collection<Long> contactIds) {
+        if (contactIds.isEmpty()) {
+            return List.of();
+        }
+        String addedAt = LocalDateTime.now().toString();
+        List<Long> changed = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(ADD_TAG);
+            ps.setLong(1, tag.getId());
+            ps.setArray(2, con.createArrayOf("bigint", contactIds.toArray()));
+            ps.setString(3, TriggerType.TAG_ADDED.name());
+            ps.setLong(4, tag.getId());
+            ps.setString(5, tag.getName());
+            ps.setString(6, addedAt);
+            return ps;
+        }, (rs, rowNum) -> rs.getLong(1));
+        log.info("Tag {} added to {} of {} contacts", tag.getId(), changed.size(), contactIds.size());
+        return changed;
+    }
+
+    /**
+     * Zdejmuje tag z kontaktów. Zwraca id kontaktów, które faktycznie go miały.
+     */
+    public List<Long> removeTag(Tag tag, Collection<Long> contactIds) {
+        if (contactIds.isEmpty()) {
+            return List.of();
+        }
+        List<Long> changed = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(REMOVE_TAG);
+            ps.setLong(1, tag.getId());
+            ps.setArray(2, con.createArrayOf("bigint", contactIds.toArray()));
+            ps.setString(3, TriggerType.TAG_REMOVED.name());
+            ps.setLong(4, tag.getId());
+            ps.setString(5, tag.getName());
+            return ps;
+        }, (rs, rowNum) -> rs.getLong(1));
+        log.info("Tag {} removed from {} of {} contacts", tag.getId(), changed.size(), contactIds.size());
+        return changed;
+    }
+}
@@ -0,0 +1,117 @@
+package com.crm.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Zapis kontaktów z maili jednym INSERT ... ON CONFLICT (email) DO UPDATE na partię.
+ * Istniejący kontakt dostaje dopisaną liczbę maili, a dane ze stopki uzupełniają tylko puste pola -
+ * nie nadpisujemy tego, co użytkownik wpisał ręcznie.
+ *
+ * Wiersze są sortowane po emailu - równoległe partie blokują wiersze w tej samej kolejności.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ContactUpsertWriter {
+
+    private static final String INSERT_PREFIX =
+            "INSERT INTO contacts (email, name, company, phone, position, email_count, meeting_count, deal_count, " +
+            "score, reconcile_run, created_at, updated_at) VALUES ";
+
+    private static final String ROW = "(?, ?, ?, ?, ?, ?, 0, 0, 0, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)";
+
+    private static final String ON_CONFLICT =
+            " ON CONFLICT (email) DO UPDATE SET " +
+            "name = CASE WHEN contacts.name IS NULL OR contacts.name IN ('', 'Unknown') THEN EXCLUDED.name ELSE contacts.name END, " +
+            "company = CASE WHEN contacts.company IS NULL OR contacts.company IN ('', 'Unknown') THEN EXCLUDED.company ELSE contacts.company END, " +
+            "phone = COALESCE(NULLIF(contacts.phone, ''), EXCLUDED.phone), " +
+            "position = COALESCE(NULLIF(contacts.position, ''), EXCLUDED.position), " +
+            "email_count = %s, " +
+            "reconcile_run = %s, " +
+            "updated_at = CURRENT_TIMESTAMP " +
+            "RETURNING (xmax = 0) AS inserted";
+
+    private static final String ADD_COUNT = "contacts.email_count + EXCLUDED.email_count";
+    private static final String KEEP_RUN = "contacts.reconcile_run";
+
+    /** Pierwszy zapis kontaktu w przebiegu rekoncyliacji liczy maile od zera, kolejne dopisują */
+    private static final String RECONCILE_COUNT =
+            "CASE WHEN contacts.reconcile_run IS DISTINCT FROM EXCLUDED.reconcile_run " +
+            "THEN EXCLUDED.email_count ELSE " + ADD_COUNT + " END";
+    private static final String SET_RUN = "EXCLUDED.reconcile_run";
+
+    /** 7 parametrów na wiersz - daleko od limitu 32767 parametrów zapytania */
+    private static final int MAX_ROWS_PER_STATEMENT = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Dopisuje emailCount do licznika istniejących kontaktów. Zwraca liczbę nowo utworzonych.
+     */
+    public int upsertAdding(List<ContactUpsert> rows) {
+        return upsert(rows, null, ADD_COUNT, KEEP_RUN);
+    }
+
+    /**
+     * Jak {@link #upsertAdding} dla przebiegu rekoncyliacji, który liczy maile od zera: pierwszy zapis kontaktu
+     * w przebiegu runId ustawia licznik na emailCount, kolejne partie go zwiększają
+     */
+    public int upsertReconciled(List<ContactUpsert> rows, long runId) {
+        return upsert(rows, runId, RECONCILE_COUNT, SET_RUN);
+    }
+
+    private int upsert(List<ContactUpsert> rows, Long runId, String countExpression, String runExpression) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        List<ContactUpsert> sorted = new ArrayList<>(rows);
+        sorted.sort(Comparator.comparing(ContactUpsert::email));
+
+        int created = 0;
+        for (int from = 0; from < sorted.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<ContactUpsert> chunk = sorted.subList(from, Math.min(sorted.size(), from + MAX_ROWS_PER_STATEMENT));
+            StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + chunk.size() * (ROW.length() + 2) + 600)
+                    .append(INSERT_PREFIX);
+            Object[] args = new Object[chunk.size() * 7];
+            for (int i = 0; i < chunk.size(); i++) {
+                ContactUpsert row = chunk.get(i);
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(ROW);
+                int p = i * 7;
+                args[p] = row.email();
+                args[p + 1] = row.name();
+                args[p + 2] = row.company();
+                args[p + 3] = row.phone();
+                args[p + 4] = row.position();
+                args[p + 5] = row.emailCount();
+                args[p + 6] = runId;
+            }
+            sql.append(String.format(ON_CONFLICT, countExpression, runExpression));
+
+            List<Boolean> inserted = jdbcTemplate.query(sql.toString(), (rs, rowNum) -> rs.getBoolean(1), args);
+            for (Boolean flag : inserted) {
+                if (Boolean.TRUE.equals(flag)) {
+                    created++;
+                }
+            }
+        }
+        log.debug("Upserted {} contacts ({} created)", rows.size(), created);
+        return created;
+    }
+
+    /**
+     * Jeden kontakt do zapisu: adres (znormalizowany, unikalny w partii), dane ze stopki/nadawcy i liczba maili
+     */
+    public record ContactUpsert(String email, String name, String company, String phone, String position,
+                                int emailCount) {
+    }
+}
@@ -1,10 +1,12 @@
 package com.crm.service;
 
+import com.crm.dto.deals.DealBoardDto;
 import com.crm.model.Deal;
 import com.crm.model.Pipeline;
 import com.crm.model.PipelineStage;
 import com.crm.model.Contact;
 import com.crm.repository.DealRepository;
+import com.crm.repository.DealRepository.DealCardView;
 import com.crm.repository.PipelineRepository;
 import com.crm.repository.PipelineStageRepository;
 import com.crm.repository.ContactRepository;
@@ -17,12 +19,16 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 @Slf4j
 public class DealService {
 
+    private static final int MAX_CARDS_PER_STAGE = 200;
+
     private final DealRepository dealRepository;
     private final PipelineRepository pipelineRepository;
     private final PipelineStageRepository stageRepository;
@@ -65,6 +71,79 @@ public class DealService {
         return dealRepository.findByPipelineIdWithRelations(pipelineId);
     }
 
+    /**
+     * Tablica Kanban: etapy, liczniki i sumy per etap (GROUP BY) oraz najnowsze karty
+     * z limitem na kolumnę - trzy zapytania niezależnie od liczby deali
+     */
+    @Transactional(readOnly = true)
+    public DealBoardDto getPipelineBoard(Long pipelineId, int perStageLimit) {
+        int limit = Math.max(1, Math.min(perStageLimit, MAX_CARDS_PER_STAGE));
+
+        Map<Long, Object[]> summaries = new HashMap<>();
+        for (Object[] row : dealRepository.summarizeByStage(pipelineId)) {
+            summaries.put((Long) row[0], row);
+        }
+
+        Map<Long, DealBoardDto.StageColumn> columns = new HashMap<>();
+        DealBoardDto board = new DealBoardDto();
+        board.setPipelineId(pipelineId);
+        board.setPerStageLimit(limit);
+
+        for (PipelineStage stage : stageRepository.findByPipelineIdOrderByPosition(pipelineId)) {
+            Object[] summary = summaries.get(stage.getId());
+            long count = summary != null ? ((Number) summary[1]).longValue() : 0L;
+
+            DealBoardDto.StageColumn column = new DealBoardDto.StageColumn();
+            column.setStageId(stage.getId());
+            column.setName(stage.getName());
+            column.setColor(stage.getColor());
+            column.setPosition(stage.getPosition());
+            column.setProbability(stage.getProbability());
+            column.setDealCount(count);
+            column.setTotalValue(summary != null ? ((Number) summary[2]).doubleValue() : 0.0);
+            column.setHasMore(count > limit);
+            columns.put(stage.getId(), column);
+            board.getColumns().add(column);
+        }
+
+        for (DealCardView card : dealRepository.findBoardCards(pipelineId, limit)) {
+            DealBoardDto.StageColumn column = columns.get(card.getStageId());
+            if (column != null) {
+                column.getDeals().add(toCard(card));
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Doładowanie kolumny tablicy - kolejna strona kart etapu
+     */
+    @Transactional(readOnly = true)
+    public List<DealBoardDto.DealCard> getStageCards(Long stageId, int offset, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_CARDS_PER_STAGE));
+        return dealRepository.findStageCards(stageId, Math.max(0, offset), pageSize).stream()
+                .map(this::toCard)
+                .toList();
+    }
+
+    private DealBoardDto.DealCard toCard(DealCardView view) {
+        DealBoardDto.DealCard card = new DealBoardDto.DealCard();
+        card.setId(view.getId());
+        card.setTitle(view.getTitle());
+        card.setValue(view.getValue());
+        card.setCurrency(view.getCurrency());
+        card.setStatus(view.getStatus());
+        card.setPriority(view.getPriority());
+        card.setExpectedCloseDate(view.getExpectedCloseDate());
+        card.setUpdatedAt(view.getUpdatedAt());
+        card.setStageId(view.getStageId());
+        card.setContactId(view.getContactId());
+        card.setContactName(view.getContactName());
+        card.setContactCompany(view.getContactCompany());
+        card.setUserId(view.getUserId());
+        return card;
+    }
+
     @Transactional(readOnly = true)
     public List<Deal> getAllDeals() {
         return dealRepository.findAllWithRelations();
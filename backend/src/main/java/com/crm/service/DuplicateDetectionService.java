@@ -195,7 +195,7 @@ public class DuplicateDetectionService {
     /**
      * Check if two names are similar (Levenshtein distance based)
      */
-    private boolean areNamesSimilar(String name1, String name2) {
+    static boolean areNamesSimilar(String name1, String name2) {
         if (name1 == null || name2 == null) return false;
         
         String n1 = name1.toLowerCase().trim();
@@ -221,7 +221,7 @@ public class DuplicateDetectionService {
     /**
      * Calculate Levenshtein distance between two strings
      */
-    private int levenshteinDistance(String s1, String s2) {
+    private static int levenshteinDistance(String s1, String s2) {
         int[][] dp = new int[s1.length() + 1][s2.length() + 1];
         
         for (int i = 0; i <= s1.length(); i++) {
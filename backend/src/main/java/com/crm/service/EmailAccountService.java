@@ -28,6 +28,9 @@ public class EmailAccountService {
     @Autowired
     private EmailSequenceRepository emailSequenceRepository;
 
+    @Autowired
+    private UserContactService userContactService;
+
     public List<EmailAccount> getAllAccounts() {
         Long userId = userContextService.getCurrentUserId();
         if (userId == null) {
@@ -84,7 +87,9 @@ public class EmailAccountService {
         if (userId != null) {
             account.setUserId(userId);
         }
-        return emailAccountRepository.save(account);
+        EmailAccount saved = emailAccountRepository.save(account);
+        userContactService.invalidateAccountUsers(saved.getId());
+        return saved;
     }
 
     @Transactional
@@ -130,6 +135,7 @@ public class EmailAccountService {
         }
 
         emailAccountRepository.deleteById(id);
+        userContactService.invalidateAccountUsers(id);
     }
 
     @Transactional
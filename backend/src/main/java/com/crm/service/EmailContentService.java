@@ -0,0 +1,143 @@
+package com.crm.service;
+
+import com.crm.model.Email;
+import com.crm.repository.EmailRepository;
+import com.crm.storage.BlobStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Pełna treść maili. Treść powyżej progu (app.blob.email-body.threshold-bytes) trafia przy zapisie
+ * do BlobStore pod kluczem SHA-256, a w wierszu emails zostaje content_hash - listy i wyszukiwanie
+ * czytają wtedy mały wiersz. Treść jest dociągana tylko tam, gdzie jest potrzebna (widok szczegółów,
+ * AI, wyciąganie kontaktów) - dlatego odczyt zawsze przez {@link #getContent(Email)}.
+ */
+@Service
+@Slf4j
+public class EmailContentService implements MeterBinder {
+
+    private final BlobStore blobStore;
+    private final EmailRepository emailRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+
+    // Ostatnio czytane/zapisane treści - ten sam mail jest zwykle czytany kilka razy pod rząd (szczegóły, AI)
+    private final Cache<String, String> recentBodies = Caffeine.newBuilder()
+            .maximumSize(256)
+            .expireAfterAccess(Duration.ofMinutes(5))
+            .recordStats()
+            .build();
+
+    @Value("${app.blob.email-body.threshold-bytes:16384}")
+    private int thresholdBytes;
+
+    @Value("${app.blob.email-body.backfill-batch:200}")
+    private int backfillBatch;
+
+    private volatile boolean backfillDone;
+
+    public EmailContentService(BlobStore blobStore, EmailRepository emailRepository,
+                               TransactionTemplate transactionTemplate, JdbcTemplate jdbcTemplate) {
+        this.blobStore = blobStore;
+        this.emailRepository = emailRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Trafienia cache treści maili w Micrometer
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, recentBodies, "emailBodies");
+    }
+
+    /**
+     * Przenosi dużą treść do BlobStore (content = NULL, content_hash = klucz). Wywoływane przy zapisie encji.
+     * Gdy zapis do magazynu się nie uda, treść zostaje w wierszu. Klucz jest blokowany do commitu maila
+     * tak jak w AttachmentService - sprzątanie usuniętego załącznika o tej samej treści na niego poczeka.
+     */
+    public void externalize(Email email) {
+        String content = email.getContent();
+        if (content == null) {
+            return;
+        }
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= thresholdBytes) {
+            email.setContentHash(null);
+            return;
+        }
+
+        String key = BlobStore.keyOf(bytes);
+        // JdbcTemplate, nie zapytanie repozytorium - jesteśmy w callbacku zapisu encji, bez auto-flush sesji
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock(hashtext(?))", rs -> null, key);
+        try {
+            blobStore.put(key, bytes);
+        } catch (IOException e) {
+            log.warn("Could not store body of email {} in blob store, keeping it inline: {}", email.getId(), e.getMessage());
+            return;
+        }
+        recentBodies.put(key, content);
+        email.setContentHash(key);
+        email.setContent(null);
+    }
+
+    /**
+     * Pełna treść maila - z wiersza albo z BlobStore
+     */
+    public String getContent(Email email) {
+        return getContent(email.getContent(), email.getContentHash());
+    }
+
+    /**
+     * Jak {@link #getContent(Email)} dla kolumn czytanych bez encji (content, content_hash)
+     */
+    public String getContent(String inlineContent, String contentHash) {
+        if (inlineContent != null || contentHash == null) {
+            return inlineContent;
+        }
+        return recentBodies.get(contentHash, this::load);
+    }
+
+    private String load(String key) {
+        try {
+            return new String(blobStore.read(key), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.error("Could not load email body {} from {}: {}", key, blobStore.locationOf(key), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Przenosi duże treści zapisane przed wprowadzeniem BlobStore - partiami, aż do wyczerpania
+     */
+    @Scheduled(fixedDelayString = "${app.blob.email-body.backfill-ms:60000}", initialDelay = 60000)
+    public void backfillInlineBodies() {
+        if (backfillDone) {
+            return;
+        }
+        List<Long> ids = emailRepository.findIdsWithInlineContentLargerThan(thresholdBytes, backfillBatch);
+        if (ids.isEmpty()) {
+            backfillDone = true;
+            log.info("Email body backfill complete - no large inline bodies left");
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status ->
+                emailRepository.findAllById(ids).forEach(this::externalize));
+        log.info("Moved {} large email bodies to blob store", ids.size());
+    }
+}
@@ -8,6 +8,8 @@ import jakarta.mail.*;
 import jakarta.mail.internet.MimeMultipart;
 import jakarta.mail.internet.MimeUtility;
 import com.crm.model.Contact;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -40,6 +42,7 @@ public class EmailFetchService {
     private final com.crm.repository.SequenceExecutionRepository sequenceExecutionRepository;
     private final ScheduledEmailService scheduledEmailService;
     private final WorkflowAutomationService workflowAutomationService;
+    private final MeterRegistry meterRegistry;
 
     @Autowired
     public EmailFetchService(
@@ -52,7 +55,8 @@ public class EmailFetchService {
             UserContactService userContactService,
             com.crm.repository.SequenceExecutionRepository sequenceExecutionRepository,
             ScheduledEmailService scheduledEmailService,
-            @Lazy WorkflowAutomationService workflowAutomationService) {
+            @Lazy WorkflowAutomationService workflowAutomationService,
+            MeterRegistry meterRegistry) {
         this.emailRepository = emailRepository;
         this.aiClassificationService = aiClassificationService;
         this.contactAutoCreationService = contactAutoCreationService;
@@ -63,6 +67,7 @@ public class EmailFetchService {
         this.sequenceExecutionRepository = sequenceExecutionRepository;
         this.scheduledEmailService = scheduledEmailService;
         this.workflowAutomationService = workflowAutomationService;
+        this.meterRegistry = meterRegistry;
     }
 
     @Value("${email.fetch.folder:INBOX}")
@@ -160,9 +165,23 @@ public class EmailFetchService {
     }
 
     /**
-     * Pobierz maile z konkretnego konta
+     * Pobierz maile z konkretnego konta - z pomiarem czasu i liczby nowych maili per konto
      */
     private int fetchEmailsForAccount(EmailAccount account, int limit) throws MessagingException, IOException {
+        String accountTag = String.valueOf(account.getId());
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            int newEmails = fetchNewEmails(account, limit);
+            meterRegistry.counter("crm.email.fetch.new", "account", accountTag).increment(newEmails);
+            outcome = "success";
+            return newEmails;
+        } finally {
+            sample.stop(meterRegistry.timer("crm.email.fetch", "account", accountTag, "outcome", outcome));
+        }
+    }
+
+    private int fetchNewEmails(EmailAccount account, int limit) throws MessagingException, IOException {
         log.info("Fetching emails from {}", account.getEmailAddress());
 
         Store store = connectToMailServer(account);
@@ -377,7 +396,7 @@ public class EmailFetchService {
         }
     }
 
-    private String extractCompany(String from) {
+    static String extractCompany(String from) {
         // Wyciągnij domenę z adresu email
         if (from.contains("@")) {
             String domain = from.substring(from.lastIndexOf("@") + 1);
@@ -402,7 +421,7 @@ public class EmailFetchService {
         return "Unknown";
     }
 
-    private String getTextFromMessage(Message message) throws MessagingException, IOException {
+    static String getTextFromMessage(Message message) throws MessagingException, IOException {
         String result = "";
         
         if (message.isMimeType("text/plain")) {
@@ -418,7 +437,7 @@ public class EmailFetchService {
         return result;
     }
 
-    private String getTextFromMimeMultipart(MimeMultipart mimeMultipart) throws MessagingException, IOException {
+    private static String getTextFromMimeMultipart(MimeMultipart mimeMultipart) throws MessagingException, IOException {
         StringBuilder result = new StringBuilder();
         int count = mimeMultipart.getCount();
         
@@ -5,18 +5,19 @@ import com.crm.model.Contact;
 import com.crm.model.Email;
 import com.crm.model.EmailAccount;
 import com.crm.repository.EmailRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Properties;
@@ -29,6 +30,9 @@ public class EmailSendingService {
 
     private final JavaMailSender mailSender;
     private final EmailRepository emailRepository;
+    private final TemplateRenderer templateRenderer;
+    private final AttachmentService attachmentService;
+    private final MeterRegistry meterRegistry;
 
     @Value("${spring.mail.from}")
     private String fromEmail;
@@ -45,52 +49,8 @@ public class EmailSendingService {
             return text;
         }
 
-        String result = text;
-
-        // {{name}} - pełne imię i nazwisko
-        if (contact.getName() != null) {
-            result = result.replace("{{name}}", contact.getName());
-
-            // {{firstName}} i {{lastName}} - wyodrębnij z pełnego imienia
-            String[] nameParts = contact.getName().trim().split("\\s+");
-            if (nameParts.length > 0) {
-                result = result.replace("{{firstName}}", nameParts[0]);
-            }
-            if (nameParts.length > 1) {
-                result = result.replace("{{lastName}}", nameParts[nameParts.length - 1]);
-            }
-        }
-
-        // {{email}}
-        if (contact.getEmail() != null) {
-            result = result.replace("{{email}}", contact.getEmail());
-        }
-
-        // {{phone}}
-        if (contact.getPhone() != null) {
-            result = result.replace("{{phone}}", contact.getPhone());
-        }
-
-        // {{company}}
-        if (contact.getCompany() != null) {
-            result = result.replace("{{company}}", contact.getCompany());
-        }
-
-        // {{position}}
-        if (contact.getPosition() != null) {
-            result = result.replace("{{position}}", contact.getPosition());
-        }
-
-        // Usuń nieprzetworzone zmienne (pozostałe po braku danych)
-        result = result.replaceAll("\\{\\{firstName\\}\\}", "");
-        result = result.replaceAll("\\{\\{lastName\\}\\}", "");
-        result = result.replaceAll("\\{\\{name\\}\\}", "");
-        result = result.replaceAll("\\{\\{email\\}\\}", "");
-        result = result.replaceAll("\\{\\{phone\\}\\}", "");
-        result = result.replaceAll("\\{\\{company\\}\\}", "");
-        result = result.replaceAll("\\{\\{position\\}\\}", "");
-
-        return result;
+        // Nieznane zmienne (spoza listy powyżej) zostają w tekście bez zmian
+        return templateRenderer.compile(text).render(templateRenderer.contactVariables(contact), true);
     }
 
     /**
@@ -146,7 +106,7 @@ public class EmailSendingService {
             helper.setSubject(subject);
             helper.setText(bodyWithTracking, true);
 
-            sender.send(message);
+            send(sender, message, account);
 
             // Zapisz wysłany email
             Email sentEmail = new Email();
@@ -205,7 +165,7 @@ public class EmailSendingService {
                 message.addHeader("References", references);
             }
 
-            mailSender.send(message);
+            send(mailSender, message, null);
 
             // Zapisz wysłany email w bazie danych
             Email sentEmail = new Email();
@@ -280,18 +240,7 @@ public class EmailSendingService {
         helper.setText(bodyWithTracking, true);
 
         // Dodaj załączniki
-        if (attachments != null && !attachments.isEmpty()) {
-            for (Attachment attachment : attachments) {
-                File file = new File(attachment.getPath());
-                if (file.exists()) {
-                    FileSystemResource resource = new FileSystemResource(file);
-                    helper.addAttachment(attachment.getOriginalName(), resource);
-                    log.debug("Added attachment: {}", attachment.getOriginalName());
-                } else {
-                    log.warn("Attachment file not found: {}", attachment.getPath());
-                }
-            }
-        }
+        addAttachments(helper, attachments);
 
         if (inReplyTo != null) {
             message.setHeader("In-Reply-To", inReplyTo);
@@ -301,7 +250,7 @@ public class EmailSendingService {
         }
 
         try {
-            sender.send(message);
+            send(sender, message, account);
 
             // Zapisz w bazie wysłanego maila
             Email sentEmail = new Email();
@@ -329,6 +278,41 @@ public class EmailSendingService {
         }
     }
 
+    /**
+     * Dołącza pliki - małe z cache bajtów AttachmentService (ten sam plik w wielu mailach
+     * sekwencji nie jest czytany z dysku za każdym razem), duże strumieniowo z dysku
+     */
+    /**
+     * Wysyłka SMTP z pomiarem czasu per konto (crm.email.send)
+     */
+    private void send(JavaMailSender sender, MimeMessage message, EmailAccount account) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            sender.send(message);
+            outcome = "success";
+        } finally {
+            sample.stop(meterRegistry.timer("crm.email.send",
+                    "account", account != null ? String.valueOf(account.getId()) : "default",
+                    "outcome", outcome));
+        }
+    }
+
+    private void addAttachments(MimeMessageHelper helper, List<Attachment> attachments) throws MessagingException {
+        if (attachments == null || attachments.isEmpty()) {
+            return;
+        }
+        for (Attachment attachment : attachments) {
+            InputStreamSource source = attachmentService.getMailSource(attachment);
+            if (source != null) {
+                helper.addAttachment(attachment.getOriginalName(), source, attachment.getContentType());
+                log.debug("Added attachment: {}", attachment.getOriginalName());
+            } else {
+                log.warn("Attachment file not found: {}", attachment.getPath());
+            }
+        }
+    }
+
     /**
      * Wysyła email używając konkretnego konta EmailAccount z załącznikami
      */
@@ -361,20 +345,9 @@ public class EmailSendingService {
             helper.setText(bodyWithTracking, true);
 
             // Dodaj załączniki
-            if (attachments != null && !attachments.isEmpty()) {
-                for (Attachment attachment : attachments) {
-                    File file = new File(attachment.getPath());
-                    if (file.exists()) {
-                        FileSystemResource resource = new FileSystemResource(file);
-                        helper.addAttachment(attachment.getOriginalName(), resource);
-                        log.debug("Added attachment: {}", attachment.getOriginalName());
-                    } else {
-                        log.warn("Attachment file not found: {}", attachment.getPath());
-                    }
-                }
-            }
+            addAttachments(helper, attachments);
 
-            sender.send(message);
+            send(sender, message, account);
 
             // Zapisz wysłany email
             Email sentEmail = new Email();
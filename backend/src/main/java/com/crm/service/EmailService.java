@@ -4,6 +4,7 @@ import com.crm.model.Contact;
 import com.crm.model.Email;
 import com.crm.repository.ContactRepository;
 import com.crm.repository.EmailRepository;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Lazy;
@@ -14,6 +15,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Objects;
 
 @Service
 @RequiredArgsConstructor
@@ -25,6 +27,8 @@ public class EmailService {
     private final ContactRepository contactRepository;
     private final AIClassificationService aiClassificationService;
     private final UserContextService userContextService;
+    private final EmailContentService emailContentService;
+    private final EntityManager entityManager;
     @Lazy
     private final WorkflowAutomationService workflowAutomationService;
     
@@ -35,6 +39,20 @@ public class EmailService {
     public Optional<Email> getEmailById(Long id) {
         return emailRepository.findById(id);
     }
+
+    /**
+     * Email z pełną treścią do widoku szczegółów - treść z BlobStore jest wstawiana do odłączonej
+     * kopii, żeby nie wróciła do wiersza przy flushu
+     */
+    public Optional<Email> getEmailWithContent(Long id) {
+        return emailRepository.findById(id).map(email -> {
+            if (email.getContent() == null && email.getContentHash() != null) {
+                entityManager.detach(email);
+                email.setContent(emailContentService.getContent(email));
+            }
+            return email;
+        });
+    }
     
     public Email createEmail(Email email) {
         return emailRepository.save(email);
@@ -177,7 +195,7 @@ public class EmailService {
         for (Email email : emails) {
             processed++;
             String subject = email.getSubject() != null ? email.getSubject() : "";
-            String content = email.getContent() != null ? email.getContent() : "";
+            String content = Objects.requireNonNullElse(emailContentService.getContent(email), "");
             String newStatus = aiClassificationService.classifyEmail(subject, content);
 
             if (newStatus != null && !newStatus.equals(email.getStatus())) {
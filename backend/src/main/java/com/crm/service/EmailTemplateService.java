@@ -3,37 +3,67 @@ package com.crm.service;
 import com.crm.exception.ResourceNotFoundException;
 import com.crm.exception.ValidationException;
 import com.crm.model.Contact;
-import com.crm.model.EmailAccount;
 import com.crm.model.EmailTemplate;
 import com.crm.model.EmailTemplateTheme;
-import com.crm.repository.ContactRepository;
-import com.crm.repository.EmailAccountRepository;
 import com.crm.repository.EmailTemplateRepository;
 import com.crm.repository.EmailTemplateThemeRepository;
+import com.crm.service.TemplateRenderer.CompiledTemplate;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.LocalDateTime;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 @Transactional
-public class EmailTemplateService {
+public class EmailTemplateService implements MeterBinder {
 
     private final EmailTemplateRepository templateRepository;
     private final EmailTemplateThemeRepository themeRepository;
-    private final ContactRepository contactRepository;
-    private final EmailAccountRepository emailAccountRepository;
     private final UserContextService userContextService;
-    private final EmailSendingService emailSendingService;
+    private final TemplateRenderer templateRenderer;
+
+    /**
+     * Skompilowane szablony (treść + motyw) po ID. Zmiany z tej instancji usuwają wpis po commicie,
+     * a przy renderowaniu wersja jest dodatkowo sprawdzana po updatedAt (zmiany z innych instancji)
+     */
+    private final Cache<Long, PreparedTemplate> preparedTemplates = Caffeine.newBuilder()
+            .maximumSize(500)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+
+    /**
+     * Trafienia cache przygotowanych szablonów w Micrometer
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, preparedTemplates, "preparedTemplates");
+    }
+
+    /**
+     * Użycia szablonów zliczane w pamięci i zapisywane zbiorczo (flushUsageCounters)
+     */
+    private final Map<Long, LongAdder> pendingUsage = new ConcurrentHashMap<>();
 
     // ============ Template Management ============
 
@@ -121,12 +151,16 @@ public class EmailTemplateService {
         }
         
         validateTemplate(template);
+        // Po commicie - wcześniejsze usunięcie pozwoliłoby równoległemu renderowi zapisać starą wersję na cały TTL
+        afterCommit(() -> preparedTemplates.invalidate(id));
         
         return templateRepository.save(template);
     }
 
     public void deleteTemplate(Long id) {
         EmailTemplate template = getTemplateById(id); // Checks ownership
+        afterCommit(() -> preparedTemplates.invalidate(id));
+        pendingUsage.remove(id);
         templateRepository.delete(template);
     }
 
@@ -182,6 +216,8 @@ public class EmailTemplateService {
         theme.setCssStyles(themeDetails.getCssStyles());
         
         validateTheme(theme);
+        // Motyw może być używany przez dowolny szablon w cache
+        afterCommit(preparedTemplates::invalidateAll);
         
         return themeRepository.save(theme);
     }
@@ -202,84 +238,111 @@ public class EmailTemplateService {
     // ============ Template Rendering ============
 
     /**
-     * Render template with contact data and theme
+     * Render template with contact data and theme.
+     * Encja jest wczytywana zawsze - jej updatedAt decyduje, czy skompilowany szablon z cache jest aktualny
+     * (zmiany z innych instancji nie czyszczą lokalnego cache)
      */
     public String renderTemplate(Long templateId, Contact contact, Map<String, String> customVariables) {
         EmailTemplate template = templateRepository.findById(templateId)
                 .orElseThrow(() -> new ResourceNotFoundException("Template not found"));
-        
-        // Increment usage counter
-        template.incrementUsage();
-        templateRepository.save(template);
-        
-        // Prepare variables
-        Map<String, String> variables = prepareVariables(contact, customVariables);
-        
-        // Render content
-        String renderedContent = processTemplate(template.getHtmlContent(), variables);
-        
-        // Apply theme if present
-        if (template.getTheme() != null) {
-            return applyTheme(template.getTheme(), renderedContent, variables);
-        }
-        
-        return renderedContent;
+        return renderTemplate(template, contact, customVariables);
     }
 
     /**
-     * Render template with theme
+     * Jak {@link #renderTemplate(Long, Contact, Map)} dla wczytanej już encji - bez zapytania,
+     * a wpis w cache jest użyty tylko gdy zgadza się wersja szablonu i motywu
      */
-    private String applyTheme(EmailTemplateTheme theme, String content, Map<String, String> variables) {
-        String html = theme.getHtmlStructure();
-        
-        // Replace CSS placeholder
-        html = html.replace("{{CSS_STYLES}}", theme.getCssStyles());
-        
-        // Replace content placeholder
-        html = html.replace("{{CONTENT}}", content);
-        
-        // Replace other common placeholders
-        html = processTemplate(html, variables);
-        
-        return html;
+    public String renderTemplate(EmailTemplate template, Contact contact, Map<String, String> customVariables) {
+        PreparedTemplate prepared = getPrepared(template);
+        recordUsage(template.getId());
+        return prepared.render(prepareVariables(contact, customVariables));
+    }
+
+    /**
+     * Zwraca skompilowany szablon dla encji - kompiluje ponownie tylko gdy zmieniła się wersja
+     */
+    private PreparedTemplate getPrepared(EmailTemplate template) {
+        PreparedTemplate cached = preparedTemplates.getIfPresent(template.getId());
+        if (cached != null && cached.isVersionOf(template)) {
+            return cached;
+        }
+        PreparedTemplate prepared = prepare(template);
+        preparedTemplates.put(template.getId(), prepared);
+        return prepared;
+    }
+
+    private PreparedTemplate prepare(EmailTemplate template) {
+        EmailTemplateTheme theme = template.getTheme();
+        CompiledTemplate compiledTheme = null;
+        if (theme != null) {
+            // CSS jest stały dla motywu - wklejamy go przed kompilacją, {{CONTENT}} zostaje zmienną
+            String html = theme.getHtmlStructure().replace("{{CSS_STYLES}}", theme.getCssStyles());
+            compiledTheme = templateRenderer.compile(html);
+        }
+        return new PreparedTemplate(
+                template.getUpdatedAt(),
+                theme != null ? theme.getUpdatedAt() : null,
+                templateRenderer.compile(template.getHtmlContent()),
+                compiledTheme);
+    }
+
+    /**
+     * Zlicza użycie szablonu - licznik w bazie aktualizowany zbiorczo
+     */
+    public void recordUsage(Long templateId) {
+        // Inkrementacja w compute() - atomowa względem remove() we flushUsageCounters,
+        // więc po usunięciu licznika nikt już go nie zwiększy
+        pendingUsage.compute(templateId, (id, adder) -> {
+            LongAdder counter = adder != null ? adder : new LongAdder();
+            counter.increment();
+            return counter;
+        });
+    }
+
+    /**
+     * Zapisuje zebrane użycia szablonów - jeden UPDATE na szablon zamiast save() na każdy email
+     */
+    @Scheduled(fixedDelay = 30000)
+    @PreDestroy
+    public void flushUsageCounters() {
+        for (Long templateId : pendingUsage.keySet()) {
+            LongAdder adder = pendingUsage.remove(templateId);
+            long delta = adder != null ? adder.sum() : 0;
+            if (delta > 0) {
+                templateRepository.incrementUsageCount(templateId, (int) delta);
+            }
+        }
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
     }
 
     /**
      * Process template by replacing all {{variable}} placeholders
      */
-    private String processTemplate(String template, Map<String, String> variables) {
+    String processTemplate(String template, Map<String, String> variables) {
         if (template == null) {
             return "";
         }
-        
-        String result = template;
-        Pattern pattern = Pattern.compile("\\{\\{([^}]+)\\}\\}");
-        Matcher matcher = pattern.matcher(template);
-        
-        while (matcher.find()) {
-            String variable = matcher.group(1);
-            String value = variables.getOrDefault(variable, "");
-            result = result.replace("{{" + variable + "}}", value);
-        }
-        
-        return result;
+        return templateRenderer.render(template, variables);
     }
 
     /**
      * Prepare variables map from contact and custom variables
      */
     private Map<String, String> prepareVariables(Contact contact, Map<String, String> customVariables) {
-        Map<String, String> variables = new HashMap<>();
-        
         // Contact variables
-        if (contact != null) {
-            variables.put("name", contact.getName() != null ? contact.getName() : "");
-            variables.put("firstName", extractFirstName(contact.getName()));
-            variables.put("email", contact.getEmail() != null ? contact.getEmail() : "");
-            variables.put("company", contact.getCompany() != null ? contact.getCompany() : "");
-            variables.put("position", contact.getPosition() != null ? contact.getPosition() : "");
-            variables.put("phone", contact.getPhone() != null ? contact.getPhone() : "");
-        }
+        Map<String, String> variables = templateRenderer.contactVariables(contact);
         
         // Add custom variables (override contact variables if present)
         if (customVariables != null) {
@@ -296,14 +359,6 @@ public class EmailTemplateService {
         return variables;
     }
 
-    private String extractFirstName(String fullName) {
-        if (fullName == null || fullName.isBlank()) {
-            return "";
-        }
-        String[] parts = fullName.trim().split("\\s+");
-        return parts[0];
-    }
-
     // ============ Validation ============
 
     private void validateTemplate(EmailTemplate template) {
@@ -385,120 +440,27 @@ public class EmailTemplateService {
         return stats;
     }
 
-    // ============ Newsletter Sending ============
-
     /**
-     * Send newsletter to all contacts with specified tags
+     * Szablon skompilowany razem z motywem i wersjami (updatedAt), z których powstał
      */
-    public Map<String, Object> sendNewsletterToTags(Long templateId, List<Long> tagIds, String subject, Long accountId) {
-        log.info("Sending newsletter - templateId: {}, tagIds: {}, accountId: {}", templateId, tagIds, accountId);
-        
-        // Get template
-        EmailTemplate template = templateRepository.findById(templateId)
-                .orElseThrow(() -> new ResourceNotFoundException("Template not found"));
-        
-        // Get email account if specified
-        EmailAccount emailAccount = null;
-        if (accountId != null) {
-            emailAccount = emailAccountRepository.findById(accountId).orElse(null);
-            if (emailAccount == null) {
-                log.warn("Email account {} not found, using default", accountId);
-            }
-        }
-        
-        // Get unique contacts with any of the specified tags
-        Set<Contact> uniqueContacts = new HashSet<>();
-        for (Long tagId : tagIds) {
-            List<Contact> tagContacts = contactRepository.findByTagId(tagId);
-            uniqueContacts.addAll(tagContacts);
-        }
-        
-        List<Contact> contacts = new ArrayList<>(uniqueContacts);
-        
-        if (contacts.isEmpty()) {
-            throw new ValidationException("Brak kontaktów z wybranymi tagami");
-        }
-        
-        // Use provided subject or template subject
-        String emailSubject = (subject != null && !subject.trim().isEmpty()) 
-                ? subject 
-                : template.getSubject();
-        
-        // Send emails
-        int successCount = 0;
-        int failCount = 0;
-        final EmailAccount finalAccount = emailAccount;
-        
-        for (Contact contact : contacts) {
-            try {
-                // Skip contacts without email
-                if (contact.getEmail() == null || contact.getEmail().trim().isEmpty()) {
-                    log.debug("Skipping contact {} - no email address", contact.getId());
-                    continue;
-                }
-                
-                // Render template for this contact
-                String renderedHtml = renderTemplateForContact(template, contact);
-                String renderedSubject = processTemplate(emailSubject, prepareVariables(contact, null));
-                
-                // Send email using specified account or default
-                if (finalAccount != null) {
-                    emailSendingService.sendEmailFromAccount(
-                            finalAccount,
-                            contact.getEmail(),
-                            renderedSubject,
-                            renderedHtml
-                    );
-                } else {
-                    emailSendingService.sendEmail(
-                            contact.getEmail(),
-                            renderedSubject,
-                            renderedHtml
-                    );
-                }
-                
-                successCount++;
-                log.debug("Newsletter sent to: {}", contact.getEmail());
-            } catch (Exception e) {
-                failCount++;
-                log.error("Failed to send newsletter to {}: {}", contact.getEmail(), e.getMessage());
-            }
+    private record PreparedTemplate(LocalDateTime version, LocalDateTime themeVersion,
+                                    CompiledTemplate content, CompiledTemplate theme) {
+
+        boolean isVersionOf(EmailTemplate template) {
+            EmailTemplateTheme currentTheme = template.getTheme();
+            return Objects.equals(version, template.getUpdatedAt())
+                    && Objects.equals(themeVersion, currentTheme != null ? currentTheme.getUpdatedAt() : null)
+                    && (theme != null) == (currentTheme != null);
         }
-        
-        // Increment template usage
-        template.incrementUsage();
-        templateRepository.save(template);
-        
-        log.info("Newsletter sending completed - success: {}, failed: {}", successCount, failCount);
-        
-        Map<String, Object> result = new HashMap<>();
-        result.put("success", true);
-        result.put("totalContacts", contacts.size());
-        result.put("successCount", successCount);
-        result.put("failCount", failCount);
-        result.put("message", String.format("Newsletter wysłany do %d z %d odbiorców", successCount, contacts.size()));
-        
-        return result;
-    }
-    
-    /**
-     * Send newsletter to all contacts with a specific tag (backward compatibility)
-     */
-    public Map<String, Object> sendNewsletterToTag(Long templateId, Long tagId, String subject) {
-        return sendNewsletterToTags(templateId, List.of(tagId), subject, null);
-    }
 
-    /**
-     * Render template for a specific contact
-     */
-    private String renderTemplateForContact(EmailTemplate template, Contact contact) {
-        Map<String, String> variables = prepareVariables(contact, null);
-        String renderedContent = processTemplate(template.getHtmlContent(), variables);
-        
-        if (template.getTheme() != null) {
-            return applyTheme(template.getTheme(), renderedContent, variables);
+        String render(Map<String, String> variables) {
+            String renderedContent = content.render(variables, false);
+            if (theme == null) {
+                return renderedContent;
+            }
+            Map<String, String> themeVariables = new HashMap<>(variables);
+            themeVariables.put("CONTENT", renderedContent);
+            return theme.render(themeVariables, false);
         }
-        
-        return renderedContent;
     }
 }
\ No newline at end of file
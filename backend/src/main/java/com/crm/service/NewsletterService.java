@@ -1,12 +1,12 @@
 package com.crm.service;
 
+import com.crm.exception.ResourceNotFoundException;
+import com.crm.exception.ValidationException;
 import com.crm.model.*;
 import com.crm.repository.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -24,11 +24,16 @@ public class NewsletterService {
 
     private final CampaignRepository campaignRepository;
     private final CampaignRecipientRepository recipientRepository;
-    private final ContactRepository contactRepository;
     private final UnsubscribeRepository unsubscribeRepository;
     private final EmailTemplateService emailTemplateService;
     private final EmailSendingService emailSendingService;
     private final UserContextService userContextService;
+    private final CampaignSendingEngine sendingEngine;
+    private final EmailTemplateRepository templateRepository;
+    private final EmailAccountRepository emailAccountRepository;
+
+    @Value("${newsletter.sending.throttle-per-hour:600}")
+    private int newsletterThrottlePerHour;
 
     // ==================== CAMPAIGN MANAGEMENT ====================
 
@@ -86,43 +91,26 @@ public class NewsletterService {
             throw new RuntimeException("Campaign must be in draft status to prepare");
         }
 
-        // Pobierz kontakty z docelowego tagu
-        List<Contact> contacts;
-        if (campaign.getTargetTag() != null) {
-            contacts = contactRepository.findByTagId(campaign.getTargetTag().getId());
-        } else {
-            // Jeśli brak tagu, użyj wszystkich kontaktów użytkownika
-            contacts = contactRepository.findAccessibleByUserId(campaign.getUserId());
-        }
-
-        // Filtruj wypisanych
-        List<Contact> eligibleContacts = contacts.stream()
-                .filter(c -> c.getEmail() != null && !c.getEmail().isEmpty())
-                .filter(c -> !unsubscribeRepository.existsByEmail(c.getEmail()))
-                .toList();
-
         // Usuń starych odbiorców (jeśli kampania była przygotowywana wcześniej)
         recipientRepository.deleteByCampaignId(campaignId);
 
-        // Utwórz nowych odbiorców
-        for (Contact contact : eligibleContacts) {
-            if (!recipientRepository.existsByCampaignIdAndContactId(campaignId, contact.getId())) {
-                CampaignRecipient recipient = new CampaignRecipient();
-                recipient.setCampaign(campaign);
-                recipient.setContact(contact);
-                recipient.setStatus("pending");
-                recipient.setTrackingId(generateTrackingId());
-                recipientRepository.save(recipient);
-            }
+        // Odbiorcy tworzeni w bazie jednym INSERT ... SELECT - bez ładowania kontaktów do pamięci
+        int recipients;
+        if (campaign.getTargetTag() != null) {
+            recipients = recipientRepository.insertRecipientsFromTag(campaignId, campaign.getTargetTag().getId());
+        } else {
+            // Jeśli brak tagu, użyj wszystkich kontaktów użytkownika
+            recipients = recipientRepository.insertRecipientsFromUserContacts(campaignId, campaign.getUserId());
         }
+        log.info("Prepared campaign {} with {} recipients", campaignId, recipients);
 
-        campaign.setTotalContacts(eligibleContacts.size());
+        campaign.setTotalContacts(recipients);
         campaign.setStatus("scheduled");
         return campaignRepository.save(campaign);
     }
 
     /**
-     * Uruchamia wysyłkę kampanii
+     * Uruchamia wysyłkę kampanii - sloty i wysyłkę przejmuje CampaignSendingEngine
      */
     @Transactional
     public Campaign startCampaign(Long campaignId) {
@@ -167,6 +155,9 @@ public class NewsletterService {
             throw new RuntimeException("Campaign cannot be resumed (status: " + campaign.getStatus() + ")");
         }
 
+        // Sloty wyliczone przed pauzą są nieaktualne - silnik rozłoży pozostałych odbiorców od teraz
+        recipientRepository.clearSchedule(campaignId);
+
         campaign.setStatus("sending");
         campaign.setPausedAt(null);
         return campaignRepository.save(campaign);
@@ -174,130 +165,6 @@ public class NewsletterService {
 
     // ==================== SENDING ====================
 
-    /**
-     * Scheduler - przetwarza kampanie do wysyłki co minutę
-     */
-    @Scheduled(fixedDelay = 60000) // Co minutę
-    @Transactional
-    public void processSendingCampaigns() {
-        List<Campaign> sendingCampaigns = campaignRepository.findByStatus("sending");
-
-        for (Campaign campaign : sendingCampaigns) {
-            try {
-                processNextBatch(campaign);
-            } catch (Exception e) {
-                log.error("Error processing campaign {}: {}", campaign.getId(), e.getMessage(), e);
-            }
-        }
-    }
-
-    /**
-     * Przetwarza następną partię emaili dla kampanii
-     */
-    @Transactional
-    public void processNextBatch(Campaign campaign) {
-        // Sprawdź throttling
-        int throttle = campaign.getThrottlePerHour() != null ? campaign.getThrottlePerHour() : 100;
-        LocalDateTime hourAgo = LocalDateTime.now().minusHours(1);
-        long sentLastHour = recipientRepository.countSentSince(campaign.getId(), hourAgo);
-
-        if (sentLastHour >= throttle) {
-            log.debug("Campaign {} throttled - {} sent in last hour (limit: {})", 
-                     campaign.getId(), sentLastHour, throttle);
-            return;
-        }
-
-        // Pobierz następnych odbiorców
-        int batchSize = Math.min(10, (int)(throttle - sentLastHour));
-        List<CampaignRecipient> recipients = recipientRepository.findPendingRecipients(
-                campaign.getId(), PageRequest.of(0, batchSize));
-
-        if (recipients.isEmpty()) {
-            // Wszystko wysłane - oznacz jako zakończone
-            campaign.setStatus("completed");
-            campaign.setCompletedAt(LocalDateTime.now());
-            campaignRepository.save(campaign);
-            log.info("Campaign {} completed", campaign.getId());
-            return;
-        }
-
-        // Wyślij emaile
-        int delaySeconds = campaign.getDelaySeconds() != null ? campaign.getDelaySeconds() : 5;
-
-        for (CampaignRecipient recipient : recipients) {
-            try {
-                sendCampaignEmail(campaign, recipient);
-
-                // Opóźnienie między emailami
-                if (delaySeconds > 0) {
-                    Thread.sleep(delaySeconds * 1000L);
-                }
-            } catch (Exception e) {
-                log.error("Error sending campaign email to {}: {}", 
-                         recipient.getContact().getEmail(), e.getMessage());
-                recipient.markBounced(e.getMessage());
-                recipientRepository.save(recipient);
-                incrementCampaignBounced(campaign);
-            }
-        }
-    }
-
-    /**
-     * Wysyła pojedynczy email kampanii
-     */
-    @Transactional
-    public void sendCampaignEmail(Campaign campaign, CampaignRecipient recipient) {
-        Contact contact = recipient.getContact();
-        
-        // Przygotuj treść
-        String subject;
-        String body;
-
-        if (campaign.getTemplate() != null) {
-            subject = processTemplate(campaign.getTemplate().getSubject(), contact);
-            body = emailTemplateService.renderTemplate(
-                    campaign.getTemplate().getId(), contact, null);
-        } else {
-            subject = processTemplate(campaign.getSubject(), contact);
-            body = processTemplate(campaign.getContent(), contact);
-        }
-
-        // Dodaj stopkę unsubscribe
-        String unsubscribeLink = generateUnsubscribeLink(recipient.getTrackingId());
-        String footer = campaign.getUnsubscribeFooter();
-        if (footer == null || footer.isEmpty()) {
-            footer = "<p style='font-size:12px;color:#888;margin-top:30px;border-top:1px solid #eee;padding-top:15px;'>" +
-                    "Aby wypisać się z tej listy, <a href='" + unsubscribeLink + "'>kliknij tutaj</a>.</p>";
-        } else {
-            footer = footer.replace("{{unsubscribe_link}}", unsubscribeLink);
-        }
-        body = body + footer;
-
-        // Dodaj pixel trackingowy
-        String trackingPixel = "<img src='" + getTrackingPixelUrl(recipient.getTrackingId()) + 
-                               "' width='1' height='1' style='display:none' />";
-        body = body + trackingPixel;
-
-        // Wyślij email
-        EmailAccount account = campaign.getEmailAccount();
-        if (account == null) {
-            throw new RuntimeException("No email account configured for campaign");
-        }
-
-        try {
-            emailSendingService.sendEmailFromAccount(account, contact.getEmail(), subject, body);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to send campaign email: " + e.getMessage(), e);
-        }
-
-        // Zaktualizuj status
-        recipient.markSent();
-        recipientRepository.save(recipient);
-
-        incrementCampaignSent(campaign);
-        log.debug("Sent campaign email to {} (campaign: {})", contact.getEmail(), campaign.getId());
-    }
-
     /**
      * Wysyła testowy email kampanii
      */
@@ -315,11 +182,10 @@ public class NewsletterService {
         String subject;
         String body;
 
+        subject = "[TEST] " + processTemplate(campaign.resolveSubject(), testContact);
         if (campaign.getTemplate() != null) {
-            subject = "[TEST] " + processTemplate(campaign.getTemplate().getSubject(), testContact);
-            body = emailTemplateService.renderTemplate(campaign.getTemplate().getId(), testContact, null);
+            body = emailTemplateService.renderTemplate(campaign.getTemplate(), testContact, null);
         } else {
-            subject = "[TEST] " + processTemplate(campaign.getSubject(), testContact);
             body = processTemplate(campaign.getContent(), testContact);
         }
 
@@ -340,6 +206,63 @@ public class NewsletterService {
         log.info("Sent test email for campaign {} to {}", campaignId, testEmail);
     }
 
+    /**
+     * Newsletter z szablonu do kontaktów z wybranymi tagami - zakłada kampanię ze stanem 'sending'
+     * i od razu zwraca jej id jako id zadania. Lista odbiorców jest zapisywana w bazie (kontakt z kilkoma
+     * tagami trafia na nią raz), a renderowanie, limit wysyłki i wznowienie po restarcie zapewnia
+     * CampaignSendingEngine.
+     */
+    @Transactional
+    public Map<String, Object> startTagNewsletter(Long templateId, List<Long> tagIds, String subject, Long accountId) {
+        Long userId = userContextService.getCurrentUserId();
+        EmailTemplate template = templateRepository.findById(templateId)
+                .orElseThrow(() -> new ResourceNotFoundException("Template not found"));
+
+        EmailAccount account;
+        if (accountId != null) {
+            account = emailAccountRepository.findById(accountId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Email account not found: " + accountId));
+        } else {
+            account = emailAccountRepository.findByUserIdAndEnabledTrue(userId).stream().findFirst()
+                    .orElseThrow(() -> new ValidationException("Brak aktywnego konta email do wysyłki"));
+        }
+
+        Campaign campaign = new Campaign();
+        campaign.setName("Newsletter: " + template.getName());
+        campaign.setCampaignType("newsletter");
+        campaign.setTemplate(template);
+        campaign.setEmailAccount(account);
+        campaign.setSubject(subject != null && !subject.isBlank() ? subject : null);
+        campaign.setUserId(userId);
+        campaign.setThrottlePerHour(newsletterThrottlePerHour);
+        campaign.setDailyLimit(null);
+        campaign.setDelaySeconds(0);
+        campaign = campaignRepository.save(campaign);
+
+        int recipients = 0;
+        for (Long tagId : new LinkedHashSet<>(tagIds)) {
+            recipients += recipientRepository.insertRecipientsFromTag(campaign.getId(), tagId);
+        }
+        if (recipients == 0) {
+            throw new ValidationException("Brak kontaktów z wybranymi tagami");
+        }
+
+        campaign.setTotalContacts(recipients);
+        campaign.setStatus("sending");
+        campaign.setStartedAt(LocalDateTime.now());
+        campaignRepository.save(campaign);
+        log.info("Newsletter job {} started - template: {}, tags: {}, account: {}, recipients: {}",
+                campaign.getId(), templateId, tagIds, account.getId(), recipients);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("jobId", campaign.getId());
+        result.put("status", campaign.getStatus());
+        result.put("totalContacts", recipients);
+        result.put("message", String.format("Wysyłka newslettera do %d odbiorców rozpoczęta", recipients));
+        return result;
+    }
+
     // ==================== TRACKING ====================
 
     /**
@@ -437,26 +360,6 @@ public class NewsletterService {
         return parts[0];
     }
 
-    private String generateTrackingId() {
-        return UUID.randomUUID().toString().replace("-", "").substring(0, 32);
-    }
-
-    private String generateUnsubscribeLink(String trackingId) {
-        // TODO: Use actual base URL from config
-        return "http://localhost:8080/api/newsletter/unsubscribe?token=" + trackingId;
-    }
-
-    private String getTrackingPixelUrl(String trackingId) {
-        // TODO: Use actual base URL from config
-        return "http://localhost:8080/api/newsletter/track/open?id=" + trackingId;
-    }
-
-    @Transactional
-    private void incrementCampaignSent(Campaign campaign) {
-        campaign.setSentCount(campaign.getSentCount() + 1);
-        campaignRepository.save(campaign);
-    }
-
     @Transactional
     private void incrementCampaignOpened(Campaign campaign) {
         campaign.setOpenedCount(campaign.getOpenedCount() + 1);
@@ -469,12 +372,6 @@ public class NewsletterService {
         campaignRepository.save(campaign);
     }
 
-    @Transactional
-    private void incrementCampaignBounced(Campaign campaign) {
-        campaign.setBouncedCount(campaign.getBouncedCount() + 1);
-        campaignRepository.save(campaign);
-    }
-
     @Transactional
     private void incrementCampaignUnsubscribed(Campaign campaign) {
         campaign.setUnsubscribedCount(campaign.getUnsubscribedCount() + 1);
@@ -509,9 +406,41 @@ public class NewsletterService {
         stats.put("unsubscribeRate", campaign.getUnsubscribeRate());
 
         long pending = recipientRepository.countByCampaignIdAndStatus(campaignId, "pending");
+        long queued = recipientRepository.countByCampaignIdAndStatus(campaignId, "queued");
         stats.put("pendingCount", pending);
+        stats.put("queuedCount", queued);
+        stats.put("inFlightCount", sendingEngine.inFlightCount(campaignId));
+
+        // Postęp wysyłki: tempo z ostatnich minut i szacowany czas zakończenia
+        double sendsPerMinute = sendingEngine.getSendsPerMinute(campaignId);
+        stats.put("sendsPerMinute", sendsPerMinute);
+        stats.put("estimatedCompletionAt", "sending".equals(campaign.getStatus())
+                ? sendingEngine.estimateCompletion(campaign, pending + queued, sendsPerMinute)
+                : null);
 
         return stats;
     }
+
+    /**
+     * Postęp zadania wysyłki newslettera - statystyki kampanii uzupełnione o status i procent wykonania
+     */
+    public Map<String, Object> getNewsletterJobProgress(Long jobId) {
+        Long userId = userContextService.getCurrentUserId();
+        // Cudzy job wygląda jak nieistniejący - nie zdradzamy, że jest
+        Campaign campaign = campaignRepository.findById(jobId)
+                .filter(c -> Objects.equals(c.getUserId(), userId) || userContextService.isCurrentUserAdmin())
+                .orElseThrow(() -> new ResourceNotFoundException("Newsletter job not found: " + jobId));
+
+        Map<String, Object> progress = getCampaignStats(jobId);
+        int total = campaign.getTotalContacts();
+        int done = campaign.getSentCount() + campaign.getBouncedCount();
+        progress.put("jobId", jobId);
+        progress.put("status", campaign.getStatus());
+        progress.put("processedCount", done);
+        progress.put("percent", total > 0 ? Math.min(100, done * 100 / total) : 0);
+        progress.put("startedAt", campaign.getStartedAt());
+        progress.put("completedAt", campaign.getCompletedAt());
+        return progress;
+    }
 }
 
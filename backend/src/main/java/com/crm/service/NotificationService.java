@@ -0,0 +1,240 @@
+package com.crm.service;
+
+import com.crm.model.Notification;
+import com.crm.repository.NotificationRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Powiadomienia użytkowników: zapis, liczniki nieprzeczytanych w pamięci i push przez SSE.
+ *
+ * Liczniki są budowane z bazy przy starcie (jedno GROUP BY) i okresowo uzgadniane - zmiany
+ * z innej instancji nie są widoczne od razu. Po commicie zmiany nowe powiadomienie i aktualny
+ * licznik trafiają do otwartych strumieni użytkownika, więc frontend nie musi odpytywać API.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class NotificationService implements MeterBinder {
+
+    public static final int MAX_PAGE_SIZE = 100;
+    private static final int MAX_STREAMS_PER_USER = 10;
+
+    private final NotificationRepository notificationRepository;
+
+    @Value("${notifications.stream.timeout-ms:1800000}")
+    private long streamTimeoutMs;
+
+    private final Map<Long, AtomicLong> unreadCounts = new ConcurrentHashMap<>();
+    private volatile boolean countersReady;
+    private final Map<Long, Set<SseEmitter>> streams = new ConcurrentHashMap<>();
+
+    /**
+     * Otwarte strumienie SSE i użytkownicy z co najmniej jednym strumieniem
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("crm.sse.streams", streams, map -> map.values().stream().mapToInt(Set::size).sum())
+                .register(registry);
+        Gauge.builder("crm.sse.users", streams, Map::size).register(registry);
+    }
+
+    // ==================== UNREAD COUNTERS ====================
+
+    /**
+     * Przebudowuje liczniki z bazy - przy starcie i okresowo (zmiany z innych instancji, usunięcia starych)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${notifications.counters.reconcile-ms:300000}",
+               initialDelayString = "${notifications.counters.reconcile-ms:300000}")
+    public void rebuildUnreadCounters() {
+        Map<Long, Long> counts = new HashMap<>();
+        for (Object[] row : notificationRepository.countUnreadByUser()) {
+            counts.put((Long) row[0], ((Number) row[1]).longValue());
+        }
+
+        Set<Long> changed = new HashSet<>();
+        unreadCounts.forEach((userId, counter) -> {
+            long actual = counts.getOrDefault(userId, 0L);
+            if (counter.getAndSet(actual) != actual) {
+                changed.add(userId);
+            }
+        });
+        counts.forEach((userId, count) -> {
+            if (unreadCounts.putIfAbsent(userId, new AtomicLong(count)) == null) {
+                changed.add(userId);
+            }
+        });
+        countersReady = true;
+
+        changed.stream().filter(streams::containsKey).forEach(this::pushUnreadCount);
+        log.debug("Notification counters rebuilt: {} users with unread", counts.size());
+    }
+
+    public long getUnreadCount(Long userId) {
+        if (!countersReady) {
+            return notificationRepository.countByUserIdAndIsReadFalse(userId);
+        }
+        AtomicLong counter = unreadCounts.get(userId);
+        return counter != null ? Math.max(0, counter.get()) : 0;
+    }
+
+    private void adjustUnread(Long userId, long delta) {
+        unreadCounts.computeIfAbsent(userId, id -> new AtomicLong()).addAndGet(delta);
+    }
+
+    // ==================== OPERATIONS ====================
+
+    public Notification create(Notification notification) {
+        Notification saved = notificationRepository.save(notification);
+        afterCommit(() -> {
+            if (!Boolean.TRUE.equals(saved.getIsRead())) {
+                adjustUnread(saved.getUserId(), 1);
+            }
+            push(saved.getUserId(), "notification", saved);
+            pushUnreadCount(saved.getUserId());
+        });
+        return saved;
+    }
+
+    /**
+     * Nieprzeczytane, od najnowszych, stronicowane kursorem (id ostatniego elementu poprzedniej strony)
+     */
+    public List<Notification> getUnread(Long userId, Long beforeId, int limit) {
+        PageRequest page = PageRequest.of(0, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+        return beforeId != null
+                ? notificationRepository.findByUserIdAndIsReadFalseAndIdLessThanOrderByIdDesc(userId, beforeId, page)
+                : notificationRepository.findByUserIdAndIsReadFalseOrderByIdDesc(userId, page);
+    }
+
+    public Notification markAsRead(Notification notification) {
+        boolean wasUnread = !Boolean.TRUE.equals(notification.getIsRead());
+        notification.markAsRead();
+        Notification saved = notificationRepository.save(notification);
+        if (wasUnread) {
+            afterCommit(() -> {
+                adjustUnread(saved.getUserId(), -1);
+                pushUnreadCount(saved.getUserId());
+            });
+        }
+        return saved;
+    }
+
+    public int markAllAsRead(Long userId) {
+        int count = notificationRepository.markAllAsReadForUser(userId);
+        afterCommit(() -> {
+            adjustUnread(userId, -count);
+            pushUnreadCount(userId);
+        });
+        return count;
+    }
+
+    public void delete(Notification notification) {
+        notificationRepository.deleteById(notification.getId());
+        if (!Boolean.TRUE.equals(notification.getIsRead())) {
+            afterCommit(() -> {
+                adjustUnread(notification.getUserId(), -1);
+                pushUnreadCount(notification.getUserId());
+            });
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    // ==================== PUSH (SSE) ====================
+
+    /**
+     * Otwiera strumień SSE użytkownika - od razu wysyła bieżący licznik nieprzeczytanych
+     */
+    public SseEmitter subscribe(Long userId) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        Set<SseEmitter> userStreams = streams.computeIfAbsent(userId, id -> new CopyOnWriteArraySet<>());
+
+        // Limit kart na użytkownika - najstarszy strumień jest zamykany
+        if (userStreams.size() >= MAX_STREAMS_PER_USER) {
+            userStreams.stream().findFirst().ifPresent(oldest -> {
+                userStreams.remove(oldest);
+                oldest.complete();
+            });
+        }
+        userStreams.add(emitter);
+
+        Runnable remove = () -> removeStream(userId, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+
+        send(userId, emitter, SseEmitter.event().name("unread-count").data(Map.of("unreadCount", getUnreadCount(userId))));
+        return emitter;
+    }
+
+    private void pushUnreadCount(Long userId) {
+        push(userId, "unread-count", Map.of("unreadCount", getUnreadCount(userId)));
+    }
+
+    private void push(Long userId, String eventName, Object data) {
+        Set<SseEmitter> userStreams = streams.get(userId);
+        if (userStreams == null) {
+            return;
+        }
+        for (SseEmitter emitter : userStreams) {
+            send(userId, emitter, SseEmitter.event().name(eventName).data(data));
+        }
+    }
+
+    /**
+     * Komentarz co kilkadziesiąt sekund utrzymuje połączenia (proxy zamyka bezczynne) i wykrywa zamknięte karty
+     */
+    @Scheduled(fixedRateString = "${notifications.stream.heartbeat-ms:25000}")
+    public void heartbeat() {
+        streams.forEach((userId, userStreams) -> {
+            for (SseEmitter emitter : userStreams) {
+                send(userId, emitter, SseEmitter.event().comment("ping"));
+            }
+        });
+    }
+
+    private void send(Long userId, SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+            removeStream(userId, emitter);
+        }
+    }
+
+    private void removeStream(Long userId, SseEmitter emitter) {
+        streams.computeIfPresent(userId, (id, userStreams) -> {
+            userStreams.remove(emitter);
+            return userStreams.isEmpty() ? null : userStreams;
+        });
+    }
+}
@@ -6,6 +6,7 @@ import com.crm.model.Deal;
 import com.crm.model.Email;
 import com.crm.model.EmailAccount;
 import com.crm.model.PipelineStage;
+import com.crm.model.ProcessingWatermark;
 import com.crm.model.ScheduledEmail;
 import com.crm.model.SequenceExecution;
 import com.crm.model.SequenceStep;
@@ -14,8 +15,10 @@ import com.crm.repository.DealRepository;
 import com.crm.repository.EmailAccountRepository;
 import com.crm.repository.EmailRepository;
 import com.crm.repository.PipelineStageRepository;
+import com.crm.repository.ProcessingWatermarkRepository;
 import com.crm.repository.ScheduledEmailRepository;
 import com.crm.repository.SequenceExecutionRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.mail.MessagingException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,6 +27,7 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
@@ -32,6 +36,15 @@ import java.util.Optional;
 @Slf4j
 public class ScheduledEmailService {
 
+    private static final long REPLY_DETECTION_BATCH_SIZE = 5000;
+    private static final int REPLY_DETECTION_MAX_BATCHES = 20;
+    /**
+     * Ile ID poniżej watermarku skanować ponownie - ID emaili są przydzielane przed commitem,
+     * więc transakcja pobierania, która zatwierdzi się później, wstawia ID poniżej już przesuniętego watermarku.
+     * Ponowne sprawdzenie jest idempotentne (zapytanie zwraca tylko aktywne egzekucje).
+     */
+    private static final long REPLY_DETECTION_OVERLAP = 1000;
+
     private final ScheduledEmailRepository scheduledEmailRepository;
     private final SequenceExecutionRepository executionRepository;
     private final EmailSendingService emailSendingService;
@@ -41,6 +54,8 @@ public class ScheduledEmailService {
     private final PipelineStageRepository pipelineStageRepository;
     private final EmailAccountRepository emailAccountRepository;
     private final WorkflowAutomationService workflowAutomationService;
+    private final ProcessingWatermarkRepository watermarkRepository;
+    private final MeterRegistry meterRegistry;
 
     @Autowired
     public ScheduledEmailService(
@@ -52,7 +67,9 @@ public class ScheduledEmailService {
             DealRepository dealRepository,
             PipelineStageRepository pipelineStageRepository,
             EmailAccountRepository emailAccountRepository,
-            @Lazy WorkflowAutomationService workflowAutomationService) {
+            @Lazy WorkflowAutomationService workflowAutomationService,
+            ProcessingWatermarkRepository watermarkRepository,
+            MeterRegistry meterRegistry) {
         this.scheduledEmailRepository = scheduledEmailRepository;
         this.executionRepository = executionRepository;
         this.emailSendingService = emailSendingService;
@@ -62,6 +79,8 @@ public class ScheduledEmailService {
         this.pipelineStageRepository = pipelineStageRepository;
         this.emailAccountRepository = emailAccountRepository;
         this.workflowAutomationService = workflowAutomationService;
+        this.watermarkRepository = watermarkRepository;
+        this.meterRegistry = meterRegistry;
     }
 
     /**
@@ -83,44 +102,67 @@ public class ScheduledEmailService {
         log.info("Found {} scheduled emails to send", emailsToSend.size());
 
         for (ScheduledEmail scheduledEmail : emailsToSend) {
+            recordDispatchLag(scheduledEmail);
             try {
                 sendScheduledEmail(scheduledEmail);
+                meterRegistry.counter("crm.scheduled_email.dispatched", "outcome", "success").increment();
             } catch (Exception e) {
                 log.error("Failed to send scheduled email {}", scheduledEmail.getId(), e);
+                meterRegistry.counter("crm.scheduled_email.dispatched", "outcome", "error").increment();
                 handleSendFailure(scheduledEmail, e);
             }
         }
     }
 
+    /**
+     * Opóźnienie wysyłki względem scheduledFor - rośnie, gdy scheduler nie nadąża
+     */
+    private void recordDispatchLag(ScheduledEmail scheduledEmail) {
+        if (scheduledEmail.getScheduledFor() == null) {
+            return;
+        }
+        Duration lag = Duration.between(scheduledEmail.getScheduledFor(), LocalDateTime.now());
+        meterRegistry.timer("crm.scheduled_email.dispatch.lag").record(lag.isNegative() ? Duration.ZERO : lag);
+    }
+
     /**
      * Proaktywnie sprawdza czy kontakty odpowiedziały i zatrzymuje sekwencje
-     * Uruchamiane co 5 minut
+     * Uruchamiane co 5 minut. Przetwarza emaile nowe od ostatniego uruchomienia
+     * (watermark, z zakładką REPLY_DETECTION_OVERLAP), łącząc je z aktywnymi egzekucjami jednym zapytaniem.
      */
     @Scheduled(fixedDelay = 300000) // Co 5 minut
     @Transactional
     public void checkForRepliesAndStopSequences() {
-        List<SequenceExecution> activeExecutions = executionRepository.findByStatus("active");
-
-        if (activeExecutions.isEmpty()) {
-            log.debug("No active executions to check for replies");
+        ProcessingWatermark watermark = watermarkRepository.findById(ProcessingWatermark.REPLY_DETECTION)
+                .orElseGet(() -> new ProcessingWatermark(ProcessingWatermark.REPLY_DETECTION));
+        long lastId = watermark.getLastId();
+        long maxId = emailRepository.findMaxId();
+        long start = Math.max(0, lastId - REPLY_DETECTION_OVERLAP);
+
+        if (maxId <= start) {
+            log.debug("No emails to check for replies (watermark: {})", lastId);
             return;
         }
 
-        log.info("Checking {} active executions for replies", activeExecutions.size());
         int stoppedCount = 0;
-
-        for (SequenceExecution execution : activeExecutions) {
-            try {
-                if (hasRecipientReplied(execution)) {
-                    log.info("Reply detected for execution {} - stopping sequence", execution.getId());
-                    stopSequenceOnReply(execution);
-                    stoppedCount++;
-                }
-            } catch (Exception e) {
-                log.error("Error checking replies for execution {}", execution.getId(), e);
+        int batches = 0;
+        long from = start;
+        while (from < maxId && batches < REPLY_DETECTION_MAX_BATCHES) {
+            long to = Math.min(from + REPLY_DETECTION_BATCH_SIZE, maxId);
+            List<Long> repliedIds = executionRepository.findActiveExecutionIdsRepliedBetween(from, to);
+            if (!repliedIds.isEmpty()) {
+                stoppedCount += stopSequencesOnReply(repliedIds);
             }
+            from = to;
+            batches++;
         }
 
+        if (from > lastId) {
+            watermark.setLastId(from);
+            watermarkRepository.save(watermark);
+        }
+
+        log.debug("Reply detection checked emails {}..{}", start, from);
         if (stoppedCount > 0) {
             log.info("Stopped {} sequences due to replies", stoppedCount);
         }
@@ -434,10 +476,8 @@ public class ScheduledEmailService {
             return false;
         }
 
-        return emailRepository.findBySenderContainingIgnoreCaseOrderByReceivedAtDesc(recipient)
-                .stream()
-                .anyMatch(email -> email.getReceivedAt() != null
-                        && email.getReceivedAt().isAfter(execution.getStartedAt()));
+        return emailRepository.existsBySenderEmailAndReceivedAtAfter(
+                Email.normalizeAddress(recipient), execution.getStartedAt());
     }
 
     private void markExecutionCompleted(SequenceExecution execution) {
@@ -470,6 +510,26 @@ public class ScheduledEmailService {
         cancelAllRemainingEmails(execution.getId());
     }
 
+    /**
+     * Zatrzymuje wiele egzekucji naraz - wersja zbiorcza stopSequenceOnReply.
+     * Status i anulowanie emaili idą jednym UPDATE, pojedynczo przesuwane są tylko deale.
+     * Wywoływana tylko z checkForRepliesAndStopSequences - atomowość zapewnia jej transakcja
+     * (razem z przesunięciem watermarku).
+     *
+     * @return liczba faktycznie zatrzymanych egzekucji
+     */
+    private int stopSequencesOnReply(List<Long> executionIds) {
+        List<Long> dealIds = executionRepository.findDealIdsByIdIn(executionIds);
+        int stopped = executionRepository.markReplied(executionIds, LocalDateTime.now());
+        int cancelled = scheduledEmailRepository.cancelPendingForExecutions(
+                executionIds, "Sequence stopped - contact replied");
+
+        log.info("Reply detected for {} executions - cancelled {} remaining emails", stopped, cancelled);
+
+        dealIds.forEach(this::advanceDealOnReply);
+        return stopped;
+    }
+
     /**
      * Anuluje wszystkie pozostałe (pending) emaile dla danego execution
      */
@@ -686,7 +686,7 @@ public class SequenceService {
         if (step.getTemplate() != null) {
             try {
                 String renderedHtml = emailTemplateService.renderTemplate(
-                    step.getTemplate().getId(),
+                    step.getTemplate(),
                     execution.getContact(),
                     null
                 );
@@ -0,0 +1,339 @@
+package com.crm.service;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Wyciąganie danych kontaktowych ze stopki maila: imię i nazwisko, telefon, stanowisko, firma.
+ *
+ * Wzorce i słowniki są kompilowane raz (statycznie). Treść jest przycinana raz - przed cytowaną
+ * historią odpowiedzi ("W dniu ... napisał", "On ... wrote:", "> ..."), bo tam jest zwykle nasza
+ * własna stopka - a wszystkie pola wyciągane są jednym wywołaniem {@link #extract(String)}.
+ */
+public final class SignatureExtractor {
+
+    /** Stopka do szukania imienia - ostatnie znaki treści bez cytatu */
+    private static final int NAME_TAIL_CHARS = 500;
+
+    private static final Pattern QUOTE_HEADER = Pattern.compile(
+            "^(?:>|-{2,}\\s*(?:Original Message|Wiadomość oryginalna|Oryginalna wiadomość)|" +
+            "On\\s.{1,200}?wrote:|W dniu\\s.{1,200}?napisał)",
+            Pattern.MULTILINE | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+
+    private static final Pattern PHONE = Pattern.compile(String.join("|",
+            "\\+?48[\\s.-]?\\d{1}[\\s.-]?\\d{3}[\\s.-]?\\d{3}[\\s.-]?\\d{3}",  // +48 601 089 273 lub +48-601-089-273
+            "\\d{3}[\\s.-]?\\d{3}[\\s.-]?\\d{3}",  // 601 089 273 lub 601-089-273 (polskie 9 cyfr)
+            "\\+?\\d{1,3}[\\s.-]?\\(?\\d{2,3}\\)?[\\s.-]?\\d{3}[\\s.-]?\\d{3,4}",  // +48 123 456 789 (ogólny)
+            "\\(\\d{3}\\)[\\s.-]?\\d{3}[\\s.-]?\\d{4}",  // (123) 456-7890
+            "\\d{3}[\\s.-]\\d{3}[\\s.-]\\d{3,4}",  // 123-456-789
+            "tel\\.?:?\\s*\\+?[\\d\\s\\(\\)\\-\\.]{9,}"  // Tel: +48 123 456 789
+    ), Pattern.CASE_INSENSITIVE);
+
+    /** Stanowiska w kolejności ważności - wygrywa pierwsze z listy, które występuje w treści */
+    private static final String[] POSITIONS = {
+            "ceo", "cto", "cfo", "director", "manager", "specialist",
+            "coordinator", "developer", "engineer", "analyst", "consultant",
+            "dyrektor", "kierownik", "specjalista", "koordynator",
+            "programista", "inżynier", "analityk", "konsultant",
+            "prezes", "wiceprezes", "founder", "co-founder"
+    };
+
+    /** Imię i nazwisko w jednej linii - słowa rozdzielone spacją/tabulatorem, nie nową linią */
+    private static final Pattern NAME = Pattern.compile(
+            "\\b([A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó]+(?:[ \\t]+[A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó]+){1,2})\\b");
+
+    private static final Pattern NAME_BEFORE_TITLE = Pattern.compile(
+            "([A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó]+(?:[ \\t]+[A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó]+){1,2})\\s*[\\n\\r]+\\s*" +
+            "(?:Dyrektor|Kierownik|Manager|Director|CEO|CTO|\\d{3}[\\s.-]?\\d{3})",
+            Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern TITLE_OR_PHONE_AFTER_NAME = Pattern.compile(
+            "(?:[\\n\\r]+|^|\\s+)(?:Dyrektor|Kierownik|Manager|Director|CEO|CTO|\\+?48\\s*\\d{3}[\\s.-]?\\d{3}|\\d{3}[\\s.-]?\\d{3}[\\s.-]?\\d{3})");
+
+    private static final Pattern CLOSING = Pattern.compile("pozdrawiam|regards|best|sincerely", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern COMPANY_LABEL = Pattern.compile(
+            "(?:Firma|Company|Firma\\s*:|Company\\s*:)\\s*([A-Za-z0-9\\-_.]+(?:\\.[A-Za-z0-9\\-_.]+)*)",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+
+    private static final Pattern COMPANY_WITH_SUFFIX = Pattern.compile(
+            "([A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó0-9]+(?:[ \\t]+[A-ZŻŹĆĄŚĘŁÓŃ][a-zżźćńąśęłó0-9]+)*(?:[ \\t]*-[ \\t]*[a-zżźćńąśęłó0-9]+)?[ \\t]+" +
+            "(?:Sp\\.\\s*z\\s*o\\.o\\.|Ltd\\.|Inc\\.|GmbH|S\\.A\\.|sp\\.\\s*z\\s*o\\.\\s*o\\.))",
+            Pattern.MULTILINE);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern POSITION_CONTEXT_SPLIT = Pattern.compile("[\\n\\r,|]");
+
+    /** Słowa, które nie są imionami */
+    private static final Set<String> NAME_EXCLUDES = Set.of(
+            "firma", "data", "od", "do", "temat", "subject", "date", "pozdrawiam", "regards",
+            "dajano", "logistyka", "dyrektor", "sprzedaży", "telefon", "phone", "tel", "email",
+            "adres", "address", "www", "http", "https", "com", "pl", "eu", "org",
+            "crm", "jestem", "jest", "mam", "będę", "chcę", "chciałbym", "proszę", "dzień",
+            "dobry", "witam", "witaj", "hej", "cześć", "dziękuję", "dziękuje", "dzięki",
+            "mail", "message", "wiadomość", "wiadomości", "treść", "content",
+            "pan", "pani", "panie", "hi", "hello", "dear", "thanks");
+
+    /** Słowa doklejone przed imieniem (np. "Pozdrawiam Jan Kowalski", "chętnieWiktor") - kolejność jak w oryginale */
+    private static final String[] NAME_PREFIXES = {
+            "chętnie", "tak", "nie", "oczywiście", "z", "od", "do", "w", "na", "po", "przed",
+            "wielkie", "dziekuję", "dziękuję", "pozdrawiam", "regards", "best", "sincerely",
+            "serdecznie", "bardzo", "zawsze", "nigdy", "teraz", "wtedy", "dziś", "jutro",
+            "często", "rzadko", "małe", "duże"
+    };
+
+    /** Pojedyncze słowo jest przyjmowane jako imię tylko z tej listy */
+    private static final Set<String> COMMON_FIRST_NAMES = Set.of(
+            "jan", "anna", "piotr", "maria", "tomasz", "katarzyna", "krzysztof", "magdalena",
+            "andrzej", "agnieszka", "paweł", "barbara", "marcin", "ewa", "michał", "joanna",
+            "wiktor", "albert", "adam", "jakub", "kamil", "łukasz", "mateusz");
+
+    /** Stanowisko doklejone jako trzecie słowo nazwy ("Jan Kowalski Dyrektor") */
+    private static final String[] TRAILING_TITLE_WORDS = {
+            "dyrektor", "kierownik", "manager", "director", "ceo", "cto", "cfo", "coo",
+            "sprzedaży", "bezpieczeństwa", "działu", "zakresu", "zarządzania"
+    };
+
+    private static final Set<String> COMPANY_EXCLUDES = Set.of(
+            "jestem", "jest", "mam", "będę", "chcę", "chciałbym", "proszę", "dzień",
+            "dobry", "witam", "witaj", "hej", "cześć", "dziękuję", "dziękuje", "dzięki",
+            "mail", "message", "wiadomość", "wiadomości", "treść", "content", "pozdrawiam",
+            "regards", "best", "sincerely", "z", "od", "do", "w", "na", "po", "przed",
+            "serdecznie", "bardzo", "zawsze", "tak", "nie", "oczywiście", "wiktor", "grzesiak",
+            "albert", "milewski", "dyrektor", "kierownik", "sprzedaży", "bezpieczeństwa");
+
+    private SignatureExtractor() {
+    }
+
+    /**
+     * Pola wyciągnięte ze stopki; null gdy nie znaleziono. company - z etykiety "Firma:" lub nazwy z formą prawną.
+     */
+    public record SignatureFields(String name, String phone, String position, String company) {
+        public static final SignatureFields EMPTY = new SignatureFields(null, null, null, null);
+    }
+
+    public static SignatureFields extract(String text) {
+        if (text == null || text.isEmpty()) {
+            return SignatureFields.EMPTY;
+        }
+        String body = withoutQuotedReply(text);
+        return new SignatureFields(findName(body), findPhone(body), findPosition(body), findCompany(body));
+    }
+
+    /**
+     * Treść do pierwszego nagłówka cytatu; gdy cytat zaczyna się na samym początku - cała treść
+     */
+    static String withoutQuotedReply(String text) {
+        Matcher matcher = QUOTE_HEADER.matcher(text);
+        if (matcher.find() && matcher.start() > 0) {
+            return text.substring(0, matcher.start());
+        }
+        return text;
+    }
+
+    static String findPhone(String text) {
+        // Mniej niż 9 cyfr w całej treści - nie ma czego szukać (większość krótkich odpowiedzi)
+        if (countDigits(text) < 9) {
+            return null;
+        }
+        Matcher matcher = PHONE.matcher(text);
+        while (matcher.find()) {
+            String phone = matcher.group().trim();
+            // Numer telefonu powinien mieć co najmniej 9 cyfr
+            int digits = countDigits(phone);
+            if (digits >= 9 && digits <= 15) {
+                return phone;
+            }
+        }
+        return null;
+    }
+
+    static String findPosition(String text) {
+        String lower = text.toLowerCase();
+
+        // indexOf po słowach w kolejności ważności - szybsze niż jedna alternacja regexa
+        for (String position : POSITIONS) {
+            int index = lower.indexOf(position);
+            if (index < 0) {
+                continue;
+            }
+            // Kontekst wokół stanowiska (np. "Senior Developer")
+            int start = Math.max(0, index - 20);
+            int end = Math.min(lower.length(), index + position.length() + 20);
+            for (String part : POSITION_CONTEXT_SPLIT.split(lower.substring(start, end))) {
+                if (part.contains(position)) {
+                    return capitalizeWords(part.trim());
+                }
+            }
+        }
+        return null;
+    }
+
+    static String findName(String text) {
+        // Stopka - ostatnie znaki treści
+        String tail = text.length() > NAME_TAIL_CHARS ? text.substring(text.length() - NAME_TAIL_CHARS) : text;
+
+        Matcher matcher = NAME.matcher(tail);
+        Matcher titleOrPhone = TITLE_OR_PHONE_AFTER_NAME.matcher(tail);
+        Matcher closing = CLOSING.matcher(tail);
+        int lastNonBlank = tail.stripTrailing().length();
+        while (matcher.find()) {
+            String name = matcher.group(1).trim();
+            String cleanName = cleanNameCandidate(name);
+            if (cleanName == null) {
+                continue;
+            }
+
+            // Kontekst - czy po nazwie jest stanowisko lub telefon (typowa stopka), albo nazwa
+            // jest na końcu tekstu lub przed "Pozdrawiam"
+            int nameEnd = matcher.end(1);
+            if (nameEnd >= lastNonBlank
+                    || titleOrPhone.region(nameEnd, tail.length()).find()
+                    || closing.region(nameEnd, tail.length()).find()) {
+                return cleanName;
+            }
+        }
+
+        // Alternatywnie w całej treści: nazwa + nowa linia + stanowisko/telefon
+        matcher = NAME_BEFORE_TITLE.matcher(text);
+        while (matcher.find()) {
+            String cleanName = cleanNameCandidate(matcher.group(1).trim());
+            if (cleanName != null) {
+                return cleanName;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Odrzuca słowa wykluczone, usuwa doklejone prefiksy i stanowisko na końcu; null gdy kandydat odpada
+     */
+    private static String cleanNameCandidate(String name) {
+        String[] tokens = WHITESPACE.split(name.toLowerCase());
+        for (String token : tokens) {
+            if (NAME_EXCLUDES.contains(token)) {
+                return null;
+            }
+        }
+
+        String cleanName = stripPrefixes(name);
+        if (cleanName.length() < 3 || NAME_EXCLUDES.contains(cleanName.toLowerCase())) {
+            return null;
+        }
+
+        String[] parts = WHITESPACE.split(cleanName);
+        if (parts.length < 2) {
+            // Pojedyncze słowo - tylko typowe imię
+            return COMMON_FIRST_NAMES.contains(cleanName.toLowerCase()) ? cleanName : null;
+        }
+        if (parts.length > 2) {
+            String lastWord = parts[parts.length - 1].toLowerCase();
+            for (String title : TRAILING_TITLE_WORDS) {
+                if (lastWord.contains(title)) {
+                    return String.join(" ", Arrays.copyOf(parts, parts.length - 1));
+                }
+            }
+        }
+        return cleanName;
+    }
+
+    private static String stripPrefixes(String name) {
+        String cleanName = name;
+        String nameLower = cleanName.toLowerCase();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (String prefix : NAME_PREFIXES) {
+                if (nameLower.startsWith(prefix + " ")) {
+                    cleanName = cleanName.substring(prefix.length()).trim();
+                    nameLower = cleanName.toLowerCase();
+                    changed = true;
+                } else if (nameLower.startsWith(prefix) && cleanName.length() > prefix.length()
+                        && Character.isUpperCase(cleanName.charAt(prefix.length()))) {
+                    // Prefiks bez spacji (np. "chętnieWiktor")
+                    cleanName = cleanName.substring(prefix.length()).trim();
+                    nameLower = cleanName.toLowerCase();
+                    changed = true;
+                }
+            }
+        }
+        return cleanName;
+    }
+
+    static String findCompany(String text) {
+        if (indexOfIgnoreCase(text, "firma") >= 0 || indexOfIgnoreCase(text, "company") >= 0) {
+            Matcher matcher = COMPANY_LABEL.matcher(text);
+            if (matcher.find()) {
+                String company = matcher.group(1).trim();
+                if (!company.isEmpty() && !company.equalsIgnoreCase("unknown")
+                        && !COMPANY_EXCLUDES.contains(company.toLowerCase())) {
+                    return company;
+                }
+            }
+        }
+
+        // Tylko nazwy z formą prawną ("Sp. z o.o.", "Ltd.") - bez niej to może być imię i nazwisko
+        if (!hasLegalFormMarker(text)) {
+            return null;
+        }
+        Matcher matcher = COMPANY_WITH_SUFFIX.matcher(text);
+        if (matcher.find()) {
+            String company = matcher.group(1).trim();
+            String companyLower = company.toLowerCase();
+            if (company.length() > 3 && !companyLower.contains("unknown") && !COMPANY_EXCLUDES.contains(companyLower)) {
+                for (String exclude : COMPANY_EXCLUDES) {
+                    if (companyLower.contains(" " + exclude + " ")) {
+                        return null;
+                    }
+                }
+                return company;
+            }
+        }
+        return null;
+    }
+
+    static String capitalizeWords(String str) {
+        if (str == null || str.isEmpty()) {
+            return str;
+        }
+        StringBuilder result = new StringBuilder(str.length());
+        for (String word : WHITESPACE.split(str)) {
+            if (!word.isEmpty()) {
+                if (!result.isEmpty()) {
+                    result.append(' ');
+                }
+                result.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1).toLowerCase());
+            }
+        }
+        return result.toString();
+    }
+
+    private static int countDigits(String text) {
+        int digits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isDigit(text.charAt(i))) {
+                digits++;
+            }
+        }
+        return digits;
+    }
+
+    private static int indexOfIgnoreCase(String text, String word) {
+        for (int i = 0, last = text.length() - word.length(); i <= last; i++) {
+            if (text.regionMatches(true, i, word, 0, word.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Szybkie sprawdzenie przed COMPANY_WITH_SUFFIX - bez żadnej formy prawnej regex nie ma szans trafić
+     */
+    private static boolean hasLegalFormMarker(String text) {
+        return text.contains("Ltd.") || text.contains("Inc.") || text.contains("GmbH") || text.contains("S.A.")
+                || indexOfIgnoreCase(text, "sp.") >= 0;
+    }
+}
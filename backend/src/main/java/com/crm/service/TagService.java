@@ -23,6 +23,7 @@ public class TagService {
 
     private final TagRepository tagRepository;
     private final ContactRepository contactRepository;
+    private final ContactTagWriter contactTagWriter;
     @Lazy
     private final WorkflowAutomationService workflowAutomationService;
 
@@ -143,56 +144,27 @@ public class TagService {
         return savedContact;
     }
 
+    /**
+     * Masowe dodanie tagu - jedno zapytanie zamiast findById + saveAndFlush na kontakt.
+     * Zdarzenia TAG_ADDED trafiają do kolejki workflow tylko dla kontaktów, którym tag faktycznie dodano.
+     *
+     * @return liczba kontaktów, którym dodano tag
+     */
     @Transactional
-    public void addTagToContacts(Set<Long> contactIds, Long tagId) {
+    public int addTagToContacts(Set<Long> contactIds, Long tagId) {
         Tag tag = getTagById(tagId);
-
-        for (Long contactId : contactIds) {
-            Contact contact = contactRepository.findById(contactId).orElse(null);
-            if (contact != null) {
-                if (contact.getTags() == null) {
-                    contact.setTags(new java.util.HashSet<>());
-                }
-                if (!contact.getTags().contains(tag)) {
-                    contact.getTags().add(tag);
-                    contactRepository.saveAndFlush(contact);
-                    
-                    // Trigger workflow automation po dodaniu tagu (bulk)
-                    try {
-                        workflowAutomationService.handleTagAdded(contact, tag);
-                    } catch (Exception e) {
-                        log.error("Error triggering TAG_ADDED workflow for contact {}: {}", 
-                                 contactId, e.getMessage());
-                    }
-                } else {
-                    log.debug("Tag {} already present on contact {}, skipping insert (bulk)", tagId, contactId);
-                }
-            }
-        }
+        return contactTagWriter.addTag(tag, contactIds).size();
     }
 
+    /**
+     * Masowe usunięcie tagu - zdarzenia TAG_REMOVED tylko dla kontaktów, które tag miały
+     *
+     * @return liczba kontaktów, z których zdjęto tag
+     */
     @Transactional
-    public void removeTagFromContacts(Set<Long> contactIds, Long tagId) {
+    public int removeTagFromContacts(Set<Long> contactIds, Long tagId) {
         Tag tag = getTagById(tagId);
-
-        for (Long contactId : contactIds) {
-            Contact contact = contactRepository.findById(contactId).orElse(null);
-            if (contact != null) {
-                boolean hadTag = contact.getTags().contains(tag);
-                contact.getTags().remove(tag);
-                contactRepository.save(contact);
-                
-                // Trigger workflow automation po usunięciu tagu (bulk)
-                if (hadTag) {
-                    try {
-                        workflowAutomationService.handleTagRemoved(contact, tag);
-                    } catch (Exception e) {
-                        log.error("Error triggering TAG_REMOVED workflow for contact {}: {}", 
-                                 contactId, e.getMessage());
-                    }
-                }
-            }
-        }
+        return contactTagWriter.removeTag(tag, contactIds).size();
     }
 
     public List<Contact> getContactsByTag(Long tagId) {
@@ -0,0 +1,176 @@
+package com.crm.service;
+
+import com.crm.model.Contact;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Silnik szablonów {{zmienna}}.
+ * Każdy tekst jest parsowany raz do listy segmentów (literał / zmienna) i trzymany w cache,
+ * a renderowanie to jedno przejście do StringBuildera o z góry wyliczonym rozmiarze.
+ */
+@Component
+public class TemplateRenderer implements MeterBinder {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    private final Cache<String, CompiledTemplate> compiledBySource = Caffeine.newBuilder()
+            .maximumSize(2000)
+            .recordStats()
+            .build();
+
+    /**
+     * Trafienia cache skompilowanych szablonów w Micrometer
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, compiledBySource, "compiledTemplates");
+    }
+
+    /**
+     * Zwraca skompilowany szablon dla tekstu (z cache)
+     */
+    public CompiledTemplate compile(String source) {
+        if (source == null) {
+            return CompiledTemplate.EMPTY;
+        }
+        return compiledBySource.get(source, CompiledTemplate::parse);
+    }
+
+    /**
+     * Renderuje tekst - nieznane zmienne są zamieniane na pusty string
+     */
+    public String render(String source, Map<String, String> variables) {
+        return compile(source).render(variables, false);
+    }
+
+    /**
+     * Zmienne kontaktu dostępne w szablonach: name, firstName, lastName, email, phone, company, position
+     */
+    public Map<String, String> contactVariables(Contact contact) {
+        Map<String, String> variables = new HashMap<>();
+        if (contact == null) {
+            return variables;
+        }
+
+        String name = contact.getName();
+        variables.put("name", name != null ? name : "");
+        String[] nameParts = name != null && !name.isBlank() ? name.trim().split("\\s+") : new String[0];
+        variables.put("firstName", nameParts.length > 0 ? nameParts[0] : "");
+        variables.put("lastName", nameParts.length > 1 ? nameParts[nameParts.length - 1] : "");
+        variables.put("email", contact.getEmail() != null ? contact.getEmail() : "");
+        variables.put("phone", contact.getPhone() != null ? contact.getPhone() : "");
+        variables.put("company", contact.getCompany() != null ? contact.getCompany() : "");
+        variables.put("position", contact.getPosition() != null ? contact.getPosition() : "");
+        return variables;
+    }
+
+    /**
+     * Szablon sparsowany do naprzemiennych literałów i nazw zmiennych:
+     * literals[0] names[0] literals[1] names[1] ... literals[n]
+     */
+    public static final class CompiledTemplate {
+
+        static final CompiledTemplate EMPTY = new CompiledTemplate(new String[]{""}, new String[0], 0);
+
+        private final String[] literals;
+        private final String[] names;
+        private final int literalLength;
+
+        private CompiledTemplate(String[] literals, String[] names, int literalLength) {
+            this.literals = literals;
+            this.names = names;
+            this.literalLength = literalLength;
+        }
+
+        static CompiledTemplate parse(String source) {
+            List<String> literals = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            int literalLength = 0;
+            int pos = 0;
+
+            while (true) {
+                int open = source.indexOf(OPEN, pos);
+                int close = open >= 0 ? source.indexOf(CLOSE, open + OPEN.length()) : -1;
+                // Tak jak poprzedni regex \{\{([^}]+)\}\} - nazwa niepusta i bez '}'
+                if (open < 0 || close < 0) {
+                    break;
+                }
+                String name = source.substring(open + OPEN.length(), close);
+                if (name.isEmpty() || name.indexOf('}') >= 0) {
+                    // Nie jest zmienną - przesuń się o jeden znak i szukaj dalej
+                    String literal = source.substring(pos, open + 1);
+                    appendLiteral(literals, names, literal);
+                    literalLength += literal.length();
+                    pos = open + 1;
+                    continue;
+                }
+                String literal = source.substring(pos, open);
+                appendLiteral(literals, names, literal);
+                literalLength += literal.length();
+                names.add(name);
+                pos = close + CLOSE.length();
+            }
+
+            String tail = source.substring(pos);
+            appendLiteral(literals, names, tail);
+            literalLength += tail.length();
+
+            return new CompiledTemplate(literals.toArray(new String[0]), names.toArray(new String[0]), literalLength);
+        }
+
+        /**
+         * Dokleja literał - jeśli poprzedni segment też był literałem, łączy je
+         */
+        private static void appendLiteral(List<String> literals, List<String> names, String literal) {
+            if (literals.size() > names.size()) {
+                int last = literals.size() - 1;
+                literals.set(last, literals.get(last) + literal);
+            } else {
+                literals.add(literal);
+            }
+        }
+
+        /**
+         * @param keepUnknown true - zmienne bez wartości zostają w tekście jako {{nazwa}},
+         *                    false - są zamieniane na pusty string
+         */
+        public String render(Map<String, String> variables, boolean keepUnknown) {
+            if (names.length == 0) {
+                return literals[0];
+            }
+
+            String[] values = new String[names.length];
+            int size = literalLength;
+            for (int i = 0; i < names.length; i++) {
+                String value = variables != null ? variables.get(names[i]) : null;
+                if (value == null) {
+                    value = keepUnknown ? OPEN + names[i] + CLOSE : "";
+                }
+                values[i] = value;
+                size += value.length();
+            }
+
+            StringBuilder sb = new StringBuilder(size);
+            for (int i = 0; i < names.length; i++) {
+                sb.append(literals[i]).append(values[i]);
+            }
+            sb.append(literals[names.length]);
+            return sb.toString();
+        }
+
+        public List<String> getVariableNames() {
+            return List.of(names);
+        }
+    }
+}
@@ -4,30 +4,67 @@ import com.crm.model.AdminUser;
 import com.crm.model.Contact;
 import com.crm.model.UserContact;
 import com.crm.repository.AdminUserRepository;
-import com.crm.repository.ContactRepository;
 import com.crm.repository.EmailAccountRepository;
 import com.crm.repository.UserContactRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
-public class UserContactService {
+public class UserContactService implements MeterBinder {
 
     private final UserContactRepository userContactRepository;
-    private final ContactRepository contactRepository;
     private final AdminUserRepository adminUserRepository;
     private final EmailAccountRepository emailAccountRepository;
 
+    /**
+     * Użytkownicy konta email - czytane przy każdym pobranym mailu, zmieniają się tylko przy
+     * dodaniu/usunięciu konta lub użytkownika (invalidateAccountUsers / evictUser)
+     */
+    private final Cache<Long, List<Long>> usersByAccount = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+
+    /**
+     * ID kontaktów dostępnych dla użytkownika. Zbiór jest uzupełniany po commicie przypisania
+     * (computeIfPresent czeka na trwające ładowanie tego samego klucza). Przypisania z innych instancji
+     * tu nie trafiają - expireAfterWrite ogranicza, jak długo aktywny użytkownik widzi stary zbiór
+     */
+    private final Cache<Long, Set<Long>> accessibleContacts = Caffeine.newBuilder()
+            .maximumSize(200)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+
+    /**
+     * Trafienia obu cache w Micrometer (cache.gets, cache.size...)
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, usersByAccount, "accountUsers");
+        CaffeineCacheMetrics.monitor(registry, accessibleContacts, "accessibleContacts");
+    }
+
     /**
      * Dodaje kontakt do listy kontaktów WSZYSTKICH użytkowników, którzy mają dostęp do konta email
      */
@@ -36,18 +73,18 @@ public class UserContactService {
         // Sprawdź czy status kwalifikuje się do dodania kontaktu
         if (shouldAddContact(emailStatus)) {
             // Znajdź WSZYSTKICH użytkowników, którzy mają dostęp do tego konta email
-            List<Long> userIds = findAllUsersByAccountId(emailAccountId);
+            List<Long> userIds = usersByAccount.get(emailAccountId, this::findAllUsersByAccountId);
 
             if (userIds.isEmpty()) {
                 log.warn("No users found for email account ID: {}", emailAccountId);
                 return;
             }
 
-            // Dodaj kontakt do każdego użytkownika
-            for (Long userId : userIds) {
-                addContactToUser(userId, contactId, "email_" + emailStatus);
+            // Dodaj kontakt wszystkim użytkownikom naraz
+            int added = linkContact(contactId, userIds, "email_" + emailStatus);
+            if (added > 0) {
+                log.info("Added contact {} to {} users based on email status: {}", contactId, added, emailStatus);
             }
-            log.info("Added contact {} to {} users based on email status: {}", contactId, userIds.size(), emailStatus);
         }
     }
 
@@ -56,28 +93,9 @@ public class UserContactService {
      */
     @Transactional
     public void addContactToUser(Long userId, Long contactId, String source) {
-        // Sprawdź czy kontakt już nie jest przypisany
-        if (userContactRepository.findByUserIdAndContactId(userId, contactId).isPresent()) {
-            log.debug("Contact {} already assigned to user {}", contactId, userId);
-            return;
-        }
-
-        AdminUser user = adminUserRepository.findById(userId).orElse(null);
-        Contact contact = contactRepository.findById(contactId).orElse(null);
-
-        if (user == null || contact == null) {
-            log.warn("Cannot add contact {} to user {} - user or contact not found", contactId, userId);
-            return;
+        if (linkContact(contactId, List.of(userId), source) == 0) {
+            log.debug("Contact {} not added to user {} - already assigned or user/contact not found", contactId, userId);
         }
-
-        UserContact userContact = new UserContact();
-        userContact.setId(new com.crm.model.UserContactId(userId, contactId));
-        userContact.setUser(user);
-        userContact.setContact(contact);
-        userContact.setSource(source);
-        userContact.setAddedAt(LocalDateTime.now());
-
-        userContactRepository.save(userContact);
     }
 
     /**
@@ -86,6 +104,10 @@ public class UserContactService {
     @Transactional
     public void removeContactFromUser(Long userId, Long contactId) {
         userContactRepository.deleteByUserIdAndContactId(userId, contactId);
+        afterCommit(() -> accessibleContacts.asMap().computeIfPresent(userId, (id, ids) -> {
+            ids.remove(contactId);
+            return ids;
+        }));
         log.info("Removed contact {} from user {}", contactId, userId);
     }
 
@@ -93,16 +115,14 @@ public class UserContactService {
      * Sprawdza czy użytkownik ma dostęp do kontaktu
      */
     public boolean hasUserAccessToContact(Long userId, Long contactId) {
-        return userContactRepository.findByUserIdAndContactId(userId, contactId).isPresent();
+        return accessibleContactIdsOf(userId).contains(contactId);
     }
 
     /**
      * Pobiera wszystkie ID kontaktów dostępnych dla użytkownika
      */
     public List<Long> getAccessibleContactIds(Long userId) {
-        return userContactRepository.findByUserId(userId).stream()
-                .map(uc -> uc.getContact().getId())
-                .collect(Collectors.toList());
+        return new ArrayList<>(accessibleContactIdsOf(userId));
     }
 
     /**
@@ -115,10 +135,9 @@ public class UserContactService {
 
         // Znajdź wszystkie konta email z tej samej domeny
         List<AdminUser> domainUsers = adminUserRepository.findUsersWithEmailDomain(emailDomain);
+        if (domainUsers.isEmpty()) return;
 
-        for (AdminUser user : domainUsers) {
-            addContactToUser(user.getId(), contact.getId(), "auto_domain");
-        }
+        linkContact(contact.getId(), domainUsers.stream().map(AdminUser::getId).toList(), "auto_domain");
     }
 
     /**
@@ -129,6 +148,58 @@ public class UserContactService {
         return userContact.map(UserContact::getSource).orElse(null);
     }
 
+    /**
+     * Konto email zmieniło właściciela, zostało dodane lub usunięte. Wpis znika po commicie - wcześniej
+     * równoległe ładowanie mogłoby wczytać do cache stan sprzed zmiany
+     */
+    public void invalidateAccountUsers(Long emailAccountId) {
+        afterCommit(() -> usersByAccount.invalidate(emailAccountId));
+    }
+
+    /**
+     * Użytkownik został usunięty - znika z list użytkowników kont i traci zbiór dostępnych kontaktów
+     */
+    public void evictUser(Long userId) {
+        usersByAccount.invalidateAll();
+        accessibleContacts.invalidate(userId);
+    }
+
+    /**
+     * Przypisuje kontakt użytkownikom jednym zapytaniem; po commicie dopisuje go do zbiorów w cache
+     */
+    private int linkContact(Long contactId, Collection<Long> userIds, String source) {
+        int added = userContactRepository.linkContactToUsers(contactId, userIds, source);
+        if (added > 0) {
+            afterCommit(() -> userIds.forEach(userId ->
+                    accessibleContacts.asMap().computeIfPresent(userId, (id, ids) -> {
+                        ids.add(contactId);
+                        return ids;
+                    })));
+        }
+        return added;
+    }
+
+    private Set<Long> accessibleContactIdsOf(Long userId) {
+        return accessibleContacts.get(userId, id -> {
+            Set<Long> ids = ConcurrentHashMap.newKeySet();
+            ids.addAll(userContactRepository.findContactIdsByUserId(id));
+            return ids;
+        });
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
     private List<Long> findAllUsersByAccountId(Long emailAccountId) {
         // Na razie zakładamy, że konto email może być przypisane tylko do jednego użytkownika
         // W przyszłości można zmienić na relację wiele-do-wielu
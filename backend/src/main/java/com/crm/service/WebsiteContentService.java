@@ -0,0 +1,234 @@
+package com.crm.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Treść stron WWW klientów do promptów AI.
+ *
+ * Cache po znormalizowanym URL trzyma wyciągnięty tekst (nie HTML) - ponowne generowanie sekwencji
+ * dla tej samej firmy nie pobiera strony. Równoczesne żądania tego samego URL czekają na jedno
+ * pobranie (AsyncCache), a liczba równoległych połączeń do jednego hosta jest ograniczona.
+ * Nieudane pobrania są pamiętane krótko, żeby nie odpytywać w kółko niedziałającej strony.
+ */
+@Service
+@Slf4j
+public class WebsiteContentService implements MeterBinder {
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36";
+    private static final String CONTENT_SELECTOR = "title, h1, h2, h3, p, li, td";
+
+    private final AsyncCache<String, ScrapedPage> pages;
+    private final ThreadPoolExecutor pool;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    @Value("${scraper.timeout-ms:10000}")
+    private int timeoutMs;
+
+    @Value("${scraper.max-body-bytes:1048576}")
+    private int maxBodyBytes;
+
+    @Value("${scraper.max-chars:2000}")
+    private int maxChars;
+
+    @Value("${scraper.per-host-concurrency:2}")
+    private int perHostConcurrency;
+
+    public WebsiteContentService(@Value("${scraper.cache.ttl-minutes:360}") long ttlMinutes,
+                                 @Value("${scraper.cache.failure-ttl-seconds:60}") long failureTtlSeconds,
+                                 @Value("${scraper.threads:4}") int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(100),
+                r -> {
+                    Thread t = new Thread(r, "WebsiteScraper-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.pool.allowCoreThreadTimeOut(true);
+
+        long successTtl = TimeUnit.MINUTES.toNanos(ttlMinutes);
+        long failureTtl = TimeUnit.SECONDS.toNanos(failureTtlSeconds);
+        this.pages = Caffeine.newBuilder()
+                .maximumSize(2_000)
+                .expireAfter(new Expiry<String, ScrapedPage>() {
+                    @Override
+                    public long expireAfterCreate(String url, ScrapedPage page, long currentTime) {
+                        return page.ok() ? successTtl : failureTtl;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String url, ScrapedPage page, long currentTime, long currentDuration) {
+                        return expireAfterCreate(url, page, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String url, ScrapedPage page, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .executor(pool)
+                .recordStats()
+                .buildAsync();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Cache stron i pula scrapera w Micrometer
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, pages.synchronous(), "websitePages");
+        new ExecutorServiceMetrics(pool, "website-scraper", Tags.empty()).bindTo(registry);
+    }
+
+    /**
+     * Rozpoczyna (lub dołącza do trwającego) pobranie strony - pozwala robić w tym czasie inne rzeczy
+     */
+    public CompletableFuture<String> fetchAsync(String url) {
+        String normalized = normalize(url);
+        try {
+            return pages.get(normalized, (key, executor) -> CompletableFuture.supplyAsync(() -> scrape(key), executor))
+                    .thenApply(ScrapedPage::text);
+        } catch (RejectedExecutionException e) {
+            log.warn("Scraper queue full, skipping {}", normalized);
+            return CompletableFuture.completedFuture(failureText(normalized));
+        }
+    }
+
+    /**
+     * Tekst strony z rozpoczętego pobrania, przy błędzie komunikat do promptu
+     */
+    public String await(CompletableFuture<String> future, String url) {
+        try {
+            // Czekanie na kolejkę per host + samo pobranie
+            return future.get(2L * timeoutMs + 2_000, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Timed out waiting for website content: {}", url);
+        } catch (ExecutionException e) {
+            log.warn("Failed to scrape website {}: {}", url, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return failureText(url);
+    }
+
+    private ScrapedPage scrape(String url) {
+        Semaphore permits = hostPermits.computeIfAbsent(hostOf(url), host -> new Semaphore(perHostConcurrency));
+        boolean acquired = false;
+        try {
+            acquired = permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+            if (!acquired) {
+                log.warn("Too many concurrent requests to host of {}, giving up", url);
+                return new ScrapedPage(failureText(url), false);
+            }
+
+            log.info("Scraping website: {}", url);
+            Document doc = Jsoup.connect(url)
+                    .userAgent(USER_AGENT)
+                    .timeout(timeoutMs)
+                    .maxBodySize(maxBodyBytes)
+                    .get();
+            String text = extractText(doc, maxChars);
+            log.info("Successfully scraped {} characters from website", text.length());
+            return new ScrapedPage(text, true);
+        } catch (IOException e) {
+            log.warn("Failed to scrape website: {} - {}", url, e.getMessage());
+            return new ScrapedPage(failureText(url), false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ScrapedPage(failureText(url), false);
+        } finally {
+            if (acquired) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Tekst z głównych tagów, ucięty do maxChars - kończy przechodzenie dokumentu po osiągnięciu limitu
+     */
+    static String extractText(Document doc, int maxChars) {
+        doc.select("script, style, nav, footer, header, aside").remove();
+
+        StringBuilder text = new StringBuilder(Math.min(maxChars, 4096));
+        for (Element element : doc.select(CONTENT_SELECTOR)) {
+            String part = element.text();
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (!text.isEmpty()) {
+                text.append(' ');
+            }
+            text.append(part);
+            if (text.length() >= maxChars) {
+                text.setLength(maxChars);
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    private static String failureText(String url) {
+        return "Nie udało się pobrać treści ze strony: " + url;
+    }
+
+    /**
+     * Klucz cache: schemat (domyślnie https), host małymi literami, bez fragmentu i końcowego "/"
+     */
+    static String normalize(String url) {
+        String value = url.trim();
+        if (!value.startsWith("http://") && !value.startsWith("https://")) {
+            value = "https://" + value;
+        }
+        try {
+            URI uri = new URI(value);
+            String path = uri.getRawPath() == null || uri.getRawPath().equals("/") ? "" : uri.getRawPath();
+            String query = uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "";
+            String host = uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ROOT) : uri.getRawAuthority();
+            String port = uri.getPort() >= 0 ? ":" + uri.getPort() : "";
+            return uri.getScheme().toLowerCase(Locale.ROOT) + "://" + host + port + path + query;
+        } catch (URISyntaxException e) {
+            return value;
+        }
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = new URI(url).getHost();
+            return host != null ? host : url;
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+
+    private record ScrapedPage(String text, boolean ok) {
+    }
+}
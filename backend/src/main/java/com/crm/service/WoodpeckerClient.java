@@ -0,0 +1,268 @@
+package com.crm.service;
+
+import com.crm.config.WoodpeckerConfig;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Nieblokujący klient Woodpecker REST API.
+ *
+ * Listy kampanii i skrzynek są pobierane warunkowo (If-None-Match) - 304 oznacza brak zmian.
+ * Prospecty są strumieniowane strona po stronie (kolejna strona dopiero po przetworzeniu poprzedniej).
+ * 429, błędy 5xx, błędy połączenia i timeouty są ponawiane z wykładniczym opóźnieniem.
+ */
+@Component
+@Slf4j
+public class WoodpeckerClient {
+
+    static final int PAGE_SIZE = 500;
+
+    private static final int MAX_RETRIES = 3;
+    private static final Duration MAX_RETRY_BACKOFF = Duration.ofSeconds(30);
+
+    private static final ParameterizedTypeReference<Map<String, Object>> MAP_TYPE = new ParameterizedTypeReference<>() {
+    };
+
+    private final WebClient webClient;
+    private final Duration retryBackoff;
+
+    @Autowired
+    public WoodpeckerClient(WoodpeckerConfig config) {
+        this(config.getBaseUrl(), config.getKey(), Duration.ofSeconds(30), Duration.ofSeconds(2));
+    }
+
+    WoodpeckerClient(String baseUrl, String apiKey, Duration responseTimeout, Duration retryBackoff) {
+        this.retryBackoff = retryBackoff;
+        HttpClient httpClient = HttpClient.create()
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
+                .responseTimeout(responseTimeout);
+
+        this.webClient = WebClient.builder()
+                .baseUrl(baseUrl != null ? baseUrl : "")
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .defaultHeader("x-api-key", apiKey != null ? apiKey : "")
+                .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                // Strona prospectów (500 obiektów) przekracza domyślny limit 256 KB
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+                .build();
+    }
+
+    // ==================== READ ====================
+
+    public Mono<Map<String, Object>> getMe() {
+        return webClient.get()
+                .uri("/v1/me")
+                .retrieve()
+                .bodyToMono(MAP_TYPE)
+                .retryWhen(retryPolicy());
+    }
+
+    /**
+     * Aktywne kampanie (RUNNING, PAUSED); etag z poprzedniej odpowiedzi albo null
+     */
+    public Mono<Conditional> getCampaigns(String etag) {
+        return getConditional("/v1/campaign_list?status=RUNNING,PAUSED", etag, "campaigns", "campaign_list");
+    }
+
+    public Mono<Conditional> getMailboxes(String etag) {
+        return getConditional("/v1/mailboxes", etag, "mailboxes");
+    }
+
+    /**
+     * Szczegóły kampanii - v2, a gdy endpoint nie zna kampanii, lista v1 filtrowana po id
+     */
+    public Mono<Map<String, Object>> getCampaign(Long campaignId) {
+        Mono<Map<String, Object>> v1 = webClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/v1/campaign_list").queryParam("id", campaignId).build())
+                .retrieve()
+                .bodyToMono(Object.class)
+                .retryWhen(retryPolicy())
+                .flatMap(body -> Mono.justOrEmpty(firstObject(extractList(body, "campaigns", "campaign_list"))));
+
+        return webClient.get()
+                .uri("/v2/campaigns/{id}", campaignId)
+                .retrieve()
+                .bodyToMono(Object.class)
+                .retryWhen(retryPolicy())
+                .flatMap(body -> Mono.justOrEmpty(unwrapObject(body, "campaign", "data")))
+                .onErrorResume(WebClientResponseException.class, e -> {
+                    int status = e.getStatusCode().value();
+                    if (status == 404 || status == 400) {
+                        log.debug("Campaign {} not found via v2 ({}), trying v1", campaignId, status);
+                        return v1;
+                    }
+                    return Mono.error(e);
+                });
+    }
+
+    /**
+     * Prospecty strona po stronie; campaignId == null - wszystkie prospecty konta.
+     * updatedSince (format Woodpecker, UTC, np. 2024-01-31T10:00:00) ogranicza wynik do zmienionych od tej chwili.
+     */
+    public Flux<Map<String, Object>> streamProspects(Long campaignId, String updatedSince) {
+        return getProspectPage(campaignId, updatedSince, 1)
+                .expand(page -> page.items().size() < PAGE_SIZE
+                        ? Mono.empty()
+                        : getProspectPage(campaignId, updatedSince, page.number() + 1))
+                .concatMapIterable(ProspectPage::items, 1);
+    }
+
+    private Mono<ProspectPage> getProspectPage(Long campaignId, String updatedSince, int page) {
+        return webClient.get()
+                .uri(uriBuilder -> {
+                    uriBuilder.path("/v1/prospects")
+                            .queryParam("page", page)
+                            .queryParam("per_page", PAGE_SIZE);
+                    if (campaignId != null) {
+                        uriBuilder.queryParam("campaigns_id", campaignId);
+                    }
+                    if (updatedSince != null) {
+                        uriBuilder.queryParam("updated", ">" + updatedSince);
+                    }
+                    return uriBuilder.build();
+                })
+                .retrieve()
+                .bodyToMono(Object.class)
+                .retryWhen(retryPolicy())
+                .map(body -> new ProspectPage(page, extractList(body, "prospects", "data")))
+                // 204 / pusta odpowiedź - koniec stron
+                .defaultIfEmpty(new ProspectPage(page, List.of()));
+    }
+
+    // ==================== WRITE ====================
+
+    public Mono<Map<String, Object>> addProspectsToCampaign(Long campaignId, List<Map<String, Object>> prospects) {
+        return webClient.post()
+                .uri("/v1/campaigns/{id}/prospects", campaignId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("prospects", prospects))
+                .retrieve()
+                .bodyToMono(MAP_TYPE);
+    }
+
+    public Mono<Map<String, Object>> createCampaign(Map<String, Object> campaignData) {
+        return webClient.post()
+                .uri("/v1/campaigns")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(campaignData)
+                .retrieve()
+                .bodyToMono(MAP_TYPE);
+    }
+
+    // ==================== HELPERS ====================
+
+    private Mono<Conditional> getConditional(String uri, String etag, String... listKeys) {
+        return webClient.get()
+                .uri(uri)
+                .headers(headers -> {
+                    if (etag != null) {
+                        headers.setIfNoneMatch(etag);
+                    }
+                })
+                .exchangeToMono(response -> {
+                    if (response.statusCode().value() == HttpStatus.NOT_MODIFIED.value()) {
+                        return response.releaseBody().thenReturn(Conditional.NOT_MODIFIED);
+                    }
+                    if (response.statusCode().isError()) {
+                        return response.createException().flatMap(Mono::error);
+                    }
+                    String newEtag = response.headers().asHttpHeaders().getETag();
+                    return response.bodyToMono(Object.class)
+                            .map(body -> new Conditional(false, extractList(body, listKeys), newEtag))
+                            .defaultIfEmpty(new Conditional(false, List.of(), newEtag));
+                })
+                .retryWhen(retryPolicy());
+    }
+
+    /**
+     * Limit zapytań (429), chwilowe błędy serwera i timeouty - ponawiane; pozostałe błędy od razu
+     */
+    private Retry retryPolicy() {
+        return Retry.backoff(MAX_RETRIES, retryBackoff)
+                .maxBackoff(MAX_RETRY_BACKOFF)
+                .filter(WoodpeckerClient::isRetryable)
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        if (error instanceof WebClientResponseException e) {
+            return e.getStatusCode().value() == 429 || e.getStatusCode().is5xxServerError();
+        }
+        // Timeout odpowiedzi Netty (ReadTimeoutException) przychodzi opakowany w WebClientRequestException
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof WebClientRequestException || cause instanceof ReadTimeoutException
+                    || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * API zwraca listę wprost albo obiekt z listą pod jednym z kluczy
+     */
+    @SuppressWarnings("unchecked")
+    static List<Map<String, Object>> extractList(Object body, String... keys) {
+        if (body instanceof List<?> list) {
+            return (List<Map<String, Object>>) list;
+        }
+        if (body instanceof Map<?, ?> map) {
+            for (String key : keys) {
+                if (map.get(key) instanceof List<?> list) {
+                    return (List<Map<String, Object>>) list;
+                }
+            }
+        }
+        return List.of();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> unwrapObject(Object body, String... keys) {
+        if (body instanceof List<?> list) {
+            return firstObject((List<Map<String, Object>>) list);
+        }
+        if (body instanceof Map<?, ?> map) {
+            for (String key : keys) {
+                if (map.get(key) instanceof Map<?, ?> inner) {
+                    return (Map<String, Object>) inner;
+                }
+            }
+            return (Map<String, Object>) map;
+        }
+        return null;
+    }
+
+    private static Map<String, Object> firstObject(List<Map<String, Object>> list) {
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    private record ProspectPage(int number, List<Map<String, Object>> items) {
+    }
+
+    /**
+     * Wynik zapytania warunkowego - przy notModified items jest puste, a etag nieznany
+     */
+    public record Conditional(boolean notModified, List<Map<String, Object>> items, String etag) {
+        static final Conditional NOT_MODIFIED = new Conditional(true, List.of(), null);
+    }
+}
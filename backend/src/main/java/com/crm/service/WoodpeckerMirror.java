@@ -0,0 +1,224 @@
+package com.crm.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Lokalna kopia danych Woodpecker (tabele woodpecker_*, V39).
+ * Zapis partiami INSERT ... ON CONFLICT DO UPDATE; odczyt zwraca payload w formacie API.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class WoodpeckerMirror {
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private static final String UPSERT_CAMPAIGN =
+            "INSERT INTO woodpecker_campaigns (id, name, status, payload, synced_at) VALUES (?, ?, ?, CAST(? AS jsonb), ?) " +
+            "ON CONFLICT (id) DO UPDATE SET name = EXCLUDED.name, status = EXCLUDED.status, " +
+            "payload = EXCLUDED.payload, synced_at = EXCLUDED.synced_at";
+
+    private static final String UPSERT_PROSPECT =
+            "INSERT INTO woodpecker_prospects (id, email, status, payload, synced_at) VALUES (?, ?, ?, CAST(? AS jsonb), ?) " +
+            "ON CONFLICT (id) DO UPDATE SET email = EXCLUDED.email, status = EXCLUDED.status, " +
+            "payload = EXCLUDED.payload, synced_at = EXCLUDED.synced_at";
+
+    private static final String LINK_PROSPECT =
+            "INSERT INTO woodpecker_campaign_prospects (campaign_id, prospect_id) VALUES (?, ?) ON CONFLICT DO NOTHING";
+
+    private static final String UPSERT_MAILBOX =
+            "INSERT INTO woodpecker_mailboxes (id, email, payload, synced_at) VALUES (?, ?, CAST(? AS jsonb), ?) " +
+            "ON CONFLICT (id) DO UPDATE SET email = EXCLUDED.email, payload = EXCLUDED.payload, synced_at = EXCLUDED.synced_at";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    // ==================== WRITE ====================
+
+    /**
+     * Zastępuje listę kampanii - kampanie, których nie ma w odpowiedzi (zakończone), są usuwane
+     */
+    @Transactional
+    public int replaceCampaigns(List<Map<String, Object>> campaigns) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Map<String, Object>> valid = withIds(campaigns);
+        jdbcTemplate.batchUpdate(UPSERT_CAMPAIGN, valid, BATCH_SIZE, (ps, campaign) -> {
+            ps.setLong(1, id(campaign));
+            ps.setString(2, text(campaign, "name"));
+            ps.setString(3, text(campaign, "status"));
+            ps.setString(4, json(campaign));
+            ps.setTimestamp(5, now);
+        });
+        deleteMissing("woodpecker_campaigns", "id", valid);
+        deleteMissing("woodpecker_campaign_prospects", "campaign_id", valid);
+        return valid.size();
+    }
+
+    @Transactional
+    public int replaceMailboxes(List<Map<String, Object>> mailboxes) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Map<String, Object>> valid = withIds(mailboxes);
+        jdbcTemplate.batchUpdate(UPSERT_MAILBOX, valid, BATCH_SIZE, (ps, mailbox) -> {
+            ps.setLong(1, id(mailbox));
+            ps.setString(2, text(mailbox, "email"));
+            ps.setString(3, json(mailbox));
+            ps.setTimestamp(4, now);
+        });
+        deleteMissing("woodpecker_mailboxes", "id", valid);
+        return valid.size();
+    }
+
+    /**
+     * Zapisuje partię prospectów; campaignId != null - dodatkowo przypisuje je do kampanii
+     */
+    @Transactional
+    public int upsertProspects(Long campaignId, List<Map<String, Object>> prospects) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Map<String, Object>> valid = withIds(prospects);
+        // Stała kolejność blokowania wierszy przy równoległych partiach z kilku kampanii
+        valid.sort(Comparator.comparingLong(WoodpeckerMirror::id));
+        jdbcTemplate.batchUpdate(UPSERT_PROSPECT, valid, BATCH_SIZE, (ps, prospect) -> {
+            ps.setLong(1, id(prospect));
+            ps.setString(2, text(prospect, "email"));
+            ps.setString(3, text(prospect, "status"));
+            ps.setString(4, json(prospect));
+            ps.setTimestamp(5, now);
+        });
+        if (campaignId != null) {
+            jdbcTemplate.batchUpdate(LINK_PROSPECT, valid, BATCH_SIZE, (ps, prospect) -> {
+                ps.setLong(1, campaignId);
+                ps.setLong(2, id(prospect));
+            });
+        }
+        return valid.size();
+    }
+
+    // ==================== READ ====================
+
+    public List<Map<String, Object>> findCampaigns() {
+        return jdbcTemplate.query("SELECT payload FROM woodpecker_campaigns ORDER BY id DESC",
+                (rs, rowNum) -> parse(rs.getString(1)));
+    }
+
+    public Optional<Map<String, Object>> findCampaign(Long id) {
+        return jdbcTemplate.query("SELECT payload FROM woodpecker_campaigns WHERE id = ?",
+                (rs, rowNum) -> parse(rs.getString(1)), id).stream().findFirst();
+    }
+
+    public List<Map<String, Object>> findCampaignProspects(Long campaignId) {
+        return jdbcTemplate.query("SELECT p.payload FROM woodpecker_prospects p " +
+                        "JOIN woodpecker_campaign_prospects cp ON cp.prospect_id = p.id " +
+                        "WHERE cp.campaign_id = ? ORDER BY p.id",
+                (rs, rowNum) -> parse(rs.getString(1)), campaignId);
+    }
+
+    public List<Map<String, Object>> findProspects() {
+        return jdbcTemplate.query("SELECT payload FROM woodpecker_prospects ORDER BY id",
+                (rs, rowNum) -> parse(rs.getString(1)));
+    }
+
+    public List<Map<String, Object>> findMailboxes() {
+        return jdbcTemplate.query("SELECT payload FROM woodpecker_mailboxes ORDER BY id",
+                (rs, rowNum) -> parse(rs.getString(1)));
+    }
+
+    // ==================== SYNC STATE ====================
+
+    public Optional<SyncState> findSyncState(String resource) {
+        return jdbcTemplate.query("SELECT etag, synced_from, synced_at FROM woodpecker_sync_state WHERE resource = ?",
+                (rs, rowNum) -> new SyncState(rs.getString(1),
+                        toLocalDateTime(rs.getTimestamp(2)), toLocalDateTime(rs.getTimestamp(3))),
+                resource).stream().findFirst();
+    }
+
+    /**
+     * Zapisuje stan po udanej synchronizacji zasobu; syncedFrom - początek tej synchronizacji (UTC)
+     */
+    public void saveSyncState(String resource, String etag, LocalDateTime syncedFrom) {
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "INSERT INTO woodpecker_sync_state (resource, etag, synced_from, synced_at) " +
+                    "VALUES (?, ?, ?, CURRENT_TIMESTAMP) ON CONFLICT (resource) DO UPDATE SET " +
+                    "etag = COALESCE(EXCLUDED.etag, woodpecker_sync_state.etag), " +
+                    "synced_from = EXCLUDED.synced_from, synced_at = CURRENT_TIMESTAMP");
+            ps.setString(1, resource);
+            ps.setString(2, etag);
+            ps.setTimestamp(3, syncedFrom != null ? Timestamp.valueOf(syncedFrom) : null);
+            return ps;
+        });
+    }
+
+    // ==================== HELPERS ====================
+
+    private void deleteMissing(String table, String idColumn, List<Map<String, Object>> kept) {
+        Long[] ids = kept.stream().map(WoodpeckerMirror::id).toArray(Long[]::new);
+        int deleted = jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement("DELETE FROM " + table + " WHERE " + idColumn + " <> ALL (?)");
+            ps.setArray(1, con.createArrayOf("bigint", ids));
+            return ps;
+        });
+        if (deleted > 0) {
+            log.debug("Removed {} stale rows from {}", deleted, table);
+        }
+    }
+
+    /**
+     * Obiekty bez liczbowego id nie mają klucza w kopii - pomijamy je
+     */
+    private static List<Map<String, Object>> withIds(List<Map<String, Object>> items) {
+        List<Map<String, Object>> valid = new ArrayList<>(items.size());
+        for (Map<String, Object> item : items) {
+            if (item != null && item.get("id") instanceof Number) {
+                valid.add(item);
+            }
+        }
+        return valid;
+    }
+
+    private static long id(Map<String, Object> item) {
+        return ((Number) item.get("id")).longValue();
+    }
+
+    private static String text(Map<String, Object> item, String key) {
+        Object value = item.get(key);
+        return value != null ? value.toString() : null;
+    }
+
+    private String json(Map<String, Object> item) {
+        try {
+            return objectMapper.writeValueAsString(item);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize Woodpecker object " + item.get("id"), e);
+        }
+    }
+
+    private Map<String, Object> parse(String json) {
+        try {
+            return objectMapper.readValue(json, MAP_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Corrupted Woodpecker mirror payload", e);
+        }
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+
+    public record SyncState(String etag, LocalDateTime syncedFrom, LocalDateTime syncedAt) {
+    }
+}
@@ -0,0 +1,213 @@
+package com.crm.service;
+
+import com.crm.config.WoodpeckerConfig;
+import com.crm.service.WoodpeckerMirror.SyncState;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Okresowa synchronizacja Woodpecker -> lokalna kopia (WoodpeckerMirror).
+ *
+ * Kampanie i skrzynki pobierane warunkowo po ETag, prospecty przyrostowo - tylko zmienione od początku
+ * poprzedniej udanej synchronizacji. Strony prospectów są zapisywane partiami w miarę napływania,
+ * kampanie synchronizowane równolegle z ograniczeniem woodpecker.sync.concurrency (limit zapytań API).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class WoodpeckerSyncService {
+
+    static final String CAMPAIGNS = "campaigns";
+    static final String MAILBOXES = "mailboxes";
+    static final String PROSPECTS = "prospects";
+
+    private static final DateTimeFormatter SINCE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    /**
+     * Zakładka na różnice zegarów - zmiany z ostatnich minut przed poprzednią synchronizacją pobieramy ponownie
+     */
+    private static final Duration SINCE_OVERLAP = Duration.ofMinutes(5);
+
+    private final WoodpeckerConfig woodpeckerConfig;
+    private final WoodpeckerClient woodpeckerClient;
+    private final WoodpeckerMirror woodpeckerMirror;
+
+    @Value("${woodpecker.sync.concurrency:2}")
+    private int concurrency;
+
+    @Value("${woodpecker.sync.batch-size:500}")
+    private int batchSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile SyncRun lastRun;
+
+    @Scheduled(fixedDelayString = "${woodpecker.sync.interval-ms:600000}",
+            initialDelayString = "${woodpecker.sync.initial-delay-ms:30000}")
+    public void scheduledSync() {
+        if (!isConfigured()) {
+            return;
+        }
+        sync().block();
+    }
+
+    /**
+     * Uruchamia synchronizację w tle (POST /api/woodpecker/sync); gdy już trwa - zwraca jej stan
+     */
+    public Map<String, Object> startSync() {
+        if (!isConfigured()) {
+            return Map.of("status", "disabled");
+        }
+        if (running.get()) {
+            return getStatus();
+        }
+        sync().subscribe();
+        return Map.of("status", "started");
+    }
+
+    public Map<String, Object> getStatus() {
+        SyncRun run = lastRun;
+        return run != null ? run.toMap() : Map.of("status", "idle");
+    }
+
+    Mono<Map<String, Object>> sync() {
+        return Mono.defer(() -> {
+            if (!running.compareAndSet(false, true)) {
+                return Mono.just(getStatus());
+            }
+            SyncRun run = new SyncRun();
+            lastRun = run;
+            log.info("Starting Woodpecker sync");
+
+            return syncCampaigns(run)
+                    .then(syncMailboxes(run))
+                    .then(syncProspects(PROSPECTS, null, run))
+                    .then(blocking(woodpeckerMirror::findCampaigns))
+                    .flatMapMany(Flux::fromIterable)
+                    .filter(campaign -> campaign.get("id") instanceof Number)
+                    .flatMap(campaign -> {
+                        Long campaignId = ((Number) campaign.get("id")).longValue();
+                        return syncProspects("campaign:" + campaignId + ":prospects", campaignId, run);
+                    }, Math.max(1, concurrency))
+                    .then(Mono.fromRunnable(() -> {
+                        run.status = "completed";
+                        log.info("Woodpecker sync completed in {}s: campaigns {}, mailboxes {}, prospects {}",
+                                run.elapsed().toSeconds(), run.campaigns, run.mailboxes, run.prospects.get());
+                    }))
+                    .onErrorResume(e -> {
+                        run.status = "failed";
+                        run.error = e.getMessage();
+                        log.error("Woodpecker sync failed: {}", e.getMessage());
+                        return Mono.empty();
+                    })
+                    .doOnTerminate(() -> run.finishedAt = LocalDateTime.now())
+                    .doFinally(signal -> running.set(false))
+                    .then(Mono.fromSupplier(run::toMap));
+        });
+    }
+
+    private Mono<Void> syncCampaigns(SyncRun run) {
+        return blocking(() -> woodpeckerMirror.findSyncState(CAMPAIGNS))
+                .flatMap(state -> woodpeckerClient.getCampaigns(state.map(SyncState::etag).orElse(null)))
+                .flatMap(result -> result.notModified() ? Mono.<Integer>empty() : blocking(() -> {
+                    run.campaigns = woodpeckerMirror.replaceCampaigns(result.items());
+                    woodpeckerMirror.saveSyncState(CAMPAIGNS, result.etag(), run.syncedFrom);
+                    return run.campaigns;
+                }))
+                .then();
+    }
+
+    private Mono<Void> syncMailboxes(SyncRun run) {
+        return blocking(() -> woodpeckerMirror.findSyncState(MAILBOXES))
+                .flatMap(state -> woodpeckerClient.getMailboxes(state.map(SyncState::etag).orElse(null)))
+                .flatMap(result -> result.notModified() ? Mono.<Integer>empty() : blocking(() -> {
+                    run.mailboxes = woodpeckerMirror.replaceMailboxes(result.items());
+                    woodpeckerMirror.saveSyncState(MAILBOXES, result.etag(), run.syncedFrom);
+                    return run.mailboxes;
+                }))
+                .then();
+    }
+
+    /**
+     * Strumieniuje zmienione prospecty i zapisuje je partiami; stan zasobu zapisywany dopiero po ostatniej stronie
+     */
+    private Mono<Void> syncProspects(String resource, Long campaignId, SyncRun run) {
+        return blocking(() -> woodpeckerMirror.findSyncState(resource))
+                .flatMap(state -> woodpeckerClient.streamProspects(campaignId, since(state))
+                        .buffer(Math.max(1, batchSize))
+                        .concatMap(batch -> blocking(() -> woodpeckerMirror.upsertProspects(campaignId, batch)))
+                        .doOnNext(run.prospects::addAndGet)
+                        .then(blocking(() -> {
+                            woodpeckerMirror.saveSyncState(resource, null, run.syncedFrom);
+                            return resource;
+                        })))
+                .then();
+    }
+
+    private static String since(Optional<SyncState> state) {
+        return state.map(SyncState::syncedFrom)
+                .map(from -> from.minus(SINCE_OVERLAP).format(SINCE_FORMAT))
+                .orElse(null);
+    }
+
+    /**
+     * Zapis/odczyt JDBC poza wątkami event-loop klienta HTTP
+     */
+    private static <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private boolean isConfigured() {
+        return woodpeckerConfig.isEnabled()
+                && woodpeckerConfig.getKey() != null && !woodpeckerConfig.getKey().isBlank();
+    }
+
+    private static class SyncRun {
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        /** Znacznik dla updatedSince - Woodpecker porównuje czasy w UTC, niezależnie od strefy serwera */
+        private final LocalDateTime syncedFrom = ZonedDateTime.now(ZoneOffset.UTC).toLocalDateTime();
+        private volatile LocalDateTime finishedAt;
+        private volatile String status = "running";
+        private volatile String error;
+        private volatile int campaigns;
+        private volatile int mailboxes;
+        private final AtomicLong prospects = new AtomicLong();
+
+        Duration elapsed() {
+            return Duration.between(startedAt, finishedAt != null ? finishedAt : LocalDateTime.now());
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("status", status);
+            map.put("campaigns", campaigns);
+            map.put("mailboxes", mailboxes);
+            map.put("prospects", prospects.get());
+            map.put("startedAt", startedAt.toString());
+            if (finishedAt != null) {
+                map.put("finishedAt", finishedAt.toString());
+            }
+            if (error != null) {
+                map.put("error", error);
+            }
+            return map;
+        }
+    }
+}
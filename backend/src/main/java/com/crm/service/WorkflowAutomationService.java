@@ -1,5 +1,6 @@
 package com.crm.service;
 
+import com.crm.exception.WorkflowActionException;
 import com.crm.model.*;
 import com.crm.model.WorkflowExecution.ExecutionStatus;
 import com.crm.model.WorkflowRule.ActionType;
@@ -10,6 +11,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.util.HashMap;
@@ -36,12 +38,19 @@ public class WorkflowAutomationService {
     private final TagRepository tagRepository;
     private final PipelineStageRepository pipelineStageRepository;
     private final PipelineRepository pipelineRepository;
-    private final NotificationRepository notificationRepository;
+    private final NotificationService notificationService;
     private final EmailTemplateRepository emailTemplateRepository;
     private final EmailAccountRepository emailAccountRepository;
     private final SequenceService sequenceService;
     private final UserContextService userContextService;
     private final EmailSendingService emailSendingService;
+    private final EmailTemplateService emailTemplateService;
+    private final TemplateRenderer templateRenderer;
+    private final WorkflowRuleEngine ruleEngine;
+    private final WorkflowEventRepository eventRepository;
+    private final EmailRepository emailRepository;
+    private final WorkflowExecutionRecorder executionRecorder;
+    private final TransactionTemplate transactionTemplate;
 
     // ==================== TRIGGER HANDLERS ====================
 
@@ -64,7 +73,7 @@ public class WorkflowAutomationService {
         triggerData.put("subject", email.getSubject());
         triggerData.put("openedAt", LocalDateTime.now().toString());
 
-        processTriggeredRules(TriggerType.EMAIL_OPENED, contact, email, null, triggerData);
+        enqueueEvent(TriggerType.EMAIL_OPENED, contact, email, null, triggerData);
     }
 
     /**
@@ -85,7 +94,7 @@ public class WorkflowAutomationService {
         triggerData.put("clickedUrl", clickedUrl);
         triggerData.put("clickedAt", LocalDateTime.now().toString());
 
-        processTriggeredRules(TriggerType.EMAIL_CLICKED, contact, email, null, triggerData);
+        enqueueEvent(TriggerType.EMAIL_CLICKED, contact, email, null, triggerData);
     }
 
     /**
@@ -106,7 +115,7 @@ public class WorkflowAutomationService {
         triggerData.put("subject", email.getSubject());
         triggerData.put("repliedAt", LocalDateTime.now().toString());
 
-        processTriggeredRules(TriggerType.POSITIVE_REPLY, contact, email, null, triggerData);
+        enqueueEvent(TriggerType.POSITIVE_REPLY, contact, email, null, triggerData);
     }
 
     /**
@@ -126,7 +135,7 @@ public class WorkflowAutomationService {
         triggerData.put("contactId", contact.getId());
         triggerData.put("subject", email.getSubject());
 
-        processTriggeredRules(TriggerType.NEGATIVE_REPLY, contact, email, null, triggerData);
+        enqueueEvent(TriggerType.NEGATIVE_REPLY, contact, email, null, triggerData);
     }
 
     /**
@@ -146,7 +155,7 @@ public class WorkflowAutomationService {
         triggerData.put("contactId", contact.getId());
         triggerData.put("status", email.getStatus());
 
-        processTriggeredRules(TriggerType.ANY_REPLY, contact, email, null, triggerData);
+        enqueueEvent(TriggerType.ANY_REPLY, contact, email, null, triggerData);
     }
 
     /**
@@ -168,7 +177,7 @@ public class WorkflowAutomationService {
         triggerData.put("tagName", tag.getName());
         triggerData.put("addedAt", LocalDateTime.now().toString());
 
-        processTriggeredRules(TriggerType.TAG_ADDED, contact, null, null, triggerData);
+        enqueueEvent(TriggerType.TAG_ADDED, contact, null, null, triggerData);
     }
 
     /**
@@ -188,7 +197,7 @@ public class WorkflowAutomationService {
         triggerData.put("tagId", tag.getId());
         triggerData.put("tagName", tag.getName());
 
-        processTriggeredRules(TriggerType.TAG_REMOVED, contact, null, null, triggerData);
+        enqueueEvent(TriggerType.TAG_REMOVED, contact, null, null, triggerData);
     }
 
     /**
@@ -213,7 +222,7 @@ public class WorkflowAutomationService {
         triggerData.put("newStageName", newStage.getName());
 
         Contact contact = deal.getContact();
-        processTriggeredRules(TriggerType.DEAL_STAGE_CHANGED, contact, null, deal, triggerData);
+        enqueueEvent(TriggerType.DEAL_STAGE_CHANGED, contact, null, deal, triggerData);
     }
 
     /**
@@ -233,7 +242,7 @@ public class WorkflowAutomationService {
         triggerData.put("dealValue", deal.getValue());
 
         Contact contact = deal.getContact();
-        processTriggeredRules(TriggerType.DEAL_WON, contact, null, deal, triggerData);
+        enqueueEvent(TriggerType.DEAL_WON, contact, null, deal, triggerData);
     }
 
     /**
@@ -252,7 +261,7 @@ public class WorkflowAutomationService {
         triggerData.put("dealTitle", deal.getTitle());
 
         Contact contact = deal.getContact();
-        processTriggeredRules(TriggerType.DEAL_LOST, contact, null, deal, triggerData);
+        enqueueEvent(TriggerType.DEAL_LOST, contact, null, deal, triggerData);
     }
 
     /**
@@ -272,7 +281,7 @@ public class WorkflowAutomationService {
         triggerData.put("contactEmail", contact.getEmail());
         triggerData.put("createdAt", LocalDateTime.now().toString());
 
-        processTriggeredRules(TriggerType.CONTACT_CREATED, contact, null, null, triggerData);
+        enqueueEvent(TriggerType.CONTACT_CREATED, contact, null, null, triggerData);
     }
 
     /**
@@ -292,7 +301,7 @@ public class WorkflowAutomationService {
         triggerData.put("sequenceName", execution.getSequence().getName());
         triggerData.put("contactId", execution.getContact().getId());
 
-        processTriggeredRules(TriggerType.SEQUENCE_COMPLETED, execution.getContact(), null, null, triggerData);
+        enqueueEvent(TriggerType.SEQUENCE_COMPLETED, execution.getContact(), null, null, triggerData);
     }
 
     /**
@@ -315,7 +324,7 @@ public class WorkflowAutomationService {
         triggerData.put("daysSinceEmail", daysSinceEmail);
         triggerData.put("triggeredAt", LocalDateTime.now().toString());
 
-        processTriggeredRules(TriggerType.NO_REPLY, contact, email, null, triggerData);
+        enqueueEvent(TriggerType.NO_REPLY, contact, email, null, triggerData);
     }
 
     /**
@@ -338,7 +347,7 @@ public class WorkflowAutomationService {
         triggerData.put("scoreDifference", newScore - oldScore);
         triggerData.put("changedAt", LocalDateTime.now().toString());
 
-        processTriggeredRules(TriggerType.LEAD_SCORE_CHANGED, contact, null, null, triggerData);
+        enqueueEvent(TriggerType.LEAD_SCORE_CHANGED, contact, null, null, triggerData);
     }
 
     /**
@@ -366,31 +375,81 @@ public class WorkflowAutomationService {
         }
         triggerData.put("sentAt", LocalDateTime.now().toString());
 
-        processTriggeredRules(TriggerType.SEQUENCE_STEP_SENT, execution.getContact(), email, null, triggerData);
+        enqueueEvent(TriggerType.SEQUENCE_STEP_SENT, execution.getContact(), email, null, triggerData);
     }
 
     // ==================== CORE PROCESSING ====================
 
     /**
-     * Przetwarza reguły dla danego triggera
+     * Zapisuje zdarzenie w kolejce (outbox) w transakcji wywołującego.
+     * Reguły wykonuje WorkflowEventDispatcher - trigger nie czeka na akcje.
      */
-    private void processTriggeredRules(TriggerType triggerType, Contact contact, 
-                                        Email email, Deal deal, Map<String, Object> triggerData) {
-        Long userId = contact != null ? contact.getUserId() : null;
-
-        List<WorkflowRule> rules = ruleRepository.findActiveRulesForTrigger(triggerType, userId);
-        log.debug("Found {} active rules for trigger {} and user {}", rules.size(), triggerType, userId);
+    private void enqueueEvent(TriggerType triggerType, Contact contact,
+                              Email email, Deal deal, Map<String, Object> triggerData) {
+        WorkflowEvent event = new WorkflowEvent();
+        event.setTriggerType(triggerType);
+        event.setContactId(contact != null ? contact.getId() : null);
+        event.setEmailId(email != null ? email.getId() : null);
+        event.setDealId(deal != null ? deal.getId() : null);
+        event.setTriggerData(triggerData);
+        eventRepository.save(event);
+    }
 
+    /**
+     * Przetwarza zdarzenie z kolejki - każda pasująca reguła w osobnej transakcji, z encjami ładowanymi w niej.
+     * Transakcja reguły zapisuje też znacznik (workflow_event_rule_runs), więc przy ponowieniu zdarzenia
+     * wykonują się tylko reguły bez znacznika - również te z allowMultipleExecutions, które nie rezerwują
+     * klucza wykonania. Błąd którejkolwiek reguły kończy się wyjątkiem - dispatcher ponawia wtedy zdarzenie
+     * albo przenosi je do DEAD.
+     *
+     * @return liczba wykonanych reguł
+     */
+    public int processEvent(WorkflowEvent event) {
+        TriggerType triggerType = event.getTriggerType();
+        Map<String, Object> triggerData = event.getTriggerData() != null ? event.getTriggerData() : new HashMap<>();
+        Long userId = event.getContactId() != null
+                ? contactRepository.findById(event.getContactId()).map(Contact::getUserId).orElse(null) : null;
+
+        // Indeks w pamięci zwraca już tylko reguły, których filtry (tagId, sequenceId) pasują do zdarzenia
+        List<WorkflowRule> rules = ruleEngine.findMatchingRules(triggerType, userId, triggerData);
+        log.debug("Found {} matching rules for trigger {} and user {}", rules.size(), triggerType, userId);
+
+        int executed = 0;
+        RuntimeException failure = null;
         for (WorkflowRule rule : rules) {
             try {
-                if (shouldExecuteRule(rule, contact, email, deal, triggerData)) {
-                    executeRule(rule, contact, email, deal, triggerData);
+                if (Boolean.TRUE.equals(transactionTemplate.execute(status -> processRule(rule, event, triggerData)))) {
+                    executed++;
                 }
-            } catch (Exception e) {
-                log.error("Error processing rule {} for trigger {}: {}", 
+            } catch (RuntimeException e) {
+                log.error("Error processing rule {} for trigger {}: {}",
                          rule.getId(), triggerType, e.getMessage(), e);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
             }
         }
+        if (failure != null) {
+            throw failure;
+        }
+        return executed;
+    }
+
+    private boolean processRule(WorkflowRule rule, WorkflowEvent event, Map<String, Object> triggerData) {
+        // Znacznik wycofuje się razem z regułą, gdy jej akcja się nie uda
+        if (eventRepository.markRuleRun(event.getId(), rule.getId()) == 0) {
+            log.debug("Rule {} already completed for event {}, skipping on retry", rule.getId(), event.getId());
+            return false;
+        }
+        Contact contact = event.getContactId() != null
+                ? contactRepository.findById(event.getContactId()).orElse(null) : null;
+        Email email = event.getEmailId() != null ? emailRepository.findById(event.getEmailId()).orElse(null) : null;
+        Deal deal = event.getDealId() != null ? dealRepository.findById(event.getDealId()).orElse(null) : null;
+
+        return shouldExecuteRule(rule, contact, email, deal, triggerData)
+                && executeRule(rule, contact, email, deal, triggerData);
     }
 
     /**
@@ -398,43 +457,10 @@ public class WorkflowAutomationService {
      */
     private boolean shouldExecuteRule(WorkflowRule rule, Contact contact, 
                                       Email email, Deal deal, Map<String, Object> triggerData) {
-        // Sprawdź warunki z konfiguracji triggera
-        Map<String, Object> config = rule.getTriggerConfig();
-        if (config != null && !config.isEmpty()) {
-            // Sprawdź filtr tagId (tylko jeśli jest poprawną liczbą)
-            if (config.containsKey("tagId") && triggerData.containsKey("tagId")) {
-                Object configTagIdObj = config.get("tagId");
-                Object actualTagIdObj = triggerData.get("tagId");
-                
-                // Sprawdź czy configTagId jest poprawną liczbą (nie NaN, nie null)
-                if (configTagIdObj instanceof Number) {
-                    Long configTagId = ((Number) configTagIdObj).longValue();
-                    Long actualTagId = ((Number) actualTagIdObj).longValue();
-                    
-                    if (!configTagId.equals(actualTagId)) {
-                        log.debug("Rule {} skipped - tagId mismatch: {} vs {}", 
-                                 rule.getId(), configTagId, actualTagId);
-                        return false;
-                    }
-                    log.debug("Rule {} tagId filter passed: {} == {}", 
-                             rule.getId(), configTagId, actualTagId);
-                } else {
-                    log.debug("Rule {} has invalid tagId config (not a number): {}, ignoring filter", 
-                             rule.getId(), configTagIdObj);
-                }
-            }
-
-            // Sprawdź filtr sequenceId
-            if (config.containsKey("sequenceId") && email != null) {
-                // Sprawdź czy email jest z danej sekwencji
-                // To wymaga dodatkowej logiki powiązania emaila z sekwencją
-            }
-        }
-
         // Sprawdź czy nie wykonano już dla tego kontekstu (jeśli nie pozwalamy na wielokrotne)
         if (!Boolean.TRUE.equals(rule.getAllowMultipleExecutions())) {
             String executionKey = buildExecutionKey(rule, contact, email, deal);
-            if (executionKeyRepository.existsByRuleIdAndExecutionKey(rule.getId(), executionKey)) {
+            if (ruleEngine.wasExecuted(rule.getId(), executionKey)) {
                 log.debug("Rule {} already executed for key {}", rule.getId(), executionKey);
                 return false;
             }
@@ -464,51 +490,66 @@ public class WorkflowAutomationService {
     }
 
     /**
-     * Wykonuje regułę workflow
+     * Wykonuje regułę workflow.
+     * Klucz wykonania jest rezerwowany od razu (INSERT ... ON CONFLICT DO NOTHING), log wykonania
+     * i licznik reguły zapisuje zbiorczo WorkflowExecutionRecorder.
+     * Błąd akcji jest logowany jako FAILED i rzucany dalej (WorkflowActionException) - sam nie oznacza
+     * transakcji do rollbacku, decyduje wywołujący (zdarzenia z kolejki wycofują wtedy rezerwację klucza).
+     *
+     * @return false, jeśli reguła była już wykonana dla tego kontekstu
      */
-    @Transactional
-    public void executeRule(WorkflowRule rule, Contact contact, Email email, 
-                           Deal deal, Map<String, Object> triggerData) {
+    @Transactional(noRollbackFor = WorkflowActionException.class)
+    public boolean executeRule(WorkflowRule rule, Contact contact, Email email, 
+                               Deal deal, Map<String, Object> triggerData) {
+        return executeRule(rule, contact, email, deal, triggerData, buildExecutionKey(rule, contact, email, deal));
+    }
+
+    /**
+     * Wykonuje regułę z jawnym kluczem deduplikacji (np. kontakt + sekwencja dla NO_REPLY)
+     */
+    @Transactional(noRollbackFor = WorkflowActionException.class)
+    public boolean executeRule(WorkflowRule rule, Contact contact, Email email,
+                               Deal deal, Map<String, Object> triggerData, String executionKey) {
         log.info("Executing rule {} ({}) for contact {}", 
                  rule.getId(), rule.getName(), contact != null ? contact.getId() : "null");
 
-        // Utwórz wpis wykonania
-        WorkflowExecution execution = new WorkflowExecution();
-        execution.setRule(rule);
-        execution.setContact(contact);
-        execution.setEmail(email);
-        execution.setDeal(deal);
-        execution.setTriggerData(triggerData);
-        execution.setStatus(ExecutionStatus.RUNNING);
-        execution = executionRepository.save(execution);
+        // Zarezerwuj klucz wykonania - unikalny indeks rozstrzyga równoległe wykonania
+        if (!Boolean.TRUE.equals(rule.getAllowMultipleExecutions())) {
+            if (executionKeyRepository.claim(rule.getId(), executionKey) == 0) {
+                log.debug("Rule {} already executed for key {}", rule.getId(), executionKey);
+                return false;
+            }
+            ruleEngine.recordExecution(rule.getId(), executionKey);
+        }
 
+        LocalDateTime startedAt = LocalDateTime.now();
+        ExecutionStatus status;
+        Map<String, Object> result = null;
+        String errorMessage = null;
+        RuntimeException failure = null;
         try {
-            // Zapisz klucz wykonania
-            String executionKey = buildExecutionKey(rule, contact, email, deal);
-            WorkflowExecutionKey keyEntity = new WorkflowExecutionKey();
-            keyEntity.setRuleId(rule.getId());
-            keyEntity.setExecutionKey(executionKey);
-            executionKeyRepository.save(keyEntity);
-
-            // Wykonaj akcję
-            Map<String, Object> result = executeAction(rule, contact, email, deal);
-            
-            // Zaktualizuj wykonanie
-            execution.setActionResult(result);
-            execution.markCompleted();
-            executionRepository.save(execution);
-
-            // Zaktualizuj licznik reguły
-            ruleRepository.incrementExecutionCount(rule.getId(), LocalDateTime.now());
-
+            result = executeAction(rule, contact, email, deal);
+            status = ExecutionStatus.COMPLETED;
             log.info("Rule {} executed successfully for contact {}", rule.getId(), 
                      contact != null ? contact.getId() : "null");
-
         } catch (Exception e) {
             log.error("Error executing rule {}: {}", rule.getId(), e.getMessage(), e);
-            execution.markFailed(e.getMessage());
-            executionRepository.save(execution);
+            status = ExecutionStatus.FAILED;
+            errorMessage = e.getMessage();
+            failure = e instanceof WorkflowActionException actionException ? actionException
+                    : new WorkflowActionException("Rule " + rule.getId() + " failed: " + e.getMessage(), e);
         }
+
+        executionRecorder.record(new WorkflowExecutionRecorder.ExecutionRecord(
+                rule.getId(),
+                contact != null ? contact.getId() : null,
+                email != null ? email.getId() : null,
+                deal != null ? deal.getId() : null,
+                status, triggerData, result, errorMessage, startedAt, LocalDateTime.now()));
+        if (failure != null) {
+            throw failure;
+        }
+        return true;
     }
 
     // ==================== ACTION HANDLERS ====================
@@ -951,7 +992,7 @@ public class WorkflowAutomationService {
         notification.setEmailId(email != null ? email.getId() : null);
         notification.setWorkflowRuleId(rule != null ? rule.getId() : null);
         
-        notificationRepository.save(notification);
+        notificationService.create(notification);
 
         result.put("success", true);
         result.put("notificationId", notification.getId());
@@ -1023,8 +1064,7 @@ public class WorkflowAutomationService {
             }
 
             // Increment template usage
-            template.incrementUsage();
-            emailTemplateRepository.save(template);
+            emailTemplateService.recordUsage(template.getId());
 
             result.put("success", true);
             result.put("emailId", sentEmailId);
@@ -1034,9 +1074,9 @@ public class WorkflowAutomationService {
                      templateId, contact.getId(), contact.getEmail());
 
         } catch (Exception e) {
-            result.put("error", "Failed to send email: " + e.getMessage());
-            log.error("Failed to send email from template {} to contact {}: {}", 
-                     templateId, contact.getId(), e.getMessage());
+            // Błąd wysyłki (SMTP, konto) bywa przejściowy - zdarzenie zostanie ponowione
+            throw new WorkflowActionException("Failed to send email from template " + templateId
+                    + " to contact " + contact.getId() + ": " + e.getMessage(), e);
         }
 
         return result;
@@ -1048,19 +1088,7 @@ public class WorkflowAutomationService {
     private String processTemplateVariables(String template, Contact contact) {
         if (template == null) return "";
         
-        return template
-                .replace("{{name}}", contact.getName() != null ? contact.getName() : "")
-                .replace("{{firstName}}", extractFirstName(contact.getName()))
-                .replace("{{email}}", contact.getEmail() != null ? contact.getEmail() : "")
-                .replace("{{company}}", contact.getCompany() != null ? contact.getCompany() : "")
-                .replace("{{position}}", contact.getPosition() != null ? contact.getPosition() : "")
-                .replace("{{phone}}", contact.getPhone() != null ? contact.getPhone() : "");
-    }
-
-    private String extractFirstName(String fullName) {
-        if (fullName == null || fullName.isBlank()) return "";
-        String[] parts = fullName.trim().split("\\s+");
-        return parts[0];
+        return templateRenderer.compile(template).render(templateRenderer.contactVariables(contact), true);
     }
 
     // ==================== CRUD OPERATIONS ====================
@@ -1077,7 +1105,9 @@ public class WorkflowAutomationService {
     public WorkflowRule createRule(WorkflowRule rule) {
         Long userId = userContextService.getCurrentUserId();
         rule.setUserId(userId);
-        return ruleRepository.save(rule);
+        WorkflowRule saved = ruleRepository.save(rule);
+        ruleEngine.ruleChanged(saved);
+        return saved;
     }
 
     @Transactional
@@ -1095,13 +1125,16 @@ public class WorkflowAutomationService {
         rule.setPriority(ruleDetails.getPriority());
         rule.setAllowMultipleExecutions(ruleDetails.getAllowMultipleExecutions());
 
-        return ruleRepository.save(rule);
+        WorkflowRule saved = ruleRepository.save(rule);
+        ruleEngine.ruleChanged(saved);
+        return saved;
     }
 
     @Transactional
     public void deleteRule(Long id) {
         executionKeyRepository.deleteByRuleId(id);
         ruleRepository.deleteById(id);
+        ruleEngine.ruleDeleted(id);
     }
 
     @Transactional
@@ -1109,7 +1142,9 @@ public class WorkflowAutomationService {
         WorkflowRule rule = ruleRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Rule not found: " + id));
         rule.setActive(!rule.getActive());
-        return ruleRepository.save(rule);
+        WorkflowRule saved = ruleRepository.save(rule);
+        ruleEngine.ruleChanged(saved);
+        return saved;
     }
 
     // ==================== STATISTICS ====================
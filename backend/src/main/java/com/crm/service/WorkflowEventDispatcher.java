@@ -0,0 +1,422 @@
+package com.crm.service;
+
+import com.crm.model.WorkflowEvent;
+import com.crm.model.WorkflowEvent.EventStatus;
+import com.crm.repository.WorkflowEventRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Konsument kolejki zdarzeń workflow (outbox).
+ *
+ * Co tick pobiera gotowe zdarzenia (tylko jedna instancja naraz - advisory lock), oznacza je jako
+ * PROCESSING i przekazuje do puli workerów pogrupowane po kontakcie - zdarzenia jednego kontaktu
+ * wykonują się po kolei w jednym zadaniu. Wyniki są zapisywane zbiorczo w kolejnym ticku.
+ * Nieudane zdarzenie wraca z wykładniczym opóźnieniem i wstrzymuje kolejne zdarzenia kontaktu,
+ * po wyczerpaniu prób trafia do DEAD. Pobrane zdarzenie ma dzierżawę (claimed_at) - po awarii instancji
+ * wraca do kolejki dopiero po jej wygaśnięciu. Dostarczenie jest "co najmniej raz" - po awarii zdarzenie
+ * może wykonać się ponownie, powtórne akcje blokują klucze wykonania reguł.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class WorkflowEventDispatcher {
+
+    private static final long CLAIM_LOCK_KEY = 0x574b464c4f57L;
+    private static final int UPDATE_CHUNK = 1000;
+    private static final int MAX_ERROR_LENGTH = 2000;
+    private static final long RATE_WINDOW_MS = 60_000;
+    private static final long MAX_RETRY_DELAY_SECONDS = 3600;
+
+    private final WorkflowEventRepository eventRepository;
+    private final WorkflowAutomationService workflowAutomationService;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${workflow.events.threads:4}")
+    private int threads;
+
+    @Value("${workflow.events.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Value("${workflow.events.batch-size:200}")
+    private int batchSize;
+
+    @Value("${workflow.events.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${workflow.events.retry-base-seconds:30}")
+    private long retryBaseSeconds;
+
+    @Value("${workflow.events.retention-days:7}")
+    private int retentionDays;
+
+    /**
+     * Po tylu minutach zdarzenie PROCESSING bez wyniku uznawane jest za porzucone
+     */
+    @Value("${workflow.events.lease-minutes:10}")
+    private int leaseMinutes;
+
+    private ThreadPoolExecutor pool;
+    private final Queue<EventResult> results = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Deque<Completion> completions = new ConcurrentLinkedDeque<>();
+    private volatile QueueDepth queueDepth = QueueDepth.EMPTY;
+
+    // ==================== LIFECYCLE ====================
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        pool = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "WorkflowEvent-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        bindMetrics();
+    }
+
+    /**
+     * Zdarzenia, które nie dostały wyniku w czasie dzierżawy (instancja padła), wracają do kolejki
+     * albo - po wyczerpaniu prób - trafiają do DEAD. Przy starcie i cyklicznie.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void recoverInterruptedEvents() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime expiredBefore = now.minusMinutes(leaseMinutes);
+        int[] counts = transactionTemplate.execute(status -> new int[]{
+                eventRepository.requeueExpired(expiredBefore, maxAttempts, now),
+                eventRepository.markExpiredDead(expiredBefore, maxAttempts, now)});
+        if (counts != null && counts[0] + counts[1] > 0) {
+            log.info("Workflow events with expired lease: {} requeued, {} moved to dead-letter", counts[0], counts[1]);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushResults();
+    }
+
+    // ==================== DISPATCH ====================
+
+    @Scheduled(fixedDelayString = "${workflow.events.tick-ms:1000}")
+    public void dispatchPendingEvents() {
+        flushResults();
+
+        int budget = Math.min(pool.getQueue().remainingCapacity(), batchSize);
+        if (budget <= 0) {
+            return;
+        }
+
+        List<WorkflowEvent> claimed = transactionTemplate.execute(status -> {
+            if (!eventRepository.tryClaimLock(CLAIM_LOCK_KEY)) {
+                return List.<WorkflowEvent>of();
+            }
+            List<WorkflowEvent> due = eventRepository.findClaimable(LocalDateTime.now(), budget);
+            List<Long> ids = due.stream().map(WorkflowEvent::getId).toList();
+            LocalDateTime claimedAt = LocalDateTime.now();
+            for (int i = 0; i < ids.size(); i += UPDATE_CHUNK) {
+                eventRepository.markProcessing(ids.subList(i, Math.min(i + UPDATE_CHUNK, ids.size())), claimedAt);
+            }
+            return due;
+        });
+
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+
+        // Kolejność zapisu zachowana w obrębie kontaktu; zdarzenia bez kontaktu są niezależne
+        Map<Long, List<WorkflowEvent>> byContact = new LinkedHashMap<>();
+        for (WorkflowEvent event : claimed) {
+            Long key = event.getContactId() != null ? event.getContactId() : -event.getId();
+            byContact.computeIfAbsent(key, k -> new ArrayList<>()).add(event);
+        }
+
+        for (List<WorkflowEvent> events : byContact.values()) {
+            inFlight.addAndGet(events.size());
+            try {
+                pool.execute(() -> process(events));
+            } catch (RejectedExecutionException e) {
+                events.forEach(event -> results.add(EventResult.released(event.getId())));
+            }
+        }
+        log.debug("Dispatched {} workflow events ({} contacts)", claimed.size(), byContact.size());
+    }
+
+    // ==================== WORKER ====================
+
+    private void process(List<WorkflowEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            WorkflowEvent event = events.get(i);
+            Timer.Sample sample = Timer.start(meterRegistry);
+            try {
+                int actions = workflowAutomationService.processEvent(event);
+                results.add(EventResult.done(event.getId()));
+                sample.stop(eventTimer(event, "success"));
+                recordCompletion(event, actions);
+            } catch (Exception e) {
+                sample.stop(eventTimer(event, "error"));
+                // markProcessing zwiększył licznik prób w bazie - encja ma wartość sprzed claim
+                int attempts = (event.getAttempts() != null ? event.getAttempts() : 0) + 1;
+                log.warn("Workflow event {} ({}) failed, attempt {}/{}: {}",
+                        event.getId(), event.getTriggerType(), attempts, maxAttempts, e.getMessage());
+                results.add(EventResult.failed(event.getId(), attempts, e.getMessage()));
+
+                // Pozostałe zdarzenia kontaktu czekają na ponowienie nieudanego
+                for (int j = i + 1; j < events.size(); j++) {
+                    results.add(EventResult.released(events.get(j).getId()));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Zapisuje wyniki zbiorczo - jeden UPDATE na partię zakończonych i zwolnionych zdarzeń
+     */
+    private synchronized void flushResults() {
+        if (results.isEmpty()) {
+            return;
+        }
+
+        List<EventResult> batch = new ArrayList<>();
+        EventResult result;
+        while ((result = results.poll()) != null) {
+            batch.add(result);
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> persist(batch));
+        } catch (Exception e) {
+            log.error("Failed to persist {} workflow event results, will retry: {}", batch.size(), e.getMessage());
+            results.addAll(batch);
+            return;
+        }
+        inFlight.addAndGet(-batch.size());
+    }
+
+    private void persist(List<EventResult> batch) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> done = new ArrayList<>();
+        List<Long> released = new ArrayList<>();
+
+        for (EventResult r : batch) {
+            switch (r.outcome()) {
+                case DONE -> done.add(r.eventId());
+                case RELEASED -> released.add(r.eventId());
+                case FAILED -> {
+                    String error = truncate(r.error());
+                    if (r.attempts() >= maxAttempts) {
+                        eventRepository.markDead(r.eventId(), now, error);
+                        log.error("Workflow event {} moved to dead-letter after {} attempts: {}",
+                                r.eventId(), r.attempts(), error);
+                    } else {
+                        eventRepository.scheduleRetry(r.eventId(), now.plusSeconds(retryDelaySeconds(r.attempts())), error);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < done.size(); i += UPDATE_CHUNK) {
+            eventRepository.markDone(done.subList(i, Math.min(i + UPDATE_CHUNK, done.size())), now);
+        }
+        for (int i = 0; i < released.size(); i += UPDATE_CHUNK) {
+            eventRepository.release(released.subList(i, Math.min(i + UPDATE_CHUNK, released.size())));
+        }
+    }
+
+    private long retryDelaySeconds(int attempts) {
+        long delay = retryBaseSeconds << Math.min(Math.max(attempts - 1, 0), 16);
+        return Math.min(delay, MAX_RETRY_DELAY_SECONDS);
+    }
+
+    private static String truncate(String error) {
+        if (error == null) {
+            return null;
+        }
+        return error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+    }
+
+    /**
+     * Usuwa stare, zakończone zdarzenia (DEAD zostają do ręcznej analizy)
+     */
+    @Scheduled(cron = "0 15 3 * * ?")
+    public void cleanupProcessedEvents() {
+        Integer deleted = transactionTemplate.execute(status ->
+                eventRepository.deleteDoneBefore(LocalDateTime.now().minusDays(retentionDays)));
+        log.info("Cleaned up {} processed workflow events", deleted);
+    }
+
+    /**
+     * Ponawia zdarzenie z dead-letter - wraca do kolejki z zerowym licznikiem prób
+     */
+    public boolean retryDeadEvent(Long eventId) {
+        Integer updated = transactionTemplate.execute(status ->
+                eventRepository.retryDead(eventId, LocalDateTime.now()));
+        return updated != null && updated > 0;
+    }
+
+    // ==================== METRICS ====================
+
+    /**
+     * Pula workerów i zdarzenia w locie na bieżąco; głębokość kolejki w bazie z ostatniego odświeżenia
+     * (refreshQueueDepth) - scrape nie wykonuje zapytań
+     */
+    private void bindMetrics() {
+        new ExecutorServiceMetrics(pool, "workflow-events", Tags.empty()).bindTo(meterRegistry);
+        Gauge.builder("crm.workflow.events.in_flight", inFlight, count -> Math.max(0, count.get()))
+                .register(meterRegistry);
+        for (EventStatus status : List.of(EventStatus.PENDING, EventStatus.PROCESSING, EventStatus.DEAD)) {
+            Gauge.builder("crm.workflow.events.queued", this, dispatcher -> dispatcher.queueDepth.count(status))
+                    .tag("status", status.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+        Gauge.builder("crm.workflow.events.oldest_pending.age", this, dispatcher -> dispatcher.queueDepth.oldestOpenAgeSeconds())
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Odświeża głębokość kolejki dla metryk - jedna seria zapytań co stats-refresh-ms zamiast przy każdym scrape
+     */
+    @Scheduled(fixedDelayString = "${workflow.events.stats-refresh-ms:15000}")
+    public void refreshQueueDepth() {
+        try {
+            queueDepth = readQueueDepth();
+        } catch (Exception e) {
+            log.warn("Could not refresh workflow event queue depth: {}", e.getMessage());
+        }
+    }
+
+    private QueueDepth readQueueDepth() {
+        return new QueueDepth(
+                eventRepository.countByStatus(EventStatus.PENDING),
+                eventRepository.countByStatus(EventStatus.PROCESSING),
+                eventRepository.countByStatus(EventStatus.DEAD),
+                eventRepository.findOldestOpenCreatedAt());
+    }
+
+    private Timer eventTimer(WorkflowEvent event, String outcome) {
+        return meterRegistry.timer("crm.workflow.event",
+                "trigger", String.valueOf(event.getTriggerType()), "outcome", outcome);
+    }
+
+    private void recordCompletion(WorkflowEvent event, int actions) {
+        long now = System.currentTimeMillis();
+        long lagMs = event.getCreatedAt() != null
+                ? Duration.between(event.getCreatedAt(), LocalDateTime.now()).toMillis() : 0;
+        completions.addLast(new Completion(now, actions, lagMs));
+        pruneCompletions(now);
+        meterRegistry.counter("crm.workflow.actions").increment(actions);
+        meterRegistry.timer("crm.workflow.event.lag").record(Math.max(0, lagMs), TimeUnit.MILLISECONDS);
+    }
+
+    private void pruneCompletions(long now) {
+        Completion head;
+        while ((head = completions.peekFirst()) != null && head.atMillis() < now - RATE_WINDOW_MS) {
+            completions.pollFirst();
+        }
+    }
+
+    /**
+     * Stan kolejki: głębokość, opóźnienie, przepustowość (zdarzenia i akcje na sekundę, ostatnia minuta)
+     */
+    public Map<String, Object> getQueueStats() {
+        long now = System.currentTimeMillis();
+        pruneCompletions(now);
+
+        long events = 0;
+        long actions = 0;
+        long lagTotal = 0;
+        for (Completion c : completions) {
+            events++;
+            actions += c.actions();
+            lagTotal += c.lagMs();
+        }
+
+        // Panel chce stanu bieżącego - przy okazji odświeża wartości metryk
+        QueueDepth depth = readQueueDepth();
+        queueDepth = depth;
+        double windowSeconds = RATE_WINDOW_MS / 1000.0;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", depth.pending());
+        stats.put("processing", depth.processing());
+        stats.put("dead", depth.dead());
+        stats.put("inFlight", Math.max(0, inFlight.get()));
+        stats.put("oldestPendingAgeSeconds", depth.oldestOpenAgeSeconds());
+        stats.put("avgProcessingLagMs", events > 0 ? lagTotal / events : 0);
+        stats.put("eventsPerSecond", events / windowSeconds);
+        stats.put("actionsPerSecond", actions / windowSeconds);
+        return stats;
+    }
+
+    private enum Outcome { DONE, FAILED, RELEASED }
+
+    /**
+     * Liczby zdarzeń w bazie i najstarsze niezakończone - migawka dla metryk
+     */
+    private record QueueDepth(long pending, long processing, long dead, LocalDateTime oldestOpen) {
+        static final QueueDepth EMPTY = new QueueDepth(0, 0, 0, null);
+
+        long count(EventStatus status) {
+            return switch (status) {
+                case PENDING -> pending;
+                case PROCESSING -> processing;
+                case DEAD -> dead;
+                default -> 0;
+            };
+        }
+
+        long oldestOpenAgeSeconds() {
+            return oldestOpen != null ? Math.max(0, Duration.between(oldestOpen, LocalDateTime.now()).toSeconds()) : 0;
+        }
+    }
+
+    private record EventResult(Long eventId, Outcome outcome, int attempts, String error) {
+        static EventResult done(Long eventId) {
+            return new EventResult(eventId, Outcome.DONE, 0, null);
+        }
+
+        static EventResult failed(Long eventId, int attempts, String error) {
+            return new EventResult(eventId, Outcome.FAILED, attempts, error);
+        }
+
+        static EventResult released(Long eventId) {
+            return new EventResult(eventId, Outcome.RELEASED, 0, null);
+        }
+    }
+
+    private record Completion(long atMillis, int actions, long lagMs) {
+    }
+}
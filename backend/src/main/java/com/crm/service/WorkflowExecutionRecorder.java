@@ -0,0 +1,187 @@
+package com.crm.service;
+
+import com.crm.model.WorkflowExecution.ExecutionStatus;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buforuje zapisy wykonań reguł (log workflow_executions i liczniki reguł) i zapisuje je
+ * partiami JDBC. Jedno wykonanie to jeden wiersz ze stanem końcowym zamiast INSERT + UPDATE,
+ * a liczniki execution_count są sumowane per reguła - jeden UPDATE na regułę na flush.
+ *
+ * Wpisy trafiają do bufora po zakończeniu transakcji wykonania: po commicie wszystkie,
+ * po rollbacku tylko nieudane (udane zostały wycofane razem z akcją).
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class WorkflowExecutionRecorder {
+
+    private static final String INSERT_EXECUTION =
+            "INSERT INTO workflow_executions (rule_id, contact_id, email_id, deal_id, status, trigger_data, " +
+            "action_result, error_message, execution_time_ms, created_at, completed_at) " +
+            "SELECT r.id, (SELECT c.id FROM contacts c WHERE c.id = ?), (SELECT e.id FROM emails e WHERE e.id = ?), " +
+            "(SELECT d.id FROM deals d WHERE d.id = ?), ?, CAST(? AS jsonb), CAST(? AS jsonb), ?, ?, ?, ? " +
+            "FROM workflow_rules r WHERE r.id = ?";
+
+    private static final String INCREMENT_RULE =
+            "UPDATE workflow_rules SET execution_count = execution_count + ?, last_executed_at = ?, updated_at = ? " +
+            "WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Value("${workflow.executions.batch-size:500}")
+    private int batchSize;
+
+    @Value("${workflow.executions.max-buffered:50000}")
+    private int maxBuffered;
+
+    private final Queue<ExecutionRecord> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger buffered = new AtomicInteger();
+
+    /**
+     * Rejestruje wykonanie - do bufora po zakończeniu bieżącej transakcji (lub od razu, gdy jej nie ma)
+     */
+    public void record(ExecutionRecord record) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            enqueue(record);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED || record.status() == ExecutionStatus.FAILED) {
+                    enqueue(record);
+                }
+            }
+        });
+    }
+
+    private void enqueue(ExecutionRecord record) {
+        if (buffered.get() >= maxBuffered) {
+            log.warn("Workflow execution buffer full ({}), dropping log entry for rule {}", maxBuffered, record.ruleId());
+            return;
+        }
+        buffer.add(record);
+        buffered.incrementAndGet();
+    }
+
+    /**
+     * Zapisuje cały bufor partiami po batchSize - wywoływane z osobnego wątku, poza transakcją wykonania
+     */
+    @Scheduled(fixedDelayString = "${workflow.executions.flush-ms:1000}")
+    public synchronized void flush() {
+        flushBuffer();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private void flushBuffer() {
+        while (!buffer.isEmpty()) {
+            List<ExecutionRecord> batch = new ArrayList<>(batchSize);
+            ExecutionRecord record;
+            while (batch.size() < batchSize && (record = buffer.poll()) != null) {
+                batch.add(record);
+            }
+            buffered.addAndGet(-batch.size());
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> write(batch));
+            } catch (Exception e) {
+                log.error("Failed to write {} workflow executions, will retry: {}", batch.size(), e.getMessage());
+                buffer.addAll(batch);
+                buffered.addAndGet(batch.size());
+                return;
+            }
+        }
+    }
+
+    private void write(List<ExecutionRecord> batch) {
+        List<Object[]> executions = new ArrayList<>(batch.size());
+        Map<Long, RuleCounter> counters = new HashMap<>();
+
+        for (ExecutionRecord r : batch) {
+            executions.add(new Object[]{
+                    r.contactId(), r.emailId(), r.dealId(), r.status().name(),
+                    toJson(r.triggerData()), toJson(r.actionResult()), r.errorMessage(),
+                    r.executionTimeMs(), Timestamp.valueOf(r.startedAt()), Timestamp.valueOf(r.completedAt()),
+                    r.ruleId()
+            });
+            if (r.status() == ExecutionStatus.COMPLETED) {
+                counters.computeIfAbsent(r.ruleId(), id -> new RuleCounter()).add(r.completedAt());
+            }
+        }
+
+        // Reguła usunięta w międzyczasie - SELECT ... FROM workflow_rules nie zwróci wiersza
+        jdbcTemplate.batchUpdate(INSERT_EXECUTION, executions);
+
+        if (!counters.isEmpty()) {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            List<Object[]> increments = new ArrayList<>(counters.size());
+            counters.forEach((ruleId, counter) -> increments.add(new Object[]{
+                    counter.count, Timestamp.valueOf(counter.lastExecutedAt), now, ruleId
+            }));
+            jdbcTemplate.batchUpdate(INCREMENT_RULE, increments);
+        }
+        log.debug("Wrote {} workflow executions, {} rule counters", batch.size(), counters.size());
+    }
+
+    private String toJson(Map<String, Object> value) {
+        if (value == null) {
+            return "{}";
+        }
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            log.warn("Cannot serialize workflow execution data: {}", e.getMessage());
+            return "{}";
+        }
+    }
+
+    private static class RuleCounter {
+        private int count;
+        private LocalDateTime lastExecutedAt;
+
+        void add(LocalDateTime executedAt) {
+            count++;
+            if (lastExecutedAt == null || executedAt.isAfter(lastExecutedAt)) {
+                lastExecutedAt = executedAt;
+            }
+        }
+    }
+
+    /**
+     * Stan końcowy jednego wykonania reguły
+     */
+    public record ExecutionRecord(Long ruleId, Long contactId, Long emailId, Long dealId,
+                                  ExecutionStatus status, Map<String, Object> triggerData,
+                                  Map<String, Object> actionResult, String errorMessage,
+                                  LocalDateTime startedAt, LocalDateTime completedAt) {
+
+        public long executionTimeMs() {
+            return Duration.between(startedAt, completedAt).toMillis();
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package com.crm.service;
+
+import com.crm.model.WorkflowRule;
+import com.crm.model.WorkflowRule.TriggerType;
+import com.crm.repository.WorkflowExecutionKeyRepository;
+import com.crm.repository.WorkflowRuleRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+/**
+ * Skompilowany indeks aktywnych reguł workflow.
+ *
+ * Reguły są trzymane w pamięci jako niezmienny snapshot: trigger -> użytkownik (lub reguły globalne)
+ * -> lista posortowana po priorytecie, dodatkowo zaindeksowana po wartościach filtrów (tagId, sequenceId).
+ * Warunki z triggerConfig są kompilowane raz do predykatu. Snapshot jest przebudowywany po zmianie
+ * reguły (po commicie transakcji) oraz okresowo z bazy - na wypadek zmian z innej instancji.
+ *
+ * Deduplikacja wykonań idzie przez filtr Blooma: "na pewno nie było" nie pyta bazy,
+ * "może było" sprawdza workflow_execution_keys. Filtr jest lokalny dla instancji, więc klucze zapisane
+ * przez inne instancje są okresowo dociągane z bazy (workflow.dedup.sync-ms). W tym oknie "nie było"
+ * może być fałszywe - rozstrzyga wtedy rezerwacja klucza (claim) z unikalnym indeksem (rule_id, execution_key).
+ */
+@Component
+@Slf4j
+public class WorkflowRuleEngine {
+
+    /**
+     * Filtry triggerConfig, po których reguły są indeksowane i sprawdzane
+     */
+    static final List<String> INDEXED_FILTERS = List.of("tagId", "sequenceId");
+
+    private static final Long GLOBAL = -1L;
+
+    private final WorkflowRuleRepository ruleRepository;
+    private final WorkflowExecutionKeyRepository executionKeyRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int expectedKeys;
+
+    private final Map<Long, CompiledRule> rulesById = new ConcurrentHashMap<>();
+    private volatile Map<TriggerType, Map<Long, RuleBucket>> index = Map.of();
+    private volatile boolean loaded;
+
+    /**
+     * Ile ID poniżej ostatnio wczytanego dociągać ponownie - ID są przydzielane przed commitem
+     */
+    private static final long KEY_SYNC_OVERLAP = 1000;
+
+    /**
+     * Osobna blokada filtra kluczy - budowa i synchronizacja czytają całą tabelę kluczy
+     * i nie mogą blokować przebudowy indeksu reguł (monitor obiektu)
+     */
+    private final Object executedKeysLock = new Object();
+    private volatile KeyBloomFilter executedKeys;
+    private volatile boolean executedKeysReady;
+    private long lastSyncedKeyId;
+
+    public WorkflowRuleEngine(WorkflowRuleRepository ruleRepository,
+                              WorkflowExecutionKeyRepository executionKeyRepository,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${workflow.dedup.expected-keys:1000000}") int expectedKeys) {
+        this.ruleRepository = ruleRepository;
+        this.executionKeyRepository = executionKeyRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.expectedKeys = expectedKeys;
+        this.executedKeys = new KeyBloomFilter(expectedKeys, 0.01);
+    }
+
+    // ==================== RULE INDEX ====================
+
+    /**
+     * Reguły pasujące do zdarzenia, w kolejności priorytetu - bez zapytań do bazy
+     */
+    public List<WorkflowRule> findMatchingRules(TriggerType triggerType, Long userId, Map<String, Object> triggerData) {
+        if (!loaded) {
+            reloadAll();
+        }
+
+        Map<Long, RuleBucket> byUser = index.get(triggerType);
+        if (byUser == null) {
+            return List.of();
+        }
+
+        List<CompiledRule> global = candidates(byUser.get(GLOBAL), triggerData);
+        List<CompiledRule> own = userId != null ? candidates(byUser.get(userId), triggerData) : List.of();
+
+        List<WorkflowRule> matching = new ArrayList<>(global.size() + own.size());
+        int g = 0;
+        int u = 0;
+        // Obie listy są posortowane - scalanie zachowuje kolejność priorytetów
+        while (g < global.size() || u < own.size()) {
+            CompiledRule next;
+            if (u >= own.size() || (g < global.size() && CompiledRule.ORDER.compare(global.get(g), own.get(u)) <= 0)) {
+                next = global.get(g++);
+            } else {
+                next = own.get(u++);
+            }
+            if (next.matches(triggerData)) {
+                matching.add(next.rule());
+            }
+        }
+        return matching;
+    }
+
+    private static List<CompiledRule> candidates(RuleBucket bucket, Map<String, Object> triggerData) {
+        return bucket != null ? bucket.candidates(triggerData) : List.of();
+    }
+
+    /**
+     * Aktualizuje regułę w indeksie - po commicie bieżącej transakcji, jeśli jest aktywna
+     */
+    public void ruleChanged(WorkflowRule rule) {
+        afterCommit(() -> {
+            if (Boolean.TRUE.equals(rule.getActive())) {
+                rulesById.put(rule.getId(), CompiledRule.compile(rule));
+            } else {
+                rulesById.remove(rule.getId());
+            }
+            rebuildIndex();
+        });
+    }
+
+    public void ruleDeleted(Long ruleId) {
+        afterCommit(() -> {
+            rulesById.remove(ruleId);
+            rebuildIndex();
+        });
+    }
+
+    /**
+     * Pełne przeładowanie z bazy - przy starcie i okresowo (zmiany z innych instancji)
+     */
+    @Scheduled(fixedDelayString = "${workflow.rules.reload-ms:300000}", initialDelayString = "${workflow.rules.reload-ms:300000}")
+    public synchronized void reloadAll() {
+        List<WorkflowRule> active = ruleRepository.findByActiveTrue();
+        Map<Long, CompiledRule> compiled = new HashMap<>();
+        for (WorkflowRule rule : active) {
+            compiled.put(rule.getId(), CompiledRule.compile(rule));
+        }
+        rulesById.clear();
+        rulesById.putAll(compiled);
+        rebuildIndex();
+        loaded = true;
+        log.debug("Workflow rule index loaded: {} active rules", compiled.size());
+    }
+
+    private synchronized void rebuildIndex() {
+        Map<TriggerType, Map<Long, List<CompiledRule>>> grouped = new EnumMap<>(TriggerType.class);
+        for (CompiledRule compiled : rulesById.values()) {
+            WorkflowRule rule = compiled.rule();
+            Long owner = rule.getUserId() != null ? rule.getUserId() : GLOBAL;
+            grouped.computeIfAbsent(rule.getTriggerType(), t -> new HashMap<>())
+                    .computeIfAbsent(owner, o -> new ArrayList<>())
+                    .add(compiled);
+        }
+
+        Map<TriggerType, Map<Long, RuleBucket>> rebuilt = new EnumMap<>(TriggerType.class);
+        grouped.forEach((trigger, byOwner) -> {
+            Map<Long, RuleBucket> buckets = new HashMap<>();
+            byOwner.forEach((owner, rules) -> buckets.put(owner, RuleBucket.of(rules)));
+            rebuilt.put(trigger, buckets);
+        });
+        index = rebuilt;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    // ==================== DEDUPLICATION ====================
+
+    /**
+     * Czy reguła była już wykonana dla klucza. Filtr Blooma odpowiada "na pewno nie" bez bazy.
+     */
+    public boolean wasExecuted(Long ruleId, String executionKey) {
+        if (executedKeysReady && !executedKeys.mightContain(dedupKey(ruleId, executionKey))) {
+            return false;
+        }
+        return executionKeyRepository.existsByRuleIdAndExecutionKey(ruleId, executionKey);
+    }
+
+    public void recordExecution(Long ruleId, String executionKey) {
+        executedKeys.put(dedupKey(ruleId, executionKey));
+    }
+
+    /**
+     * Buduje filtr Blooma z istniejących kluczy. Przebudowa codziennie po czyszczeniu starych kluczy
+     * (filtr nie wspiera usuwania) - do czasu zbudowania każde sprawdzenie idzie do bazy.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "0 30 3 * * ?")
+    public void rebuildExecutedKeys() {
+        synchronized (executedKeysLock) {
+            KeyBloomFilter filter = new KeyBloomFilter(expectedKeys, 0.01);
+            // Klucze zapisane w trakcie budowy trafiają do obu filtrów
+            KeyBloomFilter previous = executedKeys;
+            executedKeys = new MirroringBloomFilter(previous, filter);
+
+            long[] loaded = loadKeysAfter(0L, filter);
+
+            executedKeys = filter;
+            lastSyncedKeyId = loaded[1];
+            executedKeysReady = true;
+            log.info("Workflow dedup filter built from {} execution keys", loaded[0]);
+        }
+    }
+
+    /**
+     * Dociąga do filtra klucze zapisane od ostatniej synchronizacji (także przez inne instancje)
+     */
+    @Scheduled(fixedDelayString = "${workflow.dedup.sync-ms:30000}", initialDelayString = "${workflow.dedup.sync-ms:30000}")
+    public void syncExecutedKeys() {
+        synchronized (executedKeysLock) {
+            if (!executedKeysReady) {
+                return;
+            }
+            long[] loaded = loadKeysAfter(Math.max(0, lastSyncedKeyId - KEY_SYNC_OVERLAP), executedKeys);
+            lastSyncedKeyId = Math.max(lastSyncedKeyId, loaded[1]);
+            log.debug("Workflow dedup filter synced {} execution keys (up to id {})", loaded[0], lastSyncedKeyId);
+        }
+    }
+
+    /**
+     * @return [liczba wczytanych kluczy, największe wczytane ID]
+     */
+    private long[] loadKeysAfter(long afterId, KeyBloomFilter filter) {
+        long[] loaded = {0, afterId};
+        transactionTemplate.executeWithoutResult(status ->
+                executionKeyRepository.streamKeysAfter(afterId).forEach(row -> {
+                    filter.put(dedupKey(((Number) row[1]).longValue(), (String) row[2]));
+                    loaded[0]++;
+                    loaded[1] = Math.max(loaded[1], ((Number) row[0]).longValue());
+                }));
+        return loaded;
+    }
+
+    private static String dedupKey(Long ruleId, String executionKey) {
+        return ruleId + ":" + executionKey;
+    }
+
+    // ==================== COMPILED RULES ====================
+
+    /**
+     * Reguła z predykatem skompilowanym z triggerConfig i wartościami filtrów do indeksu
+     */
+    record CompiledRule(WorkflowRule rule, Map<String, Long> filters, Predicate<Map<String, Object>> condition) {
+
+        static final Comparator<CompiledRule> ORDER = Comparator
+                .comparing((CompiledRule c) -> c.rule().getPriority() != null ? c.rule().getPriority() : Integer.MAX_VALUE)
+                .thenComparing(c -> c.rule().getId());
+
+        static CompiledRule compile(WorkflowRule rule) {
+            Map<String, Object> config = rule.getTriggerConfig();
+            Map<String, Long> filters = new HashMap<>();
+            Predicate<Map<String, Object>> condition = data -> true;
+
+            if (config != null) {
+                for (String key : INDEXED_FILTERS) {
+                    Object value = config.get(key);
+                    if (value instanceof Number number) {
+                        long expected = number.longValue();
+                        filters.put(key, expected);
+                        // Filtr działa tylko gdy zdarzenie niesie tę wartość - jak dotychczas dla tagId
+                        condition = condition.and(data -> {
+                            Object actual = data.get(key);
+                            return !(actual instanceof Number n) || n.longValue() == expected;
+                        });
+                    } else if (value != null) {
+                        log.debug("Rule {} has invalid {} config (not a number): {}, ignoring filter",
+                                rule.getId(), key, value);
+                    }
+                }
+            }
+            return new CompiledRule(rule, Map.copyOf(filters), condition);
+        }
+
+        boolean matches(Map<String, Object> triggerData) {
+            return triggerData == null || condition.test(triggerData);
+        }
+    }
+
+    /**
+     * Reguły jednego triggera i właściciela: wszystkie oraz podział po wartościach filtrów
+     */
+    record RuleBucket(List<CompiledRule> all, Map<String, FilterIndex> byFilter) {
+
+        static RuleBucket of(List<CompiledRule> rules) {
+            List<CompiledRule> sorted = new ArrayList<>(rules);
+            sorted.sort(CompiledRule.ORDER);
+
+            Map<String, FilterIndex> byFilter = new HashMap<>();
+            for (String key : INDEXED_FILTERS) {
+                byFilter.put(key, FilterIndex.of(key, sorted));
+            }
+            return new RuleBucket(List.copyOf(sorted), byFilter);
+        }
+
+        /**
+         * Kandydaci dla zdarzenia - jeśli zdarzenie niesie wartość filtra, tylko reguły z tą wartością
+         * lub bez filtra; posortowane po priorytecie
+         */
+        List<CompiledRule> candidates(Map<String, Object> triggerData) {
+            if (triggerData != null) {
+                for (String key : INDEXED_FILTERS) {
+                    if (triggerData.get(key) instanceof Number value) {
+                        return byFilter.get(key).candidates(value.longValue());
+                    }
+                }
+            }
+            return all;
+        }
+    }
+
+    record FilterIndex(Map<Long, List<CompiledRule>> byValue, List<CompiledRule> unfiltered) {
+
+        static FilterIndex of(String key, List<CompiledRule> sorted) {
+            Map<Long, List<CompiledRule>> byValue = new HashMap<>();
+            List<CompiledRule> unfiltered = new ArrayList<>();
+            for (CompiledRule rule : sorted) {
+                Long value = rule.filters().get(key);
+                if (value != null) {
+                    byValue.computeIfAbsent(value, v -> new ArrayList<>()).add(rule);
+                } else {
+                    unfiltered.add(rule);
+                }
+            }
+            return new FilterIndex(byValue, unfiltered);
+        }
+
+        List<CompiledRule> candidates(long value) {
+            List<CompiledRule> matching = byValue.get(value);
+            if (matching == null) {
+                return unfiltered;
+            }
+            if (unfiltered.isEmpty()) {
+                return matching;
+            }
+            List<CompiledRule> merged = new ArrayList<>(matching.size() + unfiltered.size());
+            merged.addAll(matching);
+            merged.addAll(unfiltered);
+            merged.sort(CompiledRule.ORDER);
+            return merged;
+        }
+    }
+
+    // ==================== BLOOM FILTER ====================
+
+    /**
+     * Prosty, bezpieczny wątkowo filtr Blooma (double hashing na 64-bitowym FNV-1a)
+     */
+    static class KeyBloomFilter {
+
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashFunctions;
+
+        KeyBloomFilter(int expectedInsertions, double falsePositiveRate) {
+            long n = Math.max(1, expectedInsertions);
+            long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.bitCount = Math.max(64, m);
+            this.hashFunctions = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+            this.bits = new AtomicLongArray((int) ((bitCount + 63) / 64));
+        }
+
+        void put(String key) {
+            long hash = hash(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashFunctions; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long current;
+                do {
+                    current = bits.get(word);
+                    if ((current & mask) != 0) {
+                        break;
+                    }
+                } while (!bits.compareAndSet(word, current, current | mask));
+            }
+        }
+
+        boolean mightContain(String key) {
+            long hash = hash(key);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashFunctions; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long hash(String key) {
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b;
+                hash *= 0x100000001b3L;
+            }
+            // Końcowe wymieszanie bitów (fmix64)
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+
+    /**
+     * Na czas przebudowy: zapis do starego i nowego filtra, odczyt ze starego
+     */
+    private static class MirroringBloomFilter extends KeyBloomFilter {
+
+        private final KeyBloomFilter current;
+        private final KeyBloomFilter next;
+
+        MirroringBloomFilter(KeyBloomFilter current, KeyBloomFilter next) {
+            super(1, 0.5);
+            this.current = current;
+            this.next = next;
+        }
+
+        @Override
+        void put(String key) {
+            current.put(key);
+            next.put(key);
+        }
+
+        @Override
+        boolean mightContain(String key) {
+            return current.mightContain(key);
+        }
+    }
+}
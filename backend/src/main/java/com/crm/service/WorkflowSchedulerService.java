@@ -5,9 +5,11 @@ import com.crm.model.WorkflowRule.TriggerType;
 import com.crm.repository.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.util.*;
@@ -25,16 +27,20 @@ public class WorkflowSchedulerService {
     private final WorkflowExecutionKeyRepository executionKeyRepository;
     private final ScheduledEmailRepository scheduledEmailRepository;
     private final SequenceExecutionRepository sequenceExecutionRepository;
-    private final EmailRepository emailRepository;
     private final ContactRepository contactRepository;
     private final WorkflowAutomationService workflowAutomationService;
+    private final ProcessingWatermarkRepository watermarkRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${workflow.no-reply.max-attempts:5}")
+    private int maxAttempts;
 
     /**
      * Sprawdza reguły NO_REPLY co godzinę.
      * Szuka kontaktów, którzy nie odpowiedzieli na emaile w określonym czasie.
+     * Bez wspólnej transakcji - błąd jednej reguły nie wycofuje watermarków i wykonań pozostałych.
      */
     @Scheduled(cron = "0 0 * * * ?") // Co godzinę
-    @Transactional
     public void processNoReplyRules() {
         log.info("Starting NO_REPLY workflow check...");
 
@@ -64,7 +70,13 @@ public class WorkflowSchedulerService {
     }
 
     /**
-     * Przetwarza pojedynczą regułę NO_REPLY
+     * Przetwarza pojedynczą regułę NO_REPLY - przyrostowo.
+     * Watermark reguły to poprzedni cutoff, więc sprawdzane są tylko emaile, które przekroczyły
+     * próg dni od ostatniego uruchomienia. Odpowiedzi i wcześniejsze wykonania odfiltrowuje
+     * jedno zapytanie (anti-join), a nie sprawdzanie per email.
+     * Każdy kandydat wykonuje się w osobnej transakcji. Watermark przesuwa się zawsze - nieudany
+     * kandydat trafia do workflow_no_reply_retries i jest ponawiany w kolejnych przebiegach
+     * do limitu workflow.no-reply.max-attempts.
      */
     private int processNoReplyRule(WorkflowRule rule) {
         Map<String, Object> config = rule.getTriggerConfig();
@@ -77,80 +89,83 @@ public class WorkflowSchedulerService {
         Long sequenceId = config.containsKey("sequenceId") ? 
                 ((Number) config.get("sequenceId")).longValue() : null;
 
-        LocalDateTime cutoffDate = LocalDateTime.now().minusDays(days);
-        int triggered = 0;
+        // Najpierw ponowienia z poprzednich przebiegów - bez tych, które odpowiedź lub wykonanie już rozstrzygnęły
+        transactionTemplate.executeWithoutResult(status ->
+                scheduledEmailRepository.deleteResolvedNoReplyRetries(rule.getId()));
+        List<ScheduledEmailRepository.NoReplyCandidate> candidates = new ArrayList<>(
+                scheduledEmailRepository.findNoReplyRetries(rule.getId(), sequenceId, maxAttempts));
 
-        // Znajdź wysłane emaile bez odpowiedzi
-        List<ScheduledEmail> sentEmails;
-        if (sequenceId != null) {
-            // Filtruj po konkretnej sekwencji
-            sentEmails = scheduledEmailRepository.findSentEmailsWithoutReply(sequenceId, cutoffDate);
-        } else {
-            // Wszystkie sekwencje
-            sentEmails = scheduledEmailRepository.findAllSentEmailsWithoutReply(cutoffDate);
-        }
+        String watermarkName = ProcessingWatermark.noReplyRule(rule.getId());
+        ProcessingWatermark watermark = watermarkRepository.findById(watermarkName)
+                .orElseGet(() -> new ProcessingWatermark(watermarkName));
 
-        log.debug("Found {} sent emails without reply (cutoff: {}, sequenceId: {})", 
-                 sentEmails.size(), cutoffDate, sequenceId);
+        // Pierwsze uruchomienie reguły (brak watermarku) sprawdza całą historię
+        LocalDateTime since = watermark.getLastTimestamp();
+        LocalDateTime cutoffDate = LocalDateTime.now().minusDays(days);
+        boolean windowOpen = since == null || cutoffDate.isAfter(since);
+        if (windowOpen) {
+            List<ScheduledEmailRepository.NoReplyCandidate> fresh =
+                    scheduledEmailRepository.findNoReplyCandidates(rule.getId(), sequenceId, since, cutoffDate);
+            log.debug("Rule {}: {} NO_REPLY candidates sent in ({}, {}], {} retries (sequenceId: {})",
+                     rule.getId(), fresh.size(), since, cutoffDate, candidates.size(), sequenceId);
+            candidates.addAll(fresh);
+        }
 
-        for (ScheduledEmail scheduledEmail : sentEmails) {
+        int triggered = 0;
+        for (ScheduledEmailRepository.NoReplyCandidate candidate : candidates) {
             try {
-                // Sprawdź czy już uruchomiono dla tego kontaktu/sekwencji
-                Contact contact = scheduledEmail.getExecution().getContact();
-                Long execSequenceId = scheduledEmail.getExecution().getSequence().getId();
-                
-                String executionKey = WorkflowExecutionKey.buildKeyForSequence(
-                        contact.getId(), execSequenceId);
-
-                if (executionKeyRepository.existsByRuleIdAndExecutionKey(rule.getId(), executionKey)) {
-                    log.debug("Rule {} already executed for contact {} in sequence {}", 
-                             rule.getId(), contact.getId(), execSequenceId);
-                    continue;
-                }
-
-                // Sprawdź czy kontakt odpowiedział na jakikolwiek email z tej sekwencji
-                if (hasContactReplied(contact, scheduledEmail.getExecution())) {
-                    log.debug("Contact {} has replied in sequence {}, skipping NO_REPLY trigger", 
-                             contact.getId(), execSequenceId);
-                    continue;
+                Boolean executed = transactionTemplate.execute(status -> {
+                    boolean result = executeNoReply(rule, candidate, days);
+                    scheduledEmailRepository.deleteNoReplyRetry(rule.getId(), candidate.getScheduledEmailId());
+                    return result;
+                });
+                if (Boolean.TRUE.equals(executed)) {
+                    triggered++;
                 }
-
-                // Uruchom workflow
-                Map<String, Object> triggerData = new HashMap<>();
-                triggerData.put("contactId", contact.getId());
-                triggerData.put("sequenceId", execSequenceId);
-                triggerData.put("scheduledEmailId", scheduledEmail.getId());
-                triggerData.put("daysSinceSent", days);
-                triggerData.put("sentAt", scheduledEmail.getSentAt().toString());
-
-                workflowAutomationService.executeRule(rule, contact, null, null, triggerData);
-                triggered++;
-
             } catch (Exception e) {
                 log.error("Error processing NO_REPLY for scheduled email {}: {}", 
-                         scheduledEmail.getId(), e.getMessage());
+                         candidate.getScheduledEmailId(), e.getMessage());
+                recordFailure(rule, candidate, e);
             }
         }
 
+        // Nieudani kandydaci są już w tabeli ponowień - okno nie musi być sprawdzane ponownie
+        if (windowOpen) {
+            watermark.setLastTimestamp(cutoffDate);
+            transactionTemplate.executeWithoutResult(status -> watermarkRepository.save(watermark));
+        }
         return triggered;
     }
 
     /**
-     * Sprawdza czy kontakt odpowiedział na emaile z danej sekwencji
+     * Zapisuje nieudaną próbę kandydata we własnej transakcji (transakcja kandydata została wycofana)
      */
-    private boolean hasContactReplied(Contact contact, SequenceExecution execution) {
-        // Sprawdź czy są emaile od kontaktu po rozpoczęciu sekwencji
-        LocalDateTime sequenceStartDate = execution.getStartedAt();
-        if (sequenceStartDate == null) {
-            return false;
+    private void recordFailure(WorkflowRule rule, ScheduledEmailRepository.NoReplyCandidate candidate, Exception error) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> scheduledEmailRepository.recordNoReplyFailure(
+                    rule.getId(), candidate.getScheduledEmailId(), String.valueOf(error.getMessage())));
+        } catch (Exception e) {
+            log.error("Could not record NO_REPLY retry for scheduled email {}: {}",
+                     candidate.getScheduledEmailId(), e.getMessage());
         }
+    }
 
-        // Znajdź emaile od kontaktu po tej dacie
-        List<Email> repliesFromContact = emailRepository
-                .findBySenderContainingIgnoreCaseAndReceivedAtAfter(
-                        contact.getEmail(), sequenceStartDate);
+    private boolean executeNoReply(WorkflowRule rule, ScheduledEmailRepository.NoReplyCandidate candidate, int days) {
+        Contact contact = contactRepository.findById(candidate.getContactId()).orElse(null);
+        if (contact == null) {
+            return false;
+        }
 
-        return !repliesFromContact.isEmpty();
+        Map<String, Object> triggerData = new HashMap<>();
+        triggerData.put("contactId", contact.getId());
+        triggerData.put("sequenceId", candidate.getSequenceId());
+        triggerData.put("scheduledEmailId", candidate.getScheduledEmailId());
+        triggerData.put("daysSinceSent", days);
+        triggerData.put("sentAt", candidate.getSentAt().toString());
+
+        String executionKey = WorkflowExecutionKey.buildKeyForSequence(contact.getId(), candidate.getSequenceId());
+        // Wyjątek wycofuje transakcję kandydata razem z rezerwacją klucza - trafi do ponowień
+        return workflowAutomationService.executeRule(rule, contact, null, null, triggerData, executionKey);
     }
 
     /**
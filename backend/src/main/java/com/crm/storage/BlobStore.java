@@ -0,0 +1,74 @@
+package com.crm.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Magazyn treści adresowanych skrótem SHA-256 (hex). Ten sam klucz zawsze oznacza te same bajty,
+ * więc zapis istniejącego klucza jest no-opem, a treść może być współdzielona przez wiele rekordów.
+ *
+ * Implementacje: {@link LocalBlobStore} (dysk) i {@link S3BlobStore} (S3 / MinIO), wybór przez app.blob.store.
+ */
+public interface BlobStore {
+
+    /**
+     * Zapisuje plik pod kluczem. Plik źródłowy może zostać przeniesiony - wywołujący usuwa go, jeśli nadal istnieje.
+     */
+    void put(String key, Path source) throws IOException;
+
+    void put(String key, byte[] content) throws IOException;
+
+    boolean exists(String key) throws IOException;
+
+    /**
+     * Strumień treści; NoSuchFileException, gdy klucza nie ma
+     */
+    InputStream open(String key) throws IOException;
+
+    /**
+     * Treść jako zasób do odpowiedzi HTTP (z długością, bez ładowania do pamięci)
+     */
+    Resource asResource(String key);
+
+    void delete(String key) throws IOException;
+
+    /**
+     * Czytelne miejsce przechowywania (ścieżka pliku, s3://bucket/klucz) - do logów i kolumn path
+     */
+    String locationOf(String key);
+
+    default byte[] read(String key) throws IOException {
+        try (InputStream in = open(key)) {
+            return in.readAllBytes();
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static String keyOf(byte[] content) {
+        return HexFormat.of().formatHex(newDigest().digest(content));
+    }
+
+    /**
+     * Rozkłada klucze na podkatalogi po dwóch pierwszych znakach (ab/abcd...), żeby nie trzymać
+     * setek tysięcy plików w jednym katalogu
+     */
+    static String shardedName(String key) {
+        if (key == null || key.length() < 3 || !key.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            throw new IllegalArgumentException("Invalid blob key: " + key);
+        }
+        return key.substring(0, 2) + "/" + key;
+    }
+}
@@ -0,0 +1,139 @@
+package com.crm.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Treści w buckecie S3 lub zgodnym z S3 (MinIO lokalnie - endpoint i path-style w BlobStoreConfig).
+ * Klucz obiektu: {prefix}ab/abcd...
+ */
+@Slf4j
+public class S3BlobStore implements BlobStore {
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String prefix;
+
+    public S3BlobStore(S3Client s3, String bucket, String prefix) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.prefix = prefix == null ? "" : prefix;
+    }
+
+    private String objectKey(String key) {
+        return prefix + BlobStore.shardedName(key);
+    }
+
+    @Override
+    public void put(String key, Path source) throws IOException {
+        if (exists(key)) {
+            return;
+        }
+        try {
+            s3.putObject(b -> b.bucket(bucket).key(objectKey(key)), RequestBody.fromFile(source));
+        } catch (S3Exception e) {
+            throw new IOException("S3 put failed for " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] content) throws IOException {
+        if (exists(key)) {
+            return;
+        }
+        try {
+            s3.putObject(b -> b.bucket(bucket).key(objectKey(key)), RequestBody.fromBytes(content));
+        } catch (S3Exception e) {
+            throw new IOException("S3 put failed for " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        return head(key) != null;
+    }
+
+    private HeadObjectResponse head(String key) throws IOException {
+        try {
+            return s3.headObject(b -> b.bucket(bucket).key(objectKey(key)));
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return null;
+            }
+            throw new IOException("S3 head failed for " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        try {
+            return s3.getObject(b -> b.bucket(bucket).key(objectKey(key)));
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(locationOf(key));
+        } catch (S3Exception e) {
+            throw new IOException("S3 get failed for " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Resource asResource(String key) {
+        return new AbstractResource() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return open(key);
+            }
+
+            @Override
+            public boolean exists() {
+                try {
+                    return S3BlobStore.this.exists(key);
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            public long contentLength() throws IOException {
+                HeadObjectResponse head = head(key);
+                if (head == null) {
+                    throw new FileNotFoundException(locationOf(key));
+                }
+                return head.contentLength();
+            }
+
+            @Override
+            public String getDescription() {
+                return "S3 object [" + locationOf(key) + "]";
+            }
+        };
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        try {
+            s3.deleteObject(b -> b.bucket(bucket).key(objectKey(key)));
+            log.debug("Deleted blob {}", key);
+        } catch (S3Exception e) {
+            throw new IOException("S3 delete failed for " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String locationOf(String key) {
+        return "s3://" + bucket + "/" + objectKey(key);
+    }
+}
@@ -0,0 +1,22 @@
+-- V30: Set-based reply detection
+-- Znormalizowany adres nadawcy (lowercase, bez "Imię <...>") pozwala łączyć emaile
+-- z egzekucjami sekwencji po indeksie zamiast LIKE '%adres%'
+
+ALTER TABLE emails ADD COLUMN IF NOT EXISTS sender_email VARCHAR(255);
+
+UPDATE emails
+SET sender_email = LOWER(TRIM(COALESCE(SUBSTRING(sender FROM '<([^>]+)>'), sender)))
+WHERE sender_email IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_emails_sender_email_received_at ON emails (sender_email, received_at);
+
+-- Znaczniki postępu (watermark) dla zadań przetwarzających przyrostowo nowe dane
+CREATE TABLE IF NOT EXISTS processing_watermarks (
+    name VARCHAR(100) PRIMARY KEY,
+    last_id BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Komentarze
+COMMENT ON COLUMN emails.sender_email IS 'Znormalizowany adres nadawcy (lowercase) do wykrywania odpowiedzi';
+COMMENT ON TABLE processing_watermarks IS 'Ostatnie przetworzone ID dla zadań przyrostowych (np. wykrywanie odpowiedzi)';
@@ -0,0 +1,12 @@
+-- V31: Harmonogram wysyłki kampanii per odbiorca
+-- Każdy odbiorca dostaje slot czasowy wyliczony z throttle_per_hour / delay_seconds / daily_limit,
+-- a silnik wysyłki pobiera tylko odbiorców, których slot już minął.
+
+ALTER TABLE campaign_recipients ADD COLUMN IF NOT EXISTS scheduled_for TIMESTAMP;
+
+CREATE INDEX IF NOT EXISTS idx_campaign_recipients_due
+    ON campaign_recipients (campaign_id, scheduled_for)
+    WHERE status = 'pending';
+
+COMMENT ON COLUMN campaign_recipients.scheduled_for IS 'Zaplanowany moment wysyłki (slot z throttlingu kampanii)';
+COMMENT ON COLUMN campaign_recipients.status IS 'pending, queued (przekazany do wysyłki), sent, opened, clicked, bounced, unsubscribed';
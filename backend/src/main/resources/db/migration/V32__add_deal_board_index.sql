@@ -0,0 +1,7 @@
+-- V32: Indeks pod tablicę Kanban deali
+-- Karty etapu pobierane są posortowane po updated_at z limitem na kolumnę (ROW_NUMBER() OVER (PARTITION BY stage_id)),
+-- a liczniki/sumy liczone są GROUP BY stage_id - oba zapytania pomijają usunięte deale.
+
+CREATE INDEX IF NOT EXISTS idx_deals_board
+    ON deals (pipeline_id, stage_id, updated_at DESC)
+    WHERE deleted_at IS NULL;
@@ -0,0 +1,36 @@
+-- V33: Kolejka zdarzeń workflow (transactional outbox)
+-- Triggery zapisują zdarzenie w transakcji wywołującego, a reguły wykonuje pula workerów.
+-- Zdarzenia jednego kontaktu są przetwarzane po kolei, nieudane wracają z opóźnieniem,
+-- po wyczerpaniu prób trafiają do statusu DEAD.
+
+CREATE TABLE IF NOT EXISTS workflow_events (
+    id BIGSERIAL PRIMARY KEY,
+    trigger_type VARCHAR(50) NOT NULL,
+    contact_id BIGINT,
+    email_id BIGINT,
+    deal_id BIGINT,
+    trigger_data JSONB,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INTEGER NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    last_error TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    processed_at TIMESTAMP
+);
+
+-- Pobieranie kolejnych zdarzeń do przetworzenia
+CREATE INDEX IF NOT EXISTS idx_workflow_events_due
+    ON workflow_events (next_attempt_at, id)
+    WHERE status = 'PENDING';
+
+-- Kolejność per kontakt - sprawdzenie wcześniejszych, niezakończonych zdarzeń
+CREATE INDEX IF NOT EXISTS idx_workflow_events_contact_open
+    ON workflow_events (contact_id, id)
+    WHERE status IN ('PENDING', 'PROCESSING');
+
+CREATE INDEX IF NOT EXISTS idx_workflow_events_processed_at
+    ON workflow_events (processed_at)
+    WHERE status = 'DONE';
+
+COMMENT ON TABLE workflow_events IS 'Kolejka zdarzeń workflow zapisywana w transakcji triggera (outbox)';
+COMMENT ON COLUMN workflow_events.status IS 'PENDING, PROCESSING, DONE, DEAD (wyczerpane próby)';
@@ -0,0 +1,4 @@
+-- V34: Indeks idx_workflow_exec_keys_lookup dubluje indeks ograniczenia UNIQUE(rule_id, execution_key).
+-- Każdy zapis klucza wykonania aktualizował dwa identyczne B-drzewa.
+
+DROP INDEX IF EXISTS idx_workflow_exec_keys_lookup;
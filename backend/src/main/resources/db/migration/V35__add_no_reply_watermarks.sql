@@ -0,0 +1,11 @@
+-- V35: Przyrostowe sprawdzanie reguł NO_REPLY
+-- Watermark per reguła przechowuje granicę czasu (sent_at) już sprawdzonych emaili,
+-- kolejne uruchomienie bierze tylko emaile, które od tego czasu przekroczyły próg dni.
+
+ALTER TABLE processing_watermarks ADD COLUMN IF NOT EXISTS last_timestamp TIMESTAMP;
+
+CREATE INDEX IF NOT EXISTS idx_scheduled_emails_sent_at
+    ON scheduled_emails (sent_at)
+    WHERE status = 'sent';
+
+COMMENT ON COLUMN processing_watermarks.last_timestamp IS 'Granica czasowa przetworzonych danych (np. sent_at dla reguł NO_REPLY)';
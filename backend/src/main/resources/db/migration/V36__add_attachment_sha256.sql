@@ -0,0 +1,4 @@
+-- Skrót SHA-256 treści załącznika: deduplikacja plików na dysku i ETag przy pobieraniu
+ALTER TABLE attachments ADD COLUMN IF NOT EXISTS sha256 VARCHAR(64);
+
+CREATE INDEX IF NOT EXISTS idx_attachments_sha256 ON attachments(sha256) WHERE sha256 IS NOT NULL;
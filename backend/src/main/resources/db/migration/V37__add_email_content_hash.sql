@@ -0,0 +1,3 @@
+-- Duże treści maili przeniesione do magazynu treści (BlobStore) - w wierszu zostaje tylko skrót,
+-- a content jest NULL. Zapytania list i wyszukiwania nie czytają wtedy dużych wartości TOAST.
+ALTER TABLE emails ADD COLUMN IF NOT EXISTS content_hash VARCHAR(64);
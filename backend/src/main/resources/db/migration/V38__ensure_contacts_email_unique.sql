@@ -0,0 +1,90 @@
+-- Upsert kontaktów (INSERT ... ON CONFLICT (email)) wymaga unikalnego indeksu na contacts.email.
+-- Ograniczenie tworzył Hibernate (unique = true), więc zwykle już jest - indeks zakładamy tylko gdy go brak.
+-- Bez ograniczenia w tabeli mogą być duplikaty adresu. Zostaje najstarszy kontakt (najmniejsze id) z sumą
+-- email_count i uzupełnionymi pustymi polami, a powiązania duplikatów są przepinane na niego. Usuwane są tylko
+-- te powiązania duplikatu, które po przepięciu powtórzyłyby klucz unikalny tabeli powiązań (np. ten sam tag
+-- jest już na zachowanym kontakcie). Każdy inny błąd przepięcia przerywa migrację.
+DO $$
+DECLARE
+    fk RECORD;
+    uq RECORD;
+    key_match TEXT;
+BEGIN
+    IF NOT EXISTS (
+        SELECT 1
+        FROM pg_index i
+        JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = i.indkey[0]
+        WHERE i.indrelid = 'contacts'::regclass
+          AND i.indisunique
+          AND i.indnatts = 1
+          AND i.indpred IS NULL
+          AND a.attname = 'email'
+    ) THEN
+        CREATE TEMP TABLE contact_duplicates ON COMMIT DROP AS
+        SELECT id AS duplicate_id, keep_id
+        FROM (SELECT id, MIN(id) OVER (PARTITION BY email) AS keep_id FROM contacts WHERE email IS NOT NULL) c
+        WHERE id <> keep_id;
+
+        IF EXISTS (SELECT 1 FROM contact_duplicates) THEN
+            UPDATE contacts k SET
+                email_count = COALESCE(k.email_count, 0) + d.email_count,
+                name = COALESCE(NULLIF(k.name, ''), d.name),
+                company = COALESCE(NULLIF(k.company, ''), d.company),
+                phone = COALESCE(NULLIF(k.phone, ''), d.phone),
+                position = COALESCE(NULLIF(k.position, ''), d.position)
+            FROM (
+                SELECT m.keep_id,
+                       SUM(COALESCE(c.email_count, 0)) AS email_count,
+                       MAX(NULLIF(c.name, '')) AS name,
+                       MAX(NULLIF(c.company, '')) AS company,
+                       MAX(NULLIF(c.phone, '')) AS phone,
+                       MAX(NULLIF(c.position, '')) AS position
+                FROM contact_duplicates m
+                JOIN contacts c ON c.id = m.duplicate_id
+                GROUP BY m.keep_id
+            ) d
+            WHERE k.id = d.keep_id;
+
+            FOR fk IN
+                SELECT con.conrelid AS tbl, a.attname AS col, a.attnum AS colnum
+                FROM pg_constraint con
+                JOIN pg_attribute a ON a.attrelid = con.conrelid AND a.attnum = con.conkey[1]
+                WHERE con.contype = 'f'
+                  AND con.confrelid = 'contacts'::regclass
+                  AND array_length(con.conkey, 1) = 1
+            LOOP
+                -- Dla każdego klucza unikalnego z kolumną kontaktu: wiersz duplikatu odpada, gdy ten sam klucz
+                -- ma już zachowany kontakt albo duplikat o mniejszym id (on zostanie przepięty)
+                FOR uq IN
+                    SELECT i.indkey::int2[] AS cols
+                    FROM pg_index i
+                    WHERE i.indrelid = fk.tbl
+                      AND i.indisunique
+                      AND i.indpred IS NULL
+                      AND i.indexprs IS NULL
+                      AND fk.colnum = ANY (i.indkey::int2[])
+                LOOP
+                    SELECT COALESCE(string_agg(format(' AND o.%1$I = t.%1$I', a.attname), ''), '')
+                    INTO key_match
+                    FROM pg_attribute a
+                    WHERE a.attrelid = fk.tbl
+                      AND a.attnum = ANY (uq.cols)
+                      AND a.attnum <> fk.colnum;
+
+                    EXECUTE format(
+                        'DELETE FROM %1$s t USING contact_duplicates m WHERE t.%2$I = m.duplicate_id AND EXISTS ('
+                        'SELECT 1 FROM %1$s o LEFT JOIN contact_duplicates om ON om.duplicate_id = o.%2$I '
+                        'WHERE COALESCE(om.keep_id, o.%2$I) = m.keep_id AND o.%2$I < t.%2$I%3$s)',
+                        fk.tbl::regclass, fk.col, key_match);
+                END LOOP;
+
+                EXECUTE format('UPDATE %s t SET %I = m.keep_id FROM contact_duplicates m WHERE t.%I = m.duplicate_id',
+                               fk.tbl::regclass, fk.col, fk.col);
+            END LOOP;
+
+            DELETE FROM contacts c USING contact_duplicates m WHERE c.id = m.duplicate_id;
+        END IF;
+
+        CREATE UNIQUE INDEX uq_contacts_email ON contacts (email);
+    END IF;
+END $$;
@@ -0,0 +1,45 @@
+-- V39: Lokalna kopia danych Woodpecker
+-- Widoki integracji czytają z tych tabel, a WoodpeckerSyncService okresowo pobiera zmiany z API.
+-- payload przechowuje obiekt w formacie zwróconym przez Woodpecker.
+
+CREATE TABLE IF NOT EXISTS woodpecker_campaigns (
+    id BIGINT PRIMARY KEY,
+    name VARCHAR(500),
+    status VARCHAR(50),
+    payload JSONB NOT NULL,
+    synced_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS woodpecker_prospects (
+    id BIGINT PRIMARY KEY,
+    email VARCHAR(255),
+    status VARCHAR(50),
+    payload JSONB NOT NULL,
+    synced_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_woodpecker_prospects_email ON woodpecker_prospects (email);
+
+-- Prospect może być w kilku kampaniach
+CREATE TABLE IF NOT EXISTS woodpecker_campaign_prospects (
+    campaign_id BIGINT NOT NULL,
+    prospect_id BIGINT NOT NULL REFERENCES woodpecker_prospects (id) ON DELETE CASCADE,
+    PRIMARY KEY (campaign_id, prospect_id)
+);
+
+CREATE TABLE IF NOT EXISTS woodpecker_mailboxes (
+    id BIGINT PRIMARY KEY,
+    email VARCHAR(255),
+    payload JSONB NOT NULL,
+    synced_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Stan synchronizacji per zasób (campaigns, mailboxes, prospects, campaign:{id}:prospects)
+CREATE TABLE IF NOT EXISTS woodpecker_sync_state (
+    resource VARCHAR(100) PRIMARY KEY,
+    etag VARCHAR(255),
+    synced_from TIMESTAMP,
+    synced_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+COMMENT ON TABLE woodpecker_sync_state IS 'ETag ostatniej odpowiedzi i początek ostatniej udanej synchronizacji (punkt startowy kolejnej delty)';
@@ -0,0 +1,11 @@
+-- V40: Dzierżawa odbiorców przekazanych do wysyłki
+-- claimed_at to moment oznaczenia odbiorcy jako 'queued'. Do kolejki wracają tylko odbiorcy,
+-- których dzierżawa wygasła - nie ci, których w tej chwili wysyła inna instancja.
+
+ALTER TABLE campaign_recipients ADD COLUMN IF NOT EXISTS claimed_at TIMESTAMP;
+
+CREATE INDEX IF NOT EXISTS idx_campaign_recipients_claimed
+    ON campaign_recipients (claimed_at)
+    WHERE status = 'queued';
+
+COMMENT ON COLUMN campaign_recipients.claimed_at IS 'Moment przekazania do wysyłki (status queued) - dzierżawa wygasa po campaign.sending.lease-minutes';
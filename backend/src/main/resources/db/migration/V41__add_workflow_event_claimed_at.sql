@@ -0,0 +1,11 @@
+-- V41: Dzierżawa zdarzeń workflow w trakcie przetwarzania
+-- claimed_at to moment oznaczenia zdarzenia jako PROCESSING. Do kolejki wracają tylko zdarzenia
+-- z wygasłą dzierżawą - nie te, które w tej chwili wykonuje inna instancja.
+
+ALTER TABLE workflow_events ADD COLUMN IF NOT EXISTS claimed_at TIMESTAMP;
+
+CREATE INDEX IF NOT EXISTS idx_workflow_events_claimed
+    ON workflow_events (claimed_at)
+    WHERE status = 'PROCESSING';
+
+COMMENT ON COLUMN workflow_events.claimed_at IS 'Moment pobrania do przetwarzania - dzierżawa wygasa po workflow.events.lease-minutes';
@@ -0,0 +1,7 @@
+-- V42: Wyszukiwanie maili po kluczu treści w BlobStore
+-- Klucze są wspólne z załącznikami - przed usunięciem treści załącznika sprawdzamy, czy nie jest
+-- to też treść maila.
+
+CREATE INDEX IF NOT EXISTS idx_emails_content_hash
+    ON emails (content_hash)
+    WHERE content_hash IS NOT NULL;
@@ -0,0 +1,7 @@
+-- V43: Przebieg synchronizacji kontaktów z maili, który ostatnio zapisał kontakt
+-- Pierwszy zapis nadawcy w przebiegu ustawia email_count, kolejne go zwiększają - bez trzymania
+-- w pamięci wszystkich nadawców przebiegu.
+
+ALTER TABLE contacts ADD COLUMN IF NOT EXISTS reconcile_run BIGINT;
+
+COMMENT ON COLUMN contacts.reconcile_run IS 'Id przebiegu POST /api/contacts/sync-from-emails, który ostatnio zapisał kontakt';
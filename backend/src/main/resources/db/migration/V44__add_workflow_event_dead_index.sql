@@ -0,0 +1,6 @@
+-- V44: Zdarzenia w dead-letter
+-- Licznik DEAD dla metryk i panelu kolejki - bez przeglądania całej tabeli zdarzeń.
+
+CREATE INDEX IF NOT EXISTS idx_workflow_events_dead
+    ON workflow_events (id)
+    WHERE status = 'DEAD';
@@ -0,0 +1,11 @@
+-- V45: Reguły już wykonane dla zdarzenia z kolejki
+-- Wiersz zapisuje transakcja reguły razem z jej akcjami. Ponowienie zdarzenia (błąd innej reguły)
+-- pomija reguły z wierszem - także te z allow_multiple_executions, które nie rezerwują klucza wykonania.
+
+CREATE TABLE IF NOT EXISTS workflow_event_rule_runs (
+    event_id BIGINT NOT NULL REFERENCES workflow_events(id) ON DELETE CASCADE,
+    rule_id BIGINT NOT NULL,
+    PRIMARY KEY (event_id, rule_id)
+);
+
+COMMENT ON TABLE workflow_event_rule_runs IS 'Reguły zatwierdzone dla zdarzenia workflow - ponowienie zdarzenia ich nie powtarza';
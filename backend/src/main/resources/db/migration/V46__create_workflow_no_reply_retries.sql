@@ -0,0 +1,16 @@
+-- V46: Nieudani kandydaci reguł NO_REPLY do ponowienia
+-- Watermark reguły przesuwa się zawsze, więc kandydat, którego akcje rzuciły wyjątek, trafia tutaj
+-- i jest ponawiany w kolejnych przebiegach do limitu prób (workflow.no-reply.max-attempts).
+-- Wiersze po limicie zostają z last_error do diagnozy.
+
+CREATE TABLE IF NOT EXISTS workflow_no_reply_retries (
+    rule_id BIGINT NOT NULL REFERENCES workflow_rules(id) ON DELETE CASCADE,
+    scheduled_email_id BIGINT NOT NULL REFERENCES scheduled_emails(id) ON DELETE CASCADE,
+    attempts INTEGER NOT NULL DEFAULT 1,
+    last_error TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (rule_id, scheduled_email_id)
+);
+
+COMMENT ON TABLE workflow_no_reply_retries IS 'Kandydaci NO_REPLY, których wykonanie się nie powiodło - ponawiani do limitu prób';
@@ -3,7 +3,7 @@ package com.crm.controller;
 import com.crm.dto.ContactDto;
 import com.crm.mapper.ContactMapper;
 import com.crm.model.Contact;
-import com.crm.service.ContactAutoCreationService;
+import com.crm.service.ContactReconciliationService;
 import com.crm.service.ContactService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
@@ -42,7 +42,7 @@ class ContactControllerTest {
     private ContactService contactService;
 
     @MockBean
-    private ContactAutoCreationService contactAutoCreationService;
+    private ContactReconciliationService contactReconciliationService;
 
     // Jwt components might be needed if SecurityConfig is loaded
     // but with @WebMvcTest and @WithMockUser we often bypass filters or need to mock beans.
@@ -60,6 +60,9 @@ class ContactControllerTest {
     @MockBean
     private com.crm.security.JwtAuthenticationEntryPoint jwtAuthenticationEntryPoint;
 
+    @MockBean
+    private com.crm.security.AuthenticatedPrincipalCache authenticatedPrincipalCache;
+
 
     @Autowired
     private ObjectMapper objectMapper;
@@ -0,0 +1,110 @@
+package com.crm.mapper;
+
+import com.crm.dto.ContactDto;
+import com.crm.model.Contact;
+import com.crm.model.EmailSequence;
+import com.crm.model.SequenceExecution;
+import com.crm.model.Tag;
+import com.crm.repository.ContactRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Pilnuje, żeby mapowanie listy kontaktów nie wracało do zapytań per wiersz (N+1).
+ * Baza H2 z src/test/resources/application.properties (tryb PostgreSQL), bez Flyway.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(ContactMapperImpl.class)
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class ContactMapperTest {
+
+    private static final int CONTACTS = 50;
+
+    @Autowired
+    private ContactMapper contactMapper;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Long contactInSequenceId;
+
+    @BeforeEach
+    void setUp() {
+        Tag vip = new Tag();
+        vip.setName("VIP");
+        entityManager.persist(vip);
+        Tag newsletter = new Tag();
+        newsletter.setName("Newsletter");
+        entityManager.persist(newsletter);
+
+        for (int i = 0; i < CONTACTS; i++) {
+            Contact contact = new Contact();
+            contact.setName("Contact " + i);
+            contact.setCompany("Company " + i);
+            contact.setEmail("contact" + i + "@example.com");
+            contact.getTags().add(vip);
+            if (i % 2 == 0) {
+                contact.getTags().add(newsletter);
+            }
+            entityManager.persist(contact);
+
+            if (i == 0) {
+                contactInSequenceId = contact.getId();
+            }
+        }
+
+        EmailSequence sequence = new EmailSequence();
+        sequence.setName("Onboarding");
+        entityManager.persist(sequence);
+
+        SequenceExecution execution = new SequenceExecution();
+        execution.setSequence(sequence);
+        execution.setContact(entityManager.find(Contact.class, contactInSequenceId));
+        execution.setRecipientEmail("contact0@example.com");
+        execution.setStatus("active");
+        entityManager.persist(execution);
+
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void shouldMapContactListWithConstantNumberOfStatements() {
+        List<Contact> contacts = contactRepository.findAll();
+        assertThat(contacts).hasSize(CONTACTS);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        List<ContactDto> dtos = contactMapper.toDtoList(contacts);
+        long totalTags = dtos.stream().mapToLong(dto -> dto.getTags().size()).sum();
+
+        // Jedno zapytanie o aktywne sekwencje + jedno o tagi, niezależnie od liczby kontaktów
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+
+        assertThat(totalTags).isEqualTo(CONTACTS + CONTACTS / 2);
+        assertThat(dtos).filteredOn(ContactDto::getInActiveSequence)
+                .extracting(ContactDto::getId)
+                .containsExactly(contactInSequenceId);
+    }
+}
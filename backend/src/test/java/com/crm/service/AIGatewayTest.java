@@ -0,0 +1,212 @@
+package com.crm.service;
+
+import com.crm.config.AIGatewayConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * AIGateway na lokalnym serwerze HTTP udającym API czatu (format OpenAI)
+ */
+class AIGatewayTest {
+
+    private static final AIGateway.Prompt PROMPT = new AIGateway.Prompt("system", "user", 0.7, 100);
+
+    private static final String MESSAGE_RESPONSE =
+            "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"Temat\"}}]," +
+            "\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":3}}";
+
+    private HttpServer server;
+    private SimpleMeterRegistry registry;
+    private AIMetrics metrics;
+    private AIGatewayConfig config;
+    private AIGateway client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+        registry = new SimpleMeterRegistry();
+        metrics = new AIMetrics(registry);
+        config = new AIGatewayConfig();
+        client = createGateway();
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.shutdown();
+        server.stop(0);
+    }
+
+    private AIGateway createGateway() {
+        return new AIGateway("http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions",
+                "test-key", "test-model", config, new ObjectMapper(), metrics);
+    }
+
+    @Test
+    void shouldStreamDeltaContentUntilDone() {
+        // given - fragmenty jak z API, z pustą deltą roli na początku
+        server.createContext("/v1/chat/completions", exchange -> {
+            String body = "data: {\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}\n\n" +
+                    "data: {\"choices\":[{\"delta\":{\"content\":\"Dzień \"}}]}\n\n" +
+                    "data: {\"choices\":[{\"delta\":{\"content\":\"dobry\"}}]}\n\n" +
+                    "data: [DONE]\n\n";
+            respond(exchange, "text/event-stream", body);
+        });
+
+        // when
+        List<String> tokens = client.stream("reply", PROMPT).collectList().block();
+
+        // then
+        assertThat(tokens).containsExactly("Dzień ", "dobry");
+        assertThat(stats("reply")).containsEntry("requests", 1L).containsEntry("errors", 0L);
+    }
+
+    @Test
+    void shouldReturnMessageContentAndCountTokens() {
+        // given
+        server.createContext("/v1/chat/completions", exchange -> respond(exchange, "application/json", MESSAGE_RESPONSE));
+
+        // when
+        String content = client.complete("subject", PROMPT).block();
+
+        // then
+        assertThat(content).isEqualTo("Temat");
+        assertThat(stats("subject"))
+                .containsEntry("requests", 1L)
+                .containsEntry("promptTokens", 12L)
+                .containsEntry("completionTokens", 3L);
+        assertThat(registry.get("crm.ai.tokens").tags("feature", "subject", "type", "prompt").counter().count())
+                .isEqualTo(12.0);
+        assertThat(registry.get("crm.ai.requests").tag("feature", "subject").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCoalesceIdenticalPromptsAndServeThemFromCache() {
+        // given - wolna odpowiedź, żeby drugie zapytanie trafiło na pierwsze w toku
+        AtomicInteger calls = new AtomicInteger();
+        server.createContext("/v1/chat/completions", exchange -> {
+            calls.incrementAndGet();
+            sleep(200);
+            respond(exchange, "application/json", MESSAGE_RESPONSE);
+        });
+
+        // when
+        var both = client.complete("classification", PROMPT).zipWith(client.complete("classification", PROMPT)).block();
+        String fromCache = client.complete("classification",
+                new AIGateway.Prompt("system", "  user\n", 0.7, 100)).block();
+
+        // then
+        assertThat(both.getT1()).isEqualTo("Temat");
+        assertThat(both.getT2()).isEqualTo("Temat");
+        assertThat(fromCache).isEqualTo("Temat");
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(stats("classification"))
+                .containsEntry("cacheHits", 2L)
+                .containsEntry("coalesced", 1L);
+    }
+
+    @Test
+    void shouldCallApiEveryTimeForNonCacheablePrompts() {
+        // given
+        AtomicInteger calls = new AtomicInteger();
+        server.createContext("/v1/chat/completions", exchange -> {
+            calls.incrementAndGet();
+            respond(exchange, "application/json", MESSAGE_RESPONSE);
+        });
+        AIGateway.Prompt creative = new AIGateway.Prompt("system", "user", 0.75, 100, false);
+
+        // when
+        client.complete("improve", creative).block();
+        client.complete("improve", creative).block();
+
+        // then
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(stats("improve")).containsEntry("cacheHits", 0L).containsEntry("requests", 2L);
+        assertThat(client.getStats()).containsEntry("cachedResponses", 0L);
+    }
+
+    @Test
+    void shouldRejectWhenBudgetAndQueueAreFull() throws Exception {
+        // given - jedno miejsce, bez kolejki; pierwsze zapytanie czeka na zwolnienie zatrzasku
+        config.setMaxConcurrency(1);
+        config.setMaxQueued(0);
+        client.shutdown();
+        client = createGateway();
+        CountDownLatch release = new CountDownLatch(1);
+        server.createContext("/v1/chat/completions", exchange -> {
+            await(release);
+            respond(exchange, "application/json", MESSAGE_RESPONSE);
+        });
+        CompletableFuture<String> first = client.complete("reply", PROMPT).toFuture();
+        waitUntilActive("reply");
+
+        // when / then
+        assertThatThrownBy(() -> client.complete("reply", new AIGateway.Prompt("system", "inny", 0.7, 100)).block())
+                .isInstanceOf(AIGateway.RejectedException.class);
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("Temat");
+        assertThat(stats("reply")).containsEntry("rejected", 1L);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void waitUntilActive(String feature) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> budgets = (Map<String, Object>) client.getStats().get("featureBudgets");
+            Map<String, Object> budget = (Map<String, Object>) budgets.get(feature);
+            if (budget != null && Integer.valueOf(1).equals(budget.get("active"))) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Request for " + feature + " never started");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> stats(String feature) {
+        return (Map<String, Object>) metrics.getStats().get(feature);
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
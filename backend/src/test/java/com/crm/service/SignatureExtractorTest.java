@@ -0,0 +1,59 @@
+package com.crm.service;
+
+import com.crm.service.SignatureExtractor.SignatureFields;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SignatureExtractor: przycinanie cytowanej historii i imię tylko z jednej linii
+ */
+class SignatureExtractorTest {
+
+    @Test
+    void ignoresSignatureInQuotedReply() {
+        String text = "Dzięki, odezwę się w przyszłym tygodniu.\n\nPozdrawiam\nAnna Nowak\n\n"
+                + "W dniu 12.03.2024 Jan Kowalski napisał:\n"
+                + "> Dzień dobry,\n> przesyłam ofertę.\n"
+                + "Jan Kowalski\nDyrektor Sprzedaży\nFirma: Dajano\ntel. 601 089 273\n";
+
+        assertThat(SignatureExtractor.extract(text)).isEqualTo(new SignatureFields("Anna Nowak", null, null, null));
+    }
+
+    @Test
+    void cutsAtEnglishQuoteHeader() {
+        String text = "Sounds good.\n\nOn Tue, 12 Mar 2024 John Smith wrote:\n> John Smith\n> CEO\n";
+
+        assertThat(SignatureExtractor.withoutQuotedReply(text)).isEqualTo("Sounds good.\n\n");
+    }
+
+    @Test
+    void keepsWholeTextWhenQuoteStartsAtBeginning() {
+        String text = "> Anna Nowak\n> Manager";
+
+        assertThat(SignatureExtractor.withoutQuotedReply(text)).isEqualTo(text);
+    }
+
+    @Test
+    void nameDoesNotSpanLines() {
+        assertThat(SignatureExtractor.findName("Potwierdzam termin.\nMarek\nNowak")).isNull();
+    }
+
+    @Test
+    void findsNameBeforeTitleOnNextLine() {
+        String text = "Proszę o kontakt.\n\nPiotr Zieliński\nDyrektor Handlowy\n";
+
+        SignatureFields fields = SignatureExtractor.extract(text);
+
+        assertThat(fields.name()).isEqualTo("Piotr Zieliński");
+        assertThat(fields.position()).isEqualTo("Dyrektor Handlowy");
+    }
+
+    @Test
+    void usesPositionOfMatchedNameNotItsFirstOccurrence() {
+        // Pierwsze "Anna Nowak" jest w odrzuconym kandydacie - kontekst liczony od dopasowania, nie od indexOf
+        String text = "Temat Anna Nowak spotkanie\nAnna Nowak";
+
+        assertThat(SignatureExtractor.findName(text)).isEqualTo("Anna Nowak");
+    }
+}
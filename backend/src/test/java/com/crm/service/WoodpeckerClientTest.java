@@ -0,0 +1,180 @@
+package com.crm.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * WoodpeckerClient na lokalnym serwerze HTTP (com.sun.net.httpserver) udającym Woodpecker API
+ */
+class WoodpeckerClientTest {
+
+    private HttpServer server;
+    private WoodpeckerClient client;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.start();
+        client = new WoodpeckerClient("http://127.0.0.1:" + server.getAddress().getPort(), "test-key",
+                Duration.ofSeconds(5), Duration.ofMillis(10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldStreamAllProspectPages() {
+        // given - 2 pełne strony i jedna niepełna
+        server.createContext("/v1/prospects", exchange -> {
+            requests.add(exchange.getRequestURI().getQuery());
+            int page = Integer.parseInt(queryParam(exchange, "page"));
+            int count = page < 3 ? WoodpeckerClient.PAGE_SIZE : 7;
+            int offset = (page - 1) * WoodpeckerClient.PAGE_SIZE;
+            respond(exchange, 200, IntStream.range(offset, offset + count)
+                    .mapToObj(i -> "{\"id\":" + i + ",\"email\":\"p" + i + "@example.com\"}")
+                    .collect(Collectors.joining(",", "[", "]")), null);
+        });
+
+        // when
+        List<Map<String, Object>> prospects = client.streamProspects(42L, "2024-01-31T10:00:00").collectList().block();
+
+        // then
+        assertThat(prospects).hasSize(2 * WoodpeckerClient.PAGE_SIZE + 7);
+        assertThat(requests).hasSize(3);
+        assertThat(requests.get(0)).contains("page=1", "campaigns_id=42", "updated=>2024-01-31T10:00:00");
+        assertThat(requests.get(2)).contains("page=3");
+    }
+
+    @Test
+    void shouldReturnNotModifiedForMatchingEtag() {
+        // given
+        server.createContext("/v1/campaign_list", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                respond(exchange, 304, null, null);
+            } else {
+                respond(exchange, 200, "[{\"id\":1,\"name\":\"Test\",\"status\":\"RUNNING\"}]", "\"v1\"");
+            }
+        });
+
+        // when
+        WoodpeckerClient.Conditional first = client.getCampaigns(null).block();
+        WoodpeckerClient.Conditional second = client.getCampaigns(first.etag()).block();
+
+        // then
+        assertThat(first.notModified()).isFalse();
+        assertThat(first.items()).hasSize(1);
+        assertThat(first.etag()).isEqualTo("\"v1\"");
+        assertThat(second.notModified()).isTrue();
+    }
+
+    @Test
+    void shouldRetryWhenRateLimited() {
+        // given - pierwsze zapytanie dostaje 429
+        AtomicInteger calls = new AtomicInteger();
+        server.createContext("/v1/mailboxes", exchange -> {
+            if (calls.incrementAndGet() == 1) {
+                respond(exchange, 429, "{\"error\":\"rate limit\"}", null);
+            } else {
+                respond(exchange, 200, "{\"mailboxes\":[{\"id\":5,\"email\":\"box@example.com\"}]}", null);
+            }
+        });
+
+        // when
+        WoodpeckerClient.Conditional result = client.getMailboxes(null).block();
+
+        // then
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(result.items()).extracting(m -> m.get("email")).containsExactly("box@example.com");
+    }
+
+    @Test
+    void shouldRetryAfterResponseTimeout() {
+        // given - pierwsza odpowiedź przychodzi po czasie dłuższym niż responseTimeout
+        AtomicInteger calls = new AtomicInteger();
+        server.createContext("/v1/mailboxes", exchange -> {
+            if (calls.incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            respond(exchange, 200, "{\"mailboxes\":[{\"id\":5,\"email\":\"box@example.com\"}]}", null);
+        });
+        WoodpeckerClient impatient = new WoodpeckerClient("http://127.0.0.1:" + server.getAddress().getPort(),
+                "test-key", Duration.ofMillis(200), Duration.ofMillis(10));
+
+        // when
+        WoodpeckerClient.Conditional result = impatient.getMailboxes(null).block();
+
+        // then
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(result.items()).extracting(m -> m.get("email")).containsExactly("box@example.com");
+    }
+
+    @Test
+    void shouldFallBackToV1WhenCampaignUnknownInV2() {
+        // given
+        server.createContext("/v2/campaigns/7", exchange -> respond(exchange, 404, "{}", null));
+        server.createContext("/v1/campaign_list", exchange ->
+                respond(exchange, 200, "[{\"id\":7,\"name\":\"Legacy\"}]", null));
+
+        // when
+        Map<String, Object> campaign = client.getCampaign(7L).block();
+
+        // then
+        assertThat(campaign).containsEntry("name", "Legacy");
+    }
+
+    private static String queryParam(HttpExchange exchange, String name) {
+        for (String pair : exchange.getRequestURI().getQuery().split("&")) {
+            String[] parts = pair.split("=", 2);
+            if (parts[0].equals(name)) {
+                return parts[1];
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body, String etag) throws IOException {
+        if (etag != null) {
+            exchange.getResponseHeaders().add("ETag", etag);
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -1,5 +1,5 @@
 import React, { useState, useEffect } from 'react';
-import api from '../services/api';
+import api, { emailsApi } from '../services/api';
 import AttachmentUploader from './AttachmentUploader';
 import RichTextEditor from './RichTextEditor';
 import './RichTextEditor.css';
@@ -13,6 +13,7 @@ const EmailModal = ({ email, onClose, onEmailUpdated }) => {
   const [isGenerating, setIsGenerating] = useState(false);
   const [error, setError] = useState(null);
   const [success, setSuccess] = useState(false);
+  const [fullContent, setFullContent] = useState(null);
 
   useEffect(() => {
     if (email && email.subject) {
@@ -23,8 +24,21 @@ const EmailModal = ({ email, onClose, onEmailUpdated }) => {
     }
   }, [email]);
 
+  // Duże treści nie przychodzą z listą - pobierz szczegóły maila
+  useEffect(() => {
+    setFullContent(null);
+    if (!email?.hasExternalContent || email.content) return;
+    let cancelled = false;
+    api.get(`/emails/${email.id}`)
+      .then((res) => { if (!cancelled) setFullContent(res.data?.content || null); })
+      .catch((err) => console.error('Error loading email content:', err));
+    return () => { cancelled = true; };
+  }, [email]);
+
   if (!email) return null;
 
+  const displayContent = email.content || fullContent || email.preview;
+
   const formatDate = (dateString) => {
     const date = new Date(dateString);
     return date.toLocaleDateString('pl-PL', {
@@ -59,8 +73,17 @@ const EmailModal = ({ email, onClose, onEmailUpdated }) => {
     setError(null);
 
     try {
-      const response = await api.post(`/emails/${email.id}/suggest-reply`);
-      setBody(response.data.suggestion);
+      // Treść pojawia się fragmentami w miarę generowania przez model
+      let suggestion = '';
+      setBody('');
+      await emailsApi.streamSuggestReply(email.id, {
+        onEvent: (name, data) => {
+          if (name === 'token') {
+            suggestion += data.text;
+            setBody(suggestion);
+          }
+        },
+      });
     } catch (err) {
       console.error('Error generating AI suggestion:', err);
       setError('Nie udało się wygenerować sugestii AI. Spróbuj ponownie.');
@@ -299,7 +322,7 @@ const EmailModal = ({ email, onClose, onEmailUpdated }) => {
               boxShadow: '0 1px 2px rgba(0, 0, 0, 0.02)'
             }}>
               {/* Sprawdź czy treść zawiera HTML */}
-              {(email.content || email.preview || '').includes('<') ? (
+              {(displayContent || '').includes('<') ? (
                 <div
                   className="email-html-content"
                   style={{
@@ -309,7 +332,7 @@ const EmailModal = ({ email, onClose, onEmailUpdated }) => {
                     wordBreak: 'break-word'
                   }}
                   dangerouslySetInnerHTML={{
-                    __html: (email.content || email.preview || 'Brak treści wiadomości')
+                    __html: (displayContent || 'Brak treści wiadomości')
                       .replace(/<script\b[^<]*(?:(?!<\/script>)<[^<]*)*<\/script>/gi, '')
                       .replace(/on\w+="[^"]*"/gi, '')
                       .replace(/on\w+='[^']*'/gi, '')
@@ -324,7 +347,7 @@ const EmailModal = ({ email, onClose, onEmailUpdated }) => {
                   whiteSpace: 'pre-wrap',
                   wordBreak: 'break-word'
                 }}>
-                  {email.content || email.preview || 'Brak treści wiadomości'}
+                  {displayContent || 'Brak treści wiadomości'}
                 </div>
               )}
             </div>
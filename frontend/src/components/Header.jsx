@@ -30,12 +30,19 @@ const Header = ({ onOpenSearch }) => {
     };
     fetchCurrentUser();
     
-    // Pobierz powiadomienia
-    fetchNotifications();
-    
-    // Odświeżaj powiadomienia co 30 sekund
-    const interval = setInterval(fetchNotifications, 30000);
-    return () => clearInterval(interval);
+    // Powiadomienia i licznik przychodzą strumieniem SSE - pełna lista pobierana
+    // przy (ponownym) połączeniu, żeby uzupełnić to, co ominęło nas w przerwie
+    const unsubscribe = notificationsApi.subscribe({
+      onOpen: fetchNotifications,
+      onEvent: (name, data) => {
+        if (name === 'notification') {
+          setNotifications(prev => [data, ...prev.filter(n => n.id !== data.id)].slice(0, 20));
+        } else if (name === 'unread-count') {
+          setUnreadCount(data?.unreadCount || 0);
+        }
+      },
+    });
+    return unsubscribe;
   }, []);
 
   // Zamknij dropdown przy kliknięciu poza nim
@@ -1,5 +1,5 @@
 import React, { useState, useEffect } from 'react';
-import api from '../services/api';
+import api, { emailsApi } from '../services/api';
 
 const ReplyComposer = ({ email, onClose, onSent }) => {
   const [subject, setSubject] = useState('');
@@ -24,8 +24,17 @@ const ReplyComposer = ({ email, onClose, onSent }) => {
     setError(null);
 
     try {
-      const response = await api.post(`/emails/${email.id}/suggest-reply`);
-      setBody(response.data.suggestion);
+      // Treść pojawia się fragmentami w miarę generowania przez model
+      let suggestion = '';
+      setBody('');
+      await emailsApi.streamSuggestReply(email.id, {
+        onEvent: (name, data) => {
+          if (name === 'token') {
+            suggestion += data.text;
+            setBody(suggestion);
+          }
+        },
+      });
     } catch (err) {
       console.error('Error generating AI suggestion:', err);
       setError('Nie udało się wygenerować sugestii AI. Spróbuj ponownie.');
@@ -422,14 +422,14 @@ const EmailMarketing = () => {
 
     setIsSending(true);
     try {
-      await emailTemplateService.sendNewsletter({
+      const result = await emailTemplateService.sendNewsletter({
         templateId: sendForm.templateId,
         accountId: Number(sendForm.accountId),
         tagIds: sendForm.selectedTags,
         subject: sendForm.subject
       });
       
-      toast.success(`Newsletter wysłany do ${recipientCount} odbiorców!`);
+      toast.success(`Wysyłka newslettera do ${result.totalContacts} odbiorców rozpoczęta (zadanie #${result.jobId})`);
       setShowSendModal(false);
       setSendStep(1);
     } catch (error) {
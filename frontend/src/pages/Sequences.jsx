@@ -365,6 +365,19 @@ const Sequences = () => {
   };
 
   // === AI Functions ===
+  // Treść kroku podmieniana fragmentami w miarę generowania przez model
+  const streamStepBody = async (stepIdx, startStream) => {
+    let text = '';
+    await startStream({
+      onEvent: (name, data) => {
+        if (name === 'token') {
+          text += data.text;
+          updateStep(stepIdx, 'body', text);
+        }
+      },
+    });
+  };
+
   const handleAIImprove = async (stepIdx) => {
     const step = sequenceForm.steps[stepIdx];
     if (!step.body || step.body.trim().length < 10) {
@@ -374,13 +387,13 @@ const Sequences = () => {
     
     setAiLoading(prev => ({ ...prev, [`improve_${stepIdx}`]: true }));
     try {
-      const response = await aiApi.improveEmail({
+      await streamStepBody(stepIdx, (handlers) => aiApi.streamImproveEmail({
         content: step.body,
         goal: 'sales',
         tone: 'professional'
-      });
-      updateStep(stepIdx, 'body', response.data.content);
+      }, handlers));
     } catch (err) {
+      updateStep(stepIdx, 'body', step.body);
       console.error('AI improve error:', err);
       alert('Błąd AI: ' + (err.response?.data?.message || err.message));
     } finally {
@@ -419,14 +432,14 @@ const Sequences = () => {
     
     setAiLoading(prev => ({ ...prev, [`personalize_${stepIdx}`]: true }));
     try {
-      const response = await aiApi.personalizeContent({
+      await streamStepBody(stepIdx, (handlers) => aiApi.streamPersonalizeContent({
         content: step.body,
         contactName: '{{firstName}}',
         company: '{{company}}',
         position: '{{position}}'
-      });
-      updateStep(stepIdx, 'body', response.data.content);
+      }, handlers));
     } catch (err) {
+      updateStep(stepIdx, 'body', step.body);
       console.error('AI personalize error:', err);
       alert('Błąd AI: ' + (err.response?.data?.message || err.message));
     } finally {
@@ -101,6 +101,8 @@ export const emailsApi = {
   getCompanies: () => api.get('/emails/companies'),
   fetchEmails: () => api.post('/email-fetch/fetch'),
   suggestReply: (id) => api.post(`/emails/${id}/suggest-reply`),
+  // Zdarzenia: "subject", "token" {text}, "done", "error" {message}
+  streamSuggestReply: (id, handlers) => streamPost(`/emails/${id}/suggest-reply/stream`, null, handlers),
   sendReply: (id, data) => api.post(`/emails/${id}/reply`, data),
 };
 
@@ -114,6 +116,7 @@ export const contactsApi = {
   update: (id, data) => api.put(`/contacts/${id}`, data),
   delete: (id) => api.delete(`/contacts/${id}`),
   syncFromEmails: () => api.post('/contacts/sync-from-emails'),
+  getSyncFromEmailsStatus: () => api.get('/contacts/sync-from-emails/status'),
   getContactEmails: (contactId) => api.get(`/contacts/${contactId}/emails`),
   
   // Lead Scoring
@@ -157,6 +160,10 @@ export const aiApi = {
   generateSubject: (data) => api.post('/ai/generate-subject', data),
   personalizeContent: (data) => api.post('/ai/personalize', data),
   generateVariants: (data) => api.post('/ai/generate-variants', data),
+  streamImproveEmail: (data, handlers) => streamPost('/ai/improve-email/stream', data, handlers),
+  streamPersonalizeContent: (data, handlers) => streamPost('/ai/personalize/stream', data, handlers),
+  streamVariants: (data, handlers) => streamPost('/ai/generate-variants/stream', data, handlers),
+  getMetrics: () => api.get('/ai/metrics'),
 };
 
 // Campaigns API
@@ -292,11 +299,124 @@ export const workflowsApi = {
 // Notifications API
 export const notificationsApi = {
   getAll: (limit = 50) => api.get('/notifications', { params: { limit } }),
-  getUnread: () => api.get('/notifications/unread'),
+  getUnread: (limit = 50, before) => api.get('/notifications/unread', { params: { limit, before } }),
   getUnreadCount: () => api.get('/notifications/count'),
   markAsRead: (id) => api.post(`/notifications/${id}/read`),
   markAllAsRead: () => api.post('/notifications/read-all'),
   delete: (id) => api.delete(`/notifications/${id}`),
+  subscribe: (handlers) => subscribeToStream('/notifications/stream', handlers),
+};
+
+// Blok zdarzenia SSE -> { name, data }; dane JSON są parsowane. Komentarz (heartbeat) -> null
+const parseEvent = (block) => {
+  let name = 'message';
+  const dataLines = [];
+  block.split('\n').forEach((line) => {
+    if (line.startsWith('event:')) name = line.slice(6).trim();
+    else if (line.startsWith('data:')) dataLines.push(line.slice(5).replace(/^ /, ''));
+  });
+  if (dataLines.length === 0) return null;
+  const raw = dataLines.join('\n');
+  let data = raw;
+  try {
+    data = JSON.parse(raw);
+  } catch {
+    // dane tekstowe
+  }
+  return { name, data };
+};
+
+// Czyta zdarzenia z odpowiedzi fetch aż do końca strumienia
+const readEvents = async (response, onEvent) => {
+  const reader = response.body.getReader();
+  const decoder = new TextDecoder();
+  let buffer = '';
+  for (;;) {
+    const { value, done } = await reader.read();
+    if (done) break;
+    buffer += decoder.decode(value, { stream: true }).replace(/\r\n?/g, '\n');
+    let boundary;
+    while ((boundary = buffer.indexOf('\n\n')) >= 0) {
+      const event = parseEvent(buffer.slice(0, boundary));
+      buffer = buffer.slice(boundary + 2);
+      if (event) onEvent?.(event.name, event.data);
+    }
+  }
+};
+
+// Jednorazowy strumień SSE dla POST (odpowiedzi AI generowane na bieżąco).
+// handlers: { onEvent(name, data), signal }. Promise kończy się po "done", zdarzenie "error" -> odrzucenie.
+const streamPost = async (path, body, { onEvent, signal } = {}) => {
+  const token = localStorage.getItem('token');
+  const response = await fetch(`${API_URL}${path}`, {
+    method: 'POST',
+    headers: {
+      Accept: 'text/event-stream',
+      'Content-Type': 'application/json',
+      ...(token ? { Authorization: `Bearer ${token}` } : {}),
+    },
+    body: body != null ? JSON.stringify(body) : undefined,
+    signal,
+  });
+  if (!response.ok || !response.body) {
+    throw new Error(`Stream error ${response.status}`);
+  }
+  let failure = null;
+  await readEvents(response, (name, data) => {
+    if (name === 'error') failure = new Error(data?.message || 'Stream error');
+    else onEvent?.(name, data);
+  });
+  if (failure) throw failure;
+};
+
+// Strumień SSE przez fetch - EventSource nie pozwala wysłać nagłówka Authorization.
+// handlers: { onEvent(name, data), onOpen() }. Po zerwaniu połączenia wznawia z rosnącym opóźnieniem.
+// Zwraca funkcję zamykającą strumień.
+const subscribeToStream = (path, { onEvent, onOpen } = {}) => {
+  let controller = null;
+  let closed = false;
+  let retryDelay = 1000;
+  let retryTimer = null;
+
+  const connect = async () => {
+    controller = new AbortController();
+    try {
+      const token = localStorage.getItem('token');
+      const response = await fetch(`${API_URL}${path}`, {
+        headers: {
+          Accept: 'text/event-stream',
+          ...(token ? { Authorization: `Bearer ${token}` } : {}),
+        },
+        signal: controller.signal,
+      });
+      if (response.status === 401 || response.status === 403) {
+        closed = true;
+        return;
+      }
+      if (!response.ok || !response.body) {
+        throw new Error(`Stream error ${response.status}`);
+      }
+
+      retryDelay = 1000;
+      onOpen?.();
+
+      await readEvents(response, onEvent);
+    } catch (error) {
+      if (closed) return;
+    }
+    if (!closed) {
+      retryTimer = setTimeout(connect, retryDelay);
+      retryDelay = Math.min(retryDelay * 2, 30000);
+    }
+  };
+
+  connect();
+
+  return () => {
+    closed = true;
+    clearTimeout(retryTimer);
+    controller?.abort();
+  };
 };
 
 // Deals API
@@ -73,6 +73,11 @@ const emailTemplateService = {
   sendNewsletter: async (data) => {
     const response = await api.post('/email-templates/send-newsletter', data);
     return response.data;
+  },
+
+  getNewsletterJob: async (jobId) => {
+    const response = await api.get(`/email-templates/newsletter-jobs/${jobId}`);
+    return response.data;
   }
 };
 